@@ -0,0 +1,200 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.config;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Snapshot of the creation metrics recorded for a specific bean,
+ * summed up over all instances created for it so far.
+ *
+ * <p>All times are given in nanoseconds. <i>Inclusive</i> figures cover the
+ * entire creation of the bean including the creation of all dependencies that
+ * got created on the way (its dependency subtree); <i>exclusive</i> figures
+ * leave out the time and allocations attributed to those nested creations.
+ * The individual phase times are inclusive.
+ *
+ * @see ConfigurableListableBeanFactory#setBeanCreationMetricsEnabled
+ * @see ConfigurableListableBeanFactory#getBeanCreationMetrics
+ */
+public class BeanCreationMetrics {
+
+    private final String beanName;
+
+    private final int creationCount;
+
+    private final long inclusiveTime;
+
+    private final long exclusiveTime;
+
+    private final long instantiationTime;
+
+    private final long populationTime;
+
+    private final long initializationTime;
+
+    private final long disposableRegistrationTime;
+
+    private final Map<String, Long> postProcessorTimes;
+
+    private final long allocatedBytes;
+
+    private final long exclusiveAllocatedBytes;
+
+    private final Set<String> dependencies;
+
+
+    /**
+     * Create a new BeanCreationMetrics snapshot.
+     * @param beanName the name of the bean
+     * @param creationCount the number of instances created
+     * @param inclusiveTime the total creation time including nested creations
+     * @param exclusiveTime the total creation time excluding nested creations
+     * @param instantiationTime the time spent instantiating the bean
+     * @param populationTime the time spent populating bean properties
+     * @param initializationTime the time spent initializing the bean,
+     * including all BeanPostProcessor callbacks and init methods
+     * @param disposableRegistrationTime the time spent registering the bean for destruction
+     * @param postProcessorTimes the time spent in initialization callbacks of each
+     * BeanPostProcessor, keyed by post-processor class name
+     * @param allocatedBytes the total number of bytes allocated during creation
+     * including nested creations, or -1 if not supported by the JVM
+     * @param exclusiveAllocatedBytes the total number of bytes allocated during
+     * creation excluding nested creations, or -1 if not supported by the JVM
+     * @param dependencies the names of the beans created during the creation of this bean
+     */
+    public BeanCreationMetrics(String beanName, int creationCount, long inclusiveTime, long exclusiveTime,
+            long instantiationTime, long populationTime, long initializationTime, long disposableRegistrationTime,
+            Map<String, Long> postProcessorTimes, long allocatedBytes, long exclusiveAllocatedBytes,
+            Set<String> dependencies) {
+
+        this.beanName = beanName;
+        this.creationCount = creationCount;
+        this.inclusiveTime = inclusiveTime;
+        this.exclusiveTime = exclusiveTime;
+        this.instantiationTime = instantiationTime;
+        this.populationTime = populationTime;
+        this.initializationTime = initializationTime;
+        this.disposableRegistrationTime = disposableRegistrationTime;
+        this.postProcessorTimes = Collections.unmodifiableMap(postProcessorTimes);
+        this.allocatedBytes = allocatedBytes;
+        this.exclusiveAllocatedBytes = exclusiveAllocatedBytes;
+        this.dependencies = Collections.unmodifiableSet(dependencies);
+    }
+
+
+    /**
+     * Return the name of the bean.
+     */
+    public String getBeanName() {
+        return this.beanName;
+    }
+
+    /**
+     * Return the number of instances of the bean created while metrics were enabled.
+     */
+    public int getCreationCount() {
+        return this.creationCount;
+    }
+
+    /**
+     * Return the total creation time, including the creation of dependencies.
+     */
+    public long getInclusiveTime() {
+        return this.inclusiveTime;
+    }
+
+    /**
+     * Return the total creation time, excluding the creation of dependencies.
+     */
+    public long getExclusiveTime() {
+        return this.exclusiveTime;
+    }
+
+    /**
+     * Return the total time spent instantiating the bean.
+     */
+    public long getInstantiationTime() {
+        return this.instantiationTime;
+    }
+
+    /**
+     * Return the total time spent populating the bean's properties.
+     */
+    public long getPopulationTime() {
+        return this.populationTime;
+    }
+
+    /**
+     * Return the total time spent initializing the bean: aware callbacks,
+     * BeanPostProcessors and init methods.
+     */
+    public long getInitializationTime() {
+        return this.initializationTime;
+    }
+
+    /**
+     * Return the total time spent registering the bean for destruction.
+     */
+    public long getDisposableRegistrationTime() {
+        return this.disposableRegistrationTime;
+    }
+
+    /**
+     * Return the total time spent in the initialization callbacks of each
+     * BeanPostProcessor, keyed by post-processor class name.
+     */
+    public Map<String, Long> getPostProcessorTimes() {
+        return this.postProcessorTimes;
+    }
+
+    /**
+     * Return the total number of bytes allocated by the creating thread,
+     * including the creation of dependencies.
+     * @return the number of bytes, or -1 if not supported by the JVM
+     */
+    public long getAllocatedBytes() {
+        return this.allocatedBytes;
+    }
+
+    /**
+     * Return the total number of bytes allocated by the creating thread,
+     * excluding the creation of dependencies.
+     * @return the number of bytes, or -1 if not supported by the JVM
+     */
+    public long getExclusiveAllocatedBytes() {
+        return this.exclusiveAllocatedBytes;
+    }
+
+    /**
+     * Return the names of the beans that have been created as part of this
+     * bean's creation, i.e. the roots of its dependency subtree.
+     */
+    public Set<String> getDependencies() {
+        return this.dependencies;
+    }
+
+
+    @Override
+    public String toString() {
+        return "BeanCreationMetrics for bean '" + this.beanName + "': " + this.creationCount +
+                " creation(s), " + this.inclusiveTime + " ns inclusive, " + this.exclusiveTime + " ns exclusive";
+    }
+
+}
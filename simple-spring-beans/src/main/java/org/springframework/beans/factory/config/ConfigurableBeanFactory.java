@@ -382,6 +382,8 @@ public interface ConfigurableBeanFactory extends HierarchicalBeanFactory, Single
      * Destroy the specified scoped bean in the current target scope, if any.
      * <p>Any exception that arises during destruction should be caught
      * and logged instead of propagated to the caller of this method.
+     * <p>For a bean in a {@link PooledScope}, this returns the instance borrowed
+     * by the current thread to its pool instead of destroying it.
      * @param beanName the name of the scoped bean
      */
     void destroyScopedBean(String beanName);
@@ -17,6 +17,7 @@
 package org.springframework.beans.factory.config;
 
 import java.util.Iterator;
+import java.util.List;
 
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.ListableBeanFactory;
@@ -158,4 +159,45 @@ public interface ConfigurableListableBeanFactory
      */
     void preInstantiateSingletons() throws BeansException;
 
+    /**
+     * Set whether to record creation metrics for each bean created by this factory,
+     * i.e. the time spent in each creation phase and BeanPostProcessor as well as
+     * the bytes allocated by the creating thread (where supported by the JVM).
+     * <p>Default is "false", which keeps the overhead of bean creation unchanged.
+     * @see #getBeanCreationMetrics
+     * @see #getSlowestBeanCreations
+     */
+    void setBeanCreationMetricsEnabled(boolean beanCreationMetricsEnabled);
+
+    /**
+     * Return whether creation metrics are recorded for each bean.
+     */
+    boolean isBeanCreationMetricsEnabled();
+
+    /**
+     * Return the creation metrics recorded for the given bean so far,
+     * summed up over all of its instances.
+     * <p><b>NOTE:</b> This method does <i>not</i> consider ancestor factories.
+     * @param beanName the name of the bean
+     * @return the metrics, or {@code null} if none have been recorded
+     */
+    BeanCreationMetrics getBeanCreationMetrics(String beanName);
+
+    /**
+     * Return the creation metrics of the slowest beans recorded so far, slowest first.
+     * <p>Ranking by inclusive time points at the most expensive dependency subtrees
+     * (e.g. the singletons that trigger most of the startup work), whereas ranking
+     * by exclusive time points at the beans that are expensive by themselves.
+     * @param maxResults the maximum number of beans to return
+     * @param inclusive whether to rank by inclusive ({@code true}) or exclusive
+     * ({@code false}) creation time
+     * @return the metrics of the slowest beans (never {@code null})
+     */
+    List<BeanCreationMetrics> getSlowestBeanCreations(int maxResults, boolean inclusive);
+
+    /**
+     * Discard all bean creation metrics recorded so far.
+     */
+    void clearBeanCreationMetrics();
+
 }
@@ -0,0 +1,561 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.config;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.core.NamedThreadLocal;
+import org.springframework.util.Assert;
+
+/**
+ * {@link Scope} implementation that keeps a bounded pool of instances per bean,
+ * for beans that are expensive to create but cannot be shared between concurrent
+ * users (parsers, codecs, buffer holders and the like).
+ *
+ * <p>Obtaining a pooled bean from the factory <i>borrows</i> an instance for the
+ * current thread: further lookups of the same bean on that thread return the same
+ * instance until it is given back through
+ * {@link ConfigurableBeanFactory#destroyScopedBean} (or {@link #remove} on this
+ * scope directly), which returns it to the pool instead of destroying it.
+ * New instances are only created if no idle instance is available and the pool
+ * has not reached its {@link #setMaxSize maximum size} yet; otherwise the caller
+ * waits for an instance to be returned, up to the configured {@link #setMaxWait
+ * maximum wait time}.
+ *
+ * <p>Idle instances that have not been used for longer than the configured
+ * {@link #setMaxIdleTime maximum idle time} are evicted and destroyed, except for
+ * the {@link #setMinSize minimum number} of instances that the pool keeps warm.
+ * Eviction happens whenever an instance is borrowed or returned; it may also be
+ * triggered explicitly through {@link #evictIdleInstances()}, e.g. from a scheduler.
+ * An {@link InstanceValidator} may be specified to check idle instances before
+ * handing them out.
+ *
+ * <p>Pooled instances are always created without explicit arguments being taken
+ * into account: an instance created for one set of arguments may be handed out
+ * for any subsequent lookup of the same bean.
+ *
+ * <p>This scope is not registered by default; register it through
+ * {@link ConfigurableBeanFactory#registerScope}, typically under the name
+ * {@link #SCOPE_POOLED}. Call {@link #destroy()} on shutdown in order to destroy
+ * all idle instances; instances still borrowed at that point get destroyed when
+ * they are returned.
+ *
+ * @see ConfigurableBeanFactory#registerScope
+ * @see ConfigurableBeanFactory#destroyScopedBean
+ */
+public class PooledScope implements Scope, DisposableBean {
+
+    /**
+     * Suggested scope identifier for this scope: "pooled".
+     */
+    public static final String SCOPE_POOLED = "pooled";
+
+    private static final Log logger = LogFactory.getLog(PooledScope.class);
+
+    private final ThreadLocal<Map<String, PooledInstance>> borrowedInstances =
+            new NamedThreadLocal<Map<String, PooledInstance>>("Borrowed pooled bean instances") {
+                @Override
+                protected Map<String, PooledInstance> initialValue() {
+                    return new HashMap<String, PooledInstance>();
+                }
+            };
+
+    /** The instance currently being created by this thread, if any */
+    private final ThreadLocal<PooledInstance> instanceInCreation =
+            new NamedThreadLocal<PooledInstance>("Pooled bean instance in creation");
+
+    /** Map from bean name to bean pool */
+    private final ConcurrentMap<String, BeanPool> pools = new ConcurrentHashMap<String, BeanPool>(16);
+
+    private int minSize = 0;
+
+    private int maxSize = 8;
+
+    private long maxWait = -1;
+
+    private long maxIdleTime = -1;
+
+    private InstanceValidator validator;
+
+
+    /**
+     * Set the minimum number of instances to keep per bean. The pool gets
+     * filled up to this size when a bean is first borrowed, and idle eviction
+     * never shrinks a pool below it. Default is 0.
+     */
+    public void setMinSize(int minSize) {
+        Assert.isTrue(minSize >= 0, "'minSize' must not be negative");
+        this.minSize = minSize;
+    }
+
+    /**
+     * Return the minimum number of instances to keep per bean.
+     */
+    public int getMinSize() {
+        return this.minSize;
+    }
+
+    /**
+     * Set the maximum number of instances per bean, including borrowed ones.
+     * Default is 8.
+     */
+    public void setMaxSize(int maxSize) {
+        Assert.isTrue(maxSize > 0, "'maxSize' must be positive");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Return the maximum number of instances per bean.
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Set the maximum time (in milliseconds) to wait for an instance to be
+     * returned when a pool is exhausted. A value of 0 fails immediately;
+     * a negative value waits indefinitely. Default is -1.
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Return the maximum time (in milliseconds) to wait for an instance.
+     */
+    public long getMaxWait() {
+        return this.maxWait;
+    }
+
+    /**
+     * Set the time (in milliseconds) after which an unused idle instance gets
+     * evicted from its pool and destroyed. A negative value disables eviction.
+     * Default is -1.
+     */
+    public void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    /**
+     * Return the time (in milliseconds) after which idle instances get evicted.
+     */
+    public long getMaxIdleTime() {
+        return this.maxIdleTime;
+    }
+
+    /**
+     * Set a validator to check idle instances with before handing them out.
+     * Instances that fail validation are destroyed and replaced.
+     */
+    public void setValidator(InstanceValidator validator) {
+        this.validator = validator;
+    }
+
+    /**
+     * Return the validator for idle instances, if any.
+     */
+    public InstanceValidator getValidator() {
+        return this.validator;
+    }
+
+
+    @Override
+    public Object get(String name, ObjectFactory<?> objectFactory) {
+        Map<String, PooledInstance> borrowed = this.borrowedInstances.get();
+        PooledInstance instance = borrowed.get(name);
+        if (instance == null) {
+            BeanPool pool = getPool(name);
+            instance = pool.borrow(objectFactory);
+            borrowed.put(name, instance);
+            pool.ensureMinSize(objectFactory);
+        }
+        return instance.bean;
+    }
+
+    /**
+     * Return the instance borrowed by the current thread to its pool.
+     * <p>Always returns {@code null} since the instance is kept for reuse,
+     * so that {@link ConfigurableBeanFactory#destroyScopedBean} does not
+     * destroy it.
+     */
+    @Override
+    public Object remove(String name) {
+        PooledInstance instance = this.borrowedInstances.get().remove(name);
+        if (instance != null) {
+            getPool(name).giveBack(instance);
+        }
+        return null;
+    }
+
+    @Override
+    public void registerDestructionCallback(String name, Runnable callback) {
+        PooledInstance instance = this.instanceInCreation.get();
+        if (instance != null && instance.beanName.equals(name)) {
+            instance.destructionCallback = callback;
+        }
+        else {
+            logger.warn("Ignoring destruction callback for pooled bean '" + name +
+                    "' registered outside of its creation");
+        }
+    }
+
+    @Override
+    public Object resolveContextualObject(String key) {
+        return null;
+    }
+
+    @Override
+    public String getConversationId() {
+        return null;
+    }
+
+
+    /**
+     * Evict and destroy all idle instances that exceeded the maximum idle time.
+     * <p>Eviction also happens on every borrow and return; this method is meant
+     * for pools that may stay untouched for a long time.
+     * @see #setMaxIdleTime
+     */
+    public void evictIdleInstances() {
+        for (BeanPool pool : this.pools.values()) {
+            pool.evictIdleInstances();
+        }
+    }
+
+    /**
+     * Return the number of instances of the given bean currently borrowed.
+     * @param beanName the name of the bean
+     */
+    public int getActiveCount(String beanName) {
+        BeanPool pool = this.pools.get(beanName);
+        return (pool != null ? pool.getActiveCount() : 0);
+    }
+
+    /**
+     * Return the number of idle instances of the given bean.
+     * @param beanName the name of the bean
+     */
+    public int getIdleCount(String beanName) {
+        BeanPool pool = this.pools.get(beanName);
+        return (pool != null ? pool.getIdleCount() : 0);
+    }
+
+    /**
+     * Destroy all idle instances and close all pools. Instances still borrowed
+     * at this point get destroyed when they are returned.
+     */
+    @Override
+    public void destroy() {
+        for (BeanPool pool : this.pools.values()) {
+            pool.close();
+        }
+    }
+
+
+    private BeanPool getPool(String beanName) {
+        BeanPool pool = this.pools.get(beanName);
+        if (pool == null) {
+            BeanPool newPool = new BeanPool(beanName);
+            pool = this.pools.putIfAbsent(beanName, newPool);
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+        return pool;
+    }
+
+    private PooledInstance createInstance(String beanName, ObjectFactory<?> objectFactory) {
+        PooledInstance instance = new PooledInstance(beanName);
+        PooledInstance outerInstance = this.instanceInCreation.get();
+        this.instanceInCreation.set(instance);
+        try {
+            instance.bean = objectFactory.getObject();
+        }
+        finally {
+            if (outerInstance != null) {
+                this.instanceInCreation.set(outerInstance);
+            }
+            else {
+                this.instanceInCreation.remove();
+            }
+        }
+        return instance;
+    }
+
+    private void destroyInstances(List<PooledInstance> instances) {
+        for (PooledInstance instance : instances) {
+            if (instance.destructionCallback != null) {
+                try {
+                    instance.destructionCallback.run();
+                }
+                catch (Throwable ex) {
+                    logger.warn("Destruction of pooled instance of bean '" + instance.beanName + "' failed", ex);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Strategy interface for checking idle instances before they get borrowed.
+     */
+    public interface InstanceValidator {
+
+        /**
+         * Check whether the given idle instance may still be used.
+         * @param beanName the name of the pooled bean
+         * @param instance the idle instance
+         * @return {@code true} if the instance may be handed out,
+         * {@code false} if it should be destroyed instead
+         */
+        boolean isValid(String beanName, Object instance);
+    }
+
+
+    /**
+     * A pooled bean instance along with its destruction callback.
+     */
+    private static class PooledInstance {
+
+        final String beanName;
+
+        Object bean;
+
+        Runnable destructionCallback;
+
+        long lastReturned;
+
+        PooledInstance(String beanName) {
+            this.beanName = beanName;
+        }
+    }
+
+
+    /**
+     * The pool of instances for a specific bean.
+     */
+    private class BeanPool {
+
+        private final String beanName;
+
+        /** Idle instances, most recently returned first */
+        private final Deque<PooledInstance> idleInstances = new ArrayDeque<PooledInstance>();
+
+        /** Number of idle, borrowed and in-creation instances */
+        private int totalCount;
+
+        private boolean closed;
+
+        BeanPool(String beanName) {
+            this.beanName = beanName;
+        }
+
+        public PooledInstance borrow(ObjectFactory<?> objectFactory) {
+            while (true) {
+                PooledInstance candidate;
+                List<PooledInstance> evicted;
+                boolean exhausted = false;
+                synchronized (this) {
+                    evicted = collectExpired(System.currentTimeMillis());
+                    long deadline = (maxWait > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait) : 0);
+                    while (!this.closed && this.idleInstances.isEmpty() && this.totalCount >= maxSize) {
+                        if (maxWait == 0) {
+                            break;
+                        }
+                        try {
+                            if (maxWait < 0) {
+                                wait();
+                            }
+                            else {
+                                long remaining = deadline - System.nanoTime();
+                                if (remaining <= 0) {
+                                    break;
+                                }
+                                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                            }
+                        }
+                        catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                    if (this.closed) {
+                        throw new IllegalStateException("PooledScope has been destroyed");
+                    }
+                    candidate = this.idleInstances.pollFirst();
+                    if (candidate == null) {
+                        if (this.totalCount >= maxSize) {
+                            exhausted = true;
+                        }
+                        else {
+                            this.totalCount++;
+                        }
+                    }
+                }
+                destroyInstances(evicted);
+                if (exhausted) {
+                    throw new BeanCreationException(this.beanName, "Pool exhausted: all " + maxSize +
+                            " instances are in use" + (maxWait > 0 ? " after waiting " + maxWait + " ms" : ""));
+                }
+                if (candidate == null) {
+                    return create(objectFactory);
+                }
+                if (validator == null || isValid(candidate)) {
+                    return candidate;
+                }
+                synchronized (this) {
+                    this.totalCount--;
+                    notifyAll();
+                }
+                destroyInstances(Collections.singletonList(candidate));
+            }
+        }
+
+        public void ensureMinSize(ObjectFactory<?> objectFactory) {
+            while (true) {
+                synchronized (this) {
+                    if (this.closed || this.totalCount >= Math.min(minSize, maxSize)) {
+                        return;
+                    }
+                    this.totalCount++;
+                }
+                try {
+                    giveBack(create(objectFactory));
+                }
+                catch (RuntimeException ex) {
+                    // The borrowed instance is fine - just don't pre-fill any further for now.
+                    logger.warn("Failed to pre-fill pool for bean '" + this.beanName + "'", ex);
+                    return;
+                }
+            }
+        }
+
+        public void giveBack(PooledInstance instance) {
+            List<PooledInstance> toDestroy;
+            synchronized (this) {
+                if (this.closed) {
+                    this.totalCount--;
+                    toDestroy = Collections.singletonList(instance);
+                }
+                else {
+                    instance.lastReturned = System.currentTimeMillis();
+                    this.idleInstances.addFirst(instance);
+                    toDestroy = collectExpired(instance.lastReturned);
+                    notifyAll();
+                }
+            }
+            destroyInstances(toDestroy);
+        }
+
+        public void evictIdleInstances() {
+            List<PooledInstance> evicted;
+            synchronized (this) {
+                evicted = collectExpired(System.currentTimeMillis());
+            }
+            destroyInstances(evicted);
+        }
+
+        public synchronized int getActiveCount() {
+            return this.totalCount - this.idleInstances.size();
+        }
+
+        public synchronized int getIdleCount() {
+            return this.idleInstances.size();
+        }
+
+        public void close() {
+            List<PooledInstance> idle;
+            synchronized (this) {
+                this.closed = true;
+                idle = new LinkedList<PooledInstance>(this.idleInstances);
+                this.totalCount -= idle.size();
+                this.idleInstances.clear();
+                notifyAll();
+            }
+            destroyInstances(idle);
+        }
+
+        private PooledInstance create(ObjectFactory<?> objectFactory) {
+            boolean success = false;
+            try {
+                PooledInstance instance = createInstance(this.beanName, objectFactory);
+                success = true;
+                return instance;
+            }
+            finally {
+                if (!success) {
+                    synchronized (this) {
+                        this.totalCount--;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+
+        private boolean isValid(PooledInstance instance) {
+            try {
+                return validator.isValid(this.beanName, instance.bean);
+            }
+            catch (RuntimeException ex) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Validation of pooled instance of bean '" + this.beanName + "' failed", ex);
+                }
+                return false;
+            }
+        }
+
+        /**
+         * Remove expired idle instances, oldest first, down to the minimum size.
+         * To be called with the pool monitor held; the returned instances need
+         * to be destroyed once the monitor has been released.
+         */
+        private List<PooledInstance> collectExpired(long now) {
+            if (maxIdleTime < 0 || this.idleInstances.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<PooledInstance> expired = new LinkedList<PooledInstance>();
+            Iterator<PooledInstance> it = this.idleInstances.descendingIterator();
+            while (it.hasNext() && this.totalCount > minSize) {
+                PooledInstance instance = it.next();
+                if (now - instance.lastReturned <= maxIdleTime) {
+                    break;
+                }
+                it.remove();
+                this.totalCount--;
+                expired.add(instance);
+            }
+            return expired;
+        }
+    }
+
+}
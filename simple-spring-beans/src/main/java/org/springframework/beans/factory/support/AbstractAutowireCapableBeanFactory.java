@@ -61,6 +61,7 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.ObjectFactory;
 import org.springframework.beans.factory.UnsatisfiedDependencyException;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.beans.factory.config.BeanCreationMetrics;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
@@ -152,6 +153,19 @@ public abstract class AbstractAutowireCapableBeanFactory extends AbstractBeanFac
     private final ConcurrentMap<Class<?>, PropertyDescriptor[]> filteredPropertyDescriptorsCache =
             new ConcurrentHashMap<Class<?>, PropertyDescriptor[]>(256);
 
+    /** Whether to apply compiled property injection plans to non-singleton beans */
+    private boolean propertyInjectionPlansEnabled = false;
+
+    /** Cache of compiled property injection plans for non-singleton beans: bean name -> plan */
+    private final ConcurrentMap<String, PropertyInjectionPlan> propertyInjectionPlans =
+            new ConcurrentHashMap<String, PropertyInjectionPlan>(64);
+
+    /** Whether to record bean creation metrics */
+    private volatile boolean beanCreationMetricsEnabled = false;
+
+    /** Recorder for bean creation metrics, only used if enabled */
+    private final BeanCreationRecorder beanCreationRecorder = new BeanCreationRecorder();
+
 
     /**
      * Create a new AbstractAutowireCapableBeanFactory.
@@ -176,7 +190,10 @@ public abstract class AbstractAutowireCapableBeanFactory extends AbstractBeanFac
     /**
      * Set the instantiation strategy to use for creating bean instances.
      * Default is CglibSubclassingInstantiationStrategy.
+     * <p>Consider a {@link MethodHandleInstantiationStrategy} for factories that
+     * create the same non-singleton beans over and over again.
      * @see CglibSubclassingInstantiationStrategy
+     * @see MethodHandleInstantiationStrategy
      */
     public void setInstantiationStrategy(InstantiationStrategy instantiationStrategy) {
         this.instantiationStrategy = instantiationStrategy;
@@ -263,6 +280,72 @@ public abstract class AbstractAutowireCapableBeanFactory extends AbstractBeanFac
         this.ignoredDependencyInterfaces.add(ifc);
     }
 
+    /**
+     * Set whether to populate repeatedly created (i.e. non-singleton) beans through
+     * property injection plans compiled from their first instance, instead of
+     * resolving and converting every property value through a BeanWrapper again.
+     * <p>Default is "false". Switch this on for factories that create many instances
+     * of the same prototypes, as long as their setters do not rely on the regular
+     * BeanWrapper property access (e.g. on custom property editors per instance).
+     */
+    public void setPropertyInjectionPlansEnabled(boolean propertyInjectionPlansEnabled) {
+        this.propertyInjectionPlansEnabled = propertyInjectionPlansEnabled;
+    }
+
+    /**
+     * Return whether non-singleton beans get populated through property injection plans.
+     */
+    public boolean isPropertyInjectionPlansEnabled() {
+        return this.propertyInjectionPlansEnabled;
+    }
+
+    /**
+     * Set whether to record creation metrics for each bean created by this factory:
+     * time spent in instantiation, property population, initialization (including
+     * each BeanPostProcessor) and destruction registration, plus the bytes allocated
+     * by the creating thread where the JVM supports it.
+     * <p>Default is "false". Recording has no effect on bean creation other than
+     * its own overhead; when disabled, that overhead is a single flag check per bean.
+     * @see #getBeanCreationMetrics
+     * @see #getSlowestBeanCreations
+     */
+    public void setBeanCreationMetricsEnabled(boolean beanCreationMetricsEnabled) {
+        this.beanCreationMetricsEnabled = beanCreationMetricsEnabled;
+    }
+
+    /**
+     * Return whether creation metrics are recorded for each bean.
+     */
+    public boolean isBeanCreationMetricsEnabled() {
+        return this.beanCreationMetricsEnabled;
+    }
+
+    /**
+     * Return the creation metrics recorded for the given bean so far.
+     * @param beanName the name of the bean
+     * @return the metrics, or {@code null} if none have been recorded
+     */
+    public BeanCreationMetrics getBeanCreationMetrics(String beanName) {
+        return this.beanCreationRecorder.getMetrics(beanName);
+    }
+
+    /**
+     * Return the creation metrics of the slowest beans recorded so far, slowest first.
+     * @param maxResults the maximum number of beans to return
+     * @param inclusive whether to rank beans by the time spent on their entire
+     * dependency subtree ({@code true}) or on the beans themselves ({@code false})
+     */
+    public List<BeanCreationMetrics> getSlowestBeanCreations(int maxResults, boolean inclusive) {
+        return this.beanCreationRecorder.getSlowest(maxResults, inclusive);
+    }
+
+    /**
+     * Discard all bean creation metrics recorded so far.
+     */
+    public void clearBeanCreationMetrics() {
+        this.beanCreationRecorder.clear();
+    }
+
     @Override
     public void copyConfigurationFrom(ConfigurableBeanFactory otherFactory) {
         super.copyConfigurationFrom(otherFactory);
@@ -271,6 +354,8 @@ public abstract class AbstractAutowireCapableBeanFactory extends AbstractBeanFac
                     (AbstractAutowireCapableBeanFactory) otherFactory;
             this.instantiationStrategy = otherAutowireFactory.instantiationStrategy;
             this.allowCircularReferences = otherAutowireFactory.allowCircularReferences;
+            this.propertyInjectionPlansEnabled = otherAutowireFactory.propertyInjectionPlansEnabled;
+            this.beanCreationMetricsEnabled = otherAutowireFactory.beanCreationMetricsEnabled;
             this.ignoredDependencyTypes.addAll(otherAutowireFactory.ignoredDependencyTypes);
             this.ignoredDependencyInterfaces.addAll(otherAutowireFactory.ignoredDependencyInterfaces);
         }
@@ -404,8 +489,13 @@ public abstract class AbstractAutowireCapableBeanFactory extends AbstractBeanFac
             throws BeansException {
 
         Object result = existingBean;
+        BeanCreationRecorder recorder = (this.beanCreationMetricsEnabled ? this.beanCreationRecorder : null);
         for (BeanPostProcessor beanProcessor : getBeanPostProcessors()) {
+            long start = (recorder != null ? System.nanoTime() : 0);
             result = beanProcessor.postProcessBeforeInitialization(result, beanName);
+            if (recorder != null) {
+                recorder.recordPostProcessor(beanName, beanProcessor, System.nanoTime() - start);
+            }
             if (result == null) {
                 return result;
             }
@@ -418,8 +508,13 @@ public abstract class AbstractAutowireCapableBeanFactory extends AbstractBeanFac
             throws BeansException {
 
         Object result = existingBean;
+        BeanCreationRecorder recorder = (this.beanCreationMetricsEnabled ? this.beanCreationRecorder : null);
         for (BeanPostProcessor beanProcessor : getBeanPostProcessors()) {
+            long start = (recorder != null ? System.nanoTime() : 0);
             result = beanProcessor.postProcessAfterInitialization(result, beanName);
+            if (recorder != null) {
+                recorder.recordPostProcessor(beanName, beanProcessor, System.nanoTime() - start);
+            }
             if (result == null) {
                 return result;
             }
@@ -479,7 +574,21 @@ public abstract class AbstractAutowireCapableBeanFactory extends AbstractBeanFac
                     "BeanPostProcessor before instantiation of bean failed", ex);
         }
 
-        Object beanInstance = doCreateBean(beanName, mbdToUse, args);
+        Object beanInstance;
+        if (this.beanCreationMetricsEnabled) {
+            BeanCreationRecorder.Frame frame = this.beanCreationRecorder.start(beanName);
+            boolean success = false;
+            try {
+                beanInstance = doCreateBean(beanName, mbdToUse, args);
+                success = true;
+            }
+            finally {
+                this.beanCreationRecorder.finish(frame, success);
+            }
+        }
+        else {
+            beanInstance = doCreateBean(beanName, mbdToUse, args);
+        }
         if (logger.isDebugEnabled()) {
             logger.debug("Finished creating instance of bean '" + beanName + "'");
         }
@@ -501,13 +610,22 @@ public abstract class AbstractAutowireCapableBeanFactory extends AbstractBeanFac
      * @see #autowireConstructor
      */
     protected Object doCreateBean(final String beanName, final RootBeanDefinition mbd, final Object[] args) {
+        BeanCreationRecorder.Frame frame =
+                (this.beanCreationMetricsEnabled ? this.beanCreationRecorder.currentFrame(beanName) : null);
+
         // Instantiate the bean.
         BeanWrapper instanceWrapper = null;
         if (mbd.isSingleton()) {
             instanceWrapper = this.factoryBeanInstanceCache.remove(beanName);
         }
         if (instanceWrapper == null) {
+            if (frame != null) {
+                frame.beginPhase();
+            }
             instanceWrapper = createBeanInstance(beanName, mbd, args);
+            if (frame != null) {
+                frame.endPhase(BeanCreationRecorder.INSTANTIATION);
+            }
         }
         final Object bean = (instanceWrapper != null ? instanceWrapper.getWrappedInstance() : null);
         Class<?> beanType = (instanceWrapper != null ? instanceWrapper.getWrappedClass() : null);
@@ -540,10 +658,20 @@ public abstract class AbstractAutowireCapableBeanFactory extends AbstractBeanFac
         // Initialize the bean instance.
         Object exposedObject = bean;
         try {
+            if (frame != null) {
+                frame.beginPhase();
+            }
             populateBean(beanName, mbd, instanceWrapper);
+            if (frame != null) {
+                frame.endPhase(BeanCreationRecorder.POPULATION);
+                frame.beginPhase();
+            }
             if (exposedObject != null) {
                 exposedObject = initializeBean(beanName, exposedObject, mbd);
             }
+            if (frame != null) {
+                frame.endPhase(BeanCreationRecorder.INITIALIZATION);
+            }
         }
         catch (Throwable ex) {
             if (ex instanceof BeanCreationException && beanName.equals(((BeanCreationException) ex).getBeanName())) {
@@ -583,7 +711,13 @@ public abstract class AbstractAutowireCapableBeanFactory extends AbstractBeanFac
 
         // Register bean as disposable.
         try {
+            if (frame != null) {
+                frame.beginPhase();
+            }
             registerDisposableBeanIfNecessary(beanName, bean, mbd);
+            if (frame != null) {
+                frame.endPhase(BeanCreationRecorder.DISPOSABLE_REGISTRATION);
+            }
         }
         catch (BeanDefinitionValidationException ex) {
             throw new BeanCreationException(mbd.getResourceDescription(), beanName, "Invalid destruction signature", ex);
@@ -1434,6 +1568,16 @@ public abstract class AbstractAutowireCapableBeanFactory extends AbstractBeanFac
             return;
         }
 
+        // Shortcut for repeatedly created beans: apply the pre-compiled injection plan, if any.
+        boolean planEligible = isPropertyInjectionPlanEligible(mbd, bw, pvs);
+        if (planEligible) {
+            PropertyInjectionPlan plan = this.propertyInjectionPlans.get(beanName);
+            if (plan != null && plan.hasSteps() && plan.isApplicableTo(pvs, bw)) {
+                plan.apply(this, beanName, (RootBeanDefinition) mbd, (BeanWrapperImpl) bw);
+                return;
+            }
+        }
+
         MutablePropertyValues mpvs = null;
         List<PropertyValue> original;
 
@@ -1517,6 +1661,27 @@ public abstract class AbstractAutowireCapableBeanFactory extends AbstractBeanFac
             throw new BeanCreationException(
                     mbd.getResourceDescription(), beanName, "Error setting property values", ex);
         }
+
+        // Compile an injection plan for subsequent instances of the same bean.
+        if (planEligible && mpvs != null) {
+            PropertyInjectionPlan plan = this.propertyInjectionPlans.get(beanName);
+            if (plan == null || !plan.isApplicableTo(mpvs, bw)) {
+                this.propertyInjectionPlans.put(beanName, PropertyInjectionPlan.compile(mpvs, bw));
+            }
+        }
+    }
+
+    /**
+     * Determine whether the given property values may be applied through a
+     * pre-compiled {@link PropertyInjectionPlan}: only if enabled, for non-singleton beans whose
+     * property values come straight from their merged bean definition, i.e. have not
+     * been modified through autowiring or by post-processors, and without a custom
+     * type converter or SecurityManager in place.
+     */
+    private boolean isPropertyInjectionPlanEligible(BeanDefinition mbd, BeanWrapper bw, PropertyValues pvs) {
+        return (this.propertyInjectionPlansEnabled && mbd instanceof RootBeanDefinition &&
+                !mbd.isSingleton() && pvs == mbd.getPropertyValues() && bw instanceof BeanWrapperImpl &&
+                getCustomTypeConverter() == null && System.getSecurityManager() == null);
     }
 
     /**
@@ -1732,6 +1897,24 @@ public abstract class AbstractAutowireCapableBeanFactory extends AbstractBeanFac
         this.factoryBeanInstanceCache.remove(beanName);
     }
 
+    /**
+     * Overridden to clear the property injection plan cache as well.
+     */
+    @Override
+    protected void clearMergedBeanDefinition(String beanName) {
+        super.clearMergedBeanDefinition(beanName);
+        this.propertyInjectionPlans.remove(beanName);
+    }
+
+    /**
+     * Overridden to clear the property injection plan cache as well.
+     */
+    @Override
+    protected void removeMergedBeanDefinition(String beanName) {
+        super.removeMergedBeanDefinition(beanName);
+        this.propertyInjectionPlans.remove(beanName);
+    }
+
 
     /**
      * Special DependencyDescriptor variant for Spring's good old autowire="byType" mode.
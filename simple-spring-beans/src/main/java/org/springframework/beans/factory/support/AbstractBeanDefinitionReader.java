@@ -18,6 +18,7 @@ package org.springframework.beans.factory.support;
 
 import java.io.IOException;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -59,6 +60,8 @@ public abstract class AbstractBeanDefinitionReader implements EnvironmentCapable
 
     private BeanNameGenerator beanNameGenerator = new DefaultBeanNameGenerator();
 
+    private Executor parsingExecutor;
+
 
     /**
      * Create a new AbstractBeanDefinitionReader for the given bean factory.
@@ -172,15 +175,51 @@ public abstract class AbstractBeanDefinitionReader implements EnvironmentCapable
         return this.beanNameGenerator;
     }
 
+    /**
+     * Set an Executor for parsing multiple resources concurrently.
+     * <p>If set, loading several resources or locations at once will parse them
+     * on this executor ahead of time, while bean definitions still get registered
+     * one resource after the other in the given order on the calling thread.
+     * Bean definition overriding, generated bean names and error reporting are
+     * therefore the same as without an executor.
+     * <p>Default is none, parsing each resource when it gets loaded.
+     * @see #preloadBeanDefinitions(String...)
+     * @see #preloadResource
+     */
+    public void setParsingExecutor(Executor parsingExecutor) {
+        this.parsingExecutor = parsingExecutor;
+    }
+
+    /**
+     * Return the Executor for parsing multiple resources concurrently, if any.
+     */
+    public Executor getParsingExecutor() {
+        return this.parsingExecutor;
+    }
+
 
     @Override
     public int loadBeanDefinitions(Resource... resources) throws BeanDefinitionStoreException {
         Assert.notNull(resources, "Resource array must not be null");
-        int counter = 0;
-        for (Resource resource : resources) {
-            counter += loadBeanDefinitions(resource);
+        boolean preloading = (this.parsingExecutor != null && resources.length > 1);
+        if (preloading) {
+            for (Resource resource : resources) {
+                preloadResource(resource, this.parsingExecutor);
+            }
+        }
+        try {
+            int counter = 0;
+            for (Resource resource : resources) {
+                counter += loadBeanDefinitions(resource);
+            }
+            return counter;
+        }
+        catch (RuntimeException ex) {
+            if (preloading) {
+                clearPreloadedResources();
+            }
+            throw ex;
         }
-        return counter;
     }
 
     @Override
@@ -247,11 +286,88 @@ public abstract class AbstractBeanDefinitionReader implements EnvironmentCapable
     @Override
     public int loadBeanDefinitions(String... locations) throws BeanDefinitionStoreException {
         Assert.notNull(locations, "Location array must not be null");
-        int counter = 0;
+        boolean preloading = (this.parsingExecutor != null && locations.length > 1);
+        if (preloading) {
+            preloadBeanDefinitions(locations);
+        }
+        try {
+            int counter = 0;
+            for (String location : locations) {
+                counter += loadBeanDefinitions(location);
+            }
+            return counter;
+        }
+        catch (RuntimeException ex) {
+            if (preloading) {
+                clearPreloadedResources();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Start parsing the resources at the given locations on the
+     * {@link #setParsingExecutor parsing executor}, if any, so that subsequent
+     * {@code loadBeanDefinitions} calls for the same locations can register
+     * their bean definitions without having to parse them first.
+     * <p>Locations are resolved on the calling thread. Locations that cannot be
+     * resolved and resources that fail to parse are left alone: the corresponding
+     * {@code loadBeanDefinitions} call will fail just like it would without preloading.
+     * Preloaded resources that do not get loaded are kept until
+     * {@link #clearPreloadedResources()} is called.
+     * @param locations the resource locations, to be loaded with the ResourceLoader
+     * (or ResourcePatternResolver) of this bean definition reader
+     * @see #loadBeanDefinitions(String)
+     */
+    public void preloadBeanDefinitions(String... locations) {
+        Assert.notNull(locations, "Location array must not be null");
+        ResourceLoader resourceLoader = getResourceLoader();
+        if (this.parsingExecutor == null || resourceLoader == null) {
+            return;
+        }
         for (String location : locations) {
-            counter += loadBeanDefinitions(location);
+            try {
+                if (resourceLoader instanceof ResourcePatternResolver) {
+                    for (Resource resource : ((ResourcePatternResolver) resourceLoader).getResources(location)) {
+                        preloadResource(resource, this.parsingExecutor);
+                    }
+                }
+                else {
+                    preloadResource(resourceLoader.getResource(location), this.parsingExecutor);
+                }
+            }
+            catch (IOException ex) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Not preloading bean definitions from location [" + location + "]: " + ex);
+                }
+            }
         }
-        return counter;
+    }
+
+    /**
+     * Start parsing the given resource on the given executor, keeping the result
+     * for the {@code loadBeanDefinitions} call for that resource.
+     * <p>Implementations must not register any bean definitions here, and must
+     * not throw exceptions for resources that fail to parse: such failures need to
+     * be reported by the subsequent {@code loadBeanDefinitions} call instead.
+     * <p>The default implementation does nothing, i.e. resources are parsed
+     * when they get loaded.
+     * @param resource the resource to parse
+     * @param executor the executor to parse the resource on
+     * @see #setParsingExecutor
+     */
+    protected void preloadResource(Resource resource, Executor executor) {
+    }
+
+    /**
+     * Discard any preloaded resources that have not been loaded,
+     * e.g. after loading has been aborted due to an error.
+     * <p>Callers of {@link #preloadBeanDefinitions} should invoke this once
+     * done loading, so that no parsed documents are kept if loading failed.
+     * <p>The default implementation does nothing.
+     * @see #preloadResource
+     */
+    public void clearPreloadedResources() {
     }
 
 }
@@ -27,7 +27,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -35,6 +34,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.BeanWrapper;
@@ -163,6 +163,10 @@ public abstract class AbstractBeanFactory extends FactoryBeanRegistrySupport imp
     private final Map<String, RootBeanDefinition> mergedBeanDefinitions =
             new ConcurrentHashMap<String, RootBeanDefinition>(256);
 
+    /** Map from bean name to the mutex guarding its merged RootBeanDefinition */
+    private final ConcurrentMap<String, Object> mergedBeanDefinitionMutexes =
+            new ConcurrentHashMap<String, Object>(256);
+
     /** Names of beans that have already been created at least once */
     private final Set<String> alreadyCreated =
             Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(256));
@@ -1208,74 +1212,123 @@ public abstract class AbstractBeanFactory extends FactoryBeanRegistrySupport imp
             String beanName, BeanDefinition bd, BeanDefinition containingBd)
             throws BeanDefinitionStoreException {
 
-        synchronized (this.mergedBeanDefinitions) {
-            RootBeanDefinition mbd = null;
+        if (containingBd != null) {
+            // Inner bean definitions are never cached: no need for coordination.
+            return mergeBeanDefinition(beanName, bd, containingBd);
+        }
 
-            // Check with full lock now in order to enforce the same merged instance.
-            if (containingBd == null) {
-                mbd = this.mergedBeanDefinitions.get(beanName);
+        // Only the thread merging a particular bean definition holds that bean's mutex,
+        // so that each merged definition gets computed at most once while readers of
+        // already merged definitions and merges of unrelated beans proceed unhindered.
+        while (true) {
+            Object mutex = getMergedBeanDefinitionMutex(beanName);
+            synchronized (mutex) {
+                if (this.mergedBeanDefinitionMutexes.get(beanName) != mutex) {
+                    // Mutex removed in the meantime: start over with the current one.
+                    continue;
+                }
+                // Check with full lock now in order to enforce the same merged instance.
+                RootBeanDefinition mbd = this.mergedBeanDefinitions.get(beanName);
+                if (mbd == null) {
+                    mbd = mergeBeanDefinition(beanName, bd, null);
+
+                    // Only cache the merged bean definition if we're already about to create an
+                    // instance of the bean, or at least have already created an instance before.
+                    if (isCacheBeanMetadata()) {
+                        this.mergedBeanDefinitions.put(beanName, mbd);
+                    }
+                }
+                return mbd;
             }
+        }
+    }
 
-            if (mbd == null) {
-                if (bd.getParentName() == null) {
-                    // Use copy of given root bean definition.
-                    if (bd instanceof RootBeanDefinition) {
-                        mbd = ((RootBeanDefinition) bd).cloneBeanDefinition();
-                    }
-                    else {
-                        mbd = new RootBeanDefinition(bd);
-                    }
+    /**
+     * Create a new merged RootBeanDefinition for the given bean, without
+     * consulting or populating the merged bean definition cache.
+     * @param beanName the name of the bean definition
+     * @param bd the original bean definition (Root/ChildBeanDefinition)
+     * @param containingBd the containing bean definition in case of inner bean,
+     * or {@code null} in case of a top-level bean
+     * @return the merged RootBeanDefinition for the given bean
+     * @throws BeanDefinitionStoreException in case of an invalid bean definition
+     */
+    private RootBeanDefinition mergeBeanDefinition(String beanName, BeanDefinition bd, BeanDefinition containingBd)
+            throws BeanDefinitionStoreException {
+
+        RootBeanDefinition mbd;
+        if (bd.getParentName() == null) {
+            // Use copy of given root bean definition.
+            if (bd instanceof RootBeanDefinition) {
+                mbd = ((RootBeanDefinition) bd).cloneBeanDefinition();
+            }
+            else {
+                mbd = new RootBeanDefinition(bd);
+            }
+        }
+        else {
+            // Child bean definition: needs to be merged with parent.
+            BeanDefinition pbd;
+            try {
+                String parentBeanName = transformedBeanName(bd.getParentName());
+                if (!beanName.equals(parentBeanName)) {
+                    pbd = getMergedBeanDefinition(parentBeanName);
                 }
                 else {
-                    // Child bean definition: needs to be merged with parent.
-                    BeanDefinition pbd;
-                    try {
-                        String parentBeanName = transformedBeanName(bd.getParentName());
-                        if (!beanName.equals(parentBeanName)) {
-                            pbd = getMergedBeanDefinition(parentBeanName);
-                        }
-                        else {
-                            if (getParentBeanFactory() instanceof ConfigurableBeanFactory) {
-                                pbd = ((ConfigurableBeanFactory) getParentBeanFactory()).getMergedBeanDefinition(parentBeanName);
-                            }
-                            else {
-                                throw new NoSuchBeanDefinitionException(bd.getParentName(),
-                                        "Parent name '" + bd.getParentName() + "' is equal to bean name '" + beanName +
-                                                "': cannot be resolved without an AbstractBeanFactory parent");
-                            }
-                        }
+                    if (getParentBeanFactory() instanceof ConfigurableBeanFactory) {
+                        pbd = ((ConfigurableBeanFactory) getParentBeanFactory()).getMergedBeanDefinition(parentBeanName);
                     }
-                    catch (NoSuchBeanDefinitionException ex) {
-                        throw new BeanDefinitionStoreException(bd.getResourceDescription(), beanName,
-                                "Could not resolve parent bean definition '" + bd.getParentName() + "'", ex);
+                    else {
+                        throw new NoSuchBeanDefinitionException(bd.getParentName(),
+                                "Parent name '" + bd.getParentName() + "' is equal to bean name '" + beanName +
+                                        "': cannot be resolved without an AbstractBeanFactory parent");
                     }
-                    // Deep copy with overridden values.
-                    mbd = new RootBeanDefinition(pbd);
-                    mbd.overrideFrom(bd);
                 }
+            }
+            catch (NoSuchBeanDefinitionException ex) {
+                throw new BeanDefinitionStoreException(bd.getResourceDescription(), beanName,
+                        "Could not resolve parent bean definition '" + bd.getParentName() + "'", ex);
+            }
+            // Deep copy with overridden values.
+            mbd = new RootBeanDefinition(pbd);
+            mbd.overrideFrom(bd);
+        }
 
-                // Set default singleton scope, if not configured before.
-                if (!StringUtils.hasLength(mbd.getScope())) {
-                    mbd.setScope(RootBeanDefinition.SCOPE_SINGLETON);
-                }
+        // Set default singleton scope, if not configured before.
+        if (!StringUtils.hasLength(mbd.getScope())) {
+            mbd.setScope(RootBeanDefinition.SCOPE_SINGLETON);
+        }
 
-                // A bean contained in a non-singleton bean cannot be a singleton itself.
-                // Let's correct this on the fly here, since this might be the result of
-                // parent-child merging for the outer bean, in which case the original inner bean
-                // definition will not have inherited the merged outer bean's singleton status.
-                if (containingBd != null && !containingBd.isSingleton() && mbd.isSingleton()) {
-                    mbd.setScope(containingBd.getScope());
-                }
+        // A bean contained in a non-singleton bean cannot be a singleton itself.
+        // Let's correct this on the fly here, since this might be the result of
+        // parent-child merging for the outer bean, in which case the original inner bean
+        // definition will not have inherited the merged outer bean's singleton status.
+        if (containingBd != null && !containingBd.isSingleton() && mbd.isSingleton()) {
+            mbd.setScope(containingBd.getScope());
+        }
 
-                // Only cache the merged bean definition if we're already about to create an
-                // instance of the bean, or at least have already created an instance before.
-                if (containingBd == null && isCacheBeanMetadata()) {
-                    this.mergedBeanDefinitions.put(beanName, mbd);
-                }
-            }
+        return mbd;
+    }
 
-            return mbd;
+    /**
+     * Return the mutex that guards the merged bean definition of the given bean.
+     * <p>Merging and invalidating a particular merged bean definition synchronizes
+     * on this mutex, whereas plain cache reads never do. The mutex gets removed
+     * along with the bean definition, so holders need to check that it is still
+     * current before caching a merged bean definition.
+     * @param beanName the name of the bean
+     * @return the mutex (never {@code null})
+     */
+    private Object getMergedBeanDefinitionMutex(String beanName) {
+        Object mutex = this.mergedBeanDefinitionMutexes.get(beanName);
+        if (mutex == null) {
+            Object newMutex = new Object();
+            mutex = this.mergedBeanDefinitionMutexes.putIfAbsent(beanName, newMutex);
+            if (mutex == null) {
+                mutex = newMutex;
+            }
         }
+        return mutex;
     }
 
     /**
@@ -1300,7 +1353,30 @@ public abstract class AbstractBeanFactory extends FactoryBeanRegistrySupport imp
      * @param beanName the bean name to clear the merged definition for
      */
     protected void clearMergedBeanDefinition(String beanName) {
-        this.mergedBeanDefinitions.remove(beanName);
+        // Wait for a concurrent merge of the same bean to complete,
+        // so that its outdated result cannot get cached afterwards.
+        synchronized (getMergedBeanDefinitionMutex(beanName)) {
+            this.mergedBeanDefinitions.remove(beanName);
+        }
+    }
+
+    /**
+     * Remove the merged bean definition for the specified bean along with
+     * the mutex guarding it, once the bean definition itself has been removed.
+     * @param beanName the bean name to remove the merged definition for
+     * @see #clearMergedBeanDefinition
+     */
+    protected void removeMergedBeanDefinition(String beanName) {
+        Object mutex = this.mergedBeanDefinitionMutexes.get(beanName);
+        if (mutex == null) {
+            // Never merged through a mutex: nothing to wait for, and no mutex to recreate.
+            this.mergedBeanDefinitions.remove(beanName);
+            return;
+        }
+        synchronized (mutex) {
+            clearMergedBeanDefinition(beanName);
+            this.mergedBeanDefinitionMutexes.remove(beanName, mutex);
+        }
     }
 
     /**
@@ -1309,13 +1385,21 @@ public abstract class AbstractBeanFactory extends FactoryBeanRegistrySupport imp
      * <p>Typically triggered after changes to the original bean definitions,
      * e.g. after applying a {@code BeanFactoryPostProcessor}. Note that metadata
      * for beans which have already been created at this point will be kept around.
+     * Mutexes of beans without a bean definition get pruned as well.
      * @since 4.2
      */
     public void clearMetadataCache() {
-        Iterator<String> mergedBeans = this.mergedBeanDefinitions.keySet().iterator();
-        while (mergedBeans.hasNext()) {
-            if (!isBeanEligibleForMetadataCaching(mergedBeans.next())) {
-                mergedBeans.remove();
+        for (String beanName : this.mergedBeanDefinitions.keySet()) {
+            if (!containsBeanDefinition(beanName)) {
+                removeMergedBeanDefinition(beanName);
+            }
+            else if (!isBeanEligibleForMetadataCaching(beanName)) {
+                clearMergedBeanDefinition(beanName);
+            }
+        }
+        for (String beanName : this.mergedBeanDefinitionMutexes.keySet()) {
+            if (!containsBeanDefinition(beanName)) {
+                removeMergedBeanDefinition(beanName);
             }
         }
     }
@@ -1503,7 +1587,7 @@ public abstract class AbstractBeanFactory extends FactoryBeanRegistrySupport imp
      */
     protected void markBeanAsCreated(String beanName) {
         if (!this.alreadyCreated.contains(beanName)) {
-            synchronized (this.mergedBeanDefinitions) {
+            synchronized (getMergedBeanDefinitionMutex(beanName)) {
                 if (!this.alreadyCreated.contains(beanName)) {
                     // Let the bean definition get re-merged now that we're actually creating
                     // the bean... just in case some of its metadata changed in the meantime.
@@ -1519,7 +1603,7 @@ public abstract class AbstractBeanFactory extends FactoryBeanRegistrySupport imp
      * @param beanName the name of the bean
      */
     protected void cleanupAfterBeanCreationFailure(String beanName) {
-        synchronized (this.mergedBeanDefinitions) {
+        synchronized (getMergedBeanDefinitionMutex(beanName)) {
             this.alreadyCreated.remove(beanName);
         }
     }
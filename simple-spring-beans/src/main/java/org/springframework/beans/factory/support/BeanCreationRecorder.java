@@ -0,0 +1,334 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.support;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.factory.config.BeanCreationMetrics;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.core.NamedThreadLocal;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Collects per-bean creation metrics for {@link AbstractAutowireCapableBeanFactory}:
+ * time spent in each phase of {@code doCreateBean}, time spent in each
+ * BeanPostProcessor, and the bytes allocated by the creating thread if the JVM
+ * exposes them through {@code com.sun.management.ThreadMXBean}.
+ *
+ * <p>Nested bean creations on the same thread are tracked as a stack of frames,
+ * so that the time and allocations of each dependency subtree can be told
+ * apart from a bean's own share.
+ *
+ * @see AbstractAutowireCapableBeanFactory#setBeanCreationMetricsEnabled
+ */
+class BeanCreationRecorder {
+
+    static final int INSTANTIATION = 0;
+
+    static final int POPULATION = 1;
+
+    static final int INITIALIZATION = 2;
+
+    static final int DISPOSABLE_REGISTRATION = 3;
+
+    private static final Object threadMXBean;
+
+    private static final Method getThreadAllocatedBytesMethod;
+
+    static {
+        Object mxBean = null;
+        Method method = null;
+        try {
+            Class<?> mxBeanType = ClassUtils.forName("com.sun.management.ThreadMXBean",
+                    BeanCreationRecorder.class.getClassLoader());
+            mxBean = ManagementFactory.getThreadMXBean();
+            if (mxBeanType.isInstance(mxBean)) {
+                Method supported = mxBeanType.getMethod("isThreadAllocatedMemorySupported");
+                if ((Boolean) supported.invoke(mxBean)) {
+                    method = mxBeanType.getMethod("getThreadAllocatedBytes", long.class);
+                }
+            }
+        }
+        catch (Throwable ex) {
+            // Not a HotSpot-style JVM: no allocation tracking.
+            method = null;
+        }
+        threadMXBean = (method != null ? mxBean : null);
+        getThreadAllocatedBytesMethod = method;
+    }
+
+
+    private final ThreadLocal<Frame> currentFrame =
+            new NamedThreadLocal<Frame>("Bean creation metrics frame");
+
+    private final ConcurrentMap<String, Accumulator> accumulators =
+            new ConcurrentHashMap<String, Accumulator>(256);
+
+
+    /**
+     * Start recording the creation of the given bean on the current thread.
+     * @param beanName the name of the bean
+     * @return the frame to pass to {@link #finish}
+     */
+    public Frame start(String beanName) {
+        Frame frame = new Frame(beanName, this.currentFrame.get(), currentThreadAllocatedBytes());
+        this.currentFrame.set(frame);
+        return frame;
+    }
+
+    /**
+     * Finish recording the creation of a bean.
+     * @param frame the frame returned from {@link #start}
+     * @param success whether the bean has been created successfully
+     * (failed creations are not recorded but still count towards the caller)
+     */
+    public void finish(Frame frame, boolean success) {
+        long inclusiveTime = System.nanoTime() - frame.startTime;
+        long allocatedBytes = (frame.startAllocatedBytes >= 0 ?
+                currentThreadAllocatedBytes() - frame.startAllocatedBytes : -1);
+        Frame parent = frame.parent;
+        if (parent != null) {
+            this.currentFrame.set(parent);
+            parent.childTime += inclusiveTime;
+            parent.childAllocatedBytes += Math.max(allocatedBytes, 0);
+            if (success) {
+                parent.addDependency(frame.beanName);
+            }
+        }
+        else {
+            this.currentFrame.remove();
+        }
+        if (success) {
+            Accumulator accumulator = this.accumulators.get(frame.beanName);
+            if (accumulator == null) {
+                Accumulator newAccumulator = new Accumulator(frame.beanName);
+                accumulator = this.accumulators.putIfAbsent(frame.beanName, newAccumulator);
+                if (accumulator == null) {
+                    accumulator = newAccumulator;
+                }
+            }
+            accumulator.add(frame, inclusiveTime, allocatedBytes);
+        }
+    }
+
+    /**
+     * Return the frame for the given bean if it is the innermost creation
+     * currently being recorded on this thread, or {@code null} otherwise.
+     */
+    public Frame currentFrame(String beanName) {
+        Frame frame = this.currentFrame.get();
+        return (frame != null && frame.beanName.equals(beanName) ? frame : null);
+    }
+
+    /**
+     * Record the time spent in an initialization callback of the given
+     * post-processor, if the given bean is currently being recorded.
+     */
+    public void recordPostProcessor(String beanName, BeanPostProcessor postProcessor, long time) {
+        Frame frame = this.currentFrame.get();
+        if (frame != null && frame.beanName.equals(beanName)) {
+            frame.addPostProcessorTime(postProcessor.getClass().getName(), time);
+        }
+    }
+
+    /**
+     * Return the metrics for the given bean, or {@code null} if none recorded.
+     */
+    public BeanCreationMetrics getMetrics(String beanName) {
+        Accumulator accumulator = this.accumulators.get(beanName);
+        return (accumulator != null ? accumulator.toMetrics() : null);
+    }
+
+    /**
+     * Return the metrics for the slowest beans, slowest first.
+     * @param maxResults the maximum number of beans to return
+     * @param inclusive whether to rank by inclusive rather than exclusive time
+     */
+    public List<BeanCreationMetrics> getSlowest(int maxResults, final boolean inclusive) {
+        List<BeanCreationMetrics> all = new ArrayList<BeanCreationMetrics>(this.accumulators.size());
+        for (Accumulator accumulator : this.accumulators.values()) {
+            all.add(accumulator.toMetrics());
+        }
+        Collections.sort(all, new Comparator<BeanCreationMetrics>() {
+            @Override
+            public int compare(BeanCreationMetrics m1, BeanCreationMetrics m2) {
+                long time1 = (inclusive ? m1.getInclusiveTime() : m1.getExclusiveTime());
+                long time2 = (inclusive ? m2.getInclusiveTime() : m2.getExclusiveTime());
+                return (time1 > time2 ? -1 : (time1 == time2 ? 0 : 1));
+            }
+        });
+        return (all.size() > maxResults ? new ArrayList<BeanCreationMetrics>(all.subList(0, maxResults)) : all);
+    }
+
+    /**
+     * Discard all metrics recorded so far.
+     */
+    public void clear() {
+        this.accumulators.clear();
+    }
+
+
+    private static long currentThreadAllocatedBytes() {
+        if (getThreadAllocatedBytesMethod == null) {
+            return -1;
+        }
+        Object result = ReflectionUtils.invokeMethod(
+                getThreadAllocatedBytesMethod, threadMXBean, Thread.currentThread().getId());
+        return (Long) result;
+    }
+
+
+    /**
+     * The recording state for a single bean creation in progress.
+     */
+    static class Frame {
+
+        private final String beanName;
+
+        private final Frame parent;
+
+        private final long startTime;
+
+        private final long startAllocatedBytes;
+
+        private final long[] phaseTimes = new long[4];
+
+        private long phaseStart;
+
+        private long childTime;
+
+        private long childAllocatedBytes;
+
+        private Map<String, Long> postProcessorTimes;
+
+        private Set<String> dependencies;
+
+        Frame(String beanName, Frame parent, long startAllocatedBytes) {
+            this.beanName = beanName;
+            this.parent = parent;
+            this.startAllocatedBytes = startAllocatedBytes;
+            this.startTime = System.nanoTime();
+            this.phaseStart = this.startTime;
+        }
+
+        /**
+         * Mark the beginning of a phase.
+         */
+        public void beginPhase() {
+            this.phaseStart = System.nanoTime();
+        }
+
+        /**
+         * Mark the end of the given phase, as begun with {@link #beginPhase()}.
+         */
+        public void endPhase(int phase) {
+            this.phaseTimes[phase] += System.nanoTime() - this.phaseStart;
+        }
+
+        private void addPostProcessorTime(String postProcessorName, long time) {
+            if (this.postProcessorTimes == null) {
+                this.postProcessorTimes = new LinkedHashMap<String, Long>(8);
+            }
+            Long previous = this.postProcessorTimes.get(postProcessorName);
+            this.postProcessorTimes.put(postProcessorName, (previous != null ? previous + time : time));
+        }
+
+        private void addDependency(String dependencyName) {
+            if (this.dependencies == null) {
+                this.dependencies = new LinkedHashSet<String>(8);
+            }
+            this.dependencies.add(dependencyName);
+        }
+    }
+
+
+    /**
+     * Metrics for a specific bean, summed up over all its creations.
+     */
+    private static class Accumulator {
+
+        private final String beanName;
+
+        private int creationCount;
+
+        private long inclusiveTime;
+
+        private long exclusiveTime;
+
+        private final long[] phaseTimes = new long[4];
+
+        private final Map<String, Long> postProcessorTimes = new LinkedHashMap<String, Long>(8);
+
+        private long allocatedBytes;
+
+        private long exclusiveAllocatedBytes;
+
+        private final Set<String> dependencies = new LinkedHashSet<String>(8);
+
+        Accumulator(String beanName) {
+            this.beanName = beanName;
+        }
+
+        public synchronized void add(Frame frame, long inclusiveTime, long allocatedBytes) {
+            this.creationCount++;
+            this.inclusiveTime += inclusiveTime;
+            this.exclusiveTime += inclusiveTime - frame.childTime;
+            for (int i = 0; i < this.phaseTimes.length; i++) {
+                this.phaseTimes[i] += frame.phaseTimes[i];
+            }
+            if (frame.postProcessorTimes != null) {
+                for (Map.Entry<String, Long> entry : frame.postProcessorTimes.entrySet()) {
+                    Long previous = this.postProcessorTimes.get(entry.getKey());
+                    this.postProcessorTimes.put(entry.getKey(),
+                            (previous != null ? previous + entry.getValue() : entry.getValue()));
+                }
+            }
+            if (allocatedBytes >= 0) {
+                this.allocatedBytes += allocatedBytes;
+                this.exclusiveAllocatedBytes += allocatedBytes - frame.childAllocatedBytes;
+            }
+            else {
+                this.allocatedBytes = -1;
+                this.exclusiveAllocatedBytes = -1;
+            }
+            if (frame.dependencies != null) {
+                this.dependencies.addAll(frame.dependencies);
+            }
+        }
+
+        public synchronized BeanCreationMetrics toMetrics() {
+            return new BeanCreationMetrics(this.beanName, this.creationCount, this.inclusiveTime,
+                    this.exclusiveTime, this.phaseTimes[INSTANTIATION], this.phaseTimes[POPULATION],
+                    this.phaseTimes[INITIALIZATION], this.phaseTimes[DISPOSABLE_REGISTRATION],
+                    new LinkedHashMap<String, Long>(this.postProcessorTimes), this.allocatedBytes,
+                    this.exclusiveAllocatedBytes, new LinkedHashSet<String>(this.dependencies));
+        }
+    }
+
+}
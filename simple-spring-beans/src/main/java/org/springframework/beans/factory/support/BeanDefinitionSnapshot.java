@@ -0,0 +1,717 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.support;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.StreamCorruptedException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.BeanMetadataAttribute;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.PropertyValue;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionHolder;
+import org.springframework.beans.factory.config.ConstructorArgumentValues;
+import org.springframework.beans.factory.config.RuntimeBeanNameReference;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Compact binary snapshot of the bean definitions registered in a
+ * {@link DefaultListableBeanFactory}: bean definitions in registration order
+ * plus aliases, keyed by the content hashes of the resources they were loaded from.
+ * Allows for skipping the parsing of unchanged configuration files on restart.
+ *
+ * <p>Snapshots cover the metadata that declarative bean definition formats such
+ * as XML produce: {@link GenericBeanDefinition}s and plain {@link RootBeanDefinition}s
+ * with typed string values, bean references, inner beans, managed collections
+ * and lookup method overrides. GenericBeanDefinition subclasses are written as plain
+ * GenericBeanDefinitions, unless they carry annotation metadata. Note that writing
+ * a snapshot parses all deferred XML bean definitions (see
+ * {@link org.springframework.beans.factory.xml.XmlBeanDefinitionReader#setDeferLazyInitBeanParsing}),
+ * whereas definitions read from a snapshot are complete from the start. Factories holding anything else (e.g. qualifiers,
+ * replaced methods, non-String metadata attributes or custom value objects) cannot
+ * be written to a snapshot. Source objects attached to definitions are not retained.
+ *
+ * <p>A snapshot is only considered valid for the same key and as long as all of
+ * its source resources are still available with unchanged content.
+ *
+ * @see org.springframework.beans.factory.xml.XmlBeanDefinitionReader#getLoadedResources()
+ */
+public abstract class BeanDefinitionSnapshot {
+
+    private static final int MAGIC = 0x53424453;
+
+    private static final int VERSION = 1;
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final byte KIND_GENERIC = 0;
+
+    private static final byte KIND_ROOT = 1;
+
+    private static final byte VALUE_NULL = 0;
+
+    private static final byte VALUE_STRING = 1;
+
+    private static final byte VALUE_TYPED_STRING = 2;
+
+    private static final byte VALUE_BEAN_REFERENCE = 3;
+
+    private static final byte VALUE_BEAN_NAME_REFERENCE = 4;
+
+    private static final byte VALUE_BEAN_DEFINITION_HOLDER = 5;
+
+    private static final byte VALUE_BEAN_DEFINITION = 6;
+
+    private static final byte VALUE_LIST = 7;
+
+    private static final byte VALUE_SET = 8;
+
+    private static final byte VALUE_MAP = 9;
+
+    private static final byte VALUE_ARRAY = 10;
+
+    private static final byte VALUE_PROPERTIES = 11;
+
+    private static final byte VALUE_BOOLEAN = 12;
+
+
+    /**
+     * Write a snapshot of the bean definitions in the given factory.
+     * <p>The snapshot gets written to a temporary file first which then replaces
+     * the target file, so that concurrent readers never see a partial snapshot.
+     * @param file the snapshot file to write
+     * @param key the key identifying the configuration (e.g. config locations
+     * and active profiles) that the snapshot is valid for
+     * @param sources all resources that the bean definitions have been loaded from
+     * @param beanFactory the bean factory holding the bean definitions
+     * @throws NotSerializableException if the factory holds metadata that
+     * cannot be represented in a snapshot
+     * @throws IOException in case of I/O errors
+     */
+    public static void write(File file, String key, Collection<Resource> sources,
+            DefaultListableBeanFactory beanFactory) throws IOException {
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory for bean definition snapshot: " + parent);
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        boolean success = false;
+        try {
+            Encoder encoder = new Encoder(out);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            encoder.writeString(key);
+            out.writeInt(sources.size());
+            for (Resource source : sources) {
+                encoder.writeString(source.getURL().toExternalForm());
+                byte[] hash = hash(source.getInputStream());
+                out.writeShort(hash.length);
+                out.write(hash);
+            }
+            String[] beanNames = beanFactory.getBeanDefinitionNames();
+            Map<String, String> aliases = new LinkedHashMap<String, String>();
+            out.writeInt(beanNames.length);
+            for (String beanName : beanNames) {
+                encoder.writeString(beanName);
+                encoder.writeBeanDefinition(beanFactory.getBeanDefinition(beanName));
+                for (String alias : beanFactory.getAliases(beanName)) {
+                    aliases.put(alias, beanName);
+                }
+            }
+            out.writeInt(aliases.size());
+            for (Map.Entry<String, String> entry : aliases.entrySet()) {
+                encoder.writeString(entry.getKey());
+                encoder.writeString(entry.getValue());
+            }
+            out.close();
+            success = true;
+        }
+        finally {
+            if (!success) {
+                try {
+                    out.close();
+                }
+                catch (IOException ex) {
+                    // ignore - the original exception gets propagated
+                }
+                tempFile.delete();
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            tempFile.delete();
+            throw new IOException("Could not replace bean definition snapshot " + file);
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Could not move bean definition snapshot into place: " + file);
+        }
+    }
+
+    /**
+     * Register the bean definitions and aliases from the given snapshot with
+     * the given factory, provided that the snapshot has been written for the
+     * same key and that all of its source resources are unchanged.
+     * <p>Nothing gets registered unless the snapshot is valid and complete.
+     * @param file the snapshot file to read
+     * @param key the key identifying the current configuration
+     * @param beanFactory the bean factory to register the bean definitions with
+     * @return the number of bean definitions registered,
+     * or -1 if the snapshot does not exist or is out of date
+     * @throws IOException in case of I/O errors or a corrupt snapshot
+     */
+    public static int restore(File file, String key, DefaultListableBeanFactory beanFactory) throws IOException {
+        if (!file.isFile()) {
+            return -1;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return -1;
+            }
+            Decoder decoder = new Decoder(in);
+            if (!key.equals(decoder.readString())) {
+                return -1;
+            }
+            int sourceCount = in.readInt();
+            for (int i = 0; i < sourceCount; i++) {
+                String url = decoder.readString();
+                byte[] expectedHash = new byte[in.readUnsignedShort()];
+                in.readFully(expectedHash);
+                Resource source = new UrlResource(new URL(url));
+                if (!source.exists() || !Arrays.equals(expectedHash, hash(source.getInputStream()))) {
+                    return -1;
+                }
+            }
+            int beanCount = in.readInt();
+            Map<String, BeanDefinition> beanDefinitions = new LinkedHashMap<String, BeanDefinition>(beanCount);
+            for (int i = 0; i < beanCount; i++) {
+                String beanName = decoder.readString();
+                beanDefinitions.put(beanName, decoder.readBeanDefinition());
+            }
+            int aliasCount = in.readInt();
+            Map<String, String> aliases = new LinkedHashMap<String, String>(aliasCount);
+            for (int i = 0; i < aliasCount; i++) {
+                aliases.put(decoder.readString(), decoder.readString());
+            }
+            for (Map.Entry<String, BeanDefinition> entry : beanDefinitions.entrySet()) {
+                beanFactory.registerBeanDefinition(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, String> entry : aliases.entrySet()) {
+                beanFactory.registerAlias(entry.getValue(), entry.getKey());
+            }
+            return beanCount;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static byte[] hash(InputStream is) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            try {
+                byte[] buffer = new byte[StreamUtils.BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = is.read(buffer)) != -1) {
+                    digest.update(buffer, 0, bytesRead);
+                }
+            }
+            finally {
+                is.close();
+            }
+            return digest.digest();
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Could not find MessageDigest with algorithm \"" +
+                    DIGEST_ALGORITHM + "\"", ex);
+        }
+    }
+
+
+    /**
+     * Writes bean definition metadata, sharing repeated strings.
+     */
+    private static class Encoder {
+
+        private final DataOutputStream out;
+
+        private final Map<String, Integer> strings = new HashMap<String, Integer>(256);
+
+        Encoder(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeString(String value) throws IOException {
+            if (value == null) {
+                this.out.writeInt(-1);
+                return;
+            }
+            Integer index = this.strings.get(value);
+            if (index != null) {
+                this.out.writeInt(-(index + 2));
+                return;
+            }
+            byte[] bytes = value.getBytes("UTF-8");
+            this.out.writeInt(bytes.length);
+            this.out.write(bytes);
+            this.strings.put(value, this.strings.size());
+        }
+
+        void writeStrings(String[] values) throws IOException {
+            if (values == null) {
+                this.out.writeInt(-1);
+                return;
+            }
+            this.out.writeInt(values.length);
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+
+        void writeBeanDefinition(BeanDefinition definition) throws IOException {
+            if (definition instanceof GenericBeanDefinition && !(definition instanceof AnnotatedBeanDefinition)) {
+                // Includes lazily parsed XML definitions, which get fully parsed here.
+                this.out.writeByte(KIND_GENERIC);
+            }
+            else if (definition.getClass() == RootBeanDefinition.class &&
+                    ((RootBeanDefinition) definition).getDecoratedDefinition() == null &&
+                    ((RootBeanDefinition) definition).getQualifiedElement() == null &&
+                    ((RootBeanDefinition) definition).getTargetType() == null) {
+                this.out.writeByte(KIND_ROOT);
+            }
+            else {
+                throw new NotSerializableException("Unsupported bean definition: " + definition);
+            }
+            AbstractBeanDefinition bd = (AbstractBeanDefinition) definition;
+            if (!bd.getQualifiers().isEmpty()) {
+                throw new NotSerializableException("Qualifiers not supported: " + bd);
+            }
+            writeString(bd.getBeanClassName());
+            writeString(bd.getParentName());
+            writeString(bd.getScope());
+            this.out.writeBoolean(bd.isAbstract());
+            this.out.writeBoolean(bd.isLazyInit());
+            this.out.writeInt(bd.getAutowireMode());
+            this.out.writeInt(bd.getDependencyCheck());
+            writeStrings(bd.getDependsOn());
+            this.out.writeBoolean(bd.isAutowireCandidate());
+            this.out.writeBoolean(bd.isPrimary());
+            this.out.writeBoolean(bd.isNonPublicAccessAllowed());
+            this.out.writeBoolean(bd.isLenientConstructorResolution());
+            writeString(bd.getFactoryBeanName());
+            writeString(bd.getFactoryMethodName());
+            writeString(bd.getInitMethodName());
+            this.out.writeBoolean(bd.isEnforceInitMethod());
+            writeString(bd.getDestroyMethodName());
+            this.out.writeBoolean(bd.isEnforceDestroyMethod());
+            this.out.writeBoolean(bd.isSynthetic());
+            this.out.writeInt(bd.getRole());
+            writeString(bd.getDescription());
+            writeString(bd.getResourceDescription());
+
+            ConstructorArgumentValues cargs = bd.getConstructorArgumentValues();
+            Map<Integer, ConstructorArgumentValues.ValueHolder> indexedArgs = cargs.getIndexedArgumentValues();
+            this.out.writeInt(indexedArgs.size());
+            for (Map.Entry<Integer, ConstructorArgumentValues.ValueHolder> entry : indexedArgs.entrySet()) {
+                this.out.writeInt(entry.getKey());
+                writeValueHolder(entry.getValue());
+            }
+            List<ConstructorArgumentValues.ValueHolder> genericArgs = cargs.getGenericArgumentValues();
+            this.out.writeInt(genericArgs.size());
+            for (ConstructorArgumentValues.ValueHolder valueHolder : genericArgs) {
+                writeValueHolder(valueHolder);
+            }
+
+            List<PropertyValue> pvs = bd.getPropertyValues().getPropertyValueList();
+            this.out.writeInt(pvs.size());
+            for (PropertyValue pv : pvs) {
+                writeString(pv.getName());
+                this.out.writeBoolean(pv.isOptional());
+                writeValue(pv.getValue());
+            }
+
+            Set<MethodOverride> overrides = bd.getMethodOverrides().getOverrides();
+            this.out.writeInt(overrides.size());
+            for (MethodOverride override : overrides) {
+                if (!(override instanceof LookupOverride)) {
+                    throw new NotSerializableException("Unsupported method override: " + override);
+                }
+                writeString(override.getMethodName());
+                writeString(((LookupOverride) override).getBeanName());
+            }
+
+            String[] attributeNames = bd.attributeNames();
+            this.out.writeInt(attributeNames.length);
+            for (String attributeName : attributeNames) {
+                Object value = bd.getAttribute(attributeName);
+                if (value != null && !(value instanceof String)) {
+                    throw new NotSerializableException("Unsupported value for attribute '" +
+                            attributeName + "': " + value);
+                }
+                writeString(attributeName);
+                writeString((String) value);
+            }
+        }
+
+        private void writeValueHolder(ConstructorArgumentValues.ValueHolder valueHolder) throws IOException {
+            writeString(valueHolder.getType());
+            writeString(valueHolder.getName());
+            writeValue(valueHolder.getValue());
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                this.out.writeByte(VALUE_NULL);
+            }
+            else if (value instanceof String) {
+                this.out.writeByte(VALUE_STRING);
+                writeString((String) value);
+            }
+            else if (value instanceof Boolean) {
+                this.out.writeByte(VALUE_BOOLEAN);
+                this.out.writeBoolean((Boolean) value);
+            }
+            else if (value instanceof TypedStringValue) {
+                TypedStringValue typedValue = (TypedStringValue) value;
+                this.out.writeByte(VALUE_TYPED_STRING);
+                writeString(typedValue.getValue());
+                writeString(typedValue.getTargetTypeName());
+                writeString(typedValue.getSpecifiedTypeName());
+                this.out.writeBoolean(typedValue.isDynamic());
+            }
+            else if (value instanceof RuntimeBeanReference) {
+                RuntimeBeanReference ref = (RuntimeBeanReference) value;
+                this.out.writeByte(VALUE_BEAN_REFERENCE);
+                writeString(ref.getBeanName());
+                this.out.writeBoolean(ref.isToParent());
+            }
+            else if (value instanceof RuntimeBeanNameReference) {
+                this.out.writeByte(VALUE_BEAN_NAME_REFERENCE);
+                writeString(((RuntimeBeanNameReference) value).getBeanName());
+            }
+            else if (value instanceof BeanDefinitionHolder) {
+                BeanDefinitionHolder holder = (BeanDefinitionHolder) value;
+                this.out.writeByte(VALUE_BEAN_DEFINITION_HOLDER);
+                writeString(holder.getBeanName());
+                writeStrings(holder.getAliases());
+                writeBeanDefinition(holder.getBeanDefinition());
+            }
+            else if (value instanceof BeanDefinition) {
+                this.out.writeByte(VALUE_BEAN_DEFINITION);
+                writeBeanDefinition((BeanDefinition) value);
+            }
+            else if (value instanceof ManagedArray) {
+                ManagedArray array = (ManagedArray) value;
+                this.out.writeByte(VALUE_ARRAY);
+                writeString(array.getElementTypeName());
+                this.out.writeBoolean(array.isMergeEnabled());
+                writeElements(array);
+            }
+            else if (value instanceof ManagedList) {
+                ManagedList<?> list = (ManagedList<?>) value;
+                this.out.writeByte(VALUE_LIST);
+                writeString(list.getElementTypeName());
+                this.out.writeBoolean(list.isMergeEnabled());
+                writeElements(list);
+            }
+            else if (value instanceof ManagedSet) {
+                ManagedSet<?> set = (ManagedSet<?>) value;
+                this.out.writeByte(VALUE_SET);
+                writeString(set.getElementTypeName());
+                this.out.writeBoolean(set.isMergeEnabled());
+                writeElements(set);
+            }
+            else if (value instanceof ManagedMap) {
+                ManagedMap<?, ?> map = (ManagedMap<?, ?>) value;
+                this.out.writeByte(VALUE_MAP);
+                writeString(map.getKeyTypeName());
+                writeString(map.getValueTypeName());
+                this.out.writeBoolean(map.isMergeEnabled());
+                writeEntries(map);
+            }
+            else if (value instanceof ManagedProperties) {
+                ManagedProperties props = (ManagedProperties) value;
+                this.out.writeByte(VALUE_PROPERTIES);
+                this.out.writeBoolean(props.isMergeEnabled());
+                writeEntries(props);
+            }
+            else {
+                throw new NotSerializableException("Unsupported bean metadata value: " + value);
+            }
+        }
+
+        private void writeElements(Collection<?> elements) throws IOException {
+            this.out.writeInt(elements.size());
+            for (Object element : elements) {
+                writeValue(element);
+            }
+        }
+
+        private void writeEntries(Map<?, ?> map) throws IOException {
+            this.out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+    }
+
+
+    /**
+     * Reads bean definition metadata as written by {@link Encoder}.
+     */
+    private static class Decoder {
+
+        private final DataInputStream in;
+
+        private final List<String> strings = new ArrayList<String>(256);
+
+        Decoder(DataInputStream in) {
+            this.in = in;
+        }
+
+        String readString() throws IOException {
+            int length = this.in.readInt();
+            if (length == -1) {
+                return null;
+            }
+            if (length < -1) {
+                int index = -length - 2;
+                if (index >= this.strings.size()) {
+                    throw new StreamCorruptedException("Invalid string reference " + index);
+                }
+                return this.strings.get(index);
+            }
+            byte[] bytes = new byte[length];
+            this.in.readFully(bytes);
+            String value = new String(bytes, "UTF-8");
+            this.strings.add(value);
+            return value;
+        }
+
+        String[] readStrings() throws IOException {
+            int length = this.in.readInt();
+            if (length == -1) {
+                return null;
+            }
+            String[] values = new String[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = readString();
+            }
+            return values;
+        }
+
+        AbstractBeanDefinition readBeanDefinition() throws IOException {
+            byte kind = this.in.readByte();
+            AbstractBeanDefinition bd;
+            if (kind == KIND_GENERIC) {
+                bd = new GenericBeanDefinition();
+            }
+            else if (kind == KIND_ROOT) {
+                bd = new RootBeanDefinition();
+            }
+            else {
+                throw new StreamCorruptedException("Invalid bean definition kind " + kind);
+            }
+            bd.setBeanClassName(readString());
+            String parentName = readString();
+            if (parentName != null) {
+                bd.setParentName(parentName);
+            }
+            bd.setScope(readString());
+            bd.setAbstract(this.in.readBoolean());
+            bd.setLazyInit(this.in.readBoolean());
+            bd.setAutowireMode(this.in.readInt());
+            bd.setDependencyCheck(this.in.readInt());
+            bd.setDependsOn(readStrings());
+            bd.setAutowireCandidate(this.in.readBoolean());
+            bd.setPrimary(this.in.readBoolean());
+            bd.setNonPublicAccessAllowed(this.in.readBoolean());
+            bd.setLenientConstructorResolution(this.in.readBoolean());
+            bd.setFactoryBeanName(readString());
+            bd.setFactoryMethodName(readString());
+            bd.setInitMethodName(readString());
+            bd.setEnforceInitMethod(this.in.readBoolean());
+            bd.setDestroyMethodName(readString());
+            bd.setEnforceDestroyMethod(this.in.readBoolean());
+            bd.setSynthetic(this.in.readBoolean());
+            bd.setRole(this.in.readInt());
+            bd.setDescription(readString());
+            String resourceDescription = readString();
+            if (resourceDescription != null) {
+                bd.setResourceDescription(resourceDescription);
+            }
+
+            ConstructorArgumentValues cargs = bd.getConstructorArgumentValues();
+            int indexedCount = this.in.readInt();
+            for (int i = 0; i < indexedCount; i++) {
+                int index = this.in.readInt();
+                cargs.addIndexedArgumentValue(index, readValueHolder());
+            }
+            int genericCount = this.in.readInt();
+            for (int i = 0; i < genericCount; i++) {
+                cargs.addGenericArgumentValue(readValueHolder());
+            }
+
+            MutablePropertyValues pvs = bd.getPropertyValues();
+            int pvCount = this.in.readInt();
+            for (int i = 0; i < pvCount; i++) {
+                String name = readString();
+                boolean optional = this.in.readBoolean();
+                PropertyValue pv = new PropertyValue(name, readValue());
+                pv.setOptional(optional);
+                pvs.addPropertyValue(pv);
+            }
+
+            int overrideCount = this.in.readInt();
+            for (int i = 0; i < overrideCount; i++) {
+                String methodName = readString();
+                bd.getMethodOverrides().addOverride(new LookupOverride(methodName, readString()));
+            }
+
+            int attributeCount = this.in.readInt();
+            for (int i = 0; i < attributeCount; i++) {
+                String name = readString();
+                bd.addMetadataAttribute(new BeanMetadataAttribute(name, readString()));
+            }
+            return bd;
+        }
+
+        private ConstructorArgumentValues.ValueHolder readValueHolder() throws IOException {
+            String type = readString();
+            String name = readString();
+            return new ConstructorArgumentValues.ValueHolder(readValue(), type, name);
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Object readValue() throws IOException {
+            byte type = this.in.readByte();
+            switch (type) {
+                case VALUE_NULL:
+                    return null;
+                case VALUE_STRING:
+                    return readString();
+                case VALUE_BOOLEAN:
+                    return this.in.readBoolean();
+                case VALUE_TYPED_STRING: {
+                    String value = readString();
+                    String targetTypeName = readString();
+                    TypedStringValue typedValue = (targetTypeName != null ?
+                            new TypedStringValue(value, targetTypeName) : new TypedStringValue(value));
+                    typedValue.setSpecifiedTypeName(readString());
+                    if (this.in.readBoolean()) {
+                        typedValue.setDynamic();
+                    }
+                    return typedValue;
+                }
+                case VALUE_BEAN_REFERENCE: {
+                    String beanName = readString();
+                    return new RuntimeBeanReference(beanName, this.in.readBoolean());
+                }
+                case VALUE_BEAN_NAME_REFERENCE:
+                    return new RuntimeBeanNameReference(readString());
+                case VALUE_BEAN_DEFINITION_HOLDER: {
+                    String beanName = readString();
+                    String[] aliases = readStrings();
+                    return new BeanDefinitionHolder(readBeanDefinition(), beanName, aliases);
+                }
+                case VALUE_BEAN_DEFINITION:
+                    return readBeanDefinition();
+                case VALUE_ARRAY: {
+                    String elementTypeName = readString();
+                    boolean merge = this.in.readBoolean();
+                    int size = this.in.readInt();
+                    ManagedArray array = new ManagedArray(elementTypeName, size);
+                    array.setMergeEnabled(merge);
+                    readElements(array, size);
+                    return array;
+                }
+                case VALUE_LIST: {
+                    ManagedList list = new ManagedList();
+                    list.setElementTypeName(readString());
+                    list.setMergeEnabled(this.in.readBoolean());
+                    readElements(list, this.in.readInt());
+                    return list;
+                }
+                case VALUE_SET: {
+                    ManagedSet set = new ManagedSet();
+                    set.setElementTypeName(readString());
+                    set.setMergeEnabled(this.in.readBoolean());
+                    readElements(set, this.in.readInt());
+                    return set;
+                }
+                case VALUE_MAP: {
+                    ManagedMap map = new ManagedMap();
+                    map.setKeyTypeName(readString());
+                    map.setValueTypeName(readString());
+                    map.setMergeEnabled(this.in.readBoolean());
+                    readEntries(map, this.in.readInt());
+                    return map;
+                }
+                case VALUE_PROPERTIES: {
+                    ManagedProperties props = new ManagedProperties();
+                    props.setMergeEnabled(this.in.readBoolean());
+                    readEntries(props, this.in.readInt());
+                    return props;
+                }
+                default:
+                    throw new StreamCorruptedException("Invalid bean metadata value type " + type);
+            }
+        }
+
+        private void readElements(Collection<Object> target, int size) throws IOException {
+            for (int i = 0; i < size; i++) {
+                target.add(readValue());
+            }
+        }
+
+        private void readEntries(Map<Object, Object> target, int size) throws IOException {
+            for (int i = 0; i < size; i++) {
+                Object key = readValue();
+                target.put(key, readValue());
+            }
+        }
+    }
+
+}
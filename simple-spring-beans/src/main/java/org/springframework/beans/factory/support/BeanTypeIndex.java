@@ -0,0 +1,225 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.ClassUtils;
+
+/**
+ * Inverted index from types to the names of beans that may match them,
+ * as used by {@link DefaultListableBeanFactory} for by-type lookups.
+ *
+ * <p>Each bean is either <i>typed</i>, i.e. registered under all superclasses
+ * and interfaces of its known bean type(s), or <i>untyped</i> if its type cannot
+ * be determined without further resolution (unresolved bean class names, factory
+ * methods, FactoryBeans, child bean definitions). Candidate lookups return the
+ * typed beans registered under the requested type plus all untyped beans, in
+ * registration order. The index is meant to be a superset of the actual matches:
+ * callers still need to perform a full type check on every candidate.
+ *
+ * <p>Thread-safe: lookups do not block concurrent modifications.
+ *
+ * @see DefaultListableBeanFactory#getBeanNamesForType
+ */
+class BeanTypeIndex {
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    /** Registration sequence numbers, keyed by bean name */
+    private final Map<String, Long> registrationOrder = new ConcurrentHashMap<String, Long>(256);
+
+    /** Types that each typed bean has been indexed under, keyed by bean name */
+    private final Map<String, Set<Class<?>>> typesByName = new ConcurrentHashMap<String, Set<Class<?>>>(256);
+
+    /** Names of typed beans, keyed by each of their superclasses and interfaces */
+    private final Map<Class<?>, Set<String>> namesByType = new ConcurrentHashMap<Class<?>, Set<String>>(256);
+
+    /** Names of beans whose type is not known yet */
+    private final Set<String> untypedNames = newConcurrentSet();
+
+    private final Comparator<String> registrationOrderComparator = new Comparator<String>() {
+        @Override
+        public int compare(String name1, String name2) {
+            Long order1 = registrationOrder.get(name1);
+            Long order2 = registrationOrder.get(name2);
+            long value1 = (order1 != null ? order1 : Long.MAX_VALUE);
+            long value2 = (order2 != null ? order2 : Long.MAX_VALUE);
+            return (value1 < value2 ? -1 : (value1 == value2 ? 0 : 1));
+        }
+    };
+
+
+    /**
+     * Register the given bean, replacing any types previously indexed for it
+     * but keeping its original registration position.
+     * @param beanName the name of the bean
+     * @param beanType the known type of the bean, or {@code null} if unknown
+     */
+    public void add(String beanName, Class<?> beanType) {
+        if (!this.registrationOrder.containsKey(beanName)) {
+            this.registrationOrder.put(beanName, this.sequence.getAndIncrement());
+        }
+        unindexTypes(beanName);
+        if (beanType != null) {
+            this.untypedNames.remove(beanName);
+            indexType(beanName, beanType);
+        }
+        else {
+            this.untypedNames.add(beanName);
+        }
+    }
+
+    /**
+     * Extend the types indexed for an already registered bean,
+     * e.g. once its bean class has been resolved or its instance is available.
+     * An untyped bean becomes typed through this operation.
+     * @param beanName the name of the bean
+     * @param beanType the additional type of the bean
+     */
+    public void addType(String beanName, Class<?> beanType) {
+        if (!this.registrationOrder.containsKey(beanName)) {
+            return;
+        }
+        indexType(beanName, beanType);
+        this.untypedNames.remove(beanName);
+    }
+
+    /**
+     * Remove the given bean from the index.
+     * @param beanName the name of the bean
+     */
+    public void remove(String beanName) {
+        this.untypedNames.remove(beanName);
+        unindexTypes(beanName);
+        this.registrationOrder.remove(beanName);
+    }
+
+    /**
+     * Return whether the given bean is registered with this index.
+     */
+    public boolean contains(String beanName) {
+        return this.registrationOrder.containsKey(beanName);
+    }
+
+    /**
+     * Return whether the given bean is registered without known type.
+     */
+    public boolean isUntyped(String beanName) {
+        return this.untypedNames.contains(beanName);
+    }
+
+    /**
+     * Return the types that the given bean has been indexed under,
+     * i.e. all superclasses and interfaces of its known bean type(s).
+     * @param beanName the name of the bean
+     * @return the types (empty if the bean is untyped or not registered)
+     */
+    public Set<Class<?>> getIndexedTypes(String beanName) {
+        Set<Class<?>> types = this.typesByName.get(beanName);
+        return (types != null ? Collections.unmodifiableSet(types) : Collections.<Class<?>>emptySet());
+    }
+
+    /**
+     * Return the names of all beans that may match the given type,
+     * in registration order.
+     * @param type the raw type to match
+     * @return the candidate bean names (never {@code null})
+     */
+    public List<String> getCandidateNames(Class<?> type) {
+        Set<String> typedNames = this.namesByType.get(type);
+        List<String> candidates = new ArrayList<String>(
+                (typedNames != null ? typedNames.size() : 0) + this.untypedNames.size());
+        if (typedNames != null) {
+            candidates.addAll(typedNames);
+        }
+        for (String untypedName : this.untypedNames) {
+            if (typedNames == null || !typedNames.contains(untypedName)) {
+                candidates.add(untypedName);
+            }
+        }
+        Collections.sort(candidates, this.registrationOrderComparator);
+        return candidates;
+    }
+
+    /**
+     * Remove all entries from this index.
+     */
+    public void clear() {
+        this.untypedNames.clear();
+        this.typesByName.clear();
+        this.namesByType.clear();
+        this.registrationOrder.clear();
+    }
+
+
+    private void indexType(String beanName, Class<?> beanType) {
+        Set<Class<?>> types = this.typesByName.get(beanName);
+        if (types == null) {
+            types = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>(16));
+            this.typesByName.put(beanName, types);
+        }
+        Class<?> current = beanType;
+        while (current != null) {
+            addName(current, beanName, types);
+            current = current.getSuperclass();
+        }
+        for (Class<?> ifc : ClassUtils.getAllInterfacesForClassAsSet(beanType)) {
+            addName(ifc, beanName, types);
+        }
+    }
+
+    private void addName(Class<?> type, String beanName, Set<Class<?>> types) {
+        if (types.add(type)) {
+            Set<String> names = this.namesByType.get(type);
+            if (names == null) {
+                synchronized (this.namesByType) {
+                    names = this.namesByType.get(type);
+                    if (names == null) {
+                        names = newConcurrentSet();
+                        this.namesByType.put(type, names);
+                    }
+                }
+            }
+            names.add(beanName);
+        }
+    }
+
+    private void unindexTypes(String beanName) {
+        Set<Class<?>> types = this.typesByName.remove(beanName);
+        if (types != null) {
+            for (Class<?> type : types) {
+                Set<String> names = this.namesByType.get(type);
+                if (names != null) {
+                    names.remove(beanName);
+                }
+            }
+        }
+    }
+
+    private static Set<String> newConcurrentSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(16));
+    }
+
+}
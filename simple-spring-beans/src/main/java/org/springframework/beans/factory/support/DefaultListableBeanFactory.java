@@ -42,11 +42,17 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.inject.Provider;
 
 import org.springframework.beans.BeansException;
 import org.springframework.beans.TypeConverter;
 import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.BeanCreationNotAllowedException;
 import org.springframework.beans.factory.BeanCurrentlyInCreationException;
 import org.springframework.beans.factory.BeanDefinitionStoreException;
 import org.springframework.beans.factory.BeanFactory;
@@ -63,9 +69,12 @@ import org.springframework.beans.factory.SmartFactoryBean;
 import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.config.BeanDefinitionHolder;
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.beans.factory.config.DependencyDescriptor;
+import org.springframework.beans.factory.config.SmartInstantiationAwareBeanPostProcessor;
+import org.springframework.core.NamedThreadLocal;
 import org.springframework.core.OrderComparator;
 import org.springframework.core.ResolvableType;
 import org.springframework.core.annotation.AnnotationUtils;
@@ -114,6 +123,19 @@ import org.springframework.util.StringUtils;
 public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFactory
         implements ConfigurableListableBeanFactory, BeanDefinitionRegistry, Serializable {
 
+    /**
+     * Bean definition attribute that opts a singleton out of parallel pre-instantiation:
+     * if set to {@code Boolean.TRUE}, the bean will be created on the thread that calls
+     * {@link #preInstantiateSingletons()}, ahead of all concurrently created singletons.
+     * @see #setPreInstantiationExecutor
+     * @see org.springframework.core.AttributeAccessor#setAttribute
+     */
+    public static final String SEQUENTIAL_PRE_INSTANTIATION_ATTRIBUTE =
+            DefaultListableBeanFactory.class.getName() + ".sequentialPreInstantiation";
+
+    /** Interval for re-checking a blocked singleton lock for cross-thread circular references */
+    private static final long SINGLETON_LOCK_CHECK_INTERVAL = 50;
+
     private static Class<?> javaUtilOptionalClass = null;
 
     private static Class<?> javaxInjectProviderClass = null;
@@ -167,6 +189,12 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
     /** Map of singleton-only bean names, keyed by dependency type */
     private final Map<Class<?>, String[]> singletonBeanNamesByType = new ConcurrentHashMap<Class<?>, String[]>(64);
 
+    /** Index of bean definition names, keyed by the types they may match */
+    private final BeanTypeIndex beanDefinitionTypeIndex = new BeanTypeIndex();
+
+    /** Index of manually registered singleton names, keyed by the types they may match */
+    private final BeanTypeIndex manualSingletonTypeIndex = new BeanTypeIndex();
+
     /** List of bean definition names, in registration order */
     private volatile List<String> beanDefinitionNames = new ArrayList<String>(256);
 
@@ -179,6 +207,35 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
     /** Whether bean definition metadata may be cached for all beans */
     private volatile boolean configurationFrozen = false;
 
+    /** Fully resolved singleton objects in case of frozen configuration, keyed by requested name */
+    private final Map<String, Object> resolvedSingletonHandles = new ConcurrentHashMap<String, Object>(256);
+
+    /** Counter of singleton handle invalidations, for detecting concurrent invalidation */
+    private final AtomicLong resolvedSingletonHandleGeneration = new AtomicLong();
+
+    /** Optional Executor for creating independent singletons concurrently */
+    private Executor preInstantiationExecutor;
+
+    /** Whether singletons are currently being pre-instantiated on multiple threads */
+    private volatile boolean parallelPreInstantiationActive = false;
+
+    /** Per-bean creation locks used during parallel pre-instantiation, keyed by bean name */
+    private final ConcurrentMap<String, ReentrantLock> singletonCreationLocks =
+            new ConcurrentHashMap<String, ReentrantLock>(256);
+
+    /** Threads currently creating a singleton during parallel pre-instantiation, keyed by bean name */
+    private final Map<String, Thread> singletonCreationThreads = new ConcurrentHashMap<String, Thread>(64);
+
+    /** Singletons that threads are currently waiting for during parallel pre-instantiation */
+    private final Map<Thread, String> singletonCreationWaits = new ConcurrentHashMap<Thread, String>(64);
+
+    /** Exceptions suppressed while creating a singleton during parallel pre-instantiation, per thread */
+    private final ThreadLocal<Set<Exception>> suppressedSingletonCreationExceptions =
+            new NamedThreadLocal<Set<Exception>>("Exceptions suppressed during singleton creation");
+
+    /** Whether singletons are currently being destroyed, as tracked for parallel pre-instantiation */
+    private volatile boolean singletonsInDestruction = false;
+
 
     /**
      * Create a new DefaultListableBeanFactory.
@@ -310,6 +367,30 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
         return this.autowireCandidateResolver;
     }
 
+    /**
+     * Specify an {@link Executor} for pre-instantiating singletons concurrently,
+     * e.g. a {@link java.util.concurrent.ForkJoinPool} or an executor based on
+     * lightweight threads.
+     * <p>Default is none, creating all singletons one after another on the thread
+     * that calls {@link #preInstantiateSingletons()}. If specified, singletons are
+     * grouped according to the dependencies declared in their bean definitions and
+     * independent groups are created in parallel. Individual beans may opt out through
+     * the {@link #SEQUENTIAL_PRE_INSTANTIATION_ATTRIBUTE}.
+     * <p>{@code SmartInitializingSingleton} callbacks are invoked on the calling
+     * thread in registration order, once all singletons have been created.
+     * @see #preInstantiateSingletons()
+     */
+    public void setPreInstantiationExecutor(Executor preInstantiationExecutor) {
+        this.preInstantiationExecutor = preInstantiationExecutor;
+    }
+
+    /**
+     * Return the Executor for concurrent singleton pre-instantiation, if any.
+     */
+    public Executor getPreInstantiationExecutor() {
+        return this.preInstantiationExecutor;
+    }
+
 
     @Override
     public void copyConfigurationFrom(ConfigurableBeanFactory otherFactory) {
@@ -320,6 +401,7 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
             this.allowEagerClassLoading = otherListableFactory.allowEagerClassLoading;
             this.autowireCandidateResolver = otherListableFactory.autowireCandidateResolver;
             this.resolvableDependencies.putAll(otherListableFactory.resolvableDependencies);
+            this.preInstantiationExecutor = otherListableFactory.preInstantiationExecutor;
         }
     }
 
@@ -328,6 +410,81 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
     // Implementation of remaining BeanFactory methods
     //---------------------------------------------------------------------
 
+    /**
+     * Overridden to serve repeated lookups of fully initialized singletons from
+     * a table of resolved handles once the configuration has been frozen, keyed
+     * by the name as requested (i.e. without alias or factory dereference resolution).
+     * @see #freezeConfiguration()
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    protected <T> T doGetBean(String name, Class<T> requiredType, Object[] args, boolean typeCheckOnly)
+            throws BeansException {
+
+        if (args != null || !this.configurationFrozen) {
+            return super.doGetBean(name, requiredType, args, typeCheckOnly);
+        }
+
+        Object handle = this.resolvedSingletonHandles.get(name);
+        if (handle != null && (requiredType == null || requiredType.isInstance(handle))) {
+            return (T) handle;
+        }
+
+        long generation = this.resolvedSingletonHandleGeneration.get();
+        T bean = super.doGetBean(name, requiredType, null, typeCheckOnly);
+        if (bean != null && !typeCheckOnly && isResolvedSingleton(name, bean)) {
+            this.resolvedSingletonHandles.put(name, bean);
+            if (generation != this.resolvedSingletonHandleGeneration.get()) {
+                // Invalidated in the meantime: do not keep a potentially stale handle.
+                this.resolvedSingletonHandles.remove(name);
+            }
+        }
+        return bean;
+    }
+
+    /**
+     * Determine whether the given object is the fully initialized singleton
+     * that the given name resolves to, or the singleton object exposed by it
+     * in case of a FactoryBean, i.e. whether it may be handed out again
+     * without any further resolution.
+     * @param name the name as requested
+     * @param bean the object returned for that name
+     */
+    private boolean isResolvedSingleton(String name, Object bean) {
+        String beanName = transformedBeanName(name);
+        if (isSingletonCurrentlyInCreation(beanName)) {
+            return false;
+        }
+        Object sharedInstance = getSingleton(beanName, false);
+        if (sharedInstance instanceof FactoryBean && !BeanFactoryUtils.isFactoryDereference(name)) {
+            // Only the cached object of a singleton FactoryBean is stable.
+            return (bean == getCachedObjectForFactoryBean(beanName));
+        }
+        return (bean == sharedInstance);
+    }
+
+    /**
+     * Remove all resolved singleton handles that may refer to the given bean.
+     * @param beanName the canonical name of the bean
+     */
+    private void invalidateResolvedSingletonHandles(String beanName) {
+        this.resolvedSingletonHandleGeneration.incrementAndGet();
+        this.resolvedSingletonHandles.remove(beanName);
+        this.resolvedSingletonHandles.remove(FACTORY_BEAN_PREFIX + beanName);
+        for (String alias : getAliases(beanName)) {
+            this.resolvedSingletonHandles.remove(alias);
+            this.resolvedSingletonHandles.remove(FACTORY_BEAN_PREFIX + alias);
+        }
+    }
+
+    /**
+     * Remove all resolved singleton handles, e.g. after an alias change.
+     */
+    private void clearResolvedSingletonHandles() {
+        this.resolvedSingletonHandleGeneration.incrementAndGet();
+        this.resolvedSingletonHandles.clear();
+    }
+
     @Override
     public <T> T getBean(Class<T> requiredType) throws BeansException {
         return getBean(requiredType, (Object[]) null);
@@ -431,12 +588,41 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
     private String[] doGetBeanNamesForType(ResolvableType type, boolean includeNonSingletons, boolean allowEagerInit) {
         List<String> result = new ArrayList<String>();
 
-        // Check all bean definitions.
-        for (String beanName : this.beanDefinitionNames) {
+        // Narrow down the beans to check through the type index, unless any bean may match.
+        Class<?> rawType = type.resolve();
+        boolean useTypeIndex = (rawType != null && Object.class != rawType);
+        Collection<String> candidateDefinitionNames = (useTypeIndex ?
+                this.beanDefinitionTypeIndex.getCandidateNames(rawType) : this.beanDefinitionNames);
+        Collection<String> candidateSingletonNames = (useTypeIndex ?
+                this.manualSingletonTypeIndex.getCandidateNames(rawType) : this.manualSingletonNames);
+
+        // Check all candidate bean definitions.
+        for (String beanName : candidateDefinitionNames) {
             // Only consider bean as eligible if the bean name
             // is not defined as alias for some other bean.
             if (!isAlias(beanName)) {
                 try {
+                    // Match lazy-init beans that have not been created yet against their bean
+                    // class as registered: merging them would e.g. parse deferred XML definitions.
+                    AbstractBeanDefinition lazyBd = getUnmergedLazyBeanDefinition(beanName);
+                    if (lazyBd != null) {
+                        if (allowEagerInit || lazyBd.hasBeanClass() || isAllowEagerClassLoading()) {
+                            Class<?> lazyBeanType = predictUnmergedBeanType(beanName, lazyBd);
+                            if (lazyBeanType != null) {
+                                if (this.beanDefinitionTypeIndex.isUntyped(beanName)) {
+                                    this.beanDefinitionTypeIndex.addType(beanName, lazyBeanType);
+                                }
+                                if ((includeNonSingletons || lazyBd.isSingleton()) &&
+                                        type.isAssignableFrom(lazyBeanType)) {
+                                    result.add(beanName);
+                                }
+                                continue;
+                            }
+                        }
+                        else {
+                            continue;
+                        }
+                    }
                     RootBeanDefinition mbd = getMergedLocalBeanDefinition(beanName);
                     // Only check bean definition if it is complete.
                     if (!mbd.isAbstract() && (allowEagerInit ||
@@ -446,6 +632,10 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
                         boolean isFactoryBean = isFactoryBean(beanName, mbd);
                         boolean matchFound = (allowEagerInit || !isFactoryBean || containsSingleton(beanName)) &&
                                 (includeNonSingletons || isSingleton(beanName)) && isTypeMatch(beanName, type);
+                        if (!isFactoryBean && this.beanDefinitionTypeIndex.isUntyped(beanName)) {
+                            // Bean type may have been determined for the type check: remember it.
+                            indexResolvedBeanType(beanName, mbd);
+                        }
                         if (!matchFound && isFactoryBean) {
                             // In case of FactoryBean, try to match FactoryBean instance itself next.
                             beanName = FACTORY_BEAN_PREFIX + beanName;
@@ -479,8 +669,8 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
             }
         }
 
-        // Check manually registered singletons too.
-        for (String beanName : this.manualSingletonNames) {
+        // Check candidate manually registered singletons too.
+        for (String beanName : candidateSingletonNames) {
             try {
                 // In case of FactoryBean, match object created by FactoryBean.
                 if (isFactoryBean(beanName)) {
@@ -508,6 +698,81 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
         return StringUtils.toStringArray(result);
     }
 
+    /**
+     * Return the bean definition of the given bean as registered, if it is a lazy-init
+     * bean that has not been created yet and whose type follows from its bean class alone:
+     * a top-level definition without factory method.
+     * @param beanName the name of the bean
+     * @return the bean definition, or {@code null} if the bean needs to be
+     * checked through its merged bean definition
+     */
+    private AbstractBeanDefinition getUnmergedLazyBeanDefinition(String beanName) {
+        BeanDefinition bd = this.beanDefinitionMap.get(beanName);
+        if (!(bd instanceof AbstractBeanDefinition) || bd instanceof RootBeanDefinition ||
+                !bd.isLazyInit() || bd.isAbstract() || bd.getParentName() != null ||
+                bd.getFactoryBeanName() != null || bd.getFactoryMethodName() != null ||
+                bd.getBeanClassName() == null || containsSingleton(beanName)) {
+            return null;
+        }
+        return (AbstractBeanDefinition) bd;
+    }
+
+    /**
+     * Predict the type of the given lazy-init bean from its bean definition as registered,
+     * consulting {@link SmartInstantiationAwareBeanPostProcessor SmartInstantiationAwareBeanPostProcessors}
+     * just like for a merged bean definition.
+     * @param beanName the name of the bean
+     * @param bd the bean definition as returned from {@link #getUnmergedLazyBeanDefinition}
+     * @return the bean type, or {@code null} if not determinable this way (e.g. for
+     * a FactoryBean or for a bean class name that needs to be evaluated first)
+     */
+    private Class<?> predictUnmergedBeanType(String beanName, AbstractBeanDefinition bd) {
+        Class<?> beanType;
+        if (bd.hasBeanClass()) {
+            beanType = bd.getBeanClass();
+        }
+        else {
+            if (getTempClassLoader() != null) {
+                return null;
+            }
+            try {
+                beanType = ClassUtils.forName(bd.getBeanClassName(), getBeanClassLoader());
+            }
+            catch (ClassNotFoundException ex) {
+                // Possibly an expression: leave it to regular bean class resolution.
+                return null;
+            }
+            catch (LinkageError err) {
+                return null;
+            }
+        }
+        beanType = applyBeanTypePredictions(beanName, bd, beanType);
+        return (FactoryBean.class.isAssignableFrom(beanType) ? null : beanType);
+    }
+
+    /**
+     * Apply {@link SmartInstantiationAwareBeanPostProcessor SmartInstantiationAwareBeanPostProcessors}
+     * to the given target type of a bean, just like {@link #predictBeanType} does.
+     * @param beanName the name of the bean
+     * @param bd the bean definition
+     * @param targetType the target type of the bean
+     * @return the predicted type, or the given target type if none predicted
+     */
+    private Class<?> applyBeanTypePredictions(String beanName, BeanDefinition bd, Class<?> targetType) {
+        if (!(bd instanceof AbstractBeanDefinition && ((AbstractBeanDefinition) bd).isSynthetic()) &&
+                hasInstantiationAwareBeanPostProcessors()) {
+            for (BeanPostProcessor bp : getBeanPostProcessors()) {
+                if (bp instanceof SmartInstantiationAwareBeanPostProcessor) {
+                    Class<?> predicted = ((SmartInstantiationAwareBeanPostProcessor) bp).predictBeanType(targetType, beanName);
+                    if (predicted != null) {
+                        return predicted;
+                    }
+                }
+            }
+        }
+        return targetType;
+    }
+
     /**
      * Check whether the specified bean would need to be eagerly initialized
      * in order to determine its type.
@@ -519,6 +784,68 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
         return (factoryBeanName != null && isFactoryBean(factoryBeanName) && !containsSingleton(factoryBeanName));
     }
 
+    /**
+     * Determine the type that the given bean definition can be indexed under
+     * without any further resolution: its target type if specified, or else its
+     * bean class, provided that it has been resolved already and is not superseded
+     * by a factory method or a parent definition - as predicted by
+     * {@link SmartInstantiationAwareBeanPostProcessor SmartInstantiationAwareBeanPostProcessors},
+     * unless it is a FactoryBean.
+     * @param beanName the name of the bean
+     * @param bd the bean definition to check
+     * @return the bean type to index, or {@code null} if not determinable
+     */
+    private Class<?> determineIndexableBeanType(String beanName, BeanDefinition bd) {
+        Class<?> beanType = null;
+        if (bd instanceof RootBeanDefinition && ((RootBeanDefinition) bd).getTargetType() != null) {
+            beanType = ((RootBeanDefinition) bd).getTargetType();
+        }
+        else if (bd instanceof AbstractBeanDefinition && bd.getParentName() == null &&
+                bd.getFactoryMethodName() == null && ((AbstractBeanDefinition) bd).hasBeanClass()) {
+            beanType = ((AbstractBeanDefinition) bd).getBeanClass();
+        }
+        if (beanType == null || FactoryBean.class.isAssignableFrom(beanType)) {
+            return null;
+        }
+        beanType = applyBeanTypePredictions(beanName, bd, beanType);
+        return (FactoryBean.class.isAssignableFrom(beanType) ? null : beanType);
+    }
+
+    /**
+     * Index the given bean under its predicted type, if its target type
+     * (bean class or factory method return type) has been determined by now.
+     * @param beanName the name of the bean
+     * @param mbd the merged bean definition
+     */
+    private void indexResolvedBeanType(String beanName, RootBeanDefinition mbd) {
+        if (mbd.getTargetType() == null) {
+            return;
+        }
+        Class<?> beanType = predictBeanType(beanName, mbd);
+        if (beanType != null && !FactoryBean.class.isAssignableFrom(beanType)) {
+            this.beanDefinitionTypeIndex.addType(beanName, beanType);
+        }
+    }
+
+    /**
+     * Rebuild the type index for all bean definitions, e.g. after bean definitions
+     * have been modified in place by a {@code BeanFactoryPostProcessor}.
+     * Keeps the types of singleton instances that have been created already.
+     */
+    private void rebuildBeanDefinitionTypeIndex() {
+        this.beanDefinitionTypeIndex.clear();
+        for (String beanName : this.beanDefinitionNames) {
+            BeanDefinition bd = this.beanDefinitionMap.get(beanName);
+            if (bd != null) {
+                this.beanDefinitionTypeIndex.add(beanName, determineIndexableBeanType(beanName, bd));
+                Object singletonInstance = getSingleton(beanName, false);
+                if (singletonInstance != null && !(singletonInstance instanceof FactoryBean)) {
+                    this.beanDefinitionTypeIndex.addType(beanName, singletonInstance.getClass());
+                }
+            }
+        }
+    }
+
     @Override
     public <T> Map<String, T> getBeansOfType(Class<T> type) throws BeansException {
         return getBeansOfType(type, true, true);
@@ -714,9 +1041,24 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
     @Override
     public void clearMetadataCache() {
         super.clearMetadataCache();
+        rebuildBeanDefinitionTypeIndex();
         clearByTypeCache();
     }
 
+    /**
+     * Overridden to re-index all bean definitions when a
+     * {@link SmartInstantiationAwareBeanPostProcessor} gets added,
+     * since it may predict different bean types from now on.
+     */
+    @Override
+    public void addBeanPostProcessor(BeanPostProcessor beanPostProcessor) {
+        super.addBeanPostProcessor(beanPostProcessor);
+        if (beanPostProcessor instanceof SmartInstantiationAwareBeanPostProcessor) {
+            rebuildBeanDefinitionTypeIndex();
+            clearByTypeCache();
+        }
+    }
+
     @Override
     public void freezeConfiguration() {
         this.configurationFrozen = true;
@@ -749,31 +1091,12 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
         List<String> beanNames = new ArrayList<String>(this.beanDefinitionNames);
 
         // Trigger initialization of all non-lazy singleton beans...
-        for (String beanName : beanNames) {
-            RootBeanDefinition bd = getMergedLocalBeanDefinition(beanName);
-            if (!bd.isAbstract() && bd.isSingleton() && !bd.isLazyInit()) {
-                if (isFactoryBean(beanName)) {
-                    final FactoryBean<?> factory = (FactoryBean<?>) getBean(FACTORY_BEAN_PREFIX + beanName);
-                    boolean isEagerInit;
-                    if (System.getSecurityManager() != null && factory instanceof SmartFactoryBean) {
-                        isEagerInit = AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
-                            @Override
-                            public Boolean run() {
-                                return ((SmartFactoryBean<?>) factory).isEagerInit();
-                            }
-                        }, getAccessControlContext());
-                    }
-                    else {
-                        isEagerInit = (factory instanceof SmartFactoryBean &&
-                                ((SmartFactoryBean<?>) factory).isEagerInit());
-                    }
-                    if (isEagerInit) {
-                        getBean(beanName);
-                    }
-                }
-                else {
-                    getBean(beanName);
-                }
+        if (this.preInstantiationExecutor != null) {
+            preInstantiateSingletonsInParallel(beanNames);
+        }
+        else {
+            for (String beanName : beanNames) {
+                preInstantiateSingleton(beanName);
             }
         }
 
@@ -798,6 +1121,267 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
         }
     }
 
+    /**
+     * Pre-instantiate the given singletons through the configured executor.
+     * Beans that opted out of parallel creation are created on the current
+     * thread first; all remaining beans are handed to a
+     * {@link ParallelSingletonInstantiator}.
+     * @param beanNames the bean definition names, in registration order
+     * @see #SEQUENTIAL_PRE_INSTANTIATION_ATTRIBUTE
+     */
+    private void preInstantiateSingletonsInParallel(List<String> beanNames) {
+        List<String> parallelBeanNames = new ArrayList<String>(beanNames.size());
+        for (String beanName : beanNames) {
+            if (isLazyInitOrAbstract(beanName)) {
+                continue;
+            }
+            RootBeanDefinition bd = getMergedLocalBeanDefinition(beanName);
+            if (!bd.isAbstract() && bd.isSingleton() && !bd.isLazyInit()) {
+                if (Boolean.TRUE.equals(bd.getAttribute(SEQUENTIAL_PRE_INSTANTIATION_ATTRIBUTE))) {
+                    preInstantiateSingleton(beanName);
+                }
+                else {
+                    parallelBeanNames.add(beanName);
+                }
+            }
+        }
+
+        this.parallelPreInstantiationActive = true;
+        try {
+            new ParallelSingletonInstantiator(this, this.preInstantiationExecutor).instantiate(parallelBeanNames);
+        }
+        finally {
+            this.parallelPreInstantiationActive = false;
+            this.singletonCreationLocks.clear();
+        }
+    }
+
+    /**
+     * Pre-instantiate the given singleton if it is a non-lazy singleton,
+     * also considering eager-init {@link SmartFactoryBean SmartFactoryBeans}.
+     * @param beanName the name of the bean definition
+     */
+    void preInstantiateSingleton(String beanName) {
+        if (isLazyInitOrAbstract(beanName)) {
+            return;
+        }
+        RootBeanDefinition bd = getMergedLocalBeanDefinition(beanName);
+        if (!bd.isAbstract() && bd.isSingleton() && !bd.isLazyInit()) {
+            if (isFactoryBean(beanName)) {
+                final FactoryBean<?> factory = (FactoryBean<?>) getBean(FACTORY_BEAN_PREFIX + beanName);
+                boolean isEagerInit;
+                if (System.getSecurityManager() != null && factory instanceof SmartFactoryBean) {
+                    isEagerInit = AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
+                        @Override
+                        public Boolean run() {
+                            return ((SmartFactoryBean<?>) factory).isEagerInit();
+                        }
+                    }, getAccessControlContext());
+                }
+                else {
+                    isEagerInit = (factory instanceof SmartFactoryBean &&
+                            ((SmartFactoryBean<?>) factory).isEagerInit());
+                }
+                if (isEagerInit) {
+                    getBean(beanName);
+                }
+            }
+            else {
+                getBean(beanName);
+            }
+        }
+    }
+
+    /**
+     * Check the given bean definition as registered for being lazy-init or abstract,
+     * which a merged bean definition always takes over from it, so that pre-instantiation
+     * can skip such beans without merging (e.g. parsing deferred XML definitions).
+     * @param beanName the name of the bean definition
+     */
+    private boolean isLazyInitOrAbstract(String beanName) {
+        BeanDefinition bd = this.beanDefinitionMap.get(beanName);
+        return (bd != null && (bd.isLazyInit() || bd.isAbstract()));
+    }
+
+    /**
+     * Overridden to only expose early singleton references to the thread that
+     * actually creates the singleton while pre-instantiating in parallel: other
+     * threads have to wait for the fully initialized instance instead.
+     */
+    @Override
+    protected Object getSingleton(String beanName, boolean allowEarlyReference) {
+        if (allowEarlyReference && this.parallelPreInstantiationActive) {
+            Thread creatingThread = this.singletonCreationThreads.get(beanName);
+            if (creatingThread != null && creatingThread != Thread.currentThread()) {
+                return super.getSingleton(beanName, false);
+            }
+        }
+        return super.getSingleton(beanName, allowEarlyReference);
+    }
+
+    /**
+     * Overridden to replace the factory-wide singleton lock with a per-bean lock
+     * while pre-instantiating in parallel, so that independent singletons can be
+     * created concurrently.
+     */
+    @Override
+    public Object getSingleton(String beanName, ObjectFactory<?> singletonFactory) {
+        if (!this.parallelPreInstantiationActive) {
+            return super.getSingleton(beanName, singletonFactory);
+        }
+
+        ReentrantLock lock = this.singletonCreationLocks.get(beanName);
+        if (lock == null) {
+            ReentrantLock newLock = new ReentrantLock();
+            lock = this.singletonCreationLocks.putIfAbsent(beanName, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        if (!acquireSingletonCreationLock(beanName, lock)) {
+            // Circular reference across threads: resolve like a same-thread circular reference.
+            Object earlyReference = super.getSingleton(beanName, true);
+            if (earlyReference != null) {
+                return earlyReference;
+            }
+            throw new BeanCurrentlyInCreationException(beanName,
+                    "Circular reference between singletons created on different threads; " +
+                            "consider marking one of them for sequential pre-instantiation");
+        }
+
+        try {
+            if (containsSingleton(beanName)) {
+                return super.getSingleton(beanName, false);
+            }
+            if (this.singletonsInDestruction) {
+                throw new BeanCreationNotAllowedException(beanName,
+                        "Singleton bean creation not allowed while singletons of this factory are in destruction " +
+                        "(Do not request a bean from a BeanFactory in a destroy method implementation!)");
+            }
+            this.singletonCreationThreads.put(beanName, Thread.currentThread());
+            beforeSingletonCreation(beanName);
+            boolean recordSuppressedExceptions = (this.suppressedSingletonCreationExceptions.get() == null);
+            if (recordSuppressedExceptions) {
+                this.suppressedSingletonCreationExceptions.set(new LinkedHashSet<Exception>());
+            }
+            Object singletonObject;
+            try {
+                singletonObject = singletonFactory.getObject();
+            }
+            catch (IllegalStateException ex) {
+                // Has the singleton object implicitly appeared in the meantime ->
+                // if yes, proceed with it since the exception indicates that state.
+                singletonObject = super.getSingleton(beanName, false);
+                if (singletonObject == null) {
+                    throw ex;
+                }
+                return singletonObject;
+            }
+            catch (BeanCreationException ex) {
+                if (recordSuppressedExceptions) {
+                    for (Exception suppressedException : this.suppressedSingletonCreationExceptions.get()) {
+                        ex.addRelatedCause(suppressedException);
+                    }
+                }
+                throw ex;
+            }
+            finally {
+                if (recordSuppressedExceptions) {
+                    this.suppressedSingletonCreationExceptions.remove();
+                }
+                afterSingletonCreation(beanName);
+                this.singletonCreationThreads.remove(beanName);
+            }
+            addSingleton(beanName, (singletonObject != null ? singletonObject : NULL_OBJECT));
+            return singletonObject;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Overridden to record suppressed exceptions per thread while pre-instantiating
+     * in parallel, for the singleton currently being created by that thread.
+     */
+    @Override
+    protected void onSuppressedException(Exception ex) {
+        Set<Exception> suppressedExceptions = this.suppressedSingletonCreationExceptions.get();
+        if (suppressedExceptions != null) {
+            suppressedExceptions.add(ex);
+        }
+        else {
+            super.onSuppressedException(ex);
+        }
+    }
+
+    /**
+     * Acquire the given per-bean creation lock, detecting circular waits
+     * between threads that would otherwise block each other forever.
+     * <p>A thread holding the {@link #getSingletonMutex() singleton mutex} (e.g. while
+     * obtaining the object of a FactoryBean) never blocks on the per-bean lock: the
+     * thread creating that bean may need the singleton mutex to complete. Such a thread
+     * waits on the singleton mutex instead, releasing it in the meantime.
+     * @return {@code true} if the lock has been acquired, {@code false}
+     * if the current thread would close a cycle of waiting threads
+     */
+    private boolean acquireSingletonCreationLock(String beanName, ReentrantLock lock) {
+        if (lock.tryLock()) {
+            return true;
+        }
+        Object singletonMutex = getSingletonMutex();
+        boolean holdsSingletonMutex = Thread.holdsLock(singletonMutex);
+        Thread currentThread = Thread.currentThread();
+        this.singletonCreationWaits.put(currentThread, beanName);
+        try {
+            while (true) {
+                try {
+                    if (holdsSingletonMutex) {
+                        if (lock.tryLock()) {
+                            return true;
+                        }
+                        singletonMutex.wait(SINGLETON_LOCK_CHECK_INTERVAL);
+                    }
+                    else if (lock.tryLock(SINGLETON_LOCK_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new BeanCreationException(beanName, "Interrupted while waiting for singleton creation", ex);
+                }
+                if (isWaitingForCurrentThread(beanName, currentThread)) {
+                    return false;
+                }
+            }
+        }
+        finally {
+            this.singletonCreationWaits.remove(currentThread);
+        }
+    }
+
+    /**
+     * Follow the chain of threads waiting for each other's singletons,
+     * starting at the creator of the given bean.
+     */
+    private boolean isWaitingForCurrentThread(String beanName, Thread currentThread) {
+        String nextBeanName = beanName;
+        for (int i = 0; i <= this.singletonCreationWaits.size(); i++) {
+            Thread creatingThread = this.singletonCreationThreads.get(nextBeanName);
+            if (creatingThread == null) {
+                return false;
+            }
+            if (creatingThread == currentThread) {
+                return true;
+            }
+            nextBeanName = this.singletonCreationWaits.get(creatingThread);
+            if (nextBeanName == null) {
+                return false;
+            }
+        }
+        return false;
+    }
+
 
     //---------------------------------------------------------------------
     // Implementation of BeanDefinitionRegistry interface
@@ -877,10 +1461,15 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
             }
             this.frozenBeanDefinitionNames = null;
         }
+        this.beanDefinitionTypeIndex.add(beanName, determineIndexableBeanType(beanName, beanDefinition));
+        this.manualSingletonTypeIndex.remove(beanName);
 
         if (oldBeanDefinition != null || containsSingleton(beanName)) {
             resetBeanDefinition(beanName);
         }
+        else if (isConfigurationFrozen()) {
+            clearByTypeCacheForDefinition(beanName);
+        }
     }
 
     @Override
@@ -908,8 +1497,10 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
             this.beanDefinitionNames.remove(beanName);
         }
         this.frozenBeanDefinitionNames = null;
+        this.beanDefinitionTypeIndex.remove(beanName);
 
         resetBeanDefinition(beanName);
+        removeMergedBeanDefinition(beanName);
     }
 
     /**
@@ -926,11 +1517,17 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
         // (e.g. the default StaticMessageSource in a StaticApplicationContext).
         destroySingleton(beanName);
 
+        // Re-index the bean, since its type may have changed along with its parent.
+        BeanDefinition bd = this.beanDefinitionMap.get(beanName);
+        if (bd != null) {
+            this.beanDefinitionTypeIndex.add(beanName, determineIndexableBeanType(beanName, bd));
+        }
+
         // Reset all bean definitions that have the given bean as parent (recursively).
         for (String bdName : this.beanDefinitionNames) {
             if (!beanName.equals(bdName)) {
-                BeanDefinition bd = this.beanDefinitionMap.get(bdName);
-                if (beanName.equals(bd.getParentName())) {
+                BeanDefinition childBd = this.beanDefinitionMap.get(bdName);
+                if (beanName.equals(childBd.getParentName())) {
                     resetBeanDefinition(bdName);
                 }
             }
@@ -945,6 +1542,18 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
         return isAllowBeanDefinitionOverriding();
     }
 
+    @Override
+    public void registerAlias(String name, String alias) {
+        super.registerAlias(name, alias);
+        clearResolvedSingletonHandles();
+    }
+
+    @Override
+    public void removeAlias(String alias) {
+        super.removeAlias(alias);
+        clearResolvedSingletonHandles();
+    }
+
     @Override
     public void registerSingleton(String beanName, Object singletonObject) throws IllegalStateException {
         super.registerSingleton(beanName, singletonObject);
@@ -966,21 +1575,54 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
                 this.manualSingletonNames.add(beanName);
             }
         }
+        if (!this.beanDefinitionMap.containsKey(beanName)) {
+            this.manualSingletonTypeIndex.add(beanName,
+                    (singletonObject instanceof FactoryBean ? null : singletonObject.getClass()));
+        }
 
-        clearByTypeCache();
+        invalidateResolvedSingletonHandles(beanName);
+        clearByTypeCache(singletonObject);
+    }
+
+    /**
+     * Overridden to index the bean under the type of its actual instance,
+     * which may differ from its bean class (e.g. in case of a proxy).
+     */
+    @Override
+    protected void addSingleton(String beanName, Object singletonObject) {
+        super.addSingleton(beanName, singletonObject);
+        if (singletonObject != null && singletonObject != NULL_OBJECT && !(singletonObject instanceof FactoryBean)) {
+            this.beanDefinitionTypeIndex.addType(beanName, singletonObject.getClass());
+        }
     }
 
     @Override
     public void destroySingleton(String beanName) {
         super.destroySingleton(beanName);
+        invalidateResolvedSingletonHandles(beanName);
         this.manualSingletonNames.remove(beanName);
-        clearByTypeCache();
+        if (this.manualSingletonTypeIndex.contains(beanName)) {
+            this.manualSingletonTypeIndex.remove(beanName);
+            clearByTypeCache(beanName);
+        }
+        else {
+            // Backed by a bean definition which may have been removed or replaced.
+            clearByTypeCacheForDefinition(beanName);
+        }
     }
 
     @Override
     public void destroySingletons() {
-        super.destroySingletons();
+        this.singletonsInDestruction = true;
+        try {
+            super.destroySingletons();
+        }
+        finally {
+            this.singletonsInDestruction = false;
+        }
+        clearResolvedSingletonHandles();
         this.manualSingletonNames.clear();
+        this.manualSingletonTypeIndex.clear();
         clearByTypeCache();
     }
 
@@ -992,6 +1634,65 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
         this.singletonBeanNamesByType.clear();
     }
 
+    /**
+     * Remove the by-type mappings that a newly registered singleton may affect,
+     * i.e. those for types that the given instance is assignable to.
+     * @param singletonObject the registered singleton instance
+     */
+    private void clearByTypeCache(Object singletonObject) {
+        if (singletonObject == null || singletonObject instanceof FactoryBean) {
+            // Exposed object type not known upfront...
+            clearByTypeCache();
+            return;
+        }
+        for (Map<Class<?>, String[]> cache : Arrays.asList(this.allBeanNamesByType, this.singletonBeanNamesByType)) {
+            for (Iterator<Class<?>> it = cache.keySet().iterator(); it.hasNext();) {
+                if (it.next().isInstance(singletonObject)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the by-type mappings that the given bean definition may affect:
+     * those containing the bean and those for types that it has been indexed under,
+     * i.e. all types assignable from its bean type(s) as far as known.
+     * @param beanName the name of the bean
+     */
+    private void clearByTypeCacheForDefinition(String beanName) {
+        clearByTypeCache(beanName);
+        if (!this.beanDefinitionTypeIndex.contains(beanName)) {
+            // Bean definition removed: cannot match any further types.
+            return;
+        }
+        if (this.beanDefinitionTypeIndex.isUntyped(beanName)) {
+            // Bean type not known upfront...
+            clearByTypeCache();
+            return;
+        }
+        Set<Class<?>> beanTypes = this.beanDefinitionTypeIndex.getIndexedTypes(beanName);
+        this.allBeanNamesByType.keySet().removeAll(beanTypes);
+        this.singletonBeanNamesByType.keySet().removeAll(beanTypes);
+    }
+
+    /**
+     * Remove the by-type mappings that contain the given (destroyed) singleton.
+     * @param beanName the name of the singleton
+     */
+    private void clearByTypeCache(String beanName) {
+        String factoryBeanName = FACTORY_BEAN_PREFIX + beanName;
+        for (Map<Class<?>, String[]> cache : Arrays.asList(this.allBeanNamesByType, this.singletonBeanNamesByType)) {
+            for (Iterator<String[]> it = cache.values().iterator(); it.hasNext();) {
+                String[] beanNames = it.next();
+                if (ObjectUtils.containsElement(beanNames, beanName) ||
+                        ObjectUtils.containsElement(beanNames, factoryBeanName)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
 
     //---------------------------------------------------------------------
     // Dependency resolution functionality
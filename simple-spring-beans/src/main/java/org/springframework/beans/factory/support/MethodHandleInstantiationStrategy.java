@@ -0,0 +1,170 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.support;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.BeanInstantiationException;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * {@link InstantiationStrategy} that compiles each bean constructor into a
+ * {@link MethodHandle} on first use and keeps it per constructor, so that
+ * repeated creation of the same bean (typically a prototype) bypasses reflective
+ * {@code Constructor.newInstance} calls and the associated argument checks.
+ *
+ * <p>The first instantiation for each bean definition goes through the regular
+ * reflective path, also resolving and remembering the constructor to use.
+ * Bean definitions with lookup or replace method overrides always fall back
+ * to the CGLIB-based subclassing inherited from
+ * {@link CglibSubclassingInstantiationStrategy}, as do factory methods and
+ * instantiation under a SecurityManager.
+ *
+ * <p>Note that the method handles are not constants to the JIT compiler, so the
+ * gain over reflection depends on the JVM; compare both strategies for the bean
+ * classes in question before switching.
+ *
+ * @see AbstractAutowireCapableBeanFactory#setInstantiationStrategy
+ */
+public class MethodHandleInstantiationStrategy extends CglibSubclassingInstantiationStrategy {
+
+    private static final MethodType INSTANTIATOR_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+
+    /** Compiled instantiators, keyed by constructor */
+    private final ConcurrentMap<Constructor<?>, Instantiator> instantiators =
+            new ConcurrentHashMap<Constructor<?>, Instantiator>(64);
+
+
+    @Override
+    public Object instantiate(RootBeanDefinition bd, String beanName, BeanFactory owner) {
+        if (bd.hasMethodOverrides() || System.getSecurityManager() != null) {
+            return super.instantiate(bd, beanName, owner);
+        }
+        Constructor<?> ctor = getResolvedDefaultConstructor(bd);
+        Instantiator instantiator = (ctor != null ? this.instantiators.get(ctor) : null);
+        if (instantiator != null) {
+            return instantiator.instantiate(NO_ARGS);
+        }
+        Object instance = super.instantiate(bd, beanName, owner);
+        ctor = getResolvedDefaultConstructor(bd);
+        if (ctor != null) {
+            this.instantiators.putIfAbsent(ctor, Instantiator.forConstructor(ctor));
+        }
+        return instance;
+    }
+
+    @Override
+    public Object instantiate(RootBeanDefinition bd, String beanName, BeanFactory owner,
+            Constructor<?> ctor, Object... args) {
+
+        if (bd.hasMethodOverrides() || System.getSecurityManager() != null) {
+            return super.instantiate(bd, beanName, owner, ctor, args);
+        }
+        Instantiator instantiator = this.instantiators.get(ctor);
+        if (instantiator != null) {
+            return instantiator.instantiate(args != null ? args : NO_ARGS);
+        }
+        Object instance = super.instantiate(bd, beanName, owner, ctor, args);
+        this.instantiators.putIfAbsent(ctor, Instantiator.forConstructor(ctor));
+        return instance;
+    }
+
+    /**
+     * Return the default constructor that has been resolved for the given
+     * bean definition, provided that it still matches the bean class.
+     * @param bd the merged bean definition
+     * @return the constructor, or {@code null} if not resolved yet
+     */
+    private Constructor<?> getResolvedDefaultConstructor(RootBeanDefinition bd) {
+        Object resolved;
+        synchronized (bd.constructorArgumentLock) {
+            resolved = bd.resolvedConstructorOrFactoryMethod;
+        }
+        if (resolved instanceof Constructor && bd.hasBeanClass() &&
+                ((Constructor<?>) resolved).getDeclaringClass() == bd.getBeanClass()) {
+            return (Constructor<?>) resolved;
+        }
+        return null;
+    }
+
+
+    /**
+     * A constructor compiled into a spreading {@link MethodHandle}.
+     */
+    private static class Instantiator {
+
+        private final Constructor<?> constructor;
+
+        private final MethodHandle handle;
+
+        private Instantiator(Constructor<?> constructor, MethodHandle handle) {
+            this.constructor = constructor;
+            this.handle = handle;
+        }
+
+        public static Instantiator forConstructor(Constructor<?> ctor) {
+            MethodHandle handle;
+            try {
+                ReflectionUtils.makeAccessible(ctor);
+                handle = MethodHandles.lookup().unreflectConstructor(ctor).asFixedArity()
+                        .asSpreader(Object[].class, ctor.getParameterTypes().length)
+                        .asType(INSTANTIATOR_TYPE);
+            }
+            catch (Throwable ex) {
+                // Not accessible through a method handle: keep using reflection.
+                handle = null;
+            }
+            return new Instantiator(ctor, handle);
+        }
+
+        public Object instantiate(Object[] args) {
+            if (this.handle == null) {
+                return BeanUtils.instantiateClass(this.constructor, args);
+            }
+            try {
+                return (Object) this.handle.invokeExact(args);
+            }
+            catch (ClassCastException ex) {
+                throw new BeanInstantiationException(this.constructor, "Illegal arguments for constructor", ex);
+            }
+            catch (WrongMethodTypeException ex) {
+                throw new BeanInstantiationException(this.constructor, "Illegal arguments for constructor", ex);
+            }
+            catch (RuntimeException ex) {
+                throw new BeanInstantiationException(this.constructor, "Constructor threw exception", ex);
+            }
+            catch (Error err) {
+                throw err;
+            }
+            catch (Throwable ex) {
+                throw new BeanInstantiationException(this.constructor, "Constructor threw exception", ex);
+            }
+        }
+    }
+
+}
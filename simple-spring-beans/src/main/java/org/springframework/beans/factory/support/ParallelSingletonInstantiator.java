@@ -0,0 +1,445 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.support;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.PropertyValue;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionHolder;
+import org.springframework.beans.factory.config.ConstructorArgumentValues;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+
+/**
+ * Helper class for pre-instantiating a set of singleton beans concurrently,
+ * as used by {@link DefaultListableBeanFactory#preInstantiateSingletons()}
+ * when a pre-instantiation executor has been configured.
+ *
+ * <p>Builds a dependency graph from the merged bean definitions ("depends-on",
+ * factory bean references, constructor argument and property references,
+ * including nested inner beans and managed collections) as well as from the
+ * dependent bean relationships already registered with the factory. Strongly
+ * connected components (i.e. circular references) are collapsed into a single
+ * unit which gets instantiated on one thread, in registration order; all other
+ * units are handed to the executor as soon as all of their dependencies
+ * have been instantiated.
+ *
+ * <p>Dependencies that are not expressed in bean definition metadata
+ * (e.g. annotation-driven autowiring) are still resolved on demand by the
+ * worker that needs them; the factory blocks on a per-bean basis in that case.
+ *
+ * @see DefaultListableBeanFactory#setPreInstantiationExecutor
+ */
+class ParallelSingletonInstantiator {
+
+    private final DefaultListableBeanFactory beanFactory;
+
+    private final Executor executor;
+
+
+    /**
+     * Create a new ParallelSingletonInstantiator for the given bean factory and executor.
+     * @param beanFactory the DefaultListableBeanFactory to instantiate singletons in
+     * @param executor the executor to run independent instantiation units on
+     */
+    public ParallelSingletonInstantiator(DefaultListableBeanFactory beanFactory, Executor executor) {
+        this.beanFactory = beanFactory;
+        this.executor = executor;
+    }
+
+
+    /**
+     * Instantiate the given singleton beans, blocking until all of them
+     * have been created or until the first failure has been encountered.
+     * @param beanNames the names of the beans to instantiate, in registration order
+     * @throws BeansException if one of the singleton beans could not be created
+     */
+    public void instantiate(List<String> beanNames) throws BeansException {
+        if (beanNames.isEmpty()) {
+            return;
+        }
+        List<Unit> units = buildUnits(beanNames);
+        final CountDownLatch latch = new CountDownLatch(units.size());
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        for (Unit unit : units) {
+            if (unit.pendingDependencies.get() == 0) {
+                submit(unit, latch, failure);
+            }
+        }
+
+        try {
+            latch.await();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, ex);
+        }
+
+        Throwable ex = failure.get();
+        if (ex instanceof RuntimeException) {
+            throw (RuntimeException) ex;
+        }
+        if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        if (ex != null) {
+            throw new BeanCreationException("Parallel singleton pre-instantiation failed", ex);
+        }
+    }
+
+    private void submit(Unit unit, CountDownLatch latch, AtomicReference<Throwable> failure) {
+        if (!execute(unit, latch, failure)) {
+            // Executor saturated or shut down -> run on the current thread instead.
+            runUnits(unit, latch, failure);
+        }
+    }
+
+    /**
+     * Hand the given unit to the executor.
+     * @return {@code false} if the executor rejected it
+     */
+    private boolean execute(final Unit unit, final CountDownLatch latch, final AtomicReference<Throwable> failure) {
+        try {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runUnits(unit, latch, failure);
+                }
+            });
+            return true;
+        }
+        catch (RejectedExecutionException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Instantiate the given unit on the current thread, followed by any released
+     * successors that the executor rejects: iterating over a local queue rather than
+     * recursing, so that long dependency chains cannot overflow the stack.
+     */
+    private void runUnits(Unit firstUnit, CountDownLatch latch, AtomicReference<Throwable> failure) {
+        Deque<Unit> pendingUnits = new ArrayDeque<Unit>();
+        pendingUnits.add(firstUnit);
+        Unit unit;
+        while ((unit = pendingUnits.poll()) != null) {
+            try {
+                if (failure.get() == null) {
+                    instantiateUnit(unit);
+                }
+            }
+            catch (Throwable ex) {
+                failure.compareAndSet(null, ex);
+            }
+            finally {
+                // Release successors even after a failure, so that every unit
+                // counts down the latch and the calling thread gets to rethrow.
+                for (Unit successor : unit.successors) {
+                    if (successor.pendingDependencies.decrementAndGet() == 0 &&
+                            !execute(successor, latch, failure)) {
+                        pendingUnits.add(successor);
+                    }
+                }
+                latch.countDown();
+            }
+        }
+    }
+
+    private void instantiateUnit(Unit unit) {
+        Thread currentThread = Thread.currentThread();
+        ClassLoader previousClassLoader = currentThread.getContextClassLoader();
+        ClassLoader beanClassLoader = this.beanFactory.getBeanClassLoader();
+        boolean overrideClassLoader = (beanClassLoader != null && beanClassLoader != previousClassLoader);
+        if (overrideClassLoader) {
+            currentThread.setContextClassLoader(beanClassLoader);
+        }
+        try {
+            for (String beanName : unit.beanNames) {
+                this.beanFactory.preInstantiateSingleton(beanName);
+            }
+        }
+        finally {
+            if (overrideClassLoader) {
+                currentThread.setContextClassLoader(previousClassLoader);
+            }
+        }
+    }
+
+
+    //---------------------------------------------------------------------
+    // Dependency graph construction
+    //---------------------------------------------------------------------
+
+    /**
+     * Build the condensed dependency graph for the given bean names: one unit
+     * per strongly connected component, linked to the units depending on it.
+     */
+    private List<Unit> buildUnits(List<String> beanNames) {
+        Map<String, Integer> indexes = new HashMap<String, Integer>(beanNames.size() * 2);
+        for (int i = 0; i < beanNames.size(); i++) {
+            indexes.put(beanNames.get(i), i);
+        }
+        int[][] edges = new int[beanNames.size()][];
+        for (int i = 0; i < beanNames.size(); i++) {
+            Set<Integer> targets = new LinkedHashSet<Integer>();
+            for (String dependency : determineDependencies(beanNames.get(i))) {
+                Integer target = indexes.get(dependency);
+                if (target != null && target != i) {
+                    targets.add(target);
+                }
+            }
+            edges[i] = new int[targets.size()];
+            int j = 0;
+            for (Integer target : targets) {
+                edges[i][j++] = target;
+            }
+        }
+
+        int[] components = new ComponentFinder(edges).find();
+        int componentCount = 0;
+        for (int component : components) {
+            componentCount = Math.max(componentCount, component + 1);
+        }
+        Unit[] units = new Unit[componentCount];
+        for (int i = 0; i < beanNames.size(); i++) {
+            int component = components[i];
+            if (units[component] == null) {
+                units[component] = new Unit();
+            }
+            units[component].beanNames.add(beanNames.get(i));
+        }
+        for (int i = 0; i < edges.length; i++) {
+            Unit dependent = units[components[i]];
+            for (int target : edges[i]) {
+                Unit dependency = units[components[target]];
+                if (dependency != dependent && dependency.successors.add(dependent)) {
+                    dependent.pendingDependencies.incrementAndGet();
+                }
+            }
+        }
+
+        List<Unit> result = new ArrayList<Unit>(componentCount);
+        for (Unit unit : units) {
+            result.add(unit);
+        }
+        return result;
+    }
+
+    /**
+     * Determine the canonical names of all beans that the given bean refers to,
+     * as far as expressed in its merged bean definition or already registered
+     * as a dependency with the factory.
+     */
+    private Set<String> determineDependencies(String beanName) {
+        Set<String> dependencies = new LinkedHashSet<String>();
+        RootBeanDefinition mbd = this.beanFactory.getMergedLocalBeanDefinition(beanName);
+        collectReferences(mbd, dependencies);
+        for (String dependency : this.beanFactory.getDependenciesForBean(beanName)) {
+            dependencies.add(dependency);
+        }
+        Set<String> result = new LinkedHashSet<String>(dependencies.size());
+        for (String dependency : dependencies) {
+            result.add(this.beanFactory.transformedBeanName(dependency));
+        }
+        return result;
+    }
+
+    private void collectReferences(BeanDefinition bd, Set<String> references) {
+        String[] dependsOn = bd.getDependsOn();
+        if (dependsOn != null) {
+            for (String dependsOnBean : dependsOn) {
+                references.add(dependsOnBean);
+            }
+        }
+        if (bd.getFactoryBeanName() != null) {
+            references.add(bd.getFactoryBeanName());
+        }
+        ConstructorArgumentValues cargs = bd.getConstructorArgumentValues();
+        for (ConstructorArgumentValues.ValueHolder valueHolder : cargs.getIndexedArgumentValues().values()) {
+            collectReferences(valueHolder.getValue(), references);
+        }
+        for (ConstructorArgumentValues.ValueHolder valueHolder : cargs.getGenericArgumentValues()) {
+            collectReferences(valueHolder.getValue(), references);
+        }
+        for (PropertyValue pv : bd.getPropertyValues().getPropertyValues()) {
+            collectReferences(pv.getValue(), references);
+        }
+    }
+
+    private void collectReferences(Object value, Set<String> references) {
+        if (value instanceof RuntimeBeanReference) {
+            references.add(((RuntimeBeanReference) value).getBeanName());
+        }
+        else if (value instanceof BeanDefinitionHolder) {
+            collectReferences(((BeanDefinitionHolder) value).getBeanDefinition(), references);
+        }
+        else if (value instanceof BeanDefinition) {
+            collectReferences((BeanDefinition) value, references);
+        }
+        else if (value instanceof Object[]) {
+            for (Object element : (Object[]) value) {
+                collectReferences(element, references);
+            }
+        }
+        else if (value instanceof Collection) {
+            for (Object element : (Collection<?>) value) {
+                collectReferences(element, references);
+            }
+        }
+        else if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                collectReferences(entry.getKey(), references);
+                collectReferences(entry.getValue(), references);
+            }
+        }
+    }
+
+
+    /**
+     * A unit of instantiation: one strongly connected component of the
+     * dependency graph, to be instantiated on a single thread.
+     */
+    private static class Unit {
+
+        final List<String> beanNames = new ArrayList<String>(1);
+
+        final Set<Unit> successors = new LinkedHashSet<Unit>(4);
+
+        final AtomicInteger pendingDependencies = new AtomicInteger();
+    }
+
+
+    /**
+     * Tarjan's algorithm for strongly connected components, implemented
+     * iteratively in order to cope with long dependency chains.
+     */
+    private static class ComponentFinder {
+
+        private final int[][] edges;
+
+        private final int[] index;
+
+        private final int[] lowLink;
+
+        private final boolean[] onStack;
+
+        private final int[] components;
+
+        private final int[] stack;
+
+        /** Nodes of the current depth-first path, in lieu of recursion */
+        private final int[] callStack;
+
+        /** Next edge to follow per depth of the current path */
+        private final int[] edgePositions;
+
+        private int stackSize;
+
+        private int nextIndex;
+
+        private int nextComponent;
+
+        public ComponentFinder(int[][] edges) {
+            this.edges = edges;
+            this.index = new int[edges.length];
+            this.lowLink = new int[edges.length];
+            this.onStack = new boolean[edges.length];
+            this.components = new int[edges.length];
+            this.stack = new int[edges.length];
+            this.callStack = new int[edges.length];
+            this.edgePositions = new int[edges.length];
+            for (int i = 0; i < edges.length; i++) {
+                this.index[i] = -1;
+            }
+        }
+
+        public int[] find() {
+            for (int i = 0; i < this.edges.length; i++) {
+                if (this.index[i] == -1) {
+                    visit(i);
+                }
+            }
+            return this.components;
+        }
+
+        private void visit(int root) {
+            int[] callStack = this.callStack;
+            int[] edgePositions = this.edgePositions;
+            int depth = 0;
+            callStack[0] = root;
+            edgePositions[0] = 0;
+            open(root);
+            while (depth >= 0) {
+                int node = callStack[depth];
+                if (edgePositions[depth] < this.edges[node].length) {
+                    int target = this.edges[node][edgePositions[depth]++];
+                    if (this.index[target] == -1) {
+                        open(target);
+                        depth++;
+                        callStack[depth] = target;
+                        edgePositions[depth] = 0;
+                    }
+                    else if (this.onStack[target]) {
+                        this.lowLink[node] = Math.min(this.lowLink[node], this.index[target]);
+                    }
+                }
+                else {
+                    if (this.lowLink[node] == this.index[node]) {
+                        int member;
+                        do {
+                            member = this.stack[--this.stackSize];
+                            this.onStack[member] = false;
+                            this.components[member] = this.nextComponent;
+                        }
+                        while (member != node);
+                        this.nextComponent++;
+                    }
+                    depth--;
+                    if (depth >= 0) {
+                        int parent = callStack[depth];
+                        this.lowLink[parent] = Math.min(this.lowLink[parent], this.lowLink[node]);
+                    }
+                }
+            }
+        }
+
+        private void open(int node) {
+            this.index[node] = this.nextIndex;
+            this.lowLink[node] = this.nextIndex;
+            this.nextIndex++;
+            this.stack[this.stackSize++] = node;
+            this.onStack[node] = true;
+        }
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.support;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.PropertyAccessorUtils;
+import org.springframework.beans.PropertyValue;
+import org.springframework.beans.PropertyValues;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Pre-compiled sequence of property injections for a particular merged bean
+ * definition, used by {@link AbstractAutowireCapableBeanFactory} to populate
+ * repeatedly created (i.e. non-singleton) bean instances.
+ *
+ * <p>A plan gets compiled right after the first instance of a bean has been
+ * populated through the regular {@code BeanWrapper} path. From then on, every
+ * property is applied through a method handle for its setter: pre-converted
+ * constant values are passed as-is, plain bean references are obtained from the
+ * factory directly, and only the remaining values (inner beans, managed
+ * collections, expressions) are resolved and converted for each instance.
+ *
+ * <p>A plan is only valid for the exact {@link MutablePropertyValues} instance
+ * and bean class it has been compiled for. Property values that cannot be handled
+ * by a plan get a plan without steps, remembering that for the same validity.
+ *
+ * @see AbstractAutowireCapableBeanFactory#applyPropertyValues
+ */
+final class PropertyInjectionPlan {
+
+    /** Bean references containing this prefix need to be evaluated by the value resolver */
+    private static final String EXPRESSION_PREFIX = "#{";
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+
+    private final MutablePropertyValues propertyValues;
+
+    private final Class<?> beanClass;
+
+    private final Step[] steps;
+
+    private final boolean resolverNecessary;
+
+
+    private PropertyInjectionPlan(MutablePropertyValues propertyValues, Class<?> beanClass,
+            Step[] steps, boolean resolverNecessary) {
+
+        this.propertyValues = propertyValues;
+        this.beanClass = beanClass;
+        this.steps = steps;
+        this.resolverNecessary = resolverNecessary;
+    }
+
+
+    /**
+     * Compile a plan for the given property values, as applied to the given
+     * (already populated) bean instance.
+     * @param pvs the property values of the merged bean definition
+     * @param bw the BeanWrapper that the property values have just been applied to
+     * @return the plan, not {@link #hasSteps() having steps} if the property values
+     * cannot be handled by a plan (e.g. because of nested or indexed property paths)
+     */
+    static PropertyInjectionPlan compile(MutablePropertyValues pvs, BeanWrapper bw) {
+        Step[] steps = compileSteps(pvs, bw);
+        boolean resolverNecessary = false;
+        if (steps != null) {
+            for (Step step : steps) {
+                resolverNecessary |= (step instanceof ResolvingStep);
+            }
+        }
+        return new PropertyInjectionPlan(pvs, bw.getWrappedClass(), steps, resolverNecessary);
+    }
+
+    private static Step[] compileSteps(MutablePropertyValues pvs, BeanWrapper bw) {
+        List<PropertyValue> original = pvs.getPropertyValueList();
+        Step[] steps = new Step[original.size()];
+        try {
+            for (int i = 0; i < steps.length; i++) {
+                PropertyValue pv = original.get(i);
+                String propertyName = pv.getName();
+                if (PropertyAccessorUtils.isNestedOrIndexedProperty(propertyName)) {
+                    return null;
+                }
+                PropertyDescriptor pd = bw.getPropertyDescriptor(propertyName);
+                Method writeMethod = pd.getWriteMethod();
+                if (writeMethod == null) {
+                    return null;
+                }
+                ReflectionUtils.makeAccessible(writeMethod);
+                MethodHandle setter = MethodHandles.lookup().unreflect(writeMethod).asType(SETTER_TYPE);
+                Object value = pv.getValue();
+                if (pv.isConverted()) {
+                    steps[i] = new ConstantStep(propertyName, setter, pv.getConvertedValue());
+                }
+                else if (value instanceof RuntimeBeanReference && !((RuntimeBeanReference) value).isToParent() &&
+                        !((RuntimeBeanReference) value).getBeanName().contains(EXPRESSION_PREFIX)) {
+                    steps[i] = new ReferenceStep(propertyName, setter, pd.getPropertyType(),
+                            ((RuntimeBeanReference) value).getBeanName());
+                }
+                else {
+                    steps[i] = new ResolvingStep(propertyName, setter, pv);
+                }
+            }
+        }
+        catch (BeansException ex) {
+            return null;
+        }
+        catch (IllegalAccessException ex) {
+            return null;
+        }
+        return steps;
+    }
+
+
+    /**
+     * Return whether this plan actually handles its property values,
+     * as opposed to marking them as not applicable.
+     */
+    boolean hasSteps() {
+        return (this.steps != null);
+    }
+
+    /**
+     * Determine whether this plan has been compiled for the given property values and bean.
+     */
+    boolean isApplicableTo(PropertyValues pvs, BeanWrapper bw) {
+        return (this.propertyValues == pvs && this.beanClass == bw.getWrappedClass());
+    }
+
+    /**
+     * Apply this plan to the bean instance held by the given BeanWrapper.
+     * @param beanFactory the factory to obtain referenced beans from
+     * @param beanName the name of the bean (for dependency registration and error reporting)
+     * @param mbd the merged bean definition
+     * @param bw the BeanWrapper holding the new bean instance
+     */
+    void apply(AbstractAutowireCapableBeanFactory beanFactory, String beanName,
+            RootBeanDefinition mbd, BeanWrapperImpl bw) {
+
+        Object target = bw.getWrappedInstance();
+        BeanDefinitionValueResolver valueResolver = (this.resolverNecessary ?
+                new BeanDefinitionValueResolver(beanFactory, beanName, mbd, bw) : null);
+        for (Step step : this.steps) {
+            Object value = step.obtainValue(beanFactory, beanName, bw, valueResolver);
+            try {
+                step.setter.invokeExact(target, value);
+            }
+            catch (RuntimeException ex) {
+                throw new BeanCreationException(mbd.getResourceDescription(), beanName,
+                        "Error setting property value '" + step.propertyName + "'", ex);
+            }
+            catch (Error err) {
+                throw err;
+            }
+            catch (Throwable ex) {
+                throw new BeanCreationException(mbd.getResourceDescription(), beanName,
+                        "Error setting property value '" + step.propertyName + "'", ex);
+            }
+        }
+    }
+
+
+    /**
+     * A single property injection.
+     */
+    private abstract static class Step {
+
+        final String propertyName;
+
+        final MethodHandle setter;
+
+        Step(String propertyName, MethodHandle setter) {
+            this.propertyName = propertyName;
+            this.setter = setter;
+        }
+
+        abstract Object obtainValue(AbstractAutowireCapableBeanFactory beanFactory, String beanName,
+                BeanWrapperImpl bw, BeanDefinitionValueResolver valueResolver);
+    }
+
+
+    /**
+     * Injection of a value that has been converted once and for all.
+     */
+    private static class ConstantStep extends Step {
+
+        private final Object value;
+
+        ConstantStep(String propertyName, MethodHandle setter, Object value) {
+            super(propertyName, setter);
+            this.value = value;
+        }
+
+        @Override
+        Object obtainValue(AbstractAutowireCapableBeanFactory beanFactory, String beanName,
+                BeanWrapperImpl bw, BeanDefinitionValueResolver valueResolver) {
+            return this.value;
+        }
+    }
+
+
+    /**
+     * Injection of a reference to another bean in the same factory.
+     */
+    private static class ReferenceStep extends Step {
+
+        private final Class<?> propertyType;
+
+        private final String refName;
+
+        ReferenceStep(String propertyName, MethodHandle setter, Class<?> propertyType, String refName) {
+            super(propertyName, setter);
+            this.propertyType = propertyType;
+            this.refName = refName;
+        }
+
+        @Override
+        Object obtainValue(AbstractAutowireCapableBeanFactory beanFactory, String beanName,
+                BeanWrapperImpl bw, BeanDefinitionValueResolver valueResolver) {
+            Object bean = beanFactory.getBean(this.refName);
+            beanFactory.registerDependentBean(this.refName, beanName);
+            if (bean == null || this.propertyType.isInstance(bean)) {
+                return bean;
+            }
+            return bw.convertForProperty(bean, this.propertyName);
+        }
+    }
+
+
+    /**
+     * Injection of a value that needs to be resolved and converted for every instance.
+     */
+    private static class ResolvingStep extends Step {
+
+        private final PropertyValue propertyValue;
+
+        ResolvingStep(String propertyName, MethodHandle setter, PropertyValue propertyValue) {
+            super(propertyName, setter);
+            this.propertyValue = propertyValue;
+        }
+
+        @Override
+        Object obtainValue(AbstractAutowireCapableBeanFactory beanFactory, String beanName,
+                BeanWrapperImpl bw, BeanDefinitionValueResolver valueResolver) {
+            Object resolvedValue = valueResolver.resolveValueIfNecessary(
+                    this.propertyValue, this.propertyValue.getValue());
+            return bw.convertForProperty(resolvedValue, this.propertyName);
+        }
+    }
+
+}
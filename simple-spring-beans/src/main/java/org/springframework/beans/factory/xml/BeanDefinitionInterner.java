@@ -0,0 +1,250 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.beans.factory.support.ManagedList;
+import org.springframework.beans.factory.support.ManagedSet;
+import org.springframework.util.Assert;
+
+/**
+ * Deduplicates the immutable metadata of parsed bean definitions: class names,
+ * property names, bean reference names, constant typed String values and
+ * collections made up of constant typed String values only.
+ *
+ * <p>Used by {@link BeanDefinitionParserDelegate} if the reader has been given
+ * an interner. An instance is typically scoped to a single
+ * {@link XmlBeanDefinitionReader} (the parse session), but may also be shared
+ * among all readers loading into the same bean factory. This class is thread-safe.
+ *
+ * <p>Typed String values only get shared if they carry no source object and have
+ * not been marked as dynamic, and if their value does not contain any of the
+ * {@linkplain #setDynamicValueMarkers dynamic value markers} (by default the
+ * placeholder and expression prefixes), since post-processors only ever modify
+ * such values in place.
+ * Shared collections must not be modified in place either, which is why
+ * this interner is not enabled by default.
+ *
+ * @see XmlBeanDefinitionReader#setBeanDefinitionInterner
+ */
+public class BeanDefinitionInterner {
+
+    /** Estimated shallow size of a String plus its character array, excluding the characters */
+    private static final int STRING_OVERHEAD = 40;
+
+    /** Estimated shallow size of a TypedStringValue */
+    private static final int TYPED_STRING_VALUE_SIZE = 32;
+
+    /** Estimated shallow size of a managed collection plus its backing storage, excluding the slots */
+    private static final int COLLECTION_OVERHEAD = 64;
+
+    /** Estimated size of a reference within a backing array or hash table */
+    private static final int REFERENCE_SIZE = 8;
+
+    /** Default placeholder and expression prefixes, as resolved by the standard post-processors */
+    private static final String[] DEFAULT_DYNAMIC_VALUE_MARKERS = new String[] {"${", "#{"};
+
+
+    private final ConcurrentMap<String, String> strings = new ConcurrentHashMap<String, String>(1024);
+
+    private final ConcurrentMap<List<Object>, TypedStringValue> typedStringValues =
+            new ConcurrentHashMap<List<Object>, TypedStringValue>(1024);
+
+    private final ConcurrentMap<List<Object>, Collection<?>> collections =
+            new ConcurrentHashMap<List<Object>, Collection<?>>(256);
+
+    private volatile String[] dynamicValueMarkers = DEFAULT_DYNAMIC_VALUE_MARKERS;
+
+    private final AtomicLong internedCount = new AtomicLong();
+
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+
+    /**
+     * Specify the markers identifying typed String values that a post-processor
+     * may still modify in place, which therefore never get shared.
+     * <p>Default is "${" and "#{". Set this to include the prefixes of any placeholder
+     * configurer with a custom prefix, or of any custom post-processor that rewrites
+     * values in place. A PropertyOverrideConfigurer replaces property values instead
+     * of modifying them, so it does not need a marker.
+     * @see org.springframework.beans.factory.config.PlaceholderConfigurerSupport#setPlaceholderPrefix
+     */
+    public void setDynamicValueMarkers(String... dynamicValueMarkers) {
+        Assert.notNull(dynamicValueMarkers, "Dynamic value markers must not be null");
+        this.dynamicValueMarkers = dynamicValueMarkers.clone();
+    }
+
+    /**
+     * Return the markers identifying typed String values that never get shared.
+     */
+    public String[] getDynamicValueMarkers() {
+        return this.dynamicValueMarkers.clone();
+    }
+
+    /**
+     * Return the canonical instance of the given String, such as a
+     * class name, property name or bean reference name.
+     * @param value the String to intern (may be {@code null})
+     * @return the canonical instance (or {@code null} if given {@code null})
+     */
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String existing = this.strings.putIfAbsent(value, value);
+        if (existing == null) {
+            return value;
+        }
+        if (existing != value) {
+            recordSaving(STRING_OVERHEAD + 2L * value.length());
+        }
+        return existing;
+    }
+
+    /**
+     * Return the canonical instance of the given typed String value, if sharable.
+     * @param typedValue the typed String value, fully initialized
+     * @return the canonical instance, or the given value if not sharable
+     */
+    public TypedStringValue intern(TypedStringValue typedValue) {
+        if (!isConstant(typedValue)) {
+            return typedValue;
+        }
+        TypedStringValue existing = this.typedStringValues.putIfAbsent(keyFor(typedValue), typedValue);
+        if (existing == null) {
+            return typedValue;
+        }
+        if (existing != typedValue) {
+            recordSaving(TYPED_STRING_VALUE_SIZE);
+        }
+        return existing;
+    }
+
+    /**
+     * Return the canonical instance of the given list or set, if all of its elements
+     * are shared typed String values (as returned from {@link #intern(TypedStringValue)}).
+     * @param collection the fully populated {@link ManagedList} or {@link ManagedSet}
+     * @return the canonical instance, or the given collection if not sharable
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Collection<?>> T intern(T collection) {
+        String elementTypeName;
+        boolean mergeEnabled;
+        Object source;
+        if (collection instanceof ManagedList) {
+            ManagedList<?> list = (ManagedList<?>) collection;
+            elementTypeName = list.getElementTypeName();
+            mergeEnabled = list.isMergeEnabled();
+            source = list.getSource();
+        }
+        else if (collection instanceof ManagedSet) {
+            ManagedSet<?> set = (ManagedSet<?>) collection;
+            elementTypeName = set.getElementTypeName();
+            mergeEnabled = set.isMergeEnabled();
+            source = set.getSource();
+        }
+        else {
+            return collection;
+        }
+        if (source != null) {
+            return collection;
+        }
+        for (Object element : collection) {
+            if (!(element instanceof TypedStringValue) ||
+                    this.typedStringValues.get(keyFor((TypedStringValue) element)) != element) {
+                return collection;
+            }
+        }
+        List<Object> key = Arrays.<Object>asList(collection.getClass(), intern(elementTypeName),
+                mergeEnabled, new ArrayList<Object>(collection));
+        Collection<?> existing = this.collections.putIfAbsent(key, collection);
+        if (existing == null) {
+            return collection;
+        }
+        if (existing != collection) {
+            recordSaving(COLLECTION_OVERHEAD + (long) REFERENCE_SIZE * collection.size());
+        }
+        return (T) existing;
+    }
+
+    /**
+     * Return the number of duplicates replaced by a canonical instance so far.
+     */
+    public long getInternedCount() {
+        return this.internedCount.get();
+    }
+
+    /**
+     * Return the estimated number of bytes saved so far, assuming that
+     * the replaced duplicates are not referenced elsewhere.
+     */
+    public long getBytesSaved() {
+        return this.bytesSaved.get();
+    }
+
+    /**
+     * Release all canonical instances, keeping the statistics.
+     */
+    public void clear() {
+        this.strings.clear();
+        this.typedStringValues.clear();
+        this.collections.clear();
+    }
+
+
+    private boolean isConstant(TypedStringValue typedValue) {
+        if (typedValue.getSource() != null || typedValue.isDynamic()) {
+            return false;
+        }
+        String value = typedValue.getValue();
+        if (value != null) {
+            for (String marker : this.dynamicValueMarkers) {
+                if (value.contains(marker)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private List<Object> keyFor(TypedStringValue typedValue) {
+        Object targetType = (typedValue.hasTargetType() ? typedValue.getTargetType() :
+                intern(typedValue.getTargetTypeName()));
+        return Arrays.<Object>asList(
+                intern(typedValue.getValue()), targetType, intern(typedValue.getSpecifiedTypeName()));
+    }
+
+    private void recordSaving(long bytes) {
+        this.internedCount.incrementAndGet();
+        this.bytesSaved.addAndGet(bytes);
+    }
+
+    @Override
+    public String toString() {
+        return "BeanDefinitionInterner: " + getInternedCount() + " duplicates replaced, ~" +
+                getBytesSaved() + " bytes saved";
+    }
+
+}
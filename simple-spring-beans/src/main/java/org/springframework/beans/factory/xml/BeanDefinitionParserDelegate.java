@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import javax.xml.XMLConstants;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -252,6 +253,12 @@ public class BeanDefinitionParserDelegate {
      */
     private final Set<String> usedNames = new HashSet<String>();
 
+    /** Interner for the parsed metadata, or {@code null} if not deduplicating */
+    private final BeanDefinitionInterner interner;
+
+    /** Whether to defer parsing the sub-elements of top-level lazy-init beans */
+    private final boolean deferLazyInitBeanParsing;
+
 
     /**
      * Create a new BeanDefinitionParserDelegate associated with the supplied
@@ -260,6 +267,9 @@ public class BeanDefinitionParserDelegate {
     public BeanDefinitionParserDelegate(XmlReaderContext readerContext) {
         Assert.notNull(readerContext, "XmlReaderContext must not be null");
         this.readerContext = readerContext;
+        XmlBeanDefinitionReader reader = readerContext.getReader();
+        this.interner = (reader != null ? reader.getBeanDefinitionInterner() : null);
+        this.deferLazyInitBeanParsing = (reader != null && reader.shouldDeferLazyInitBeanParsing());
     }
 
 
@@ -279,6 +289,35 @@ public class BeanDefinitionParserDelegate {
         return this.readerContext.getEnvironment();
     }
 
+    /**
+     * Return the canonical instance of the given class name, property name or bean
+     * name if the reader deduplicates parsed metadata, else the given String itself.
+     * @see XmlBeanDefinitionReader#setBeanDefinitionInterner
+     */
+    protected String intern(String value) {
+        return (this.interner != null ? this.interner.intern(value) : value);
+    }
+
+    /**
+     * Return the canonical instance of the given fully initialized typed String value
+     * if the reader deduplicates parsed metadata and the value is constant,
+     * else the given value itself.
+     * @see XmlBeanDefinitionReader#setBeanDefinitionInterner
+     */
+    protected TypedStringValue intern(TypedStringValue typedValue) {
+        return (this.interner != null ? this.interner.intern(typedValue) : typedValue);
+    }
+
+    /**
+     * Return the canonical instance of the given fully populated list or set
+     * if the reader deduplicates parsed metadata and all elements are constant,
+     * else the given collection itself.
+     * @see XmlBeanDefinitionReader#setBeanDefinitionInterner
+     */
+    protected <T extends Collection<?>> T intern(T collection) {
+        return (this.interner != null ? this.interner.intern(collection) : collection);
+    }
+
     /**
      * Invoke the {@link org.springframework.beans.factory.parsing.SourceExtractor} to pull the
      * source metadata from the supplied {@link Element}.
@@ -526,26 +565,22 @@ public class BeanDefinitionParserDelegate {
 
         String className = null;
         if (ele.hasAttribute(CLASS_ATTRIBUTE)) {
-            className = ele.getAttribute(CLASS_ATTRIBUTE).trim();
+            className = intern(ele.getAttribute(CLASS_ATTRIBUTE).trim());
         }
 
         try {
             String parent = null;
             if (ele.hasAttribute(PARENT_ATTRIBUTE)) {
-                parent = ele.getAttribute(PARENT_ATTRIBUTE);
+                parent = intern(ele.getAttribute(PARENT_ATTRIBUTE));
             }
-            AbstractBeanDefinition bd = createBeanDefinition(className, parent);
+            boolean deferred = isDeferrable(ele, containingBean);
+            AbstractBeanDefinition bd = (deferred ? createDeferredBeanDefinition(ele, beanName, className, parent) :
+                    createBeanDefinition(className, parent));
 
             parseBeanDefinitionAttributes(ele, beanName, containingBean, bd);
-            bd.setDescription(DomUtils.getChildElementValueByTagName(ele, DESCRIPTION_ELEMENT));
-
-            parseMetaElements(ele, bd);
-            parseLookupOverrideSubElements(ele, bd.getMethodOverrides());
-            parseReplacedMethodSubElements(ele, bd.getMethodOverrides());
-
-            parseConstructorArgElements(ele, bd);
-            parsePropertyElements(ele, bd);
-            parseQualifierElements(ele, bd);
+            if (!deferred) {
+                parseBeanDefinitionSubElements(ele, bd);
+            }
 
             bd.setResource(this.readerContext.getResource());
             bd.setSource(extractSource(ele));
@@ -568,6 +603,108 @@ public class BeanDefinitionParserDelegate {
         return null;
     }
 
+    /**
+     * Parse the description, meta, lookup-method, replaced-method, constructor-arg,
+     * property and qualifier sub-elements of the given bean element.
+     */
+    private void parseBeanDefinitionSubElements(Element ele, AbstractBeanDefinition bd) {
+        bd.setDescription(DomUtils.getChildElementValueByTagName(ele, DESCRIPTION_ELEMENT));
+
+        parseMetaElements(ele, bd);
+        parseLookupOverrideSubElements(ele, bd.getMethodOverrides());
+        parseReplacedMethodSubElements(ele, bd.getMethodOverrides());
+
+        parseConstructorArgElements(ele, bd);
+        parsePropertyElements(ele, bd);
+        parseQualifierElements(ele, bd);
+    }
+
+    /**
+     * Parse the sub-elements of a bean element whose parsing has been deferred
+     * into the given bean definition.
+     * @see DeferredXmlBeanDefinition#materialize()
+     */
+    void parseDeferredBeanDefinitionElement(Element ele, String beanName, AbstractBeanDefinition bd) {
+        this.parseState.push(new BeanEntry(beanName));
+        try {
+            parseBeanDefinitionSubElements(ele, bd);
+        }
+        finally {
+            this.parseState.pop();
+        }
+    }
+
+    /**
+     * Determine whether parsing the sub-elements of the given bean element can be
+     * deferred: for top-level lazy-init beans without any custom namespace elements
+     * or attributes, which might otherwise register further components or decorate
+     * the bean definition while being parsed.
+     * @see XmlBeanDefinitionReader#setDeferLazyInitBeanParsing
+     */
+    protected boolean isDeferrable(Element ele, BeanDefinition containingBean) {
+        if (!this.deferLazyInitBeanParsing || containingBean != null) {
+            return false;
+        }
+        String lazyInit = ele.getAttribute(LAZY_INIT_ATTRIBUTE);
+        if (DEFAULT_VALUE.equals(lazyInit)) {
+            lazyInit = this.defaults.getLazyInit();
+        }
+        if (!TRUE_VALUE.equals(lazyInit) || !isDefaultNamespaceOnly(ele)) {
+            return false;
+        }
+        NodeList descendants = ele.getElementsByTagName("*");
+        for (int i = 0; i < descendants.getLength(); i++) {
+            if (!isDefaultNamespaceOnly(descendants.item(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isDefaultNamespaceOnly(Node node) {
+        if (!isDefaultNamespace(node)) {
+            return false;
+        }
+        NamedNodeMap attributes = node.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            String namespaceUri = getNamespaceURI(attributes.item(i));
+            if (namespaceUri != null && !isDefaultNamespace(namespaceUri) &&
+                    !XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(namespaceUri) &&
+                    !XMLConstants.XML_NS_URI.equals(namespaceUri) &&
+                    !XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(namespaceUri)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Create a bean definition for the given bean element whose sub-elements
+     * get parsed on first access.
+     * @param ele the bean element
+     * @param beanName the name of the bean
+     * @param className the name of the bean class
+     * @param parentName the name of the bean's parent bean
+     * @return the newly created bean definition
+     * @throws ClassNotFoundException if bean class resolution was attempted but failed
+     */
+    protected AbstractBeanDefinition createDeferredBeanDefinition(
+            Element ele, String beanName, String className, String parentName) throws ClassNotFoundException {
+
+        DeferredXmlBeanDefinition bd = new DeferredXmlBeanDefinition(ele, beanName, this);
+        bd.setParentName(parentName);
+        if (className != null) {
+            ClassLoader classLoader = this.readerContext.getBeanClassLoader();
+            if (classLoader != null) {
+                bd.setBeanClass(ClassUtils.forName(className, classLoader));
+            }
+            else {
+                bd.setBeanClassName(className);
+            }
+        }
+        return bd;
+    }
+
     /**
      * Apply the attributes of the given bean element to the given bean * definition.
      * @param ele bean declaration element
@@ -880,7 +1017,7 @@ public class BeanDefinitionParserDelegate {
      * Parse a property element.
      */
     public void parsePropertyElement(Element ele, BeanDefinition bd) {
-        String propertyName = ele.getAttribute(NAME_ATTRIBUTE);
+        String propertyName = intern(ele.getAttribute(NAME_ATTRIBUTE));
         if (!StringUtils.hasLength(propertyName)) {
             error("Tag 'property' must have a 'name' attribute", ele);
             return;
@@ -983,14 +1120,14 @@ public class BeanDefinitionParserDelegate {
             if (!StringUtils.hasText(refName)) {
                 error(elementName + " contains empty 'ref' attribute", ele);
             }
-            RuntimeBeanReference ref = new RuntimeBeanReference(refName);
+            RuntimeBeanReference ref = new RuntimeBeanReference(intern(refName));
             ref.setSource(extractSource(ele));
             return ref;
         }
         else if (hasValueAttribute) {
             TypedStringValue valueHolder = new TypedStringValue(ele.getAttribute(VALUE_ATTRIBUTE));
             valueHolder.setSource(extractSource(ele));
-            return valueHolder;
+            return intern(valueHolder);
         }
         else if (subElement != null) {
             return parsePropertySubElement(subElement, bd);
@@ -1045,7 +1182,7 @@ public class BeanDefinitionParserDelegate {
                 error("<ref> element contains empty target attribute", ele);
                 return null;
             }
-            RuntimeBeanReference ref = new RuntimeBeanReference(refName, toParent);
+            RuntimeBeanReference ref = new RuntimeBeanReference(intern(refName), toParent);
             ref.setSource(extractSource(ele));
             return ref;
         }
@@ -1060,7 +1197,7 @@ public class BeanDefinitionParserDelegate {
             // object in order to preserve the source location.
             TypedStringValue nullHolder = new TypedStringValue(null);
             nullHolder.setSource(extractSource(ele));
-            return nullHolder;
+            return intern(nullHolder);
         }
         else if (nodeNameEquals(ele, ARRAY_ELEMENT)) {
             return parseArrayElement(ele, bd);
@@ -1121,7 +1258,7 @@ public class BeanDefinitionParserDelegate {
             TypedStringValue typedValue = buildTypedStringValue(value, typeName);
             typedValue.setSource(extractSource(ele));
             typedValue.setSpecifiedTypeName(specifiedTypeName);
-            return typedValue;
+            return intern(typedValue);
         }
         catch (ClassNotFoundException ex) {
             error("Type class [" + typeName + "] not found for <value> element", ele, ex);
@@ -1176,7 +1313,7 @@ public class BeanDefinitionParserDelegate {
         target.setElementTypeName(defaultElementType);
         target.setMergeEnabled(parseMergeAttribute(collectionEle));
         parseCollectionElements(nl, target, bd, defaultElementType);
-        return target;
+        return intern(target);
     }
 
     /**
@@ -1190,7 +1327,7 @@ public class BeanDefinitionParserDelegate {
         target.setElementTypeName(defaultElementType);
         target.setMergeEnabled(parseMergeAttribute(collectionEle));
         parseCollectionElements(nl, target, bd, defaultElementType);
-        return target;
+        return intern(target);
     }
 
     protected void parseCollectionElements(
@@ -1268,7 +1405,7 @@ public class BeanDefinitionParserDelegate {
                 if (!StringUtils.hasText(refName)) {
                     error("<entry> element contains empty 'key-ref' attribute", entryEle);
                 }
-                RuntimeBeanReference ref = new RuntimeBeanReference(refName);
+                RuntimeBeanReference ref = new RuntimeBeanReference(intern(refName));
                 ref.setSource(extractSource(entryEle));
                 key = ref;
             }
@@ -1307,7 +1444,7 @@ public class BeanDefinitionParserDelegate {
                 if (!StringUtils.hasText(refName)) {
                     error("<entry> element contains empty 'value-ref' attribute", entryEle);
                 }
-                RuntimeBeanReference ref = new RuntimeBeanReference(refName);
+                RuntimeBeanReference ref = new RuntimeBeanReference(intern(refName));
                 ref.setSource(extractSource(entryEle));
                 value = ref;
             }
@@ -1333,7 +1470,7 @@ public class BeanDefinitionParserDelegate {
         try {
             TypedStringValue typedValue = buildTypedStringValue(value, defaultTypeName);
             typedValue.setSource(extractSource(entryEle));
-            return typedValue;
+            return intern(typedValue);
         }
         catch (ClassNotFoundException ex) {
             error("Type class [" + defaultTypeName + "] not found for Map key/value type", entryEle, ex);
@@ -1380,7 +1517,7 @@ public class BeanDefinitionParserDelegate {
             keyHolder.setSource(extractSource(propEle));
             TypedStringValue valueHolder = new TypedStringValue(value);
             valueHolder.setSource(extractSource(propEle));
-            props.put(keyHolder, valueHolder);
+            props.put(intern(keyHolder), intern(valueHolder));
         }
 
         return props;
@@ -308,8 +308,11 @@ public class DefaultBeanDefinitionDocumentReader implements BeanDefinitionDocume
                 getReaderContext().error("Failed to register bean definition with name '" +
                         bdHolder.getBeanName() + "'", ele, ex);
             }
-            // Send registration event.
-            getReaderContext().fireComponentRegistered(new BeanComponentDefinition(bdHolder));
+            // Send registration event, unless parsing has been deferred: then there is no
+            // listener, and the component definition would have to parse the bean right away.
+            if (!(bdHolder.getBeanDefinition() instanceof DeferredXmlBeanDefinition)) {
+                getReaderContext().fireComponentRegistered(new BeanComponentDefinition(bdHolder));
+            }
         }
     }
 
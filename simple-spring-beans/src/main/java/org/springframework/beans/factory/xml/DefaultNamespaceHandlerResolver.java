@@ -17,9 +17,14 @@
 package org.springframework.beans.factory.xml;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -30,6 +35,7 @@ import org.springframework.core.io.support.PropertiesLoaderUtils;
 import org.springframework.util.Assert;
 import org.springframework.util.ClassUtils;
 import org.springframework.util.CollectionUtils;
+import org.springframework.util.ConcurrentReferenceHashMap;
 
 /**
  * Default implementation of the {@link NamespaceHandlerResolver} interface.
@@ -40,6 +46,15 @@ import org.springframework.util.CollectionUtils;
  * {@code META-INF/spring.handlers}, but this can be changed using the
  * {@link #DefaultNamespaceHandlerResolver(ClassLoader, String)} constructor.
  *
+ * <p>If available, the mappings are read from a single precomputed index at the
+ * mapping file location plus {@code ".index"} (by default
+ * {@code META-INF/spring.handlers.index}), as generated at build time from all
+ * mapping files on the classpath, instead of scanning every JAR file. The index
+ * is considered stale once it lacks a requested namespace URI or names a handler
+ * class that cannot be loaded, in which case the mapping files get scanned after all.
+ * Loaded mappings are shared JVM-wide per ClassLoader and location, across all
+ * resolver instances; NamespaceHandler instances are still created per resolver.
+ *
  * @author Rob Harrop
  * @author Juergen Hoeller
  * @since 2.0
@@ -53,6 +68,17 @@ public class DefaultNamespaceHandlerResolver implements NamespaceHandlerResolver
      */
     public static final String DEFAULT_HANDLER_MAPPINGS_LOCATION = "META-INF/spring.handlers";
 
+    /**
+     * The suffix of the precomputed index of all mapping files, relative to their location.
+     */
+    public static final String HANDLER_INDEX_SUFFIX = ".index";
+
+
+    /** Handler class names per mapping file location, shared JVM-wide per ClassLoader */
+    private static final ConcurrentMap<ClassLoader, ConcurrentMap<String, SharedHandlerMappings>> sharedHandlerMappings =
+            new ConcurrentReferenceHashMap<ClassLoader, ConcurrentMap<String, SharedHandlerMappings>>(
+                    16, ConcurrentReferenceHashMap.ReferenceType.WEAK);
+
 
     /** Logger available to subclasses */
     protected final Log logger = LogFactory.getLog(getClass());
@@ -66,6 +92,9 @@ public class DefaultNamespaceHandlerResolver implements NamespaceHandlerResolver
     /** Stores the mappings from namespace URI to NamespaceHandler class name / instance */
     private volatile Map<String, Object> handlerMappings;
 
+    /** Whether the current mappings come from a precomputed index */
+    private volatile boolean indexed;
+
 
     /**
      * Create a new {@code DefaultNamespaceHandlerResolver} using the
@@ -114,7 +143,15 @@ public class DefaultNamespaceHandlerResolver implements NamespaceHandlerResolver
         Map<String, Object> handlerMappings = getHandlerMappings();
         Object handlerOrClassName = handlerMappings.get(namespaceUri);
         if (handlerOrClassName == null) {
-            return null;
+            if (!this.indexed) {
+                return null;
+            }
+            // The index may be stale: consult the mapping files themselves.
+            handlerMappings = rescanHandlerMappings();
+            handlerOrClassName = handlerMappings.get(namespaceUri);
+            if (handlerOrClassName == null) {
+                return null;
+            }
         }
         else if (handlerOrClassName instanceof NamespaceHandler) {
             return (NamespaceHandler) handlerOrClassName;
@@ -133,6 +170,13 @@ public class DefaultNamespaceHandlerResolver implements NamespaceHandlerResolver
                 return namespaceHandler;
             }
             catch (ClassNotFoundException ex) {
+                if (this.indexed) {
+                    // The index may be stale: retry with the mapping files themselves.
+                    Object rescanned = rescanHandlerMappings().get(namespaceUri);
+                    if (rescanned != null && !className.equals(rescanned)) {
+                        return resolve(namespaceUri);
+                    }
+                }
                 throw new FatalBeanException("NamespaceHandler class [" + className + "] for namespace [" +
                         namespaceUri + "] not found", ex);
             }
@@ -150,30 +194,145 @@ public class DefaultNamespaceHandlerResolver implements NamespaceHandlerResolver
         if (this.handlerMappings == null) {
             synchronized (this) {
                 if (this.handlerMappings == null) {
-                    try {
-                        Properties mappings =
-                                PropertiesLoaderUtils.loadAllProperties(this.handlerMappingsLocation, this.classLoader);
-                        if (logger.isDebugEnabled()) {
-                            logger.debug("Loaded NamespaceHandler mappings: " + mappings);
-                        }
-                        Map<String, Object> handlerMappings = new ConcurrentHashMap<String, Object>(mappings.size());
-                        CollectionUtils.mergePropertiesIntoMap(mappings, handlerMappings);
-                        this.handlerMappings = handlerMappings;
-                    }
-                    catch (IOException ex) {
-                        throw new IllegalStateException(
-                                "Unable to load NamespaceHandler mappings from location [" + this.handlerMappingsLocation + "]", ex);
-                    }
+                    SharedHandlerMappings mappings = getSharedHandlerMappings();
+                    this.indexed = mappings.indexed;
+                    this.handlerMappings = new ConcurrentHashMap<String, Object>(mappings.classNames);
                 }
             }
         }
         return this.handlerMappings;
     }
 
+    /**
+     * Replace indexed NamespaceHandler mappings with the ones from the mapping files,
+     * keeping the NamespaceHandler instances created already for unchanged mappings.
+     */
+    private Map<String, Object> rescanHandlerMappings() {
+        synchronized (this) {
+            if (this.indexed) {
+                SharedHandlerMappings mappings = scanHandlerMappings();
+                getSharedHandlerMappingsForClassLoader().put(this.handlerMappingsLocation, mappings);
+                Map<String, Object> handlerMappings = new ConcurrentHashMap<String, Object>(mappings.classNames);
+                for (Map.Entry<String, Object> entry : this.handlerMappings.entrySet()) {
+                    Object handler = entry.getValue();
+                    if (handler instanceof NamespaceHandler &&
+                            handler.getClass().getName().equals(handlerMappings.get(entry.getKey()))) {
+                        handlerMappings.put(entry.getKey(), handler);
+                    }
+                }
+                this.indexed = false;
+                this.handlerMappings = handlerMappings;
+            }
+            return this.handlerMappings;
+        }
+    }
+
+    /**
+     * Obtain the handler class names for this resolver's ClassLoader and location,
+     * loading them on first access within the JVM.
+     */
+    private SharedHandlerMappings getSharedHandlerMappings() {
+        ConcurrentMap<String, SharedHandlerMappings> mappingsByLocation = getSharedHandlerMappingsForClassLoader();
+        SharedHandlerMappings mappings = mappingsByLocation.get(this.handlerMappingsLocation);
+        if (mappings == null) {
+            mappings = loadIndexedHandlerMappings();
+            if (mappings == null) {
+                mappings = scanHandlerMappings();
+            }
+            SharedHandlerMappings existing = mappingsByLocation.putIfAbsent(this.handlerMappingsLocation, mappings);
+            if (existing != null) {
+                mappings = existing;
+            }
+        }
+        return mappings;
+    }
+
+    private ConcurrentMap<String, SharedHandlerMappings> getSharedHandlerMappingsForClassLoader() {
+        ConcurrentMap<String, SharedHandlerMappings> mappingsByLocation = sharedHandlerMappings.get(this.classLoader);
+        if (mappingsByLocation == null) {
+            mappingsByLocation = new ConcurrentHashMap<String, SharedHandlerMappings>(4);
+            ConcurrentMap<String, SharedHandlerMappings> existing =
+                    sharedHandlerMappings.putIfAbsent(this.classLoader, mappingsByLocation);
+            if (existing != null) {
+                mappingsByLocation = existing;
+            }
+        }
+        return mappingsByLocation;
+    }
+
+    /**
+     * Load the NamespaceHandler mappings from the precomputed index, if present.
+     * @return the mappings, or {@code null} if there is no index
+     */
+    private SharedHandlerMappings loadIndexedHandlerMappings() {
+        String indexLocation = this.handlerMappingsLocation + HANDLER_INDEX_SUFFIX;
+        URL url = (this.classLoader != null ? this.classLoader.getResource(indexLocation) :
+                ClassLoader.getSystemResource(indexLocation));
+        if (url == null) {
+            return null;
+        }
+        try {
+            Properties mappings = new Properties();
+            InputStream is = url.openStream();
+            try {
+                mappings.load(is);
+            }
+            finally {
+                is.close();
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Loaded NamespaceHandler mappings from index [" + url + "]: " + mappings);
+            }
+            return new SharedHandlerMappings(mappings, true);
+        }
+        catch (IOException ex) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("Unable to read NamespaceHandler index [" + url + "] - scanning mapping files instead", ex);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Load the NamespaceHandler mappings from all mapping files on the classpath.
+     */
+    private SharedHandlerMappings scanHandlerMappings() {
+        try {
+            Properties mappings =
+                    PropertiesLoaderUtils.loadAllProperties(this.handlerMappingsLocation, this.classLoader);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Loaded NamespaceHandler mappings: " + mappings);
+            }
+            return new SharedHandlerMappings(mappings, false);
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException(
+                    "Unable to load NamespaceHandler mappings from location [" + this.handlerMappingsLocation + "]", ex);
+        }
+    }
+
 
     @Override
     public String toString() {
         return "NamespaceHandlerResolver using mappings " + getHandlerMappings();
     }
 
+
+    /**
+     * Immutable NamespaceHandler class names by namespace URI, plus their origin.
+     */
+    private static class SharedHandlerMappings {
+
+        final Map<String, String> classNames;
+
+        final boolean indexed;
+
+        public SharedHandlerMappings(Properties mappings, boolean indexed) {
+            Map<String, String> classNames = new HashMap<String, String>(mappings.size());
+            CollectionUtils.mergePropertiesIntoMap(mappings, classNames);
+            this.classNames = Collections.unmodifiableMap(classNames);
+            this.indexed = indexed;
+        }
+    }
+
 }
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.xml;
+
+import java.util.Set;
+
+import org.w3c.dom.Element;
+
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.config.ConstructorArgumentValues;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.AutowireCandidateQualifier;
+import org.springframework.beans.factory.support.BeanDefinitionValidationException;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.MethodOverrides;
+
+/**
+ * Bean definition for a {@code <bean>} element whose sub-elements (description,
+ * meta attributes, lookup and replaced methods, constructor arguments, properties
+ * and qualifiers) get parsed on first access only, typically when the bean
+ * factory merges the definition for creating the bean.
+ *
+ * <p>The bean class, parent name and all {@code <bean>} attributes are available
+ * right away, so type matching against the bean class does not trigger parsing.
+ * The DOM element is kept until then.
+ *
+ * @see XmlBeanDefinitionReader#setDeferLazyInitBeanParsing
+ */
+@SuppressWarnings("serial")
+class DeferredXmlBeanDefinition extends GenericBeanDefinition {
+
+    /** Guards the DOM of the element and the state of the delegate: the owner document */
+    private final Object parseMutex;
+
+    private final String beanName;
+
+    private Element element;
+
+    private BeanDefinitionParserDelegate delegate;
+
+    private boolean materializing;
+
+    private volatile boolean materialized;
+
+
+    /**
+     * Create a new DeferredXmlBeanDefinition for the given {@code <bean>} element.
+     * @param element the {@code <bean>} element
+     * @param beanName the name of the bean (may be {@code null} if to be generated)
+     * @param delegate the delegate that parses the element
+     */
+    public DeferredXmlBeanDefinition(Element element, String beanName, BeanDefinitionParserDelegate delegate) {
+        this.parseMutex = element.getOwnerDocument();
+        this.beanName = beanName;
+        this.element = element;
+        this.delegate = delegate;
+    }
+
+
+    /**
+     * Return whether the sub-elements have been parsed already.
+     */
+    public boolean isMaterialized() {
+        return this.materialized;
+    }
+
+    /**
+     * Parse the sub-elements of the {@code <bean>} element, if not done yet.
+     * @throws BeanDefinitionStoreException if parsing or validation failed
+     */
+    public void materialize() throws BeanDefinitionStoreException {
+        if (this.materialized) {
+            return;
+        }
+        synchronized (this.parseMutex) {
+            // Nested calls from the same thread while copying see the state in progress.
+            if (this.materialized || this.materializing) {
+                return;
+            }
+            GenericBeanDefinition target = new GenericBeanDefinition();
+            // Inner beans inherit the scope of their containing bean.
+            target.setScope(getScope());
+            try {
+                this.delegate.parseDeferredBeanDefinitionElement(this.element, this.beanName, target);
+            }
+            catch (BeanDefinitionStoreException ex) {
+                throw ex;
+            }
+            catch (RuntimeException ex) {
+                throw new BeanDefinitionStoreException(getResourceDescription(), this.beanName,
+                        "Unexpected failure during deferred bean definition parsing", ex);
+            }
+            this.materializing = true;
+            try {
+                super.setDescription(target.getDescription());
+                copyAttributesFrom(target);
+                super.setMethodOverrides(target.getMethodOverrides());
+                super.setConstructorArgumentValues(target.getConstructorArgumentValues());
+                super.setPropertyValues(target.getPropertyValues());
+                copyQualifiersFrom(target);
+                super.validate();
+            }
+            catch (BeanDefinitionValidationException ex) {
+                throw new BeanDefinitionStoreException(getResourceDescription(), this.beanName,
+                        "Validation of bean definition failed", ex);
+            }
+            finally {
+                this.materializing = false;
+            }
+            this.element = null;
+            this.delegate = null;
+            this.materialized = true;
+        }
+    }
+
+
+    @Override
+    public void setConstructorArgumentValues(ConstructorArgumentValues constructorArgumentValues) {
+        // Also called from the superclass constructor, before this instance is initialized.
+        if (this.parseMutex != null) {
+            materialize();
+        }
+        super.setConstructorArgumentValues(constructorArgumentValues);
+    }
+
+    @Override
+    public ConstructorArgumentValues getConstructorArgumentValues() {
+        materialize();
+        return super.getConstructorArgumentValues();
+    }
+
+    @Override
+    public boolean hasConstructorArgumentValues() {
+        materialize();
+        return super.hasConstructorArgumentValues();
+    }
+
+    @Override
+    public void setPropertyValues(MutablePropertyValues propertyValues) {
+        // Also called from the superclass constructor, before this instance is initialized.
+        if (this.parseMutex != null) {
+            materialize();
+        }
+        super.setPropertyValues(propertyValues);
+    }
+
+    @Override
+    public MutablePropertyValues getPropertyValues() {
+        materialize();
+        return super.getPropertyValues();
+    }
+
+    @Override
+    public void setMethodOverrides(MethodOverrides methodOverrides) {
+        materialize();
+        super.setMethodOverrides(methodOverrides);
+    }
+
+    @Override
+    public MethodOverrides getMethodOverrides() {
+        materialize();
+        return super.getMethodOverrides();
+    }
+
+    @Override
+    public void addQualifier(AutowireCandidateQualifier qualifier) {
+        materialize();
+        super.addQualifier(qualifier);
+    }
+
+    @Override
+    public boolean hasQualifier(String typeName) {
+        materialize();
+        return super.hasQualifier(typeName);
+    }
+
+    @Override
+    public AutowireCandidateQualifier getQualifier(String typeName) {
+        materialize();
+        return super.getQualifier(typeName);
+    }
+
+    @Override
+    public Set<AutowireCandidateQualifier> getQualifiers() {
+        materialize();
+        return super.getQualifiers();
+    }
+
+    @Override
+    public void setDescription(String description) {
+        materialize();
+        super.setDescription(description);
+    }
+
+    @Override
+    public String getDescription() {
+        materialize();
+        return super.getDescription();
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        materialize();
+        super.setAttribute(name, value);
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        materialize();
+        return super.getAttribute(name);
+    }
+
+    @Override
+    public Object removeAttribute(String name) {
+        materialize();
+        return super.removeAttribute(name);
+    }
+
+    @Override
+    public boolean hasAttribute(String name) {
+        materialize();
+        return super.hasAttribute(name);
+    }
+
+    @Override
+    public String[] attributeNames() {
+        materialize();
+        return super.attributeNames();
+    }
+
+    /**
+     * Validates the sub-elements once parsed, as part of {@link #materialize()}.
+     */
+    @Override
+    public void validate() throws BeanDefinitionValidationException {
+        if (this.materialized) {
+            super.validate();
+        }
+    }
+
+    /**
+     * Returns a deferred copy sharing the {@code <bean>} element if not parsed yet,
+     * as used for caching imports.
+     */
+    @Override
+    public AbstractBeanDefinition cloneBeanDefinition() {
+        synchronized (this.parseMutex) {
+            if (!this.materialized && !this.materializing) {
+                DeferredXmlBeanDefinition clone =
+                        new DeferredXmlBeanDefinition(this.element, this.beanName, this.delegate);
+                clone.copyEagerStateFrom(this);
+                return clone;
+            }
+        }
+        return super.cloneBeanDefinition();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        materialize();
+        if (other instanceof DeferredXmlBeanDefinition) {
+            ((DeferredXmlBeanDefinition) other).materialize();
+        }
+        return super.equals(other);
+    }
+
+    @Override
+    public int hashCode() {
+        materialize();
+        return super.hashCode();
+    }
+
+
+    /**
+     * Copy the settings derived from the {@code <bean>} attributes.
+     */
+    private void copyEagerStateFrom(AbstractBeanDefinition original) {
+        setParentName(original.getParentName());
+        if (original.hasBeanClass()) {
+            setBeanClass(original.getBeanClass());
+        }
+        else {
+            setBeanClassName(original.getBeanClassName());
+        }
+        setScope(original.getScope());
+        setAbstract(original.isAbstract());
+        setLazyInit(original.isLazyInit());
+        setAutowireMode(original.getAutowireMode());
+        setDependencyCheck(original.getDependencyCheck());
+        setDependsOn(original.getDependsOn());
+        setAutowireCandidate(original.isAutowireCandidate());
+        setPrimary(original.isPrimary());
+        setNonPublicAccessAllowed(original.isNonPublicAccessAllowed());
+        setLenientConstructorResolution(original.isLenientConstructorResolution());
+        setFactoryBeanName(original.getFactoryBeanName());
+        setFactoryMethodName(original.getFactoryMethodName());
+        setInitMethodName(original.getInitMethodName());
+        setEnforceInitMethod(original.isEnforceInitMethod());
+        setDestroyMethodName(original.getDestroyMethodName());
+        setEnforceDestroyMethod(original.isEnforceDestroyMethod());
+        setSynthetic(original.isSynthetic());
+        setRole(original.getRole());
+        setResource(original.getResource());
+        setSource(original.getSource());
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+
+/**
+ * The bean definitions and aliases registered while loading an imported
+ * resource, recorded for {@link XmlBeanDefinitionReader}'s import cache.
+ *
+ * <p>While recording, this class acts as the {@link BeanDefinitionRegistry}
+ * for the import, passing every call through to the target registry. Afterwards,
+ * the recorded registrations can be replayed against another registry in their
+ * original order, each time with fresh copies of the bean definitions.
+ *
+ * <p>Imports that contain generated bean names, query the state of the registry
+ * (e.g. {@code BeanDefinitionReaderUtils.registerWithGeneratedName}), remove bean
+ * definitions or register bean definitions other than
+ * {@link AbstractBeanDefinition AbstractBeanDefinitions} cannot be replayed
+ * faithfully and need to be parsed again.
+ *
+ * @see XmlBeanDefinitionReader#setImportCacheEnabled
+ */
+class ImportedBeanDefinitions implements BeanDefinitionRegistry {
+
+    private BeanDefinitionRegistry target;
+
+    /** Registrations in order: bean name plus definition, or bean name plus alias */
+    private final List<Object[]> registrations = new ArrayList<Object[]>();
+
+    private boolean replayable = true;
+
+
+    /**
+     * Start recording the registrations made through this registry.
+     * @param target the registry to pass registrations through to
+     */
+    public ImportedBeanDefinitions(BeanDefinitionRegistry target) {
+        this.target = target;
+    }
+
+
+    /**
+     * Return the registry that registrations are passed through to while recording.
+     */
+    public BeanDefinitionRegistry getTarget() {
+        return this.target;
+    }
+
+    /**
+     * Mark this import as containing a generated bean name.
+     */
+    public void markGeneratedBeanName() {
+        this.replayable = false;
+    }
+
+    /**
+     * Stop recording, releasing the target registry.
+     * @return whether the recorded registrations can be replayed
+     */
+    public boolean complete() {
+        this.target = null;
+        return this.replayable;
+    }
+
+    /**
+     * Replay the recorded registrations against the given registry.
+     * @param registry the registry to register bean definitions and aliases with
+     * @throws BeanDefinitionStoreException if a registration fails,
+     * just like it would fail when parsing the import again
+     */
+    public void replay(BeanDefinitionRegistry registry) throws BeanDefinitionStoreException {
+        for (Object[] registration : this.registrations) {
+            String beanName = (String) registration[0];
+            if (registration[1] instanceof String) {
+                registry.registerAlias(beanName, (String) registration[1]);
+            }
+            else {
+                registry.registerBeanDefinition(beanName,
+                        ((AbstractBeanDefinition) registration[1]).cloneBeanDefinition());
+            }
+        }
+    }
+
+
+    @Override
+    public void registerBeanDefinition(String beanName, BeanDefinition beanDefinition)
+            throws BeanDefinitionStoreException {
+
+        this.target.registerBeanDefinition(beanName, beanDefinition);
+        if (beanDefinition instanceof AbstractBeanDefinition) {
+            this.registrations.add(new Object[] {beanName,
+                    ((AbstractBeanDefinition) beanDefinition).cloneBeanDefinition()});
+        }
+        else {
+            this.replayable = false;
+        }
+    }
+
+    @Override
+    public void removeBeanDefinition(String beanName) throws NoSuchBeanDefinitionException {
+        this.target.removeBeanDefinition(beanName);
+        this.replayable = false;
+    }
+
+    @Override
+    public BeanDefinition getBeanDefinition(String beanName) throws NoSuchBeanDefinitionException {
+        this.replayable = false;
+        return this.target.getBeanDefinition(beanName);
+    }
+
+    @Override
+    public boolean containsBeanDefinition(String beanName) {
+        this.replayable = false;
+        return this.target.containsBeanDefinition(beanName);
+    }
+
+    @Override
+    public String[] getBeanDefinitionNames() {
+        this.replayable = false;
+        return this.target.getBeanDefinitionNames();
+    }
+
+    @Override
+    public int getBeanDefinitionCount() {
+        this.replayable = false;
+        return this.target.getBeanDefinitionCount();
+    }
+
+    @Override
+    public boolean isBeanNameInUse(String beanName) {
+        this.replayable = false;
+        return this.target.isBeanNameInUse(beanName);
+    }
+
+    @Override
+    public void registerAlias(String name, String alias) {
+        this.target.registerAlias(name, alias);
+        this.registrations.add(new Object[] {name, alias});
+    }
+
+    @Override
+    public void removeAlias(String alias) {
+        this.target.removeAlias(alias);
+        this.replayable = false;
+    }
+
+    @Override
+    public boolean isAlias(String name) {
+        this.replayable = false;
+        return this.target.isAlias(name);
+    }
+
+    @Override
+    public String[] getAliases(String name) {
+        this.replayable = false;
+        return this.target.getAliases(name);
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link InputStream} reading an XML file through a memory-mapped {@link ByteBuffer},
+ * as used by {@link XmlBeanDefinitionReader} for large local files.
+ *
+ * <p>Also detects the character encoding of the XML document from its
+ * byte order mark or XML declaration, skipping the byte order mark if any.
+ *
+ * @see XmlBeanDefinitionReader#setMemoryMappingThreshold
+ */
+class MappedXmlInputStream extends InputStream {
+
+    /** Maximum number of bytes to search for the end of the XML declaration */
+    private static final int MAX_DECLARATION_LENGTH = 1024;
+
+    private final ByteBuffer buffer;
+
+    private int mark = -1;
+
+
+    private MappedXmlInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+
+    /**
+     * Map the given file into memory, read-only.
+     * @param file the file to map (at most {@code Integer.MAX_VALUE} bytes long)
+     * @return a stream over the mapped file
+     * @throws IOException if the file could not be mapped
+     */
+    public static MappedXmlInputStream map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // The mapping stays valid after the channel has been closed.
+            return new MappedXmlInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+
+    /**
+     * Detect the encoding of the XML document from its byte order mark or
+     * XML declaration, to be called before reading from this stream.
+     * A byte order mark gets skipped.
+     * @return the name of the encoding, or {@code null} if not detectable
+     * (leaving detection to the XML parser)
+     */
+    public String detectEncoding() {
+        int start = this.buffer.position();
+        int length = this.buffer.remaining();
+        int b0 = (length > 0 ? this.buffer.get(start) & 0xFF : -1);
+        int b1 = (length > 1 ? this.buffer.get(start + 1) & 0xFF : -1);
+        int b2 = (length > 2 ? this.buffer.get(start + 2) & 0xFF : -1);
+        int b3 = (length > 3 ? this.buffer.get(start + 3) & 0xFF : -1);
+        if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+            this.buffer.position(start + 3);
+            return "UTF-8";
+        }
+        if (b0 == 0xFE && b1 == 0xFF) {
+            this.buffer.position(start + 2);
+            return "UTF-16BE";
+        }
+        if (b0 == 0xFF && b1 == 0xFE) {
+            this.buffer.position(start + 2);
+            return "UTF-16LE";
+        }
+        if (b0 == 0x00 && b1 == '<' && b2 == 0x00 && b3 == '?') {
+            return "UTF-16BE";
+        }
+        if (b0 == '<' && b1 == 0x00 && b2 == '?' && b3 == 0x00) {
+            return "UTF-16LE";
+        }
+        if (b0 == '<' && b1 == '?' && b2 == 'x' && b3 == 'm') {
+            String declaredEncoding = parseDeclaredEncoding(start, Math.min(length, MAX_DECLARATION_LENGTH));
+            return (declaredEncoding != null ? declaredEncoding : "UTF-8");
+        }
+        return null;
+    }
+
+    /**
+     * Extract the encoding pseudo-attribute from the ASCII-compatible XML declaration.
+     */
+    private String parseDeclaredEncoding(int start, int maxLength) {
+        StringBuilder declaration = new StringBuilder(64);
+        for (int i = 0; i < maxLength; i++) {
+            char c = (char) (this.buffer.get(start + i) & 0xFF);
+            declaration.append(c);
+            if (c == '>') {
+                break;
+            }
+        }
+        int index = declaration.indexOf("encoding");
+        if (index == -1) {
+            return null;
+        }
+        int quoteStart = -1;
+        for (int i = index + "encoding".length(); i < declaration.length(); i++) {
+            char c = declaration.charAt(i);
+            if (c == '"' || c == '\'') {
+                quoteStart = i;
+                break;
+            }
+            if (c != '=' && !Character.isWhitespace(c)) {
+                return null;
+            }
+        }
+        if (quoteStart == -1) {
+            return null;
+        }
+        int quoteEnd = declaration.indexOf(String.valueOf(declaration.charAt(quoteStart)), quoteStart + 1);
+        return (quoteEnd != -1 ? declaration.substring(quoteStart + 1, quoteEnd).trim() : null);
+    }
+
+
+    @Override
+    public int read() {
+        return (this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1);
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        int remaining = this.buffer.remaining();
+        if (remaining == 0) {
+            return -1;
+        }
+        int count = Math.min(length, remaining);
+        this.buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        int count = (int) Math.max(0, Math.min(n, this.buffer.remaining()));
+        this.buffer.position(this.buffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return this.buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        this.mark = this.buffer.position();
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        if (this.mark == -1) {
+            throw new IOException("Stream has not been marked");
+        }
+        this.buffer.position(this.mark);
+    }
+
+}
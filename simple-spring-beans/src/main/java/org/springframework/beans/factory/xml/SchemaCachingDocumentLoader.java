@@ -0,0 +1,491 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+
+import org.springframework.util.Assert;
+import org.springframework.util.ConcurrentReferenceHashMap;
+import org.springframework.util.ResourceUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.util.xml.XmlValidationModeDetector;
+
+/**
+ * {@link DefaultDocumentLoader} variant that compiles the XML schemas referenced
+ * by XSD-validated documents only once, instead of once per document.
+ *
+ * <p>For each document to be validated against XSD, the root element's
+ * {@code xsi:schemaLocation} is sniffed from the beginning of the input stream.
+ * The schemas listed there are resolved through the given {@link EntityResolver},
+ * compiled into a {@link Schema} and cached, keyed by the {@code xsi:schemaLocation}
+ * value. Documents with the same schema locations then get validated against
+ * the cached (immutable and thread-safe) grammar.
+ *
+ * <p>The schemas that a schema location resolves to depend on the EntityResolver
+ * and its ClassLoader. For the default entity resolution of Spring's readers,
+ * which resolves schemas against a ClassLoader, {@link #forClassLoader} returns
+ * a loader shared JVM-wide per ClassLoader; such a shared loader only caches schemas
+ * whose locations are all URLs, since relative locations may get resolved
+ * differently by each reader. Loaders created through the constructor keep
+ * their cache per instance, e.g. for custom entity resolution; such a loader
+ * may be shared between readers with equivalent entity resolution through
+ * {@link XmlBeanDefinitionReader#setDocumentLoader}.
+ *
+ * <p>Documents without a root-level {@code xsi:schemaLocation}, documents
+ * given as character streams, DTD-validated and non-validated documents, as
+ * well as documents whose schemas fail to compile are loaded through the
+ * standard {@link DefaultDocumentLoader} algorithm. Note that with a cached
+ * grammar, schema location hints on nested elements are not taken into account:
+ * all namespaces with an element schema need to be declared on the root element,
+ * as is common for Spring XML configuration files.
+ *
+ * @see XmlBeanDefinitionReader#setDocumentLoader
+ */
+public class SchemaCachingDocumentLoader extends DefaultDocumentLoader {
+
+    /** Number of bytes to sniff for the root element's schema location */
+    private static final int SNIFF_SIZE = 8192;
+
+    private static final Log logger = LogFactory.getLog(SchemaCachingDocumentLoader.class);
+
+    private static final XMLInputFactory sniffingInputFactory = XMLInputFactory.newInstance();
+
+    /** Loaders for default entity resolution, shared JVM-wide per ClassLoader */
+    private static final ConcurrentMap<ClassLoader, SchemaCachingDocumentLoader> sharedLoaders =
+            new ConcurrentReferenceHashMap<ClassLoader, SchemaCachingDocumentLoader>(16);
+
+    static {
+        sniffingInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        sniffingInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        sniffingInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+
+    /** Compiled schemas, keyed by the normalized xsi:schemaLocation value */
+    private final Map<String, Schema> schemaCache = new ConcurrentHashMap<String, Schema>(16);
+
+    /** Document builder factories per compiled schema */
+    private final Map<Schema, DocumentBuilderFactory> factoryCache =
+            new ConcurrentHashMap<Schema, DocumentBuilderFactory>(16);
+
+    /** Whether this loader is shared between readers with different resource loaders */
+    private final boolean shared;
+
+
+    /**
+     * Create a new SchemaCachingDocumentLoader with its own schema cache.
+     */
+    public SchemaCachingDocumentLoader() {
+        this(false);
+    }
+
+    private SchemaCachingDocumentLoader(boolean shared) {
+        this.shared = shared;
+    }
+
+
+    /**
+     * Return the loader shared by all readers whose entity resolver resolves
+     * schemas against the given ClassLoader, e.g. through the schema mappings
+     * of a {@link PluggableSchemaResolver}.
+     * @param classLoader the ClassLoader that schemas get resolved against
+     * @return the shared loader
+     */
+    public static SchemaCachingDocumentLoader forClassLoader(ClassLoader classLoader) {
+        Assert.notNull(classLoader, "ClassLoader must not be null");
+        SchemaCachingDocumentLoader loader = sharedLoaders.get(classLoader);
+        if (loader == null) {
+            SchemaCachingDocumentLoader newLoader = new SchemaCachingDocumentLoader(true);
+            loader = sharedLoaders.putIfAbsent(classLoader, newLoader);
+            if (loader == null) {
+                loader = newLoader;
+            }
+        }
+        return loader;
+    }
+
+
+    @Override
+    public Document loadDocument(InputSource inputSource, EntityResolver entityResolver,
+            ErrorHandler errorHandler, int validationMode, boolean namespaceAware) throws Exception {
+
+        InputStream inputStream = inputSource.getByteStream();
+        if (validationMode != XmlValidationModeDetector.VALIDATION_XSD ||
+                inputSource.getCharacterStream() != null || inputStream == null) {
+            return super.loadDocument(inputSource, entityResolver, errorHandler, validationMode, namespaceAware);
+        }
+
+        byte[] head = readHead(inputStream);
+        InputStream fullStream = new SequenceInputStream(new ByteArrayInputStream(head), inputStream);
+        InputSource fullSource = new InputSource(fullStream);
+        fullSource.setEncoding(inputSource.getEncoding());
+        fullSource.setPublicId(inputSource.getPublicId());
+        fullSource.setSystemId(inputSource.getSystemId());
+
+        String schemaLocation = sniffSchemaLocation(head);
+        Schema schema = (schemaLocation != null ? obtainSchema(schemaLocation, entityResolver) : null);
+        if (schema == null) {
+            return super.loadDocument(fullSource, entityResolver, errorHandler, validationMode, namespaceAware);
+        }
+
+        DocumentBuilderFactory factory = this.factoryCache.get(schema);
+        if (factory == null) {
+            factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setSchema(schema);
+            this.factoryCache.put(schema, factory);
+        }
+        DocumentBuilder builder = createDocumentBuilder(factory, entityResolver, errorHandler);
+        return builder.parse(fullSource);
+    }
+
+    /**
+     * This implementation synchronizes on the given factory,
+     * since factories are shared across concurrent loads.
+     */
+    @Override
+    protected DocumentBuilder createDocumentBuilder(DocumentBuilderFactory factory,
+            EntityResolver entityResolver, ErrorHandler errorHandler) throws ParserConfigurationException {
+
+        synchronized (factory) {
+            return super.createDocumentBuilder(factory, entityResolver, errorHandler);
+        }
+    }
+
+    /**
+     * Return the cached schema for the given schema locations, compiling it if necessary.
+     * @return the schema, or {@code null} if it could not be compiled
+     */
+    private Schema obtainSchema(String schemaLocation, EntityResolver entityResolver) {
+        Schema schema = this.schemaCache.get(schemaLocation);
+        if (schema == null) {
+            if (this.shared && !hasUrlLocations(schemaLocation)) {
+                return null;
+            }
+            try {
+                schema = compileSchema(schemaLocation, entityResolver);
+                this.schemaCache.put(schemaLocation, schema);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Compiled XML schema for schema locations [" + schemaLocation + "]");
+                }
+            }
+            catch (Exception ex) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Could not compile XML schema for schema locations [" + schemaLocation +
+                            "] - validating against schema location hints instead", ex);
+                }
+                return null;
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Check whether all schema locations in the given {@code xsi:schemaLocation}
+     * value are URLs, as opposed to paths relative to the document.
+     */
+    private static boolean hasUrlLocations(String schemaLocation) {
+        String[] tokens = StringUtils.tokenizeToStringArray(schemaLocation, " \t\n\r\f");
+        for (int i = 1; i < tokens.length; i += 2) {
+            if (!ResourceUtils.isUrl(tokens[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Schema compileSchema(String schemaLocation, EntityResolver entityResolver) throws Exception {
+        String[] tokens = StringUtils.tokenizeToStringArray(schemaLocation, " \t\n\r\f");
+        List<Source> sources = new ArrayList<Source>(tokens.length / 2);
+        List<InputSource> resolvedSources = new ArrayList<InputSource>(tokens.length / 2);
+        try {
+            for (int i = 1; i < tokens.length; i += 2) {
+                InputSource resolved = (entityResolver != null ? entityResolver.resolveEntity(null, tokens[i]) : null);
+                if (resolved != null) {
+                    resolvedSources.add(resolved);
+                }
+                if (resolved != null && resolved.getByteStream() != null) {
+                    sources.add(new StreamSource(resolved.getByteStream(),
+                            (resolved.getSystemId() != null ? resolved.getSystemId() : tokens[i])));
+                }
+                else {
+                    sources.add(new StreamSource(tokens[i]));
+                }
+            }
+            SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+            if (entityResolver != null) {
+                schemaFactory.setResourceResolver(new EntityResourceResolver(entityResolver));
+            }
+            return schemaFactory.newSchema(sources.toArray(new Source[sources.size()]));
+        }
+        finally {
+            for (InputSource resolved : resolvedSources) {
+                closeQuietly(resolved);
+            }
+        }
+    }
+
+    private static void closeQuietly(InputSource source) {
+        try {
+            if (source.getByteStream() != null) {
+                source.getByteStream().close();
+            }
+            if (source.getCharacterStream() != null) {
+                source.getCharacterStream().close();
+            }
+        }
+        catch (IOException ex) {
+            // Nothing left to read from it anyway.
+        }
+    }
+
+    /**
+     * Read up to {@link #SNIFF_SIZE} bytes from the beginning of the given stream.
+     */
+    private static byte[] readHead(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[SNIFF_SIZE];
+        int length = 0;
+        while (length < buffer.length) {
+            int read = inputStream.read(buffer, length, buffer.length - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
+        }
+        if (length == buffer.length) {
+            return buffer;
+        }
+        byte[] head = new byte[length];
+        System.arraycopy(buffer, 0, head, 0, length);
+        return head;
+    }
+
+    /**
+     * Determine the normalized {@code xsi:schemaLocation} of the root element, if
+     * its start tag lies within the given bytes; {@code null} otherwise.
+     */
+    private static String sniffSchemaLocation(byte[] head) {
+        // StAX factories may recycle reader instances: not to be used concurrently.
+        synchronized (sniffingInputFactory) {
+            try {
+                XMLStreamReader reader = sniffingInputFactory.createXMLStreamReader(new ByteArrayInputStream(head));
+                try {
+                    while (reader.hasNext()) {
+                        if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                            String schemaLocation = reader.getAttributeValue(
+                                    XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation");
+                            if (!StringUtils.hasText(schemaLocation)) {
+                                return null;
+                            }
+                            return StringUtils.arrayToDelimitedString(
+                                    StringUtils.tokenizeToStringArray(schemaLocation, " \t\n\r\f"), " ");
+                        }
+                    }
+                }
+                finally {
+                    reader.close();
+                }
+            }
+            catch (XMLStreamException ex) {
+                // Not well-formed or root start tag beyond sniffed bytes: leave to standard loading.
+            }
+            return null;
+        }
+    }
+
+
+    /**
+     * Adapts an {@link EntityResolver} for resolving schema imports and includes.
+     */
+    private static class EntityResourceResolver implements LSResourceResolver {
+
+        private final EntityResolver entityResolver;
+
+        public EntityResourceResolver(EntityResolver entityResolver) {
+            this.entityResolver = entityResolver;
+        }
+
+        @Override
+        public LSInput resolveResource(String type, String namespaceURI, String publicId,
+                String systemId, String baseURI) {
+
+            if (systemId == null) {
+                return null;
+            }
+            String resolvedSystemId = systemId;
+            if (baseURI != null) {
+                try {
+                    resolvedSystemId = new URI(baseURI).resolve(systemId).toString();
+                }
+                catch (Exception ex) {
+                    // Keep the system id as declared.
+                }
+            }
+            try {
+                InputSource source = this.entityResolver.resolveEntity(publicId, resolvedSystemId);
+                return (source != null ? new InputSourceInput(source, publicId, resolvedSystemId, baseURI) : null);
+            }
+            catch (Exception ex) {
+                throw new IllegalStateException("Failed to resolve schema [" + resolvedSystemId + "]", ex);
+            }
+        }
+    }
+
+
+    /**
+     * {@link LSInput} view of a SAX {@link InputSource}.
+     */
+    private static class InputSourceInput implements LSInput {
+
+        private Reader characterStream;
+
+        private InputStream byteStream;
+
+        private String stringData;
+
+        private String systemId;
+
+        private String publicId;
+
+        private String baseURI;
+
+        private String encoding;
+
+        private boolean certifiedText;
+
+        public InputSourceInput(InputSource source, String publicId, String systemId, String baseURI) {
+            this.characterStream = source.getCharacterStream();
+            this.byteStream = source.getByteStream();
+            this.systemId = (source.getSystemId() != null ? source.getSystemId() : systemId);
+            this.publicId = (source.getPublicId() != null ? source.getPublicId() : publicId);
+            this.baseURI = baseURI;
+            this.encoding = source.getEncoding();
+        }
+
+        @Override
+        public Reader getCharacterStream() {
+            return this.characterStream;
+        }
+
+        @Override
+        public void setCharacterStream(Reader characterStream) {
+            this.characterStream = characterStream;
+        }
+
+        @Override
+        public InputStream getByteStream() {
+            return this.byteStream;
+        }
+
+        @Override
+        public void setByteStream(InputStream byteStream) {
+            this.byteStream = byteStream;
+        }
+
+        @Override
+        public String getStringData() {
+            return this.stringData;
+        }
+
+        @Override
+        public void setStringData(String stringData) {
+            this.stringData = stringData;
+        }
+
+        @Override
+        public String getSystemId() {
+            return this.systemId;
+        }
+
+        @Override
+        public void setSystemId(String systemId) {
+            this.systemId = systemId;
+        }
+
+        @Override
+        public String getPublicId() {
+            return this.publicId;
+        }
+
+        @Override
+        public void setPublicId(String publicId) {
+            this.publicId = publicId;
+        }
+
+        @Override
+        public String getBaseURI() {
+            return this.baseURI;
+        }
+
+        @Override
+        public void setBaseURI(String baseURI) {
+            this.baseURI = baseURI;
+        }
+
+        @Override
+        public String getEncoding() {
+            return this.encoding;
+        }
+
+        @Override
+        public void setEncoding(String encoding) {
+            this.encoding = encoding;
+        }
+
+        @Override
+        public boolean getCertifiedText() {
+            return this.certifiedText;
+        }
+
+        @Override
+        public void setCertifiedText(boolean certifiedText) {
+            this.certifiedText = certifiedText;
+        }
+    }
+
+}
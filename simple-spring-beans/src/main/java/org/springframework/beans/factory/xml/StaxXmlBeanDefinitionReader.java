@@ -0,0 +1,453 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.core.io.Resource;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * {@link XmlBeanDefinitionReader} variant that reads XML bean definition files
+ * through a StAX {@link XMLStreamReader} instead of loading them into a DOM
+ * {@link Document} first, keeping the memory footprint of large configuration
+ * files bounded by the size of their individual elements rather than the size
+ * of the entire file.
+ *
+ * <p>The {@code <beans>} structure, including nested {@code <beans>} elements,
+ * their {@code default-*} attributes and {@code profile} conditions, is processed
+ * straight from the event stream: elements within a {@code <beans>} section that
+ * is not active for the current environment are skipped without being materialized.
+ * All other top-level elements, i.e. {@code <bean>}, {@code <alias>} and
+ * {@code <import>} as well as custom namespace elements, are materialized as
+ * small standalone DOM fragments (a batch of at most
+ * {@link #setElementsPerFragment "elementsPerFragment"} sibling elements at a time,
+ * wrapped in their enclosing {@code <beans>} elements) and handed over to the
+ * configured {@link BeanDefinitionDocumentReader}. This keeps the parsing rules
+ * for bean definitions, property values and collections identical to the
+ * DOM-based reader, and lets {@link NamespaceHandler NamespaceHandlers} operate
+ * on the element subtree they are registered for as usual.
+ *
+ * <p>Since StAX does not perform schema validation, the configured validation mode
+ * is ignored. The default values declared by the "spring-beans" schema for
+ * {@code lazy-init}, {@code autowire}, {@code merge} and the corresponding
+ * {@code default-*} attributes are applied by this reader itself. DTDs are not
+ * processed, so documents relying on entities declared in a DTD cannot be read.
+ *
+ * <p>Note that {@code preProcessXml} and {@code postProcessXml} callbacks of a
+ * {@link DefaultBeanDefinitionDocumentReader} subclass, as well as the registration
+ * of {@code <beans>} defaults with the {@code ReaderEventListener}, will happen
+ * once per fragment rather than once per document.
+ *
+ * @see XmlBeanDefinitionReader
+ * @see DefaultBeanDefinitionDocumentReader
+ */
+public class StaxXmlBeanDefinitionReader extends XmlBeanDefinitionReader {
+
+    private static final String[] BEANS_DEFAULT_ATTRIBUTES = new String[] {
+            BeanDefinitionParserDelegate.DEFAULT_LAZY_INIT_ATTRIBUTE,
+            BeanDefinitionParserDelegate.DEFAULT_MERGE_ATTRIBUTE,
+            BeanDefinitionParserDelegate.DEFAULT_AUTOWIRE_ATTRIBUTE};
+
+    private static final String[] BEAN_DEFAULT_ATTRIBUTES = new String[] {
+            BeanDefinitionParserDelegate.LAZY_INIT_ATTRIBUTE,
+            BeanDefinitionParserDelegate.AUTOWIRE_ATTRIBUTE};
+
+    private static final String[] COLLECTION_DEFAULT_ATTRIBUTES = new String[] {
+            BeanDefinitionParserDelegate.MERGE_ATTRIBUTE};
+
+
+    private final XMLInputFactory inputFactory;
+
+    private final DocumentBuilderFactory documentBuilderFactory;
+
+    private int elementsPerFragment = 64;
+
+
+    /**
+     * Create a new StaxXmlBeanDefinitionReader for the given bean factory.
+     * @param registry the BeanFactory to load bean definitions into,
+     * in the form of a BeanDefinitionRegistry
+     */
+    public StaxXmlBeanDefinitionReader(BeanDefinitionRegistry registry) {
+        super(registry);
+        this.inputFactory = createInputFactory();
+        this.documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        this.documentBuilderFactory.setNamespaceAware(true);
+    }
+
+
+    /**
+     * Set the maximum number of sibling top-level elements to materialize
+     * and hand over to the document reader at once.
+     * <p>Default is 64. Higher values reduce the per-fragment overhead at
+     * the expense of memory; a value of 1 processes each element on its own.
+     */
+    public void setElementsPerFragment(int elementsPerFragment) {
+        Assert.isTrue(elementsPerFragment > 0, "'elementsPerFragment' must be greater than 0");
+        this.elementsPerFragment = elementsPerFragment;
+    }
+
+    /**
+     * Return the maximum number of sibling top-level elements per fragment.
+     */
+    public int getElementsPerFragment() {
+        return this.elementsPerFragment;
+    }
+
+    /**
+     * Create the StAX input factory to use for reading XML bean definition files.
+     * <p>The default implementation creates a namespace-aware, coalescing factory
+     * with DTD and external entity support switched off.
+     */
+    protected XMLInputFactory createInputFactory() {
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return inputFactory;
+    }
+
+
+    /**
+     * This implementation does not parse ahead of time, since that would
+     * require holding entire documents in memory.
+     */
+    @Override
+    protected void preloadResource(Resource resource, Executor executor) {
+    }
+
+    /**
+     * This implementation streams the given input through StAX,
+     * processing it fragment by fragment.
+     */
+    @Override
+    protected int doLoadBeanDefinitions(InputSource inputSource, Resource resource)
+            throws BeanDefinitionStoreException {
+
+        try {
+            XMLStreamReader streamReader = createStreamReader(inputSource);
+            try {
+                int countBefore = getRegistry().getBeanDefinitionCount();
+                new FragmentStreamer(streamReader, resource).process();
+                return getRegistry().getBeanDefinitionCount() - countBefore;
+            }
+            finally {
+                streamReader.close();
+            }
+        }
+        catch (BeanDefinitionStoreException ex) {
+            throw ex;
+        }
+        catch (XMLStreamException ex) {
+            Location location = ex.getLocation();
+            throw new BeanDefinitionStoreException(resource.getDescription(),
+                    (location != null ? "Line " + location.getLineNumber() + " in XML document from " + resource +
+                            " is invalid" : "XML document from " + resource + " is invalid"), ex);
+        }
+        catch (ParserConfigurationException ex) {
+            throw new BeanDefinitionStoreException(resource.getDescription(),
+                    "Parser configuration exception parsing XML from " + resource, ex);
+        }
+        catch (Throwable ex) {
+            throw new BeanDefinitionStoreException(resource.getDescription(),
+                    "Unexpected exception parsing XML document from " + resource, ex);
+        }
+    }
+
+    private XMLStreamReader createStreamReader(InputSource inputSource) throws XMLStreamException {
+        if (inputSource.getCharacterStream() != null) {
+            return this.inputFactory.createXMLStreamReader(inputSource.getCharacterStream());
+        }
+        Assert.notNull(inputSource.getByteStream(), "InputSource must provide a byte or character stream");
+        if (inputSource.getEncoding() != null) {
+            return this.inputFactory.createXMLStreamReader(inputSource.getByteStream(), inputSource.getEncoding());
+        }
+        return this.inputFactory.createXMLStreamReader(inputSource.getByteStream());
+    }
+
+    private DocumentBuilder createDocumentBuilder() throws ParserConfigurationException {
+        synchronized (this.documentBuilderFactory) {
+            return this.documentBuilderFactory.newDocumentBuilder();
+        }
+    }
+
+    private static boolean isBeansNamespace(String namespaceUri) {
+        return (!StringUtils.hasLength(namespaceUri) ||
+                BeanDefinitionParserDelegate.BEANS_NAMESPACE_URI.equals(namespaceUri));
+    }
+
+
+    /**
+     * Streams a single XML document, materializing its top-level elements
+     * in fragments and registering each fragment through the document reader.
+     */
+    private class FragmentStreamer {
+
+        private final XMLStreamReader reader;
+
+        private final Resource resource;
+
+        private final XmlReaderContext readerContext;
+
+        private final BeanDefinitionDocumentReader documentReader;
+
+        private final DocumentBuilder documentBuilder;
+
+        /** Attribute-only copies of the currently open <beans> elements, outermost first */
+        private final List<Element> beansElements = new ArrayList<Element>();
+
+        private Document fragment;
+
+        private Element fragmentParent;
+
+        private int fragmentSize;
+
+        public FragmentStreamer(XMLStreamReader reader, Resource resource) throws ParserConfigurationException {
+            this.reader = reader;
+            this.resource = resource;
+            this.readerContext = createReaderContext(resource);
+            this.documentReader = createBeanDefinitionDocumentReader();
+            this.documentBuilder = createDocumentBuilder();
+        }
+
+        public void process() throws XMLStreamException {
+            if (!nextElement()) {
+                return;
+            }
+            if (isBeansNamespace(this.reader.getNamespaceURI()) &&
+                    DefaultBeanDefinitionDocumentReader.NESTED_BEANS_ELEMENT.equals(this.reader.getLocalName())) {
+                processBeansElement();
+            }
+            else {
+                // Custom root element: nothing to stream, hand over as a whole.
+                Document doc = this.documentBuilder.newDocument();
+                doc.appendChild(readElement(doc));
+                this.documentReader.registerBeanDefinitions(doc, this.readerContext);
+            }
+        }
+
+        /**
+         * Process the {@code <beans>} element that the reader is positioned at,
+         * up to and including its end tag.
+         */
+        private void processBeansElement() throws XMLStreamException {
+            flushFragment();
+            Element beansElement = copyStartElement(this.documentBuilder.newDocument());
+            String profileSpec = beansElement.getAttribute(DefaultBeanDefinitionDocumentReader.PROFILE_ATTRIBUTE);
+            if (StringUtils.hasText(profileSpec)) {
+                String[] specifiedProfiles = StringUtils.tokenizeToStringArray(
+                        profileSpec, BeanDefinitionParserDelegate.MULTI_VALUE_ATTRIBUTE_DELIMITERS);
+                if (!this.readerContext.getEnvironment().acceptsProfiles(specifiedProfiles)) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Skipped <beans> section due to specified profiles [" + profileSpec +
+                                "] not matching: " + this.resource);
+                    }
+                    skipElement();
+                    return;
+                }
+            }
+            this.beansElements.add(beansElement);
+            while (nextElement()) {
+                if (isBeansNamespace(this.reader.getNamespaceURI()) &&
+                        DefaultBeanDefinitionDocumentReader.NESTED_BEANS_ELEMENT.equals(this.reader.getLocalName())) {
+                    processBeansElement();
+                }
+                else {
+                    addToFragment();
+                }
+            }
+            flushFragment();
+            this.beansElements.remove(this.beansElements.size() - 1);
+        }
+
+        /**
+         * Materialize the element that the reader is positioned at into the current fragment.
+         */
+        private void addToFragment() throws XMLStreamException {
+            if (this.fragment == null) {
+                this.fragment = this.documentBuilder.newDocument();
+                Node parent = this.fragment;
+                for (Element beansElement : this.beansElements) {
+                    parent = parent.appendChild(this.fragment.importNode(beansElement, false));
+                }
+                this.fragmentParent = (Element) parent;
+            }
+            this.fragmentParent.appendChild(readElement(this.fragment));
+            this.fragmentSize++;
+            if (this.fragmentSize >= elementsPerFragment) {
+                flushFragment();
+            }
+        }
+
+        /**
+         * Register the bean definitions in the current fragment, if any.
+         */
+        private void flushFragment() {
+            if (this.fragment != null) {
+                Document doc = this.fragment;
+                this.fragment = null;
+                this.fragmentParent = null;
+                this.fragmentSize = 0;
+                this.documentReader.registerBeanDefinitions(doc, this.readerContext);
+            }
+        }
+
+        /**
+         * Advance to the next child element of the current element.
+         * @return {@code true} if positioned at the start of a child element,
+         * {@code false} if the end of the current element (or document) has been reached
+         */
+        private boolean nextElement() throws XMLStreamException {
+            while (this.reader.hasNext()) {
+                int event = this.reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    return true;
+                }
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Skip the element that the reader is positioned at, including its end tag.
+         */
+        private void skipElement() throws XMLStreamException {
+            int depth = 1;
+            while (depth > 0 && this.reader.hasNext()) {
+                int event = this.reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+        }
+
+        /**
+         * Read the element that the reader is positioned at, including its entire
+         * subtree, into a DOM element owned by the given document.
+         */
+        private Element readElement(Document doc) throws XMLStreamException {
+            Element root = copyStartElement(doc);
+            Element current = root;
+            while (current != null) {
+                int event = this.reader.next();
+                switch (event) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        current = (Element) current.appendChild(copyStartElement(doc));
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        current = (current != root ? (Element) current.getParentNode() : null);
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        current.appendChild(doc.createTextNode(this.reader.getText()));
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        current.appendChild(doc.createCDATASection(this.reader.getText()));
+                        break;
+                    default:
+                        // Comments and processing instructions are not relevant for bean definitions.
+                }
+            }
+            return root;
+        }
+
+        /**
+         * Create a DOM element for the start tag that the reader is positioned at,
+         * with its namespace declarations and attributes but without any content.
+         */
+        private Element copyStartElement(Document doc) {
+            String namespaceUri = this.reader.getNamespaceURI();
+            String prefix = this.reader.getPrefix();
+            String localName = this.reader.getLocalName();
+            Element element = doc.createElementNS((StringUtils.hasLength(namespaceUri) ? namespaceUri : null),
+                    (StringUtils.hasLength(prefix) ? prefix + ":" + localName : localName));
+            for (int i = 0; i < this.reader.getNamespaceCount(); i++) {
+                String nsPrefix = this.reader.getNamespacePrefix(i);
+                element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                        (StringUtils.hasLength(nsPrefix) ? XMLConstants.XMLNS_ATTRIBUTE + ":" + nsPrefix :
+                                XMLConstants.XMLNS_ATTRIBUTE), this.reader.getNamespaceURI(i));
+            }
+            for (int i = 0; i < this.reader.getAttributeCount(); i++) {
+                String attrNamespaceUri = this.reader.getAttributeNamespace(i);
+                String attrPrefix = this.reader.getAttributePrefix(i);
+                String attrLocalName = this.reader.getAttributeLocalName(i);
+                element.setAttributeNS((StringUtils.hasLength(attrNamespaceUri) ? attrNamespaceUri : null),
+                        (StringUtils.hasLength(attrPrefix) ? attrPrefix + ":" + attrLocalName : attrLocalName),
+                        this.reader.getAttributeValue(i));
+            }
+            if (isBeansNamespace(namespaceUri)) {
+                applySchemaDefaults(element, localName);
+            }
+            return element;
+        }
+
+        /**
+         * Apply the attribute defaults that schema validation would have applied.
+         */
+        private void applySchemaDefaults(Element element, String localName) {
+            String[] defaultAttributes;
+            if (DefaultBeanDefinitionDocumentReader.NESTED_BEANS_ELEMENT.equals(localName)) {
+                defaultAttributes = BEANS_DEFAULT_ATTRIBUTES;
+            }
+            else if (BeanDefinitionParserDelegate.BEAN_ELEMENT.equals(localName)) {
+                defaultAttributes = BEAN_DEFAULT_ATTRIBUTES;
+            }
+            else if (BeanDefinitionParserDelegate.ARRAY_ELEMENT.equals(localName) ||
+                    BeanDefinitionParserDelegate.LIST_ELEMENT.equals(localName) ||
+                    BeanDefinitionParserDelegate.SET_ELEMENT.equals(localName) ||
+                    BeanDefinitionParserDelegate.MAP_ELEMENT.equals(localName) ||
+                    BeanDefinitionParserDelegate.PROPS_ELEMENT.equals(localName)) {
+                defaultAttributes = COLLECTION_DEFAULT_ATTRIBUTES;
+            }
+            else {
+                return;
+            }
+            for (String attributeName : defaultAttributes) {
+                if (!element.hasAttribute(attributeName)) {
+                    element.setAttributeNS(null, attributeName, BeanDefinitionParserDelegate.DEFAULT_VALUE);
+                }
+            }
+        }
+    }
+
+}
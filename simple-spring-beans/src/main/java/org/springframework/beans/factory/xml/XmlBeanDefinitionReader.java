@@ -16,10 +16,22 @@
 
 package org.springframework.beans.factory.xml;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.w3c.dom.Document;
@@ -42,10 +54,14 @@ import org.springframework.beans.factory.support.BeanDefinitionRegistry;
 import org.springframework.core.Constants;
 import org.springframework.core.NamedThreadLocal;
 import org.springframework.core.io.DescriptiveResource;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.core.io.support.EncodedResource;
 import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ConcurrentReferenceHashMap;
+import org.springframework.util.ObjectUtils;
 import org.springframework.util.xml.SimpleSaxErrorHandler;
 import org.springframework.util.xml.XmlValidationModeDetector;
 
@@ -100,6 +116,10 @@ public class XmlBeanDefinitionReader extends AbstractBeanDefinitionReader {
     /** Constants instance for this class */
     private static final Constants constants = new Constants(XmlBeanDefinitionReader.class);
 
+    /** Detected validation modes, keyed by reader class, resource URL and last-modified timestamp */
+    private static final Map<String, Integer> detectedValidationModes =
+            new ConcurrentReferenceHashMap<String, Integer>(64);
+
     private int validationMode = VALIDATION_AUTO;
 
     private boolean namespaceAware = false;
@@ -114,10 +134,16 @@ public class XmlBeanDefinitionReader extends AbstractBeanDefinitionReader {
 
     private NamespaceHandlerResolver namespaceHandlerResolver;
 
-    private DocumentLoader documentLoader = new DefaultDocumentLoader();
+    private DocumentLoader documentLoader;
+
+    /** Determined for the current entity resolver unless a DocumentLoader has been specified */
+    private DocumentLoader defaultDocumentLoader;
 
     private EntityResolver entityResolver;
 
+    /** ClassLoader that the default entity resolver resolves schemas against, if created */
+    private ClassLoader defaultEntityResolverClassLoader;
+
     private ErrorHandler errorHandler = new SimpleSaxErrorHandler(logger);
 
     private final XmlValidationModeDetector validationModeDetector = new XmlValidationModeDetector();
@@ -125,6 +151,34 @@ public class XmlBeanDefinitionReader extends AbstractBeanDefinitionReader {
     private final ThreadLocal<Set<EncodedResource>> resourcesCurrentlyBeingLoaded =
             new NamedThreadLocal<Set<EncodedResource>>("XML bean definition resources currently being loaded");
 
+    /** All resources loaded by this reader, including imported ones */
+    private final Set<Resource> loadedResources = Collections.synchronizedSet(new LinkedHashSet<Resource>());
+
+    /** Documents being parsed ahead of time on the parsing executor, keyed by resource */
+    private final ConcurrentMap<Resource, PreloadedDocument> preloadedDocuments =
+            new ConcurrentHashMap<Resource, PreloadedDocument>(16);
+
+    private String encoding;
+
+    private long memoryMappingThreshold = 1024 * 1024;
+
+    private boolean importCacheEnabled = false;
+
+    /** Recorded registrations of imported resources, keyed by URL and encoding */
+    private final ConcurrentMap<String, ImportedBeanDefinitions> importCache =
+            new ConcurrentHashMap<String, ImportedBeanDefinitions>(16);
+
+    private final ThreadLocal<ImportedBeanDefinitions> currentImportRecording =
+            new NamedThreadLocal<ImportedBeanDefinitions>("XML bean definition import currently being recorded");
+
+    private final AtomicLong importCacheHits = new AtomicLong();
+
+    private final AtomicLong importCacheMisses = new AtomicLong();
+
+    private BeanDefinitionInterner beanDefinitionInterner;
+
+    private boolean deferLazyInitBeanParsing = false;
+
 
     /**
      * Create new XmlBeanDefinitionReader for the given bean factory.
@@ -232,11 +286,15 @@ public class XmlBeanDefinitionReader extends AbstractBeanDefinitionReader {
 
     /**
      * Specify the {@link DocumentLoader} to use.
-     * <p>The default implementation is {@link DefaultDocumentLoader}
-     * which loads {@link Document} instances using JAXP.
+     * <p>The default implementation is {@link SchemaCachingDocumentLoader}
+     * which loads {@link Document} instances using JAXP, validating XSD-based
+     * documents against cached schemas: shared JVM-wide per ClassLoader with the
+     * default entity resolver, or compiled once per reader with a custom one.
+     * A loader instance may be shared between readers with equivalent entity resolution.
+     * @see SchemaCachingDocumentLoader#forClassLoader
      */
     public void setDocumentLoader(DocumentLoader documentLoader) {
-        this.documentLoader = (documentLoader != null ? documentLoader : new DefaultDocumentLoader());
+        this.documentLoader = documentLoader;
     }
 
     /**
@@ -246,6 +304,8 @@ public class XmlBeanDefinitionReader extends AbstractBeanDefinitionReader {
      */
     public void setEntityResolver(EntityResolver entityResolver) {
         this.entityResolver = entityResolver;
+        this.defaultEntityResolverClassLoader = null;
+        this.defaultDocumentLoader = null;
     }
 
     /**
@@ -256,16 +316,40 @@ public class XmlBeanDefinitionReader extends AbstractBeanDefinitionReader {
         if (this.entityResolver == null) {
             // Determine default EntityResolver to use.
             ResourceLoader resourceLoader = getResourceLoader();
+            ClassLoader classLoader;
             if (resourceLoader != null) {
                 this.entityResolver = new ResourceEntityResolver(resourceLoader);
+                classLoader = resourceLoader.getClassLoader();
             }
             else {
                 this.entityResolver = new DelegatingEntityResolver(getBeanClassLoader());
+                classLoader = getBeanClassLoader();
             }
+            this.defaultEntityResolverClassLoader =
+                    (classLoader != null ? classLoader : ClassUtils.getDefaultClassLoader());
         }
         return this.entityResolver;
     }
 
+    /**
+     * Return the {@link DocumentLoader} to use: the specified one, if any, or else the
+     * {@link SchemaCachingDocumentLoader} shared for the default entity resolver's
+     * ClassLoader, or a reader-specific one for custom entity resolution.
+     */
+    private DocumentLoader obtainDocumentLoader() {
+        if (this.documentLoader != null) {
+            return this.documentLoader;
+        }
+        DocumentLoader documentLoader = this.defaultDocumentLoader;
+        if (documentLoader == null) {
+            ClassLoader classLoader = this.defaultEntityResolverClassLoader;
+            documentLoader = (classLoader != null ?
+                    SchemaCachingDocumentLoader.forClassLoader(classLoader) : new SchemaCachingDocumentLoader());
+            this.defaultDocumentLoader = documentLoader;
+        }
+        return documentLoader;
+    }
+
     /**
      * Set an implementation of the {@code org.xml.sax.ErrorHandler}
      * interface for custom handling of XML parsing errors and warnings.
@@ -292,16 +376,170 @@ public class XmlBeanDefinitionReader extends AbstractBeanDefinitionReader {
         this.documentReaderClass = documentReaderClass;
     }
 
+    /**
+     * Set the encoding to parse XML files with, unless specified through an
+     * {@link EncodedResource}. Applies to preloaded resources as well.
+     * <p>Default is none, leaving the encoding to the XML parser (or detecting
+     * it up front for memory-mapped files).
+     * @see #loadBeanDefinitions(Resource)
+     * @see #preloadBeanDefinitions(String...)
+     */
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * Return the encoding to parse XML files with, if any.
+     */
+    public String getEncoding() {
+        return this.encoding;
+    }
 
     /**
-     * Load bean definitions from the specified XML file.
+     * Set the minimum size (in bytes) of local files to read through a
+     * memory-mapped buffer rather than a stream.
+     * <p>Applies to {@link FileSystemResource FileSystemResources} only; classpath
+     * and servlet context resources are always read as a stream. For mapped files,
+     * the encoding is detected from the byte order mark or XML declaration up front,
+     * unless specified through an {@link EncodedResource}. Note that a mapping is
+     * only released once garbage-collected, which on some platforms prevents the
+     * file from being deleted or replaced in the meantime.
+     * <p>Default is 1 MB. Specify -1 to never map files.
+     */
+    public void setMemoryMappingThreshold(long memoryMappingThreshold) {
+        this.memoryMappingThreshold = memoryMappingThreshold;
+    }
+
+    /**
+     * Return the minimum size of local files to read through a memory-mapped buffer.
+     */
+    public long getMemoryMappingThreshold() {
+        return this.memoryMappingThreshold;
+    }
+
+    /**
+     * Set whether to cache the bean definitions of imported resources.
+     * <p>If enabled, a resource imported more than once (by URL and encoding)
+     * gets parsed only the first time: subsequent imports replay the recorded
+     * bean definition and alias registrations against the registry, with fresh
+     * copies of the bean definitions and the usual overriding rules. Imports
+     * containing generated bean names get parsed each time, since their names
+     * depend on the state of the registry, and so do imports that query the
+     * registry. The cache is not used with a custom {@link ReaderEventListener},
+     * since replayed imports do not fire component registration events.
+     * <p>Note that while an import is being recorded, the reader context exposes
+     * a recording registry instead of the actual one: namespace handlers that
+     * need the underlying bean factory (such as {@code <context:annotation-config/>})
+     * will not find it within imported resources. Only enable the cache for
+     * imports that consist of plain bean definitions.
+     * <p>Default is "false".
+     * @see #getImportCacheHits()
+     * @see #getImportCacheMisses()
+     */
+    public void setImportCacheEnabled(boolean importCacheEnabled) {
+        this.importCacheEnabled = importCacheEnabled;
+    }
+
+    /**
+     * Return whether the bean definitions of imported resources are cached.
+     */
+    public boolean isImportCacheEnabled() {
+        return this.importCacheEnabled;
+    }
+
+    /**
+     * Determine whether the import cache actually gets used:
+     * only if enabled and without custom event listener.
+     */
+    private boolean shouldUseImportCache() {
+        return (this.importCacheEnabled && this.eventListener instanceof EmptyReaderEventListener);
+    }
+
+    /**
+     * Return the number of imports served from the import cache so far.
+     */
+    public long getImportCacheHits() {
+        return this.importCacheHits.get();
+    }
+
+    /**
+     * Return the number of imports that had to be parsed so far
+     * while the import cache was enabled.
+     */
+    public long getImportCacheMisses() {
+        return this.importCacheMisses.get();
+    }
+
+    /**
+     * Specify an interner for deduplicating the class names, property names,
+     * constant values and constant collections of the parsed bean definitions,
+     * reducing the memory footprint of very large configurations.
+     * <p>Pass a new {@link BeanDefinitionInterner} to deduplicate within the
+     * resources loaded by this reader, or share one instance among all readers
+     * loading into the same bean factory. The interner reports the estimated
+     * number of bytes saved, which this reader logs at debug level after
+     * loading each resource passed in directly.
+     * <p>Default is none.
+     */
+    public void setBeanDefinitionInterner(BeanDefinitionInterner beanDefinitionInterner) {
+        this.beanDefinitionInterner = beanDefinitionInterner;
+    }
+
+    /**
+     * Return the interner for the parsed bean definitions, if any.
+     */
+    public BeanDefinitionInterner getBeanDefinitionInterner() {
+        return this.beanDefinitionInterner;
+    }
+
+    /**
+     * Set whether to defer parsing the sub-elements of top-level lazy-init beans
+     * (constructor arguments, properties, qualifiers, lookup and replaced methods,
+     * meta attributes) until their bean definitions get accessed, typically when
+     * the bean factory merges them for creating the bean.
+     * <p>Such bean definitions get registered with their bean class, parent name
+     * and all {@code <bean>} attributes, so type matching keeps working. Parsing errors
+     * within the sub-elements get reported on first access rather than on loading,
+     * and the DOM of the resource is kept until all of its deferred beans have been
+     * parsed. Beans using custom namespace elements or attributes are always parsed
+     * right away, and so are all beans while a custom {@link ReaderEventListener}
+     * is registered, since component registration events require the full metadata.
+     * By-type lookups and singleton pre-instantiation leave deferred definitions
+     * alone, whereas writing a {@link org.springframework.beans.factory.support.BeanDefinitionSnapshot}
+     * parses all of them.
+     * <p>Default is "false".
+     */
+    public void setDeferLazyInitBeanParsing(boolean deferLazyInitBeanParsing) {
+        this.deferLazyInitBeanParsing = deferLazyInitBeanParsing;
+    }
+
+    /**
+     * Return whether parsing the sub-elements of lazy-init beans gets deferred.
+     */
+    public boolean isDeferLazyInitBeanParsing() {
+        return this.deferLazyInitBeanParsing;
+    }
+
+    /**
+     * Determine whether parsing the sub-elements of lazy-init beans actually
+     * gets deferred: only if enabled and without custom event listener.
+     */
+    boolean shouldDeferLazyInitBeanParsing() {
+        return (this.deferLazyInitBeanParsing && this.eventListener instanceof EmptyReaderEventListener);
+    }
+
+
+    /**
+     * Load bean definitions from the specified XML file,
+     * parsing it with the configured encoding (if any).
      * @param resource the resource descriptor for the XML file
      * @return the number of bean definitions found
      * @throws BeanDefinitionStoreException in case of loading or parsing errors
+     * @see #setEncoding
      */
     @Override
     public int loadBeanDefinitions(Resource resource) throws BeanDefinitionStoreException {
-        return loadBeanDefinitions(new EncodedResource(resource));
+        return loadBeanDefinitions(new EncodedResource(resource, this.encoding));
     }
 
     /**
@@ -322,28 +560,68 @@ public class XmlBeanDefinitionReader extends AbstractBeanDefinitionReader {
             currentResources = new HashSet<EncodedResource>(4);
             this.resourcesCurrentlyBeingLoaded.set(currentResources);
         }
+        boolean imported = !currentResources.isEmpty();
         if (!currentResources.add(encodedResource)) {
             throw new BeanDefinitionStoreException(
                     "Detected cyclic loading of " + encodedResource + " - check your import definitions!");
         }
+        this.loadedResources.add(encodedResource.getResource());
+        String importCacheKey = (imported && shouldUseImportCache() ? getImportCacheKey(encodedResource) : null);
+        ImportedBeanDefinitions outerRecording = this.currentImportRecording.get();
+        ImportedBeanDefinitions recording = null;
         try {
-            InputStream inputStream = encodedResource.getResource().getInputStream();
-            try {
-                InputSource inputSource = new InputSource(inputStream);
-                if (encodedResource.getEncoding() != null) {
-                    inputSource.setEncoding(encodedResource.getEncoding());
+            if (importCacheKey != null) {
+                ImportedBeanDefinitions cached = this.importCache.get(importCacheKey);
+                if (cached != null) {
+                    this.importCacheHits.incrementAndGet();
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Replaying cached bean definitions imported from " + encodedResource.getResource());
+                    }
+                    int countBefore = getRegistry().getBeanDefinitionCount();
+                    cached.replay(outerRecording != null ? outerRecording : getRegistry());
+                    return getRegistry().getBeanDefinitionCount() - countBefore;
                 }
-                return doLoadBeanDefinitions(inputSource, encodedResource.getResource());
+                this.importCacheMisses.incrementAndGet();
+                recording = new ImportedBeanDefinitions(outerRecording != null ? outerRecording : getRegistry());
+                this.currentImportRecording.set(recording);
             }
-            finally {
-                inputStream.close();
+            int count;
+            Document preloadedDocument = obtainPreloadedDocument(encodedResource);
+            if (preloadedDocument != null) {
+                count = doLoadBeanDefinitions(null, preloadedDocument, encodedResource.getResource());
             }
+            else {
+                InputStream inputStream = openInputStream(encodedResource.getResource());
+                try {
+                    count = doLoadBeanDefinitions(createInputSource(inputStream, encodedResource.getEncoding()),
+                            encodedResource.getResource());
+                }
+                finally {
+                    inputStream.close();
+                }
+            }
+            if (recording != null && recording.complete()) {
+                this.importCache.putIfAbsent(importCacheKey, recording);
+            }
+            if (!imported && this.beanDefinitionInterner != null && logger.isDebugEnabled()) {
+                logger.debug("Loaded " + count + " bean definitions from " + encodedResource.getResource() +
+                        " - " + this.beanDefinitionInterner);
+            }
+            return count;
         }
         catch (IOException ex) {
             throw new BeanDefinitionStoreException(
                     "IOException parsing XML document from " + encodedResource.getResource(), ex);
         }
         finally {
+            if (recording != null) {
+                if (outerRecording != null) {
+                    this.currentImportRecording.set(outerRecording);
+                }
+                else {
+                    this.currentImportRecording.remove();
+                }
+            }
             currentResources.remove(encodedResource);
             if (currentResources.isEmpty()) {
                 this.resourcesCurrentlyBeingLoaded.remove();
@@ -351,6 +629,70 @@ public class XmlBeanDefinitionReader extends AbstractBeanDefinitionReader {
         }
     }
 
+    /**
+     * Open an InputStream for the given resource: a memory-mapped stream
+     * for sufficiently large local files, the resource's own stream otherwise.
+     * @see #setMemoryMappingThreshold
+     */
+    private InputStream openInputStream(Resource resource) throws IOException {
+        if (this.memoryMappingThreshold >= 0 && resource instanceof FileSystemResource) {
+            File file = resource.getFile();
+            long length = file.length();
+            if (length >= this.memoryMappingThreshold && length <= Integer.MAX_VALUE) {
+                return MappedXmlInputStream.map(file);
+            }
+        }
+        return resource.getInputStream();
+    }
+
+    /**
+     * Create an InputSource for the given stream: with the given encoding if any,
+     * or else with the encoding detected for a memory-mapped stream.
+     */
+    private InputSource createInputSource(InputStream inputStream, String encoding) {
+        InputSource inputSource = new InputSource(inputStream);
+        if (encoding != null) {
+            inputSource.setEncoding(encoding);
+        }
+        else if (inputStream instanceof MappedXmlInputStream) {
+            inputSource.setEncoding(((MappedXmlInputStream) inputStream).detectEncoding());
+        }
+        return inputSource;
+    }
+
+    /**
+     * Determine the import cache key for the given resource: its URL plus encoding.
+     * @return the key, or {@code null} if the resource cannot be resolved to a URL
+     */
+    private String getImportCacheKey(EncodedResource encodedResource) {
+        try {
+            StringBuilder key = new StringBuilder(encodedResource.getResource().getURL().toExternalForm());
+            if (encodedResource.getEncoding() != null) {
+                key.append(";encoding=").append(encodedResource.getEncoding());
+            }
+            if (encodedResource.getCharset() != null) {
+                key.append(";charset=").append(encodedResource.getCharset().name());
+            }
+            return key.toString();
+        }
+        catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Return all resources that this reader has loaded bean definitions from
+     * so far, in loading order: the resources passed in directly as well as
+     * all resources imported by them.
+     * <p>Bean definitions read from a SAX {@code InputSource} are not covered.
+     * @see org.springframework.beans.factory.support.BeanDefinitionSnapshot
+     */
+    public Set<Resource> getLoadedResources() {
+        synchronized (this.loadedResources) {
+            return new LinkedHashSet<Resource>(this.loadedResources);
+        }
+    }
+
     /**
      * Load bean definitions from the specified XML file.
      * @param inputSource the SAX InputSource to read from
@@ -387,8 +729,18 @@ public class XmlBeanDefinitionReader extends AbstractBeanDefinitionReader {
      */
     protected int doLoadBeanDefinitions(InputSource inputSource, Resource resource)
             throws BeanDefinitionStoreException {
+
+        return doLoadBeanDefinitions(inputSource, null, resource);
+    }
+
+    /**
+     * Load bean definitions from the given preloaded document, or else from the given
+     * XML file, translating any failure into a {@link BeanDefinitionStoreException}.
+     */
+    private int doLoadBeanDefinitions(InputSource inputSource, Document preloadedDocument, Resource resource)
+            throws BeanDefinitionStoreException {
         try {
-            Document doc = doLoadDocument(inputSource, resource);
+            Document doc = (preloadedDocument != null ? preloadedDocument : doLoadDocument(inputSource, resource));
             return registerBeanDefinitions(doc, resource);
         }
         catch (BeanDefinitionStoreException ex) {
@@ -426,10 +778,79 @@ public class XmlBeanDefinitionReader extends AbstractBeanDefinitionReader {
      * @see DocumentLoader#loadDocument
      */
     protected Document doLoadDocument(InputSource inputSource, Resource resource) throws Exception {
-        return this.documentLoader.loadDocument(inputSource, getEntityResolver(), this.errorHandler,
+        EntityResolver entityResolver = getEntityResolver();
+        return obtainDocumentLoader().loadDocument(inputSource, entityResolver, this.errorHandler,
                 getValidationModeForResource(resource), isNamespaceAware());
     }
 
+    /**
+     * This implementation loads the DOM document for the given resource
+     * on the given executor, with the configured encoding (if any).
+     * @see #doLoadDocument
+     * @see #setEncoding
+     */
+    @Override
+    protected void preloadResource(Resource resource, Executor executor) {
+        if (resource.isOpen()) {
+            // Stream can only be read once.
+            return;
+        }
+        PreloadedDocument preloadedDocument = new PreloadedDocument(resource, this.encoding);
+        if (this.preloadedDocuments.putIfAbsent(resource, preloadedDocument) == null) {
+            try {
+                executor.execute(preloadedDocument.future);
+            }
+            catch (RejectedExecutionException ex) {
+                // Executor saturated or shut down -> parse when loading instead.
+                this.preloadedDocuments.remove(resource);
+            }
+        }
+    }
+
+    @Override
+    public void clearPreloadedResources() {
+        for (PreloadedDocument preloadedDocument : this.preloadedDocuments.values()) {
+            preloadedDocument.future.cancel(false);
+        }
+        this.preloadedDocuments.clear();
+    }
+
+    /**
+     * Obtain the preloaded DOM document for the given resource, if any,
+     * waiting for it to be parsed if necessary.
+     * @param encodedResource the resource to load, along with the encoding
+     * to parse it with (if specified)
+     * @return the document, or {@code null} if the resource has not been
+     * preloaded, has been preloaded with a different encoding or failed
+     * to parse (to be parsed again for error reporting)
+     * @see #preloadResource
+     */
+    private Document obtainPreloadedDocument(EncodedResource encodedResource) {
+        PreloadedDocument preloadedDocument = this.preloadedDocuments.remove(encodedResource.getResource());
+        if (preloadedDocument == null) {
+            return null;
+        }
+        // Without an encoding specified, both would have detected the same encoding.
+        if (!ObjectUtils.nullSafeEquals(preloadedDocument.encoding, encodedResource.getEncoding())) {
+            preloadedDocument.future.cancel(false);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Parsing " + encodedResource.getResource() + " again: preloaded with encoding [" +
+                        preloadedDocument.encoding + "] instead of [" + encodedResource.getEncoding() + "]");
+            }
+            return null;
+        }
+        try {
+            return preloadedDocument.future.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException ex) {
+            return null;
+        }
+    }
+
 
     /**
      * Gets the validation mode for the specified {@link Resource}. If no explicit
@@ -443,7 +864,18 @@ public class XmlBeanDefinitionReader extends AbstractBeanDefinitionReader {
         if (validationModeToUse != VALIDATION_AUTO) {
             return validationModeToUse;
         }
-        int detectedMode = detectValidationMode(resource);
+        String cacheKey = getValidationModeCacheKey(resource);
+        Integer cachedMode = (cacheKey != null ? detectedValidationModes.get(cacheKey) : null);
+        int detectedMode;
+        if (cachedMode != null) {
+            detectedMode = cachedMode;
+        }
+        else {
+            detectedMode = detectValidationMode(resource);
+            if (cacheKey != null) {
+                detectedValidationModes.put(cacheKey, detectedMode);
+            }
+        }
         if (detectedMode != VALIDATION_AUTO) {
             return detectedMode;
         }
@@ -453,6 +885,28 @@ public class XmlBeanDefinitionReader extends AbstractBeanDefinitionReader {
         return VALIDATION_XSD;
     }
 
+    /**
+     * Determine the key for caching the detected validation mode of the given
+     * resource, avoiding to re-read the resource's header on subsequent loads
+     * as long as the resource has not been modified.
+     * @return the key, or {@code null} if the resource does not allow for caching
+     */
+    private String getValidationModeCacheKey(Resource resource) {
+        if (resource.isOpen()) {
+            return null;
+        }
+        try {
+            long lastModified = resource.lastModified();
+            if (lastModified <= 0) {
+                return null;
+            }
+            return getClass().getName() + ":" + resource.getURL().toExternalForm() + "@" + lastModified;
+        }
+        catch (IOException ex) {
+            return null;
+        }
+    }
+
     /**
      * Detects which kind of validation to perform on the XML file identified
      * by the supplied {@link Resource}. If the file has a {@code DOCTYPE}
@@ -481,7 +935,10 @@ public class XmlBeanDefinitionReader extends AbstractBeanDefinitionReader {
         }
 
         try {
-            return this.validationModeDetector.detectValidationMode(inputStream);
+            // The detector keeps parsing state: not to be used concurrently when preloading.
+            synchronized (this.validationModeDetector) {
+                return this.validationModeDetector.detectValidationMode(inputStream);
+            }
         }
         catch (IOException ex) {
             throw new BeanDefinitionStoreException("Unable to determine validation mode for [" +
@@ -523,8 +980,10 @@ public class XmlBeanDefinitionReader extends AbstractBeanDefinitionReader {
      * Create the {@link XmlReaderContext} to pass over to the document reader.
      */
     public XmlReaderContext createReaderContext(Resource resource) {
+        ImportedBeanDefinitions recording = this.currentImportRecording.get();
         return new XmlReaderContext(resource, this.problemReporter, this.eventListener,
-                this.sourceExtractor, this, getNamespaceHandlerResolver());
+                this.sourceExtractor, this, getNamespaceHandlerResolver(),
+                (recording != null ? recording : getRegistry()));
     }
 
     /**
@@ -546,4 +1005,34 @@ public class XmlBeanDefinitionReader extends AbstractBeanDefinitionReader {
         return new DefaultNamespaceHandlerResolver(getResourceLoader().getClassLoader());
     }
 
+
+    /**
+     * A DOM document being parsed on the parsing executor,
+     * along with the encoding specified for parsing it.
+     */
+    private class PreloadedDocument implements Callable<Document> {
+
+        private final Resource resource;
+
+        private final String encoding;
+
+        private final FutureTask<Document> future = new FutureTask<Document>(this);
+
+        public PreloadedDocument(Resource resource, String encoding) {
+            this.resource = resource;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public Document call() throws Exception {
+            InputStream inputStream = openInputStream(this.resource);
+            try {
+                return doLoadDocument(createInputSource(inputStream, this.encoding), this.resource);
+            }
+            finally {
+                inputStream.close();
+            }
+        }
+    }
+
 }
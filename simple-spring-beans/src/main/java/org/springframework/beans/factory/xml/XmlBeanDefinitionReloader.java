@@ -0,0 +1,420 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionVisitor;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionReaderUtils;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.util.Assert;
+
+/**
+ * Incrementally reloads the bean definitions of individual XML resources into a
+ * running bean factory, optionally triggered by a {@link WatchService} on the
+ * underlying files.
+ *
+ * <p>A changed resource gets parsed into a scratch bean factory, and the configured
+ * {@link BeanFactoryPostProcessor BeanFactoryPostProcessors} (typically placeholder
+ * configurers) get applied to it. The resulting bean definitions are then compared
+ * with the ones in the target bean factory that have been loaded from the same
+ * resource: changed and new definitions get registered, vanished ones removed.
+ * Registration and removal reset the bean in question along with its child
+ * definitions and all beans depending on it, which get recreated on next access;
+ * non-lazy singletons are recreated right away.
+ *
+ * <p>Bean definitions are attributed to a resource by their resource description,
+ * so bean definitions restored from a snapshot (which only retain the description
+ * of their resource) get reloaded as well. Typed values get their target type
+ * resolved on both sides before comparing, since bean creation resolves the
+ * target types of the current bean definitions in place.
+ *
+ * <p>Limitations: beans with generated names are not reloaded, since their names
+ * depend on the rest of the configuration; beans containing inner beans always
+ * count as changed, since inner bean names are unique per parse; bean names defined
+ * in another resource are left alone; changed imports, removed aliases, bean post-processors
+ * and other post-processors than the configured ones require a full refresh.
+ * Dependent beans are only tracked within the target bean factory: beans of
+ * child factories (e.g. of a DispatcherServlet context) keep referring to
+ * the previous instances of reloaded beans until those children get refreshed.
+ */
+public class XmlBeanDefinitionReloader {
+
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private final DefaultListableBeanFactory beanFactory;
+
+    private List<BeanFactoryPostProcessor> beanFactoryPostProcessors = Collections.emptyList();
+
+    private long quietPeriod = 300;
+
+    /** Resources being watched, keyed by their absolute file path */
+    private final Map<Path, Resource> watchedResources = new ConcurrentHashMap<Path, Resource>(16);
+
+    private WatchService watchService;
+
+    private Thread watchThread;
+
+
+    /**
+     * Create a new XmlBeanDefinitionReloader for the given bean factory.
+     * @param beanFactory the bean factory to reload bean definitions into
+     */
+    public XmlBeanDefinitionReloader(DefaultListableBeanFactory beanFactory) {
+        Assert.notNull(beanFactory, "BeanFactory must not be null");
+        this.beanFactory = beanFactory;
+    }
+
+
+    /**
+     * Specify the post-processors to apply to reloaded bean definitions before
+     * comparing them, such as the placeholder configurers of the application context.
+     * <p>They get invoked against a scratch bean factory holding the reloaded bean
+     * definitions only, so they must not depend on other beans.
+     */
+    public void setBeanFactoryPostProcessors(List<BeanFactoryPostProcessor> beanFactoryPostProcessors) {
+        this.beanFactoryPostProcessors = (beanFactoryPostProcessors != null ?
+                new ArrayList<BeanFactoryPostProcessor>(beanFactoryPostProcessors) :
+                Collections.<BeanFactoryPostProcessor>emptyList());
+    }
+
+    /**
+     * Set the time (in milliseconds) without further file changes to wait for
+     * before reloading, so that a file is reloaded once per save operation.
+     * <p>Default is 300.
+     */
+    public void setQuietPeriod(long quietPeriod) {
+        this.quietPeriod = quietPeriod;
+    }
+
+    /**
+     * Return the time without further file changes to wait for before reloading.
+     */
+    public long getQuietPeriod() {
+        return this.quietPeriod;
+    }
+
+
+    /**
+     * Start watching the files behind the given resources, reloading each of them
+     * on change. Resources that are not available as files are ignored.
+     * @param resources the resources to watch, typically all resources
+     * (including imports) that the bean definitions have been loaded from
+     * @throws IOException if the watch service could not be set up
+     */
+    public synchronized void start(Collection<Resource> resources) throws IOException {
+        if (this.watchService != null) {
+            return;
+        }
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        Set<Path> directories = new HashSet<Path>();
+        try {
+            for (Resource resource : resources) {
+                File file;
+                try {
+                    file = resource.getFile();
+                }
+                catch (IOException ex) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Not watching " + resource + ": not available in the file system");
+                    }
+                    continue;
+                }
+                Path path = file.toPath().toAbsolutePath().normalize();
+                this.watchedResources.put(path, resource);
+                if (directories.add(path.getParent())) {
+                    path.getParent().register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                }
+            }
+        }
+        catch (IOException ex) {
+            watchService.close();
+            this.watchedResources.clear();
+            throw ex;
+        }
+        if (this.watchedResources.isEmpty()) {
+            watchService.close();
+            return;
+        }
+        this.watchService = watchService;
+        this.watchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "XmlBeanDefinitionReloader");
+        this.watchThread.setDaemon(true);
+        this.watchThread.start();
+        if (logger.isInfoEnabled()) {
+            logger.info("Watching " + this.watchedResources.size() + " XML bean definition files for changes");
+        }
+    }
+
+    /**
+     * Stop watching for file changes.
+     */
+    public synchronized void stop() {
+        if (this.watchService == null) {
+            return;
+        }
+        try {
+            this.watchService.close();
+        }
+        catch (IOException ex) {
+            logger.debug("Could not close watch service", ex);
+        }
+        this.watchThread.interrupt();
+        this.watchService = null;
+        this.watchThread = null;
+        this.watchedResources.clear();
+    }
+
+    /**
+     * Return whether file changes are being watched.
+     */
+    public synchronized boolean isRunning() {
+        return (this.watchService != null);
+    }
+
+    private void watch() {
+        WatchService watchService = this.watchService;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<Path> changedFiles = new LinkedHashSet<Path>();
+                collectChangedFiles(watchService.take(), changedFiles);
+                WatchKey key;
+                while ((key = watchService.poll(this.quietPeriod, TimeUnit.MILLISECONDS)) != null) {
+                    collectChangedFiles(key, changedFiles);
+                }
+                for (Path changedFile : changedFiles) {
+                    Resource resource = this.watchedResources.get(changedFile);
+                    if (resource != null) {
+                        try {
+                            reload(resource);
+                        }
+                        catch (RuntimeException ex) {
+                            logger.error("Failed to reload bean definitions from " + resource +
+                                    " - keeping the current ones", ex);
+                        }
+                    }
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            // Stopped.
+        }
+        catch (ClosedWatchServiceException ex) {
+            // Stopped.
+        }
+    }
+
+    private void collectChangedFiles(WatchKey key, Set<Path> changedFiles) {
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events lost: consider all watched files in the directory changed.
+                for (Path watchedFile : this.watchedResources.keySet()) {
+                    if (directory.equals(watchedFile.getParent())) {
+                        changedFiles.add(watchedFile);
+                    }
+                }
+            }
+            else {
+                Path changedFile = directory.resolve((Path) event.context());
+                if (this.watchedResources.containsKey(changedFile)) {
+                    changedFiles.add(changedFile);
+                }
+            }
+        }
+        key.reset();
+    }
+
+
+    /**
+     * Reload the bean definitions from the given resource, registering and removing
+     * bean definitions in the target bean factory as far as they have changed.
+     * @param resource the resource to reload, as originally loaded
+     * @return the number of bean definitions registered or removed
+     * @throws BeansException if parsing or registration failed; bean definitions
+     * registered or removed before the failure are kept
+     */
+    public synchronized int reload(Resource resource) throws BeansException {
+        long startTime = System.currentTimeMillis();
+
+        DefaultListableBeanFactory reloadedFactory = new DefaultListableBeanFactory();
+        reloadedFactory.setBeanClassLoader(this.beanFactory.getBeanClassLoader());
+        createBeanDefinitionReader(reloadedFactory).loadBeanDefinitions(resource);
+        for (BeanFactoryPostProcessor postProcessor : this.beanFactoryPostProcessors) {
+            postProcessor.postProcessBeanFactory(reloadedFactory);
+        }
+
+        Map<String, BeanDefinition> reloadedDefinitions = getBeanDefinitions(reloadedFactory, resource);
+        Map<String, BeanDefinition> currentDefinitions = getBeanDefinitions(this.beanFactory, resource);
+        BeanDefinitionVisitor targetTypeResolver = new TargetTypeResolvingVisitor(this.beanFactory.getBeanClassLoader());
+        int changeCount = 0;
+
+        for (Map.Entry<String, BeanDefinition> entry : reloadedDefinitions.entrySet()) {
+            String beanName = entry.getKey();
+            BeanDefinition reloadedDefinition = entry.getValue();
+            BeanDefinition currentDefinition = currentDefinitions.get(beanName);
+            if (currentDefinition == null && this.beanFactory.containsBeanDefinition(beanName)) {
+                logger.warn("Not reloading bean '" + beanName + "' from " + resource +
+                        ": bean name is defined in another resource");
+                continue;
+            }
+            if (currentDefinition != null) {
+                targetTypeResolver.visitBeanDefinition(currentDefinition);
+                targetTypeResolver.visitBeanDefinition(reloadedDefinition);
+            }
+            if (currentDefinition == null || !currentDefinition.equals(reloadedDefinition)) {
+                if (currentDefinition != null && !this.beanFactory.isAllowBeanDefinitionOverriding()) {
+                    this.beanFactory.removeBeanDefinition(beanName);
+                }
+                this.beanFactory.registerBeanDefinition(beanName, reloadedDefinition);
+                changeCount++;
+                if (logger.isDebugEnabled()) {
+                    logger.debug((currentDefinition != null ? "Replaced" : "Added") + " bean definition '" +
+                            beanName + "' from " + resource);
+                }
+            }
+            for (String alias : reloadedFactory.getAliases(beanName)) {
+                if (!this.beanFactory.isAlias(alias) && !this.beanFactory.containsBeanDefinition(alias)) {
+                    this.beanFactory.registerAlias(beanName, alias);
+                }
+            }
+        }
+
+        for (String beanName : currentDefinitions.keySet()) {
+            if (!reloadedDefinitions.containsKey(beanName)) {
+                this.beanFactory.removeBeanDefinition(beanName);
+                changeCount++;
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Removed bean definition '" + beanName + "' from " + resource);
+                }
+            }
+        }
+
+        if (changeCount > 0) {
+            // Recreate non-lazy singletons that got reset, including dependent beans.
+            this.beanFactory.preInstantiateSingletons();
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("Reloaded " + resource + ": " + changeCount + " bean definitions changed in " +
+                    (System.currentTimeMillis() - startTime) + " ms");
+        }
+        return changeCount;
+    }
+
+    /**
+     * Create the reader for parsing a changed resource into the given registry.
+     * <p>The default implementation creates a plain {@link XmlBeanDefinitionReader}.
+     * Can be overridden to configure the reader like the one that loaded the bean
+     * definitions in the first place (environment, resource loader, entity resolver).
+     * @param registry the scratch registry to load the bean definitions into
+     * @return the bean definition reader
+     */
+    protected XmlBeanDefinitionReader createBeanDefinitionReader(BeanDefinitionRegistry registry) {
+        return new XmlBeanDefinitionReader(registry);
+    }
+
+    /**
+     * Collect the bean definitions with non-generated names loaded from the given resource.
+     */
+    private Map<String, BeanDefinition> getBeanDefinitions(DefaultListableBeanFactory factory, Resource resource) {
+        Map<String, BeanDefinition> beanDefinitions = new LinkedHashMap<String, BeanDefinition>();
+        String resourceDescription = resource.getDescription();
+        for (String beanName : factory.getBeanDefinitionNames()) {
+            if (beanName.contains(BeanDefinitionReaderUtils.GENERATED_BEAN_NAME_SEPARATOR)) {
+                continue;
+            }
+            BeanDefinition bd = factory.getBeanDefinition(beanName);
+            if (bd instanceof AbstractBeanDefinition && (resource.equals(((AbstractBeanDefinition) bd).getResource()) ||
+                    (resourceDescription != null && resourceDescription.equals(bd.getResourceDescription())))) {
+                beanDefinitions.put(beanName, bd);
+            }
+        }
+        return beanDefinitions;
+    }
+
+
+    /**
+     * Resolves the target type names of typed values to classes, the same way
+     * bean creation does for the current bean definitions, leaving values as-is.
+     */
+    private static class TargetTypeResolvingVisitor extends BeanDefinitionVisitor {
+
+        private final ClassLoader classLoader;
+
+        public TargetTypeResolvingVisitor(ClassLoader classLoader) {
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected Object resolveValue(Object value) {
+            if (value instanceof TypedStringValue) {
+                TypedStringValue typedValue = (TypedStringValue) value;
+                if (typedValue.hasTargetType() || typedValue.getTargetTypeName() == null) {
+                    return value;
+                }
+                try {
+                    typedValue.resolveTargetType(this.classLoader);
+                }
+                catch (ClassNotFoundException ex) {
+                    // Leave it to bean creation to report the unresolvable type.
+                }
+                return value;
+            }
+            return super.resolveValue(value);
+        }
+
+        @Override
+        protected String resolveStringValue(String strVal) {
+            return strVal;
+        }
+    }
+
+}
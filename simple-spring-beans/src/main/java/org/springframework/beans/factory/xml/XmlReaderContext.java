@@ -47,15 +47,32 @@ public class XmlReaderContext extends ReaderContext {
 
     private final NamespaceHandlerResolver namespaceHandlerResolver;
 
+    private final BeanDefinitionRegistry registry;
+
 
     public XmlReaderContext(
             Resource resource, ProblemReporter problemReporter,
             ReaderEventListener eventListener, SourceExtractor sourceExtractor,
             XmlBeanDefinitionReader reader, NamespaceHandlerResolver namespaceHandlerResolver) {
 
+        this(resource, problemReporter, eventListener, sourceExtractor, reader, namespaceHandlerResolver,
+                reader.getRegistry());
+    }
+
+    /**
+     * Create a new XmlReaderContext that registers bean definitions with the
+     * given registry instead of the reader's registry, e.g. for recording them.
+     */
+    public XmlReaderContext(
+            Resource resource, ProblemReporter problemReporter,
+            ReaderEventListener eventListener, SourceExtractor sourceExtractor,
+            XmlBeanDefinitionReader reader, NamespaceHandlerResolver namespaceHandlerResolver,
+            BeanDefinitionRegistry registry) {
+
         super(resource, problemReporter, eventListener, sourceExtractor);
         this.reader = reader;
         this.namespaceHandlerResolver = namespaceHandlerResolver;
+        this.registry = registry;
     }
 
 
@@ -64,7 +81,7 @@ public class XmlReaderContext extends ReaderContext {
     }
 
     public final BeanDefinitionRegistry getRegistry() {
-        return this.reader.getRegistry();
+        return this.registry;
     }
 
     public final ResourceLoader getResourceLoader() {
@@ -85,6 +102,10 @@ public class XmlReaderContext extends ReaderContext {
 
 
     public String generateBeanName(BeanDefinition beanDefinition) {
+        if (this.registry instanceof ImportedBeanDefinitions) {
+            // Generated names depend on registry state: not to be replayed.
+            ((ImportedBeanDefinitions) this.registry).markGeneratedBeanName();
+        }
         return this.reader.getBeanNameGenerator().generateBeanName(beanDefinition, getRegistry());
     }
 
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.support;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.beans.factory.config.BeanDefinition;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the pruning of merged bean definition mutexes in {@link AbstractBeanFactory}.
+ */
+public class MergedBeanDefinitionMutexTests {
+
+    private DefaultListableBeanFactory beanFactory;
+
+
+    @Before
+    public void setup() {
+        this.beanFactory = new DefaultListableBeanFactory();
+    }
+
+
+    @Test
+    public void removeBeanDefinitionReleasesMutex() {
+        for (int i = 0; i < 100; i++) {
+            registerBean("bean" + i, TestBean.class);
+            this.beanFactory.getMergedBeanDefinition("bean" + i);
+        }
+        assertEquals(100, getMutexCount());
+
+        for (int i = 0; i < 100; i++) {
+            this.beanFactory.removeBeanDefinition("bean" + i);
+        }
+        assertEquals(0, getMutexCount());
+    }
+
+    @Test
+    public void registrationCyclesDoNotAccumulateMutexes() {
+        for (int i = 0; i < 1000; i++) {
+            String beanName = "bean" + i;
+            registerBean(beanName, TestBean.class);
+            assertNotNull(this.beanFactory.getBean(beanName));
+            this.beanFactory.removeBeanDefinition(beanName);
+            this.beanFactory.clearMetadataCache();
+        }
+        assertEquals(0, getMutexCount());
+        assertEquals(0, getMergedBeanDefinitionCount());
+    }
+
+    @Test
+    public void clearMetadataCacheDoesNotRecreateMutexes() {
+        registerBean("kept", TestBean.class);
+        registerBean("removed", TestBean.class);
+        this.beanFactory.getMergedBeanDefinition("kept");
+        this.beanFactory.getMergedBeanDefinition("removed");
+        this.beanFactory.removeBeanDefinition("removed");
+
+        this.beanFactory.clearMetadataCache();
+        this.beanFactory.clearMetadataCache();
+        assertEquals(1, getMutexCount());
+        assertNotNull(this.beanFactory.getMergedBeanDefinition("kept"));
+    }
+
+    @Test
+    public void reregisteredBeanDefinitionGetsMergedAgain() {
+        registerBean("bean", TestBean.class);
+        assertEquals(TestBean.class.getName(), this.beanFactory.getMergedBeanDefinition("bean").getBeanClassName());
+        this.beanFactory.removeBeanDefinition("bean");
+
+        registerBean("bean", OtherTestBean.class);
+        BeanDefinition merged = this.beanFactory.getMergedBeanDefinition("bean");
+        assertEquals(OtherTestBean.class.getName(), merged.getBeanClassName());
+        assertTrue(this.beanFactory.getBean("bean") instanceof OtherTestBean);
+    }
+
+
+    private void registerBean(String beanName, Class<?> beanClass) {
+        RootBeanDefinition bd = new RootBeanDefinition(beanClass);
+        bd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        this.beanFactory.registerBeanDefinition(beanName, bd);
+    }
+
+    private int getMutexCount() {
+        return getFieldValue("mergedBeanDefinitionMutexes").size();
+    }
+
+    private int getMergedBeanDefinitionCount() {
+        return getFieldValue("mergedBeanDefinitions").size();
+    }
+
+    private Map<?, ?> getFieldValue(String fieldName) {
+        try {
+            Field field = AbstractBeanFactory.class.getDeclaredField(fieldName);
+            field.setAccessible(true);
+            return (Map<?, ?>) field.get(this.beanFactory);
+        }
+        catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+
+    public static class TestBean {
+    }
+
+
+    public static class OtherTestBean extends TestBean {
+    }
+
+}
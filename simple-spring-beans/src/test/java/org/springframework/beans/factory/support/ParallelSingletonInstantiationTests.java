@@ -0,0 +1,211 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.support;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for parallel singleton pre-instantiation in {@link DefaultListableBeanFactory}.
+ */
+public class ParallelSingletonInstantiationTests {
+
+    private ExecutorService executor;
+
+    private DefaultListableBeanFactory beanFactory;
+
+
+    @Before
+    public void setup() {
+        this.executor = Executors.newFixedThreadPool(4);
+        this.beanFactory = new DefaultListableBeanFactory();
+        this.beanFactory.setPreInstantiationExecutor(this.executor);
+    }
+
+    @After
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+
+    @Test
+    public void independentSingletons() {
+        for (int i = 0; i < 100; i++) {
+            registerBean("bean" + i, null);
+        }
+        this.beanFactory.preInstantiateSingletons();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(this.beanFactory.containsSingleton("bean" + i));
+        }
+    }
+
+    @Test
+    public void dependencyChain() {
+        registerBean("bean0", null);
+        for (int i = 1; i < 50; i++) {
+            registerBean("bean" + i, "bean" + (i - 1));
+        }
+        this.beanFactory.preInstantiateSingletons();
+        for (int i = 1; i < 50; i++) {
+            TestBean bean = this.beanFactory.getBean("bean" + i, TestBean.class);
+            assertSame(this.beanFactory.getBean("bean" + (i - 1)), bean.getOther());
+        }
+    }
+
+    @Test
+    public void circularReferences() {
+        registerBean("a", "b");
+        registerBean("b", "c");
+        registerBean("c", "a");
+        for (int i = 0; i < 20; i++) {
+            registerBean("independent" + i, (i % 2 == 0 ? "a" : null));
+        }
+        this.beanFactory.preInstantiateSingletons();
+
+        TestBean a = this.beanFactory.getBean("a", TestBean.class);
+        TestBean b = this.beanFactory.getBean("b", TestBean.class);
+        TestBean c = this.beanFactory.getBean("c", TestBean.class);
+        assertSame(b, a.getOther());
+        assertSame(c, b.getOther());
+        assertSame(a, c.getOther());
+        assertSame(a, this.beanFactory.getBean("independent0", TestBean.class).getOther());
+    }
+
+    @Test
+    public void factoryBeanDependencies() {
+        registerBean("collaborator", null);
+        RootBeanDefinition factoryDefinition = new RootBeanDefinition(TestFactoryBean.class);
+        factoryDefinition.getPropertyValues().add("other", new RuntimeBeanReference("collaborator"));
+        this.beanFactory.registerBeanDefinition("factory", factoryDefinition);
+        for (int i = 0; i < 20; i++) {
+            registerBean("consumer" + i, "factory");
+        }
+        this.beanFactory.preInstantiateSingletons();
+
+        TestBean product = this.beanFactory.getBean("factory", TestBean.class);
+        assertSame(this.beanFactory.getBean("collaborator"), product.getOther());
+        for (int i = 0; i < 20; i++) {
+            assertSame(product, this.beanFactory.getBean("consumer" + i, TestBean.class).getOther());
+        }
+        assertEquals(1, this.beanFactory.getBean("&factory", TestFactoryBean.class).getObjectCount());
+    }
+
+    @Test
+    public void longChainWithRejectingExecutor() {
+        this.beanFactory.setPreInstantiationExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        registerBean("bean0", null);
+        for (int i = 1; i < 20000; i++) {
+            registerBean("bean" + i, "bean" + (i - 1));
+        }
+        this.beanFactory.preInstantiateSingletons();
+        assertTrue(this.beanFactory.containsSingleton("bean19999"));
+    }
+
+    @Test
+    public void creationFailureIsRethrown() {
+        registerBean("bean", null);
+        RootBeanDefinition failing = new RootBeanDefinition(TestBean.class);
+        failing.getPropertyValues().add("failure", "boom");
+        this.beanFactory.registerBeanDefinition("failing", failing);
+        try {
+            this.beanFactory.preInstantiateSingletons();
+            fail("Should have thrown BeanCreationException");
+        }
+        catch (BeanCreationException ex) {
+            assertEquals("failing", ex.getBeanName());
+        }
+    }
+
+
+    private void registerBean(String beanName, String otherBeanName) {
+        RootBeanDefinition bd = new RootBeanDefinition(TestBean.class);
+        if (otherBeanName != null) {
+            bd.getPropertyValues().add("other", new RuntimeBeanReference(otherBeanName));
+        }
+        this.beanFactory.registerBeanDefinition(beanName, bd);
+    }
+
+
+    public static class TestBean {
+
+        private Object other;
+
+        public void setOther(Object other) {
+            this.other = other;
+        }
+
+        public Object getOther() {
+            return this.other;
+        }
+
+        public void setFailure(String failure) {
+            throw new IllegalStateException(failure);
+        }
+    }
+
+
+    public static class TestFactoryBean implements FactoryBean<TestBean> {
+
+        private Object other;
+
+        private int objectCount;
+
+        public void setOther(Object other) {
+            this.other = other;
+        }
+
+        public synchronized int getObjectCount() {
+            return this.objectCount;
+        }
+
+        @Override
+        public synchronized TestBean getObject() {
+            this.objectCount++;
+            TestBean product = new TestBean();
+            product.setOther(this.other);
+            return product;
+        }
+
+        @Override
+        public Class<?> getObjectType() {
+            return TestBean.class;
+        }
+
+        @Override
+        public boolean isSingleton() {
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.xml;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.support.BeanDefinitionSnapshot;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for lazy-init bean definitions whose XML gets parsed on first access.
+ */
+public class DeferredXmlBeanDefinitionTests {
+
+    private static final String CONFIG =
+            "<beans xmlns=\"http://www.springframework.org/schema/beans\">\n" +
+            "  <bean id=\"eager\" class=\"" + TestBean.class.getName() + "\">\n" +
+            "    <property name=\"name\" value=\"eager\"/>\n" +
+            "  </bean>\n" +
+            "  <bean id=\"lazy\" class=\"" + TestBean.class.getName() + "\" lazy-init=\"true\">\n" +
+            "    <property name=\"name\" value=\"lazy\"/>\n" +
+            "    <property name=\"other\" ref=\"eager\"/>\n" +
+            "  </bean>\n" +
+            "</beans>\n";
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Resource resource;
+
+    private DefaultListableBeanFactory beanFactory;
+
+
+    @Before
+    public void setup() throws IOException {
+        File file = this.temporaryFolder.newFile("beans.xml");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(CONFIG.getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+        this.resource = new FileSystemResource(file);
+        this.beanFactory = new DefaultListableBeanFactory();
+        XmlBeanDefinitionReader reader = new XmlBeanDefinitionReader(this.beanFactory);
+        reader.setValidationMode(XmlBeanDefinitionReader.VALIDATION_NONE);
+        reader.setDeferLazyInitBeanParsing(true);
+        reader.loadBeanDefinitions(this.resource);
+    }
+
+
+    @Test
+    public void lazyBeanStaysUnparsedThroughStartup() {
+        DeferredXmlBeanDefinition bd = getDeferredBeanDefinition("lazy");
+        assertFalse(bd.isMaterialized());
+
+        // The lookups and pre-instantiation that a context refresh performs
+        this.beanFactory.getBeanNamesForType(BeanFactoryPostProcessor.class, true, false);
+        this.beanFactory.getBeanNamesForType(BeanPostProcessor.class, true, false);
+        this.beanFactory.freezeConfiguration();
+        this.beanFactory.preInstantiateSingletons();
+
+        assertTrue(this.beanFactory.containsSingleton("eager"));
+        assertFalse(this.beanFactory.containsSingleton("lazy"));
+        assertFalse(bd.isMaterialized());
+    }
+
+    @Test
+    public void lazyBeanMatchedByTypeWithoutParsing() {
+        DeferredXmlBeanDefinition bd = getDeferredBeanDefinition("lazy");
+        String[] names = this.beanFactory.getBeanNamesForType(TestBean.class, true, false);
+        assertEquals(Arrays.asList("eager", "lazy"), Arrays.asList(names));
+        assertEquals(0, this.beanFactory.getBeanNamesForType(Runnable.class, true, false).length);
+        assertFalse(bd.isMaterialized());
+    }
+
+    @Test
+    public void lazyBeanParsedOnFirstAccess() {
+        DeferredXmlBeanDefinition bd = getDeferredBeanDefinition("lazy");
+        this.beanFactory.preInstantiateSingletons();
+
+        TestBean lazy = this.beanFactory.getBean("lazy", TestBean.class);
+        assertTrue(bd.isMaterialized());
+        assertEquals("lazy", lazy.getName());
+        assertSame(this.beanFactory.getBean("eager"), lazy.getOther());
+    }
+
+    @Test
+    public void snapshotIncludesDeferredBeanDefinitions() throws IOException {
+        File snapshot = new File(this.temporaryFolder.getRoot(), "beans.snapshot");
+        BeanDefinitionSnapshot.write(snapshot, "test", Collections.singleton(this.resource), this.beanFactory);
+        assertTrue(getDeferredBeanDefinition("lazy").isMaterialized());
+
+        DefaultListableBeanFactory restored = new DefaultListableBeanFactory();
+        assertEquals(2, BeanDefinitionSnapshot.restore(snapshot, "test", restored));
+        assertTrue(restored.getBeanDefinition("lazy").isLazyInit());
+        TestBean lazy = restored.getBean("lazy", TestBean.class);
+        assertEquals("lazy", lazy.getName());
+        assertSame(restored.getBean("eager"), lazy.getOther());
+    }
+
+
+    private DeferredXmlBeanDefinition getDeferredBeanDefinition(String beanName) {
+        return (DeferredXmlBeanDefinition) this.beanFactory.getBeanDefinition(beanName);
+    }
+
+
+    public static class TestBean {
+
+        private String name;
+
+        private Object other;
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public void setOther(Object other) {
+            this.other = other;
+        }
+
+        public Object getOther() {
+            return this.other;
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.beans.factory.xml;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.core.io.FileSystemResource;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for loading several XML files through an {@link XmlBeanDefinitionReader}
+ * with a parsing executor.
+ */
+public class XmlBeanDefinitionReaderParsingExecutorTests {
+
+    private static final int FILE_COUNT = 6;
+
+    private static final int BEANS_PER_FILE = 20;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ExecutorService executor;
+
+    private CountingResource[] resources;
+
+
+    @Before
+    public void setup() throws IOException {
+        this.executor = Executors.newFixedThreadPool(4);
+        this.resources = new CountingResource[FILE_COUNT];
+        for (int i = 0; i < FILE_COUNT; i++) {
+            StringBuilder content = new StringBuilder();
+            content.append("<beans xmlns=\"http://www.springframework.org/schema/beans\">\n");
+            for (int j = 0; j < BEANS_PER_FILE; j++) {
+                content.append("  <bean id=\"bean").append(i).append('_').append(j).append("\" class=\"")
+                        .append(TestBean.class.getName()).append("\"/>\n");
+            }
+            // Overridden by each subsequent file
+            content.append("  <bean id=\"shared\" class=\"").append(TestBean.class.getName()).append("\">\n");
+            content.append("    <property name=\"name\" value=\"file").append(i).append("\"/>\n");
+            content.append("  </bean>\n");
+            content.append("</beans>\n");
+            this.resources[i] = new CountingResource(writeFile("beans" + i + ".xml", content.toString()));
+        }
+    }
+
+    @After
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+
+    @Test
+    public void registrationOrderMatchesSequentialLoading() {
+        DefaultListableBeanFactory sequential = new DefaultListableBeanFactory();
+        createReader(sequential).loadBeanDefinitions(this.resources);
+
+        DefaultListableBeanFactory parallel = new DefaultListableBeanFactory();
+        XmlBeanDefinitionReader reader = createReader(parallel);
+        reader.setParsingExecutor(this.executor);
+        assertEquals(FILE_COUNT * (BEANS_PER_FILE + 1), reader.loadBeanDefinitions(this.resources));
+
+        assertEquals(Arrays.asList(sequential.getBeanDefinitionNames()),
+                Arrays.asList(parallel.getBeanDefinitionNames()));
+        assertEquals("file" + (FILE_COUNT - 1), parallel.getBean("shared", TestBean.class).getName());
+    }
+
+    @Test
+    public void preloadedFilesAreOpenedOnce() {
+        XmlBeanDefinitionReader reader = createReader(new DefaultListableBeanFactory());
+        reader.setParsingExecutor(this.executor);
+        reader.loadBeanDefinitions(this.resources);
+        for (CountingResource resource : this.resources) {
+            assertEquals(resource.getDescription(), 1, resource.openCount.get());
+        }
+    }
+
+    @Test
+    public void parseErrorReportedForFailingFile() throws IOException {
+        this.resources[3] = new CountingResource(writeFile("broken.xml",
+                "<beans xmlns=\"http://www.springframework.org/schema/beans\">\n<bean id=\"broken\">\n</beans>\n"));
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        XmlBeanDefinitionReader reader = createReader(beanFactory);
+        reader.setParsingExecutor(this.executor);
+        try {
+            reader.loadBeanDefinitions(this.resources);
+            fail("Should have thrown BeanDefinitionStoreException");
+        }
+        catch (BeanDefinitionStoreException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("broken.xml"));
+            assertTrue(ex.getMessage(), ex.getMessage().contains("Line 3"));
+        }
+        // Files before the failing one have been registered, files after it have not.
+        assertTrue(beanFactory.containsBeanDefinition("bean2_0"));
+        assertFalse(beanFactory.containsBeanDefinition("bean4_0"));
+        assertEquals("file2", beanFactory.getBean("shared", TestBean.class).getName());
+    }
+
+
+    private XmlBeanDefinitionReader createReader(DefaultListableBeanFactory beanFactory) {
+        XmlBeanDefinitionReader reader = new XmlBeanDefinitionReader(beanFactory);
+        reader.setValidationMode(XmlBeanDefinitionReader.VALIDATION_NONE);
+        return reader;
+    }
+
+    private File writeFile(String name, String content) throws IOException {
+        File file = this.temporaryFolder.newFile(name);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+        return file;
+    }
+
+
+    private static class CountingResource extends FileSystemResource {
+
+        private final AtomicInteger openCount = new AtomicInteger();
+
+        public CountingResource(File file) {
+            super(file);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            this.openCount.incrementAndGet();
+            return super.getInputStream();
+        }
+    }
+
+
+    public static class TestBean {
+
+        private String name;
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.benchmark.beans;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.CglibSubclassingInstantiationStrategy;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.MethodHandleInstantiationStrategy;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+
+/**
+ * Compares creating prototype beans through reflective constructor invocation
+ * with creating them through {@link MethodHandleInstantiationStrategy}, for a
+ * default constructor as well as for constructor arguments. Runs with several
+ * threads, since prototypes typically get created concurrently.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(4)
+public class InstantiationBenchmark {
+
+    @Param({"reflection", "methodHandle"})
+    public String strategy;
+
+    private DefaultListableBeanFactory beanFactory;
+
+
+    @Setup
+    public void createBeanFactory() {
+        this.beanFactory = new DefaultListableBeanFactory();
+        if ("methodHandle".equals(this.strategy)) {
+            this.beanFactory.setInstantiationStrategy(new MethodHandleInstantiationStrategy());
+        }
+        else {
+            this.beanFactory.setInstantiationStrategy(new CglibSubclassingInstantiationStrategy());
+        }
+
+        RootBeanDefinition plain = new RootBeanDefinition(PlainBean.class);
+        plain.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        this.beanFactory.registerBeanDefinition("plain", plain);
+
+        RootBeanDefinition withArgs = new RootBeanDefinition(ConstructorBean.class);
+        withArgs.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        withArgs.getConstructorArgumentValues().addIndexedArgumentValue(0, "name");
+        withArgs.getConstructorArgumentValues().addIndexedArgumentValue(1, 42);
+        this.beanFactory.registerBeanDefinition("withArgs", withArgs);
+
+        this.beanFactory.freezeConfiguration();
+    }
+
+
+    @Benchmark
+    public Object defaultConstructor() {
+        return this.beanFactory.getBean("plain");
+    }
+
+    @Benchmark
+    public Object constructorArguments() {
+        return this.beanFactory.getBean("withArgs");
+    }
+
+
+    public static class PlainBean {
+    }
+
+
+    public static class ConstructorBean {
+
+        private final String name;
+
+        private final int count;
+
+        public ConstructorBean(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public int getCount() {
+            return this.count;
+        }
+    }
+
+}
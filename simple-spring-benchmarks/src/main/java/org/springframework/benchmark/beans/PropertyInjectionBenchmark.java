@@ -0,0 +1,188 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.benchmark.beans;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.ManagedList;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+
+/**
+ * Compares populating prototype beans through compiled property injection plans
+ * with populating them through the regular BeanWrapper path, for constant values
+ * only, for bean references and for a mix including a managed collection.
+ *
+ * <p>Run with the GC profiler ({@code -prof gc}) to compare the bytes allocated per
+ * bean instance ({@code gc.alloc.rate.norm}) next to the throughput.
+ * @see DefaultListableBeanFactory#setPropertyInjectionPlansEnabled
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PropertyInjectionBenchmark {
+
+    @Param({"false", "true"})
+    public boolean plans;
+
+    private DefaultListableBeanFactory beanFactory;
+
+
+    @Setup
+    public void createBeanFactory() {
+        this.beanFactory = new DefaultListableBeanFactory();
+        this.beanFactory.setPropertyInjectionPlansEnabled(this.plans);
+        this.beanFactory.registerBeanDefinition("collaborator", new RootBeanDefinition(Collaborator.class));
+
+        MutablePropertyValues constants = new MutablePropertyValues();
+        constants.add("name", "constant");
+        constants.add("count", "42");
+        constants.add("enabled", "true");
+        registerPrototype("constants", constants);
+
+        MutablePropertyValues references = new MutablePropertyValues();
+        references.add("name", "references");
+        references.add("collaborator", new RuntimeBeanReference("collaborator"));
+        references.add("other", new RuntimeBeanReference("collaborator"));
+        registerPrototype("references", references);
+
+        MutablePropertyValues mixed = new MutablePropertyValues();
+        mixed.add("name", "mixed");
+        mixed.add("count", "42");
+        mixed.add("collaborator", new RuntimeBeanReference("collaborator"));
+        ManagedList<String> items = new ManagedList<String>();
+        items.add("a");
+        items.add("b");
+        items.add("c");
+        mixed.add("items", items);
+        registerPrototype("mixed", mixed);
+
+        this.beanFactory.freezeConfiguration();
+        this.beanFactory.preInstantiateSingletons();
+    }
+
+    private void registerPrototype(String beanName, MutablePropertyValues pvs) {
+        RootBeanDefinition bd = new RootBeanDefinition(PrototypeBean.class);
+        bd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        bd.setPropertyValues(pvs);
+        this.beanFactory.registerBeanDefinition(beanName, bd);
+    }
+
+
+    @Benchmark
+    public Object constantValues() {
+        return this.beanFactory.getBean("constants");
+    }
+
+    @Benchmark
+    public Object beanReferences() {
+        return this.beanFactory.getBean("references");
+    }
+
+    @Benchmark
+    public Object mixedValues() {
+        return this.beanFactory.getBean("mixed");
+    }
+
+
+    public static class Collaborator {
+    }
+
+
+    public static class PrototypeBean {
+
+        private String name;
+
+        private int count;
+
+        private boolean enabled;
+
+        private Collaborator collaborator;
+
+        private Collaborator other;
+
+        private List<String> items;
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public int getCount() {
+            return this.count;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isEnabled() {
+            return this.enabled;
+        }
+
+        public void setCollaborator(Collaborator collaborator) {
+            this.collaborator = collaborator;
+        }
+
+        public Collaborator getCollaborator() {
+            return this.collaborator;
+        }
+
+        public void setOther(Collaborator other) {
+            this.other = other;
+        }
+
+        public Collaborator getOther() {
+            return this.other;
+        }
+
+        public void setItems(List<String> items) {
+            this.items = items;
+        }
+
+        public List<String> getItems() {
+            return this.items;
+        }
+    }
+
+}
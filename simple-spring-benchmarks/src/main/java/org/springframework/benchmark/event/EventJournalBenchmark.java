@@ -0,0 +1,218 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.benchmark.event;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.benchmark.BenchmarkFiles;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.CachingApplicationEventMulticaster;
+import org.springframework.context.event.MappedEventJournal;
+import org.springframework.context.support.AbstractRefreshableApplicationContext;
+
+/**
+ * Throughput of publishing payload events with and without a {@link MappedEventJournal},
+ * individually and in batches, and of replaying journaled events.
+ *
+ * <p>Journaled publication is bounded by the sustained write rate of the journal
+ * once its queue is full, since the publisher then waits for the writer thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class EventJournalBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    private static final int REPLAY_EVENT_COUNT = 100000;
+
+
+    @State(Scope.Benchmark)
+    public static class PublishState {
+
+        @Param({"false", "true"})
+        public boolean journal;
+
+        private BenchmarkContext context;
+
+        private File directory;
+
+        private MappedEventJournal eventJournal;
+
+        private final OrderPlaced payload = new OrderPlaced("order-1", 4200);
+
+        private final List<OrderPlaced> batch = new ArrayList<OrderPlaced>(BATCH_SIZE);
+
+        @Setup(Level.Trial)
+        public void createContext() {
+            this.context = new BenchmarkContext();
+            this.context.addApplicationListener(new CountingListener());
+            this.context.refresh();
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                this.batch.add(new OrderPlaced("order-" + i, i));
+            }
+        }
+
+        // A fresh journal per iteration keeps the journal directory from growing without bounds.
+        @Setup(Level.Iteration)
+        public void openJournal() throws IOException {
+            if (this.journal) {
+                this.directory = BenchmarkFiles.createTempDirectory("event-journal-benchmark");
+                this.eventJournal = new MappedEventJournal(this.directory);
+                this.eventJournal.setEventTypes(OrderPlaced.class);
+                this.eventJournal.open();
+                this.context.setEventJournal(this.eventJournal);
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void closeJournal() {
+            if (this.journal) {
+                this.context.setEventJournal(null);
+                this.eventJournal.close();
+                BenchmarkFiles.deleteRecursively(this.directory);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void closeContext() {
+            this.context.close();
+        }
+    }
+
+
+    @State(Scope.Benchmark)
+    public static class ReplayState {
+
+        private File directory;
+
+        private MappedEventJournal eventJournal;
+
+        private final CachingApplicationEventMulticaster multicaster = new CachingApplicationEventMulticaster();
+
+        private final Object source = new Object();
+
+        @Setup(Level.Trial)
+        public void fillJournal() throws Exception {
+            this.directory = BenchmarkFiles.createTempDirectory("event-journal-replay-benchmark");
+            this.eventJournal = new MappedEventJournal(this.directory);
+            this.eventJournal.setEventTypes(OrderPlaced.class);
+            this.eventJournal.open();
+            BenchmarkContext context = new BenchmarkContext();
+            context.setEventJournal(this.eventJournal);
+            context.refresh();
+            for (int i = 0; i < REPLAY_EVENT_COUNT; i++) {
+                context.publishEvent(new OrderPlaced("order-" + i, i));
+            }
+            context.close();
+            this.eventJournal.close();
+            this.multicaster.addApplicationListener(new CountingListener());
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteJournal() {
+            BenchmarkFiles.deleteRecursively(this.directory);
+        }
+    }
+
+
+    @Benchmark
+    public void publishEvent(PublishState state) {
+        state.context.publishEvent(state.payload);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void publishEvents(PublishState state) {
+        state.context.publishEvents(state.batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REPLAY_EVENT_COUNT)
+    public long replay(ReplayState state) throws IOException {
+        return state.eventJournal.replay(0, state.multicaster, state.source);
+    }
+
+
+    /**
+     * Context without bean definitions of its own.
+     */
+    private static class BenchmarkContext extends AbstractRefreshableApplicationContext {
+
+        @Override
+        protected void loadBeanDefinitions(DefaultListableBeanFactory beanFactory) {
+        }
+    }
+
+
+    private static class CountingListener implements ApplicationListener<ApplicationEvent> {
+
+        private long count;
+
+        @Override
+        public void onApplicationEvent(ApplicationEvent event) {
+            this.count++;
+        }
+    }
+
+
+    @SuppressWarnings("serial")
+    public static class OrderPlaced implements Serializable {
+
+        private final String orderId;
+
+        private final long amount;
+
+        public OrderPlaced(String orderId, long amount) {
+            this.orderId = orderId;
+            this.amount = amount;
+        }
+
+        public String getOrderId() {
+            return this.orderId;
+        }
+
+        public long getAmount() {
+            return this.amount;
+        }
+    }
+
+}
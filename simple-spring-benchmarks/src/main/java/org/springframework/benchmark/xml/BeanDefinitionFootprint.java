@@ -0,0 +1,110 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.benchmark.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import org.springframework.beans.factory.xml.BeanDefinitionInterner;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.benchmark.BenchmarkFiles;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * Measures the heap retained by the bean definitions of each generated
+ * {@link BenchmarkConfig}, loaded with and without a {@link BeanDefinitionInterner},
+ * and reports the reduction next to the savings estimated by the interner.
+ *
+ * <p>The retained heap is the used heap after full garbage collections, with the
+ * bean factory reachable, minus the used heap before loading. Each measurement
+ * is repeated and the minimum is reported, which filters out collections that
+ * did not complete. Run in a dedicated JVM with a fixed heap size, e.g.
+ * {@code java -Xms4g -Xmx4g -cp target/benchmarks.jar org.springframework.benchmark.xml.BeanDefinitionFootprint HUGE COLLECTIONS}
+ */
+public class BeanDefinitionFootprint {
+
+    private static final int REPETITIONS = 5;
+
+
+    public static void main(String[] args) throws IOException {
+        BenchmarkConfig[] configs = new BenchmarkConfig[args.length > 0 ? args.length : 3];
+        if (args.length > 0) {
+            for (int i = 0; i < args.length; i++) {
+                configs[i] = BenchmarkConfig.valueOf(args[i]);
+            }
+        }
+        else {
+            configs[0] = BenchmarkConfig.MEDIUM;
+            configs[1] = BenchmarkConfig.HUGE;
+            configs[2] = BenchmarkConfig.COLLECTIONS;
+        }
+
+        System.out.println(String.format("%-12s %16s %16s %10s %16s",
+                "Config", "plain bytes", "interned bytes", "reduction", "estimated bytes"));
+        for (BenchmarkConfig config : configs) {
+            File directory = BenchmarkFiles.createTempDirectory("bean-definition-footprint");
+            try {
+                Resource resource = new FileSystemResource(config.generate(directory));
+                long plain = Long.MAX_VALUE;
+                long interned = Long.MAX_VALUE;
+                long estimated = 0;
+                for (int i = 0; i < REPETITIONS; i++) {
+                    plain = Math.min(plain, measure(resource, null));
+                    BeanDefinitionInterner interner = new BeanDefinitionInterner();
+                    interned = Math.min(interned, measure(resource, interner));
+                    estimated = interner.getBytesSaved();
+                }
+                System.out.println(String.format("%-12s %16d %16d %9.1f%% %16d", config,
+                        plain, interned, 100.0 * (plain - interned) / plain, estimated));
+            }
+            finally {
+                BenchmarkFiles.deleteRecursively(directory);
+            }
+        }
+    }
+
+    /**
+     * Load the given resource into a fresh bean factory and return the heap retained by it.
+     */
+    private static long measure(Resource resource, BeanDefinitionInterner interner) {
+        long before = usedHeapAfterGc();
+        XmlBeanDefinitionReader reader = BenchmarkConfig.createReader();
+        reader.setBeanDefinitionInterner(interner);
+        reader.loadBeanDefinitions(resource);
+        // Canonical instances stay referenced by the bean definitions, not by the interner.
+        if (interner != null) {
+            interner.clear();
+        }
+        long after = usedHeapAfterGc();
+        if (reader.getRegistry().getBeanDefinitionCount() == 0) {
+            throw new IllegalStateException("No bean definitions loaded from " + resource);
+        }
+        return after - before;
+    }
+
+    private static long usedHeapAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 4; i++) {
+            memory.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+}
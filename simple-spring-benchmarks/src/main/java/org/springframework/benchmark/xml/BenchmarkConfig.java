@@ -0,0 +1,274 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.benchmark.xml;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+
+/**
+ * Generated XML bean definition configurations exercised by the parsing benchmarks.
+ * Each configuration is deterministic, so its bean definition count is known up front.
+ */
+public enum BenchmarkConfig {
+
+    /** A single file with 100 plain beans */
+    SMALL {
+        @Override
+        void writeConfig(File directory, File rootFile) throws IOException {
+            writeBeansFile(rootFile, 0, 100, null);
+        }
+
+        @Override
+        public int getBeanDefinitionCount() {
+            return 100;
+        }
+    },
+
+    /** A single file with 5,000 plain beans */
+    MEDIUM {
+        @Override
+        void writeConfig(File directory, File rootFile) throws IOException {
+            writeBeansFile(rootFile, 0, 5000, null);
+        }
+
+        @Override
+        public int getBeanDefinitionCount() {
+            return 5000;
+        }
+    },
+
+    /** A single file with 60,000 plain beans, about 18 MB */
+    HUGE {
+        @Override
+        void writeConfig(File directory, File rootFile) throws IOException {
+            writeBeansFile(rootFile, 0, 60000, null);
+        }
+
+        @Override
+        public int getBeanDefinitionCount() {
+            return 60000;
+        }
+    },
+
+    /** A single file with 170,000 plain beans, about 50 MB */
+    GIANT {
+        @Override
+        void writeConfig(File directory, File rootFile) throws IOException {
+            writeBeansFile(rootFile, 0, 170000, null);
+        }
+
+        @Override
+        public int getBeanDefinitionCount() {
+            return 170000;
+        }
+    },
+
+    /** An import tree of depth 4 with 4 imports per file and 20 beans per file */
+    IMPORTS {
+        @Override
+        void writeConfig(File directory, File rootFile) throws IOException {
+            writeImportTree(directory, rootFile, "", 0, new int[] {0});
+        }
+
+        @Override
+        public int getBeanDefinitionCount() {
+            return IMPORT_FILE_COUNT * IMPORT_BEANS_PER_FILE;
+        }
+    },
+
+    /** A single file with 1,000 beans holding a 20-element list and a 20-entry map each */
+    COLLECTIONS {
+        @Override
+        void writeConfig(File directory, File rootFile) throws IOException {
+            Writer writer = openWriter(rootFile);
+            try {
+                writeHeader(writer, false);
+                for (int i = 0; i < 1000; i++) {
+                    writer.write("    <bean id=\"bean" + i + "\" class=\"" + BEAN_CLASS_NAME + "\">\n");
+                    writer.write("        <property name=\"list\">\n            <list>\n");
+                    for (int j = 0; j < 20; j++) {
+                        if (j % 4 == 0) {
+                            writer.write("                <ref bean=\"bean" + ((i + j) % 1000) + "\"/>\n");
+                        }
+                        else {
+                            writer.write("                <value>element" + j + "</value>\n");
+                        }
+                    }
+                    writer.write("            </list>\n        </property>\n");
+                    writer.write("        <property name=\"map\">\n            <map>\n");
+                    for (int j = 0; j < 20; j++) {
+                        writer.write("                <entry key=\"key" + j + "\" value=\"value" + (i * j) + "\"/>\n");
+                    }
+                    writer.write("            </map>\n        </property>\n");
+                    writer.write("    </bean>\n");
+                }
+                writer.write("</beans>\n");
+            }
+            finally {
+                writer.close();
+            }
+        }
+
+        @Override
+        public int getBeanDefinitionCount() {
+            return 1000;
+        }
+    },
+
+    /** A single file with 2,500 plain beans and 2,500 custom namespace elements */
+    NAMESPACE {
+        @Override
+        void writeConfig(File directory, File rootFile) throws IOException {
+            Writer writer = openWriter(rootFile);
+            try {
+                writeHeader(writer, true);
+                for (int i = 0; i < 2500; i++) {
+                    writeBean(writer, i);
+                    writer.write("    <bench:item id=\"item" + i + "\" value=\"value" + i + "\" size=\"" + i + "\"/>\n");
+                }
+                writer.write("</beans>\n");
+            }
+            finally {
+                writer.close();
+            }
+        }
+
+        @Override
+        public int getBeanDefinitionCount() {
+            return 5000;
+        }
+    };
+
+
+    static final String BEAN_CLASS_NAME = "org.springframework.benchmark.xml.GeneratedBean";
+
+    private static final int IMPORT_DEPTH = 4;
+
+    private static final int IMPORT_FAN_OUT = 4;
+
+    /** 1 + 4 + 16 + 64 + 256 files */
+    private static final int IMPORT_FILE_COUNT = 341;
+
+    private static final int IMPORT_BEANS_PER_FILE = 20;
+
+
+    /**
+     * Write this configuration into the given directory.
+     * @param directory the directory to write the configuration files to
+     * @return the root file of the configuration
+     * @throws IOException if writing failed
+     */
+    public File generate(File directory) throws IOException {
+        File rootFile = new File(directory, name().toLowerCase() + ".xml");
+        writeConfig(directory, rootFile);
+        return rootFile;
+    }
+
+    /**
+     * Create a reader for loading generated configurations into a fresh bean factory.
+     * <p>XML validation is switched off: the spring-beans schema referenced by the
+     * configurations is not bundled with this module, so validating against it
+     * would fetch it over the network (and measure that instead of parsing).
+     */
+    public static XmlBeanDefinitionReader createReader() {
+        XmlBeanDefinitionReader reader = new XmlBeanDefinitionReader(new DefaultListableBeanFactory());
+        reader.setValidationMode(XmlBeanDefinitionReader.VALIDATION_NONE);
+        return reader;
+    }
+
+    /**
+     * Return the number of bean definitions registered when loading this configuration.
+     */
+    public abstract int getBeanDefinitionCount();
+
+    abstract void writeConfig(File directory, File rootFile) throws IOException;
+
+
+    private static void writeImportTree(File directory, File file, String path, int depth, int[] beanOffset)
+            throws IOException {
+
+        String[] imports = null;
+        if (depth < IMPORT_DEPTH) {
+            imports = new String[IMPORT_FAN_OUT];
+            for (int i = 0; i < IMPORT_FAN_OUT; i++) {
+                String childPath = path + "-" + i;
+                imports[i] = "import" + childPath + ".xml";
+                writeImportTree(directory, new File(directory, imports[i]), childPath, depth + 1, beanOffset);
+            }
+        }
+        writeBeansFile(file, beanOffset[0], IMPORT_BEANS_PER_FILE, imports);
+        beanOffset[0] += IMPORT_BEANS_PER_FILE;
+    }
+
+    private static void writeBeansFile(File file, int offset, int count, String[] imports) throws IOException {
+        Writer writer = openWriter(file);
+        try {
+            writeHeader(writer, false);
+            if (imports != null) {
+                for (String resource : imports) {
+                    writer.write("    <import resource=\"" + resource + "\"/>\n");
+                }
+            }
+            for (int i = offset; i < offset + count; i++) {
+                writeBean(writer, i);
+            }
+            writer.write("</beans>\n");
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    private static void writeBean(Writer writer, int index) throws IOException {
+        writer.write("    <bean id=\"bean" + index + "\" class=\"" + BEAN_CLASS_NAME + "\"" +
+                (index % 2 == 0 ? " lazy-init=\"true\"" : "") + ">\n");
+        writer.write("        <constructor-arg value=\"" + index + "\"/>\n");
+        writer.write("        <property name=\"name\" value=\"bean" + index + "\"/>\n");
+        writer.write("        <property name=\"enabled\" value=\"true\"/>\n");
+        if (index > 0) {
+            writer.write("        <property name=\"previous\" ref=\"bean" + (index - 1) + "\"/>\n");
+        }
+        writer.write("    </bean>\n");
+    }
+
+    private static void writeHeader(Writer writer, boolean customNamespace) throws IOException {
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write("<beans xmlns=\"http://www.springframework.org/schema/beans\"\n");
+        writer.write("       xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n");
+        if (customNamespace) {
+            writer.write("       xmlns:bench=\"http://www.springframework.org/schema/benchmark\"\n");
+        }
+        writer.write("       xsi:schemaLocation=\"http://www.springframework.org/schema/beans " +
+                "http://www.springframework.org/schema/beans/spring-beans.xsd");
+        if (customNamespace) {
+            writer.write(" http://www.springframework.org/schema/benchmark " +
+                    "http://www.springframework.org/schema/benchmark/spring-benchmark.xsd");
+        }
+        writer.write("\">\n\n");
+    }
+
+    private static Writer openWriter(File file) throws IOException {
+        return new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.benchmark.xml;
+
+import org.w3c.dom.Element;
+
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.xml.AbstractSingleBeanDefinitionParser;
+import org.springframework.beans.factory.xml.NamespaceHandlerSupport;
+import org.springframework.util.StringUtils;
+
+/**
+ * NamespaceHandler for the {@code benchmark} namespace used by
+ * {@link BenchmarkConfig#NAMESPACE}, registering a bean per {@code <item>} element.
+ */
+public class BenchmarkNamespaceHandler extends NamespaceHandlerSupport {
+
+    @Override
+    public void init() {
+        registerBeanDefinitionParser("item", new ItemBeanDefinitionParser());
+    }
+
+
+    private static class ItemBeanDefinitionParser extends AbstractSingleBeanDefinitionParser {
+
+        @Override
+        protected String getBeanClassName(Element element) {
+            return BenchmarkConfig.BEAN_CLASS_NAME;
+        }
+
+        @Override
+        protected void doParse(Element element, BeanDefinitionBuilder builder) {
+            builder.addPropertyValue("name", element.getAttribute(ID_ATTRIBUTE));
+            String value = element.getAttribute("value");
+            if (StringUtils.hasText(value)) {
+                builder.addPropertyValue("value", value);
+            }
+            String size = element.getAttribute("size");
+            if (StringUtils.hasText(size)) {
+                builder.addPropertyValue("size", size);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.benchmark.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.benchmark.BenchmarkFiles;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * Compares loading large local XML files through a stream with loading them
+ * through a memory-mapped buffer.
+ * @see XmlBeanDefinitionReader#setMemoryMappingThreshold
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class MappedXmlLoadingBenchmark {
+
+    @Param({"MEDIUM", "HUGE", "GIANT"})
+    public BenchmarkConfig config;
+
+    /** -1 for reading through a stream, 0 for mapping every file */
+    @Param({"-1", "0"})
+    public long memoryMappingThreshold;
+
+    private File directory;
+
+    private Resource resource;
+
+
+    @Setup
+    public void generateConfig() throws IOException {
+        this.directory = BenchmarkFiles.createTempDirectory("mapped-xml-loading-benchmark");
+        this.resource = new FileSystemResource(this.config.generate(this.directory));
+    }
+
+    @TearDown
+    public void deleteConfig() {
+        BenchmarkFiles.deleteRecursively(this.directory);
+    }
+
+
+    @Benchmark
+    public int loadBeanDefinitions() {
+        XmlBeanDefinitionReader reader = BenchmarkConfig.createReader();
+        reader.setMemoryMappingThreshold(this.memoryMappingThreshold);
+        return reader.loadBeanDefinitions(this.resource);
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.benchmark.xml;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the XML parsing benchmarks with the GC profiler attached and reports,
+ * next to the throughput, the bytes allocated per bean definition: the normalized
+ * allocation per operation divided by the bean definitions loaded per operation.
+ *
+ * <p>Accepts the regular JMH command line options, e.g.
+ * {@code java -cp target/benchmarks.jar org.springframework.benchmark.xml.ParsingBenchmarkRunner -p config=HUGE}
+ */
+public class ParsingBenchmarkRunner {
+
+    private static final String ALLOCATION_RESULT = "\u00b7gc.alloc.rate.norm";
+
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(XmlParsingBenchmark.class.getSimpleName())
+                .include(MappedXmlLoadingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        System.out.println();
+        System.out.println(String.format("%-60s %14s %18s", "Benchmark", "ops/s", "bytes/definition"));
+        for (RunResult result : results) {
+            Map<String, String> params = getParams(result);
+            BenchmarkConfig config = BenchmarkConfig.valueOf(params.get("config"));
+            Result<?> allocation = result.getSecondaryResults().get(ALLOCATION_RESULT);
+            String bytesPerDefinition = (allocation != null ?
+                    String.format("%.1f", allocation.getScore() / config.getBeanDefinitionCount()) : "n/a");
+            System.out.println(String.format("%-60s %14.3f %18s", describe(result, params),
+                    result.getPrimaryResult().getScore(), bytesPerDefinition));
+        }
+    }
+
+    private static Map<String, String> getParams(RunResult result) {
+        Map<String, String> params = new TreeMap<String, String>();
+        for (String key : result.getParams().getParamsKeys()) {
+            params.put(key, result.getParams().getParam(key));
+        }
+        return params;
+    }
+
+    private static String describe(RunResult result, Map<String, String> params) {
+        String benchmark = result.getParams().getBenchmark();
+        return benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1) + " " + params;
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.benchmark.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.benchmark.BenchmarkFiles;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * Throughput of {@link XmlBeanDefinitionReader#loadBeanDefinitions(Resource)}
+ * for each generated {@link BenchmarkConfig}, loading into a fresh bean factory
+ * per operation. Run through {@link ParsingBenchmarkRunner} for allocation
+ * figures per bean definition.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class XmlParsingBenchmark {
+
+    @Param
+    public BenchmarkConfig config;
+
+    private File directory;
+
+    private Resource resource;
+
+
+    @Setup
+    public void generateConfig() throws IOException {
+        this.directory = BenchmarkFiles.createTempDirectory("xml-parsing-benchmark");
+        this.resource = new FileSystemResource(this.config.generate(this.directory));
+    }
+
+    @TearDown
+    public void deleteConfig() {
+        BenchmarkFiles.deleteRecursively(this.directory);
+    }
+
+
+    @Benchmark
+    public int loadBeanDefinitions() {
+        XmlBeanDefinitionReader reader = BenchmarkConfig.createReader();
+        return reader.loadBeanDefinitions(this.resource);
+    }
+
+}
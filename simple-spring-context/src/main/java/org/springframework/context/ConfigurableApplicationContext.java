@@ -18,6 +18,7 @@ package org.springframework.context;
 
 
 import java.io.Closeable;
+import java.util.Collection;
 
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
@@ -204,4 +205,27 @@ public interface ConfigurableApplicationContext extends ApplicationContext, Life
      */
     ConfigurableListableBeanFactory getBeanFactory() throws IllegalStateException;
 
+    /**
+     * Return the timeline recorded during the most recent {@link #refresh()}
+     * of this context: its phases and the steps nested within them.
+     * <p>The timeline gets reset at the beginning of each refresh attempt; after a
+     * failed refresh, it shows the steps performed up until the failure.
+     * @return the startup timeline (never {@code null})
+     * @see StartupTimeline#toJson()
+     * @see StartupTimeline#toChromeTrace()
+     */
+    StartupTimeline getStartupTimeline();
+
+    /**
+     * Publish the given events to all listeners, in the given order.
+     * <p>Equivalent to publishing each event through {@link #publishEvent(Object)},
+     * except that the listeners for each distinct type of event get determined
+     * only once per batch, and that {@link org.springframework.context.event.BatchApplicationListener
+     * BatchApplicationListeners} receive all events they support in a single call.
+     * Each listener receives its events in the given order.
+     * @param events the events to publish (each may be an {@link ApplicationEvent}
+     * or a payload object to be turned into a {@link PayloadApplicationEvent})
+     */
+    void publishEvents(Collection<?> events);
+
 }
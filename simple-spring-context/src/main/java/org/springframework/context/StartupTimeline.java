@@ -0,0 +1,380 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.context;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.core.NamedThreadLocal;
+
+/**
+ * Hierarchical timeline of the steps performed while starting up an
+ * application context: the phases of {@link ConfigurableApplicationContext#refresh()}
+ * and the steps nested within them, such as the loading of each configuration
+ * resource and the invocation of each post-processor.
+ *
+ * <p>Steps are nested per thread: a step started while another step is active
+ * on the same thread becomes a child of that step. Ending a step also ends any
+ * of its children that are still active, e.g. after a failure.
+ *
+ * <p>The recorded timeline can be exported as JSON ({@link #toJson()}) or in the
+ * Trace Event format understood by Chrome's {@code about:tracing} and similar
+ * trace viewers ({@link #toChromeTrace()}).
+ *
+ * @see ConfigurableApplicationContext#getStartupTimeline()
+ */
+public class StartupTimeline {
+
+    private final ThreadLocal<Step> currentStep = new NamedThreadLocal<Step>("Current startup step");
+
+    private final List<Step> steps = new ArrayList<Step>();
+
+    private volatile long originNanos = System.nanoTime();
+
+    private volatile long originMillis = System.currentTimeMillis();
+
+
+    /**
+     * Start a new step, nested within the step currently active on this thread (if any).
+     * @param name the name of the step
+     * @return the step, to be {@link Step#end() ended} once finished
+     */
+    public Step start(String name) {
+        Step parent = this.currentStep.get();
+        Step step = new Step(name, parent);
+        if (parent != null) {
+            parent.addChild(step);
+        }
+        else {
+            synchronized (this.steps) {
+                this.steps.add(step);
+            }
+        }
+        this.currentStep.set(step);
+        return step;
+    }
+
+    /**
+     * Return the top-level steps recorded so far, in the order they were started.
+     */
+    public List<Step> getSteps() {
+        synchronized (this.steps) {
+            return new ArrayList<Step>(this.steps);
+        }
+    }
+
+    /**
+     * Return the wall-clock time (in milliseconds) that step times are relative to.
+     */
+    public long getOrigin() {
+        return this.originMillis;
+    }
+
+    /**
+     * Discard all recorded steps and restart the clock.
+     */
+    public void reset() {
+        synchronized (this.steps) {
+            this.steps.clear();
+            this.originNanos = System.nanoTime();
+            this.originMillis = System.currentTimeMillis();
+        }
+        this.currentStep.remove();
+    }
+
+    /**
+     * Export this timeline as a JSON document: an object with the origin
+     * timestamp and the tree of steps, each step with its start time and
+     * duration in milliseconds relative to the origin.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("{\"origin\":").append(this.originMillis).append(",\"steps\":[");
+        appendJsonSteps(sb, getSteps());
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    /**
+     * Export this timeline in the Trace Event format as understood by Chrome's
+     * {@code about:tracing} view: one complete event per step, with times in
+     * microseconds and step tags as event arguments.
+     */
+    public String toChromeTrace() {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("{\"traceEvents\":[");
+        appendTraceEvents(sb, getSteps(), true);
+        sb.append("],\"displayTimeUnit\":\"ms\"}");
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "StartupTimeline with steps " + getSteps();
+    }
+
+
+    private void appendJsonSteps(StringBuilder sb, List<Step> steps) {
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"name\":");
+            appendJsonString(sb, step.getName());
+            sb.append(",\"start\":").append(nanosToMillis(step.getStartTime()));
+            sb.append(",\"duration\":").append(nanosToMillis(step.getCurrentDuration()));
+            sb.append(",\"thread\":");
+            appendJsonString(sb, step.getThreadName());
+            if (!step.isEnded()) {
+                sb.append(",\"ended\":false");
+            }
+            appendJsonTags(sb, "tags", step.getTags());
+            List<Step> children = step.getChildren();
+            if (!children.isEmpty()) {
+                sb.append(",\"steps\":[");
+                appendJsonSteps(sb, children);
+                sb.append(']');
+            }
+            sb.append('}');
+        }
+    }
+
+    private boolean appendTraceEvents(StringBuilder sb, List<Step> steps, boolean first) {
+        for (Step step : steps) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append("{\"name\":");
+            appendJsonString(sb, step.getName());
+            sb.append(",\"cat\":\"startup\",\"ph\":\"X\",\"pid\":1,\"tid\":").append(step.threadId);
+            sb.append(",\"ts\":").append(nanosToMicros(step.getStartTime()));
+            sb.append(",\"dur\":").append(nanosToMicros(step.getCurrentDuration()));
+            appendJsonTags(sb, "args", step.getTags());
+            sb.append('}');
+            first = appendTraceEvents(sb, step.getChildren(), first);
+        }
+        return first;
+    }
+
+    private static void appendJsonTags(StringBuilder sb, String fieldName, Map<String, String> tags) {
+        if (!tags.isEmpty()) {
+            sb.append(",\"").append(fieldName).append("\":{");
+            boolean first = true;
+            for (Map.Entry<String, String> entry : tags.entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                appendJsonString(sb, entry.getKey());
+                sb.append(':');
+                appendJsonString(sb, entry.getValue());
+            }
+            sb.append('}');
+        }
+    }
+
+    private static void appendJsonString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static String nanosToMillis(long nanos) {
+        return String.valueOf(nanos / 1000 / 1000.0);
+    }
+
+    private static long nanosToMicros(long nanos) {
+        return nanos / 1000;
+    }
+
+
+    /**
+     * A single step within a {@link StartupTimeline}.
+     */
+    public class Step {
+
+        private final String name;
+
+        private final Step parent;
+
+        private final String threadName;
+
+        private final long threadId;
+
+        private final long startNanos;
+
+        private volatile long endNanos = -1;
+
+        private final List<Step> children = new ArrayList<Step>(4);
+
+        private final Map<String, String> tags = new LinkedHashMap<String, String>(4);
+
+        private Step(String name, Step parent) {
+            this.name = name;
+            this.parent = parent;
+            Thread thread = Thread.currentThread();
+            this.threadName = thread.getName();
+            this.threadId = thread.getId();
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * Attach a key-value tag to this step, e.g. the name of a resource
+         * or post-processor, or the number of beans processed.
+         * @param key the tag key
+         * @param value the tag value ({@code String.valueOf} will be applied)
+         * @return this step, for chaining
+         */
+        public Step tag(String key, Object value) {
+            synchronized (this.tags) {
+                this.tags.put(key, String.valueOf(value));
+            }
+            return this;
+        }
+
+        /**
+         * End this step, along with any of its nested steps still active.
+         * Has no effect if this step has been ended already.
+         */
+        public void end() {
+            if (this.endNanos >= 0) {
+                return;
+            }
+            for (Step child : getChildren()) {
+                child.end();
+            }
+            this.endNanos = System.nanoTime();
+            if (currentStep.get() == this) {
+                if (this.parent != null && this.parent.threadId == this.threadId) {
+                    currentStep.set(this.parent);
+                }
+                else {
+                    currentStep.remove();
+                }
+            }
+        }
+
+        /**
+         * Return the name of this step.
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * Return the name of the thread that this step was started on.
+         */
+        public String getThreadName() {
+            return this.threadName;
+        }
+
+        /**
+         * Return the start time of this step in nanoseconds,
+         * relative to the {@link StartupTimeline#getOrigin() origin} of the timeline.
+         */
+        public long getStartTime() {
+            return this.startNanos - originNanos;
+        }
+
+        /**
+         * Return the duration of this step in nanoseconds,
+         * or -1 if the step has not ended yet.
+         */
+        public long getDuration() {
+            long end = this.endNanos;
+            return (end >= 0 ? end - this.startNanos : -1);
+        }
+
+        /**
+         * Return whether this step has ended.
+         */
+        public boolean isEnded() {
+            return (this.endNanos >= 0);
+        }
+
+        /**
+         * Return the tags attached to this step.
+         */
+        public Map<String, String> getTags() {
+            synchronized (this.tags) {
+                return Collections.unmodifiableMap(new LinkedHashMap<String, String>(this.tags));
+            }
+        }
+
+        /**
+         * Return the steps nested within this step, in the order they were started.
+         */
+        public List<Step> getChildren() {
+            synchronized (this.children) {
+                return new ArrayList<Step>(this.children);
+            }
+        }
+
+        private void addChild(Step child) {
+            synchronized (this.children) {
+                this.children.add(child);
+            }
+        }
+
+        private long getCurrentDuration() {
+            long duration = getDuration();
+            return (duration >= 0 ? duration : System.nanoTime() - this.startNanos);
+        }
+
+        @Override
+        public String toString() {
+            long duration = getDuration();
+            return this.name + (duration >= 0 ? " (" + nanosToMillis(duration) + " ms)" : " (active)");
+        }
+    }
+
+}
@@ -0,0 +1,503 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.context.event;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+/**
+ * {@link CachingApplicationEventMulticaster} that hands selected listener invocations
+ * off to a bounded queue drained by a fixed pool of worker threads, so that slow
+ * listeners do not add latency to the publishing thread.
+ *
+ * <p>Asynchronous dispatch applies to listeners that are instances of one of the
+ * configured {@link #setAsyncListenerTypes listener types}, and to events (or event
+ * payloads) that are instances of one of the configured {@link #setAsyncEventTypes
+ * event types}; all other listeners are invoked just like with the superclass.
+ * Asynchronously invoked listeners see events in no particular order, and any
+ * exception they throw is passed to the {@link #setErrorHandler ErrorHandler}
+ * or logged, never to the publisher.
+ *
+ * <p>Once the queue is full, the {@link #setOverflowPolicy overflow policy} decides
+ * between waiting for capacity, dropping the invocation and invoking the listener
+ * on the publishing thread. Worker threads are virtual threads where the JVM
+ * supports them, unless {@link #setUseVirtualThreads turned off}.
+ *
+ * <p>To be defined as a bean named "applicationEventMulticaster", which lets the
+ * context pick it up and destroy it on shutdown, draining pending invocations.
+ * Queue depth and dispatch latency (time spent waiting in the queue) are
+ * exposed through getters, e.g. for export to a metrics registry.
+ *
+ * @see org.springframework.context.support.AbstractApplicationContext#APPLICATION_EVENT_MULTICASTER_BEAN_NAME
+ */
+public class AsyncApplicationEventMulticaster extends CachingApplicationEventMulticaster implements DisposableBean {
+
+    /**
+     * What to do with an asynchronous listener invocation when the queue is full.
+     */
+    public enum OverflowPolicy {
+
+        /** Block the publishing thread until the queue has capacity again */
+        BLOCK,
+
+        /** Discard the invocation, counting it as dropped */
+        DROP,
+
+        /** Invoke the listener on the publishing thread */
+        CALLER_RUNS
+    }
+
+
+    private static final Log logger = LogFactory.getLog(AsyncApplicationEventMulticaster.class);
+
+    private Class<?>[] asyncListenerTypes = new Class<?>[0];
+
+    private Class<?>[] asyncEventTypes = new Class<?>[0];
+
+    private int queueCapacity = 1024;
+
+    private int workerCount = Runtime.getRuntime().availableProcessors();
+
+    private OverflowPolicy overflowPolicy = OverflowPolicy.CALLER_RUNS;
+
+    private boolean useVirtualThreads = true;
+
+    private String threadNamePrefix = "event-dispatch-";
+
+    private long shutdownTimeout = 10000;
+
+    private volatile ThreadPoolExecutor dispatcher;
+
+    private final Object dispatcherMonitor = new Object();
+
+    private final AtomicLong asyncInvocationCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final AtomicLong callerRunsCount = new AtomicLong();
+
+    private final AtomicLong totalDispatchLatency = new AtomicLong();
+
+    private final AtomicLong maxDispatchLatency = new AtomicLong();
+
+
+    /**
+     * Create a new AsyncApplicationEventMulticaster.
+     */
+    public AsyncApplicationEventMulticaster() {
+    }
+
+    /**
+     * Create a new AsyncApplicationEventMulticaster for the given BeanFactory.
+     */
+    public AsyncApplicationEventMulticaster(BeanFactory beanFactory) {
+        super(beanFactory);
+    }
+
+
+    /**
+     * Set the types of listeners to invoke asynchronously, e.g. marker interfaces
+     * or specific listener classes.
+     */
+    public void setAsyncListenerTypes(Class<?>... asyncListenerTypes) {
+        Assert.notNull(asyncListenerTypes, "Async listener types must not be null");
+        this.asyncListenerTypes = asyncListenerTypes;
+    }
+
+    /**
+     * Set the types of events to deliver asynchronously to all of their listeners.
+     * Types are matched against the {@link ApplicationEvent} itself as well as
+     * against the payload of a {@link PayloadApplicationEvent}.
+     */
+    public void setAsyncEventTypes(Class<?>... asyncEventTypes) {
+        Assert.notNull(asyncEventTypes, "Async event types must not be null");
+        this.asyncEventTypes = asyncEventTypes;
+    }
+
+    /**
+     * Set the maximum number of pending asynchronous invocations. Default is 1024.
+     * <p>Needs to be set before the first asynchronous dispatch.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        Assert.isTrue(queueCapacity > 0, "'queueCapacity' must be positive");
+        assertDispatcherNotStarted();
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Set the number of worker threads. Default is the number of available processors.
+     * <p>Needs to be set before the first asynchronous dispatch.
+     */
+    public void setWorkerCount(int workerCount) {
+        Assert.isTrue(workerCount > 0, "'workerCount' must be positive");
+        assertDispatcherNotStarted();
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Set what to do once the queue is full. Default is {@link OverflowPolicy#CALLER_RUNS}.
+     * <p>Note that {@link OverflowPolicy#BLOCK} may block forever if listeners
+     * invoked on the worker threads publish further asynchronous events themselves.
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        Assert.notNull(overflowPolicy, "OverflowPolicy must not be null");
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Return the policy applied once the queue is full.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+
+    /**
+     * Set whether to use virtual threads as workers if the JVM supports them.
+     * Default is "true"; platform daemon threads are used otherwise.
+     * <p>Needs to be set before the first asynchronous dispatch.
+     */
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        assertDispatcherNotStarted();
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
+    /**
+     * Set the name prefix for worker threads. Default is "event-dispatch-".
+     * <p>Needs to be set before the first asynchronous dispatch.
+     */
+    public void setThreadNamePrefix(String threadNamePrefix) {
+        assertDispatcherNotStarted();
+        this.threadNamePrefix = threadNamePrefix;
+    }
+
+    /**
+     * Set the maximum time (in milliseconds) to wait on {@link #destroy()} for
+     * pending invocations to complete. Default is 10000.
+     */
+    public void setShutdownTimeout(long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+
+    @Override
+    protected void dispatch(ApplicationListener<?> listener, ApplicationEvent event) {
+        if (isAsyncDispatch(listener, event)) {
+            getDispatcher().execute(new DispatchTask(listener, event, null));
+        }
+        else {
+            super.dispatch(listener, event);
+        }
+    }
+
+    /**
+     * Splits the batch by whether the listener is to be invoked asynchronously
+     * for each event: the asynchronous events get queued as a single invocation,
+     * the remaining ones are delivered just like with the superclass, each part
+     * keeping the order of the batch.
+     */
+    @Override
+    protected void dispatchBatch(BatchApplicationListener<?> listener, List<ApplicationEvent> events) {
+        List<ApplicationEvent> asyncEvents = new ArrayList<ApplicationEvent>(events.size());
+        List<ApplicationEvent> syncEvents = new ArrayList<ApplicationEvent>(events.size());
+        for (ApplicationEvent event : events) {
+            (isAsyncDispatch(listener, event) ? asyncEvents : syncEvents).add(event);
+        }
+        if (!asyncEvents.isEmpty()) {
+            getDispatcher().execute(new DispatchTask(listener, null, asyncEvents));
+        }
+        if (!syncEvents.isEmpty()) {
+            super.dispatchBatch(listener, syncEvents);
+        }
+    }
+
+    /**
+     * Determine whether to invoke the given listener for the given event asynchronously.
+     * <p>The default implementation checks the configured listener and event types.
+     * @param listener the listener to invoke
+     * @param event the event to deliver
+     * @return {@code true} for asynchronous dispatch, {@code false} for invoking
+     * the listener right away
+     */
+    protected boolean isAsyncDispatch(ApplicationListener<?> listener, ApplicationEvent event) {
+        for (Class<?> listenerType : this.asyncListenerTypes) {
+            if (listenerType.isInstance(listener)) {
+                return true;
+            }
+        }
+        Object payload = (event instanceof PayloadApplicationEvent ?
+                ((PayloadApplicationEvent<?>) event).getPayload() : null);
+        for (Class<?> eventType : this.asyncEventTypes) {
+            if (eventType.isInstance(event) || eventType.isInstance(payload)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ThreadPoolExecutor getDispatcher() {
+        ThreadPoolExecutor dispatcher = this.dispatcher;
+        if (dispatcher == null) {
+            synchronized (this.dispatcherMonitor) {
+                dispatcher = this.dispatcher;
+                if (dispatcher == null) {
+                    dispatcher = new ThreadPoolExecutor(this.workerCount, this.workerCount, 0, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<Runnable>(this.queueCapacity), createThreadFactory(),
+                            new OverflowHandler());
+                    dispatcher.prestartAllCoreThreads();
+                    this.dispatcher = dispatcher;
+                }
+            }
+        }
+        return dispatcher;
+    }
+
+    /**
+     * Create the factory for the worker threads: a virtual thread factory where
+     * available and {@link #setUseVirtualThreads enabled}, daemon threads otherwise.
+     */
+    protected ThreadFactory createThreadFactory() {
+        if (this.useVirtualThreads) {
+            ThreadFactory virtualThreadFactory = createVirtualThreadFactory(this.threadNamePrefix);
+            if (virtualThreadFactory != null) {
+                return virtualThreadFactory;
+            }
+        }
+        final String prefix = this.threadNamePrefix;
+        return new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, prefix + this.threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static ThreadFactory createVirtualThreadFactory(String prefix) {
+        Method ofVirtual = ClassUtils.getMethodIfAvailable(Thread.class, "ofVirtual");
+        if (ofVirtual == null) {
+            return null;
+        }
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = builderType.getMethod("name", String.class, long.class).invoke(
+                    ofVirtual.invoke(null), prefix, 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        }
+        catch (Exception ex) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Virtual threads not available - using platform threads for event dispatch", ex);
+            }
+            return null;
+        }
+    }
+
+    private void assertDispatcherNotStarted() {
+        Assert.state(this.dispatcher == null, "Asynchronous event dispatch already started");
+    }
+
+    private void recordDispatchLatency(long latency) {
+        this.asyncInvocationCount.incrementAndGet();
+        this.totalDispatchLatency.addAndGet(latency);
+        long max = this.maxDispatchLatency.get();
+        while (latency > max && !this.maxDispatchLatency.compareAndSet(max, latency)) {
+            max = this.maxDispatchLatency.get();
+        }
+    }
+
+
+    /**
+     * Return the number of asynchronous invocations currently waiting in the queue.
+     */
+    public int getQueueDepth() {
+        ThreadPoolExecutor dispatcher = this.dispatcher;
+        return (dispatcher != null ? dispatcher.getQueue().size() : 0);
+    }
+
+    /**
+     * Return the number of worker threads currently invoking a listener.
+     */
+    public int getActiveWorkerCount() {
+        ThreadPoolExecutor dispatcher = this.dispatcher;
+        return (dispatcher != null ? dispatcher.getActiveCount() : 0);
+    }
+
+    /**
+     * Return the number of asynchronous invocations performed so far, including
+     * those run on the publishing thread because of a full queue.
+     */
+    public long getAsyncInvocationCount() {
+        return this.asyncInvocationCount.get();
+    }
+
+    /**
+     * Return the number of invocations dropped because of a full queue.
+     */
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    /**
+     * Return the number of invocations run on the publishing thread because of a full queue.
+     */
+    public long getCallerRunsCount() {
+        return this.callerRunsCount.get();
+    }
+
+    /**
+     * Return the average time (in nanoseconds) between queueing an invocation
+     * and invoking the listener.
+     */
+    public long getAverageDispatchLatency() {
+        long count = this.asyncInvocationCount.get();
+        return (count > 0 ? this.totalDispatchLatency.get() / count : 0);
+    }
+
+    /**
+     * Return the maximum time (in nanoseconds) between queueing an invocation
+     * and invoking the listener.
+     */
+    public long getMaxDispatchLatency() {
+        return this.maxDispatchLatency.get();
+    }
+
+
+    /**
+     * Stop accepting asynchronous invocations and wait for pending ones to complete,
+     * up to the {@link #setShutdownTimeout shutdown timeout}. Events multicast
+     * afterwards get delivered on the publishing thread.
+     */
+    @Override
+    public void destroy() {
+        ThreadPoolExecutor dispatcher = this.dispatcher;
+        if (dispatcher == null) {
+            return;
+        }
+        dispatcher.shutdown();
+        try {
+            if (!dispatcher.awaitTermination(this.shutdownTimeout, TimeUnit.MILLISECONDS)) {
+                logger.warn("Timed out waiting for asynchronous event dispatch to complete - " +
+                        dispatcher.getQueue().size() + " listener invocations still pending");
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * A queued listener invocation, for a single event or for a batch of events.
+     */
+    private class DispatchTask implements Runnable {
+
+        private final ApplicationListener<?> listener;
+
+        private final ApplicationEvent event;
+
+        private final List<ApplicationEvent> events;
+
+        private final long queuedAt = System.nanoTime();
+
+        public DispatchTask(ApplicationListener<?> listener, ApplicationEvent event, List<ApplicationEvent> events) {
+            this.listener = listener;
+            this.event = event;
+            this.events = events;
+        }
+
+        @Override
+        public void run() {
+            recordDispatchLatency(System.nanoTime() - this.queuedAt);
+            try {
+                if (this.events != null) {
+                    invokeBatchListener((BatchApplicationListener<?>) this.listener, this.events);
+                }
+                else {
+                    invokeListener(this.listener, this.event);
+                }
+            }
+            catch (Throwable ex) {
+                logger.error("Asynchronous invocation of listener [" + this.listener + "] failed for " +
+                        (this.events != null ? this.events.size() + " events" : "event " + this.event), ex);
+            }
+        }
+    }
+
+
+    /**
+     * Applies the {@link OverflowPolicy} to invocations that do not fit into the queue.
+     */
+    private class OverflowHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                task.run();
+                return;
+            }
+            switch (overflowPolicy) {
+                case BLOCK:
+                    try {
+                        executor.getQueue().put(task);
+                    }
+                    catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException(
+                                "Interrupted while waiting for event dispatch queue capacity", ex);
+                    }
+                    // Shut down while waiting: the workers may have exited already,
+                    // so take the invocation back unless a worker got hold of it.
+                    if (executor.isShutdown() && executor.getQueue().remove(task)) {
+                        task.run();
+                    }
+                    break;
+                case DROP:
+                    droppedCount.incrementAndGet();
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Event dispatch queue full - dropped invocation of listener [" +
+                                ((DispatchTask) task).listener + "]");
+                    }
+                    break;
+                default:
+                    callerRunsCount.incrementAndGet();
+                    task.run();
+            }
+        }
+    }
+
+}
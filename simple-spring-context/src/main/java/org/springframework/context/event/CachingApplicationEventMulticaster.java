@@ -0,0 +1,610 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.context.event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.ResolvableTypeProvider;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ErrorHandler;
+import org.springframework.util.ObjectUtils;
+
+/**
+ * {@link SimpleApplicationEventMulticaster} that keeps a routing table from
+ * event class, payload class and source class to the sorted array of listeners
+ * supporting such events, with listener beans already resolved. Once an event
+ * class has been routed, multicasting it is a walk over that array, without
+ * resolving the {@link ResolvableType} of the event.
+ *
+ * <p>The routing table is invalidated whenever a listener gets added or removed,
+ * which includes the registration of listeners on refresh as well as the
+ * removal of listener beans on destruction. Events whose type is determined by
+ * the instance ({@link ResolvableTypeProvider}), events multicast with an explicit
+ * type, and classes that are not cache-safe for the bean ClassLoader bypass
+ * the table. Listener beans that are not singletons are left out of the cached
+ * listeners, since those need to be obtained for every event: a route only keeps
+ * the names of such beans that may support its events, which get resolved and
+ * merged into the cached listeners on every multicast. Whether a listener bean
+ * is a singleton is determined once, when the bean gets added.
+ *
+ * <p>Also supports multicasting a batch of events through {@link #multicastEvents},
+ * delivering them to {@link BatchApplicationListener BatchApplicationListeners}
+ * in a single call.
+ *
+ * <p>Default multicaster of {@link org.springframework.context.support.AbstractApplicationContext}.
+ */
+public class CachingApplicationEventMulticaster extends SimpleApplicationEventMulticaster {
+
+    private static final ApplicationListener<?>[] NO_LISTENERS = new ApplicationListener<?>[0];
+
+
+    private final ConcurrentMap<RouteKey, Route> routes = new ConcurrentHashMap<RouteKey, Route>(64);
+
+    /** Incremented on every invalidation, for detecting routes computed concurrently */
+    private final AtomicLong routesGeneration = new AtomicLong();
+
+    private final Set<ApplicationListener<?>> listeners = new LinkedHashSet<ApplicationListener<?>>();
+
+    /** Listener bean names, mapped to whether the bean is a singleton */
+    private final Map<String, Boolean> listenerBeans = new LinkedHashMap<String, Boolean>();
+
+    /** Copy of the registered listeners for routing, rebuilt on demand after changes */
+    private volatile RegisteredListeners registeredListeners;
+
+    // No initializers for the fields below: the superclass constructor calls setBeanFactory.
+
+    private BeanFactory beanFactory;
+
+    private ClassLoader beanClassLoader;
+
+
+    /**
+     * Create a new CachingApplicationEventMulticaster.
+     */
+    public CachingApplicationEventMulticaster() {
+    }
+
+    /**
+     * Create a new CachingApplicationEventMulticaster for the given BeanFactory.
+     */
+    public CachingApplicationEventMulticaster(BeanFactory beanFactory) {
+        super(beanFactory);
+    }
+
+
+    @Override
+    public void setBeanClassLoader(ClassLoader classLoader) {
+        super.setBeanClassLoader(classLoader);
+        this.beanClassLoader = classLoader;
+    }
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) {
+        super.setBeanFactory(beanFactory);
+        this.beanFactory = beanFactory;
+        if (this.beanClassLoader == null && beanFactory instanceof ConfigurableBeanFactory) {
+            this.beanClassLoader = ((ConfigurableBeanFactory) beanFactory).getBeanClassLoader();
+        }
+    }
+
+    @Override
+    public void addApplicationListener(ApplicationListener<?> listener) {
+        super.addApplicationListener(listener);
+        synchronized (this.listeners) {
+            this.listeners.remove(listener);
+            this.listeners.add(listener);
+            invalidateRoutes();
+        }
+    }
+
+    @Override
+    public void addApplicationListenerBean(String listenerBeanName) {
+        super.addApplicationListenerBean(listenerBeanName);
+        boolean singleton = isSingletonListenerBean(listenerBeanName);
+        synchronized (this.listeners) {
+            this.listenerBeans.remove(listenerBeanName);
+            this.listenerBeans.put(listenerBeanName, singleton);
+            invalidateRoutes();
+        }
+    }
+
+    @Override
+    public void removeApplicationListener(ApplicationListener<?> listener) {
+        super.removeApplicationListener(listener);
+        synchronized (this.listeners) {
+            this.listeners.remove(listener);
+            invalidateRoutes();
+        }
+    }
+
+    @Override
+    public void removeApplicationListenerBean(String listenerBeanName) {
+        super.removeApplicationListenerBean(listenerBeanName);
+        synchronized (this.listeners) {
+            this.listenerBeans.remove(listenerBeanName);
+            invalidateRoutes();
+        }
+    }
+
+    @Override
+    public void removeAllListeners() {
+        super.removeAllListeners();
+        synchronized (this.listeners) {
+            this.listeners.clear();
+            this.listenerBeans.clear();
+            invalidateRoutes();
+        }
+    }
+
+    private boolean isSingletonListenerBean(String listenerBeanName) {
+        if (this.beanFactory == null) {
+            return false;
+        }
+        try {
+            return this.beanFactory.isSingleton(listenerBeanName);
+        }
+        catch (NoSuchBeanDefinitionException ex) {
+            // Not defined yet: obtain it for every event, just like a prototype.
+            return false;
+        }
+    }
+
+    private void invalidateRoutes() {
+        this.registeredListeners = null;
+        this.routesGeneration.incrementAndGet();
+        this.routes.clear();
+    }
+
+    private RegisteredListeners getRegisteredListeners() {
+        RegisteredListeners registered = this.registeredListeners;
+        if (registered == null) {
+            synchronized (this.listeners) {
+                registered = this.registeredListeners;
+                if (registered == null) {
+                    registered = new RegisteredListeners(this.listeners, this.listenerBeans);
+                    this.registeredListeners = registered;
+                }
+            }
+        }
+        return registered;
+    }
+
+
+    @Override
+    public void multicastEvent(ApplicationEvent event, ResolvableType eventType) {
+        dispatchEvent(event, getRoutedListeners(event, eventType));
+    }
+
+    /**
+     * Return the listeners for the given event, in invocation order.
+     * @param event the event to route
+     * @param eventType the event type, or {@code null} to derive it from the event
+     * @return the listeners (the array must not be modified)
+     */
+    protected ApplicationListener<?>[] getRoutedListeners(ApplicationEvent event, ResolvableType eventType) {
+        RouteKey key = (eventType == null ? routeKeyFor(event) : null);
+        if (key == null) {
+            return toArray(getApplicationListeners(event,
+                    (eventType != null ? eventType : ResolvableType.forInstance(event))));
+        }
+        return getRoutedListeners(key, event);
+    }
+
+    private ApplicationListener<?>[] getRoutedListeners(RouteKey key, ApplicationEvent event) {
+        if (!isCacheSafe(key)) {
+            return toArray(getApplicationListeners(event, ResolvableType.forInstance(event)));
+        }
+        Route route = getRoute(key, event);
+        if (route.nonSingletonListenerBeanNames.length == 0) {
+            return route.listeners;
+        }
+        return addNonSingletonListeners(route, event);
+    }
+
+    private Route getRoute(RouteKey key, ApplicationEvent event) {
+        Route route = this.routes.get(key);
+        if (route == null) {
+            long generation = this.routesGeneration.get();
+            route = createRoute(key, event);
+            this.routes.put(key, route);
+            // Drop the route again if listeners changed while computing it.
+            if (this.routesGeneration.get() != generation) {
+                this.routes.remove(key, route);
+            }
+        }
+        return route;
+    }
+
+    /**
+     * Determine the listeners supporting the given event, just like
+     * {@link #getApplicationListeners(ApplicationEvent, ResolvableType)} does,
+     * but only taking note of the non-singleton listener beans.
+     */
+    private Route createRoute(RouteKey key, ApplicationEvent event) {
+        ResolvableType eventType = ResolvableType.forInstance(event);
+        RegisteredListeners registered = getRegisteredListeners();
+        List<ApplicationListener<?>> listeners = new ArrayList<ApplicationListener<?>>();
+        for (ApplicationListener<?> listener : registered.listeners) {
+            if (supportsEvent(listener, eventType, key.sourceType)) {
+                listeners.add(listener);
+            }
+        }
+        for (String listenerBeanName : registered.singletonListenerBeanNames) {
+            try {
+                Class<?> listenerType = this.beanFactory.getType(listenerBeanName);
+                if (listenerType == null || supportsEvent(listenerType, eventType)) {
+                    ApplicationListener<?> listener =
+                            this.beanFactory.getBean(listenerBeanName, ApplicationListener.class);
+                    if (!listeners.contains(listener) && supportsEvent(listener, eventType, key.sourceType)) {
+                        listeners.add(listener);
+                    }
+                }
+            }
+            catch (NoSuchBeanDefinitionException ex) {
+                // Singleton listener instance (without backing bean definition) disappeared -
+                // probably in the middle of the destruction phase
+            }
+        }
+        AnnotationAwareOrderComparator.sort(listeners);
+        List<String> nonSingletonListenerBeanNames = new ArrayList<String>();
+        for (String listenerBeanName : registered.nonSingletonListenerBeanNames) {
+            try {
+                Class<?> listenerType = this.beanFactory.getType(listenerBeanName);
+                if (listenerType == null || supportsEvent(listenerType, eventType)) {
+                    nonSingletonListenerBeanNames.add(listenerBeanName);
+                }
+            }
+            catch (NoSuchBeanDefinitionException ex) {
+                // May get defined later on: check again for every event.
+                nonSingletonListenerBeanNames.add(listenerBeanName);
+            }
+        }
+        return new Route(toArray(listeners),
+                nonSingletonListenerBeanNames.toArray(new String[nonSingletonListenerBeanNames.size()]));
+    }
+
+    /**
+     * Obtain the non-singleton listener beans of the given route for the given
+     * event, and merge those supporting the event into the cached listeners.
+     */
+    private ApplicationListener<?>[] addNonSingletonListeners(Route route, ApplicationEvent event) {
+        ResolvableType eventType = ResolvableType.forInstance(event);
+        Class<?> sourceType = event.getSource().getClass();
+        List<ApplicationListener<?>> listeners = null;
+        for (String listenerBeanName : route.nonSingletonListenerBeanNames) {
+            try {
+                ApplicationListener<?> listener = this.beanFactory.getBean(listenerBeanName, ApplicationListener.class);
+                if (supportsEvent(listener, eventType, sourceType)) {
+                    if (listeners == null) {
+                        listeners = new ArrayList<ApplicationListener<?>>(Arrays.asList(route.listeners));
+                    }
+                    if (!listeners.contains(listener)) {
+                        listeners.add(listener);
+                    }
+                }
+            }
+            catch (NoSuchBeanDefinitionException ex) {
+                // Not defined (anymore)
+            }
+        }
+        if (listeners == null) {
+            return route.listeners;
+        }
+        AnnotationAwareOrderComparator.sort(listeners);
+        return toArray(listeners);
+    }
+
+    /**
+     * Return the listeners for the given event if they have been routed through
+     * the routing table, for callers that keep them for as long as the
+     * {@link #getRoutesGeneration() routes generation} does not change.
+     * @param event the event to route
+     * @return the listeners (the array must not be modified), or {@code null}
+     * if the event bypasses the routing table or may be supported by a listener
+     * bean that is not a singleton
+     */
+    public ApplicationListener<?>[] getCacheableListeners(ApplicationEvent event) {
+        RouteKey key = routeKeyFor(event);
+        if (key == null || !isCacheSafe(key)) {
+            return null;
+        }
+        Route route = getRoute(key, event);
+        return (route.nonSingletonListenerBeanNames.length == 0 ? route.listeners : null);
+    }
+
+    /**
+     * Return the number of times the routing table has been invalidated,
+     * i.e. the number of listener changes so far.
+     */
+    public long getRoutesGeneration() {
+        return this.routesGeneration.get();
+    }
+
+    /**
+     * Deliver the given event to the given listeners, as previously obtained
+     * through {@link #getCacheableListeners}.
+     * @param event the event to deliver
+     * @param listeners the listeners to invoke, in order
+     */
+    public void dispatchEvent(ApplicationEvent event, ApplicationListener<?>[] listeners) {
+        for (ApplicationListener<?> listener : listeners) {
+            dispatch(listener, event);
+        }
+    }
+
+    /**
+     * Multicast the given events to the appropriate listeners, in the given order.
+     * <p>The listeners get determined once per distinct type of event within the
+     * batch. Each listener receives its events in the given order; a
+     * {@link BatchApplicationListener} receives all of its events in a single call,
+     * once all other listeners have been invoked for the entire batch.
+     * @param events the events to multicast
+     * @see org.springframework.context.ConfigurableApplicationContext#publishEvents
+     */
+    public void multicastEvents(List<? extends ApplicationEvent> events) {
+        Map<Object, ApplicationListener<?>[]> batchRoutes = new HashMap<Object, ApplicationListener<?>[]>();
+        Map<BatchApplicationListener<?>, List<ApplicationEvent>> batches = null;
+        for (ApplicationEvent event : events) {
+            for (ApplicationListener<?> listener : getBatchRoutedListeners(event, batchRoutes)) {
+                if (listener instanceof BatchApplicationListener) {
+                    if (batches == null) {
+                        batches = new LinkedHashMap<BatchApplicationListener<?>, List<ApplicationEvent>>();
+                    }
+                    List<ApplicationEvent> batch = batches.get(listener);
+                    if (batch == null) {
+                        batch = new ArrayList<ApplicationEvent>();
+                        batches.put((BatchApplicationListener<?>) listener, batch);
+                    }
+                    batch.add(event);
+                }
+                else {
+                    dispatch(listener, event);
+                }
+            }
+        }
+        if (batches != null) {
+            for (Map.Entry<BatchApplicationListener<?>, List<ApplicationEvent>> entry : batches.entrySet()) {
+                dispatchBatch(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private ApplicationListener<?>[] getBatchRoutedListeners(ApplicationEvent event,
+            Map<Object, ApplicationListener<?>[]> batchRoutes) {
+
+        RouteKey routeKey = routeKeyFor(event);
+        ResolvableType eventType = null;
+        Object key = routeKey;
+        if (key == null) {
+            eventType = ResolvableType.forInstance(event);
+            key = eventType;
+        }
+        ApplicationListener<?>[] listeners = batchRoutes.get(key);
+        if (listeners == null) {
+            listeners = (routeKey != null ? getRoutedListeners(routeKey, event) :
+                    toArray(getApplicationListeners(event, eventType)));
+            batchRoutes.put(key, listeners);
+        }
+        return listeners;
+    }
+
+    /**
+     * Invoke the given listener for the given event: through the
+     * {@link #setTaskExecutor TaskExecutor} if any, or right away.
+     * @param listener the listener to invoke
+     * @param event the event to deliver
+     */
+    protected void dispatch(final ApplicationListener<?> listener, final ApplicationEvent event) {
+        Executor executor = getTaskExecutor();
+        if (executor != null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    invokeListener(listener, event);
+                }
+            });
+        }
+        else {
+            invokeListener(listener, event);
+        }
+    }
+
+    /**
+     * Invoke the given batch listener for the given events: through the
+     * {@link #setTaskExecutor TaskExecutor} if any, or right away.
+     * @param listener the listener to invoke
+     * @param events the events to deliver
+     */
+    protected void dispatchBatch(final BatchApplicationListener<?> listener, final List<ApplicationEvent> events) {
+        Executor executor = getTaskExecutor();
+        if (executor != null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    invokeBatchListener(listener, events);
+                }
+            });
+        }
+        else {
+            invokeBatchListener(listener, events);
+        }
+    }
+
+    /**
+     * Invoke the given batch listener with the given events, passing any
+     * exception to the {@link #setErrorHandler ErrorHandler} if set.
+     * @param listener the listener to invoke
+     * @param events the events to deliver
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected void invokeBatchListener(BatchApplicationListener<?> listener, List<ApplicationEvent> events) {
+        ErrorHandler errorHandler = getErrorHandler();
+        if (errorHandler != null) {
+            try {
+                ((BatchApplicationListener) listener).onApplicationEvents(events);
+            }
+            catch (Throwable err) {
+                errorHandler.handleError(err);
+            }
+        }
+        else {
+            ((BatchApplicationListener) listener).onApplicationEvents(events);
+        }
+    }
+
+    /**
+     * Return the number of routes currently cached.
+     */
+    public int getRouteCount() {
+        return this.routes.size();
+    }
+
+
+    private RouteKey routeKeyFor(ApplicationEvent event) {
+        Class<?> payloadType = null;
+        if (event instanceof PayloadApplicationEvent) {
+            Object payload = ((PayloadApplicationEvent<?>) event).getPayload();
+            if (payload instanceof ResolvableTypeProvider) {
+                return null;
+            }
+            payloadType = payload.getClass();
+        }
+        else if (event instanceof ResolvableTypeProvider) {
+            return null;
+        }
+        // No source for replayed events, as EventObject does not serialize it
+        Object source = event.getSource();
+        if (source == null) {
+            return null;
+        }
+        return new RouteKey(event.getClass(), payloadType, source.getClass());
+    }
+
+    private boolean isCacheSafe(RouteKey key) {
+        return (this.beanClassLoader == null ||
+                (ClassUtils.isCacheSafe(key.eventType, this.beanClassLoader) &&
+                (key.payloadType == null || ClassUtils.isCacheSafe(key.payloadType, this.beanClassLoader)) &&
+                ClassUtils.isCacheSafe(key.sourceType, this.beanClassLoader)));
+    }
+
+    private static ApplicationListener<?>[] toArray(Collection<ApplicationListener<?>> listeners) {
+        return (listeners.isEmpty() ? NO_LISTENERS : listeners.toArray(new ApplicationListener<?>[listeners.size()]));
+    }
+
+
+    /**
+     * The registered listener instances and listener bean names, in registration order.
+     */
+    private static final class RegisteredListeners {
+
+        private final ApplicationListener<?>[] listeners;
+
+        private final String[] singletonListenerBeanNames;
+
+        private final String[] nonSingletonListenerBeanNames;
+
+        public RegisteredListeners(Collection<ApplicationListener<?>> listeners, Map<String, Boolean> listenerBeans) {
+            this.listeners = toArray(listeners);
+            List<String> singletons = new ArrayList<String>(listenerBeans.size());
+            List<String> nonSingletons = new ArrayList<String>();
+            for (Map.Entry<String, Boolean> entry : listenerBeans.entrySet()) {
+                (entry.getValue() ? singletons : nonSingletons).add(entry.getKey());
+            }
+            this.singletonListenerBeanNames = singletons.toArray(new String[singletons.size()]);
+            this.nonSingletonListenerBeanNames = nonSingletons.toArray(new String[nonSingletons.size()]);
+        }
+    }
+
+
+    /**
+     * The cached listeners for a route, plus the names of the listener beans
+     * that may support its events but need to be obtained for every event.
+     */
+    private static final class Route {
+
+        private final ApplicationListener<?>[] listeners;
+
+        private final String[] nonSingletonListenerBeanNames;
+
+        public Route(ApplicationListener<?>[] listeners, String[] nonSingletonListenerBeanNames) {
+            this.listeners = listeners;
+            this.nonSingletonListenerBeanNames = nonSingletonListenerBeanNames;
+        }
+    }
+
+
+    /**
+     * Key of a route: the classes of the event, its payload (if any) and its source.
+     */
+    private static final class RouteKey {
+
+        private final Class<?> eventType;
+
+        private final Class<?> payloadType;
+
+        private final Class<?> sourceType;
+
+        private final int hashCode;
+
+        public RouteKey(Class<?> eventType, Class<?> payloadType, Class<?> sourceType) {
+            this.eventType = eventType;
+            this.payloadType = payloadType;
+            this.sourceType = sourceType;
+            this.hashCode = (eventType.hashCode() * 31 + ObjectUtils.nullSafeHashCode(payloadType)) * 31 +
+                    sourceType.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof RouteKey)) {
+                return false;
+            }
+            RouteKey otherKey = (RouteKey) other;
+            return (this.eventType == otherKey.eventType && this.payloadType == otherKey.payloadType &&
+                    this.sourceType == otherKey.sourceType);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+    }
+
+}
@@ -0,0 +1,552 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.context.event;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.BeanClassLoaderAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.core.serializer.DefaultDeserializer;
+import org.springframework.core.serializer.DefaultSerializer;
+import org.springframework.core.serializer.Deserializer;
+import org.springframework.core.serializer.Serializer;
+import org.springframework.util.Assert;
+
+/**
+ * Durable journal of selected application events, written to a directory of
+ * memory-mapped segment files, with the ability to replay journaled events
+ * into a multicaster, e.g. after a restart.
+ *
+ * <p>Events get journaled if they (or their payload) are an instance of one
+ * of the configured {@link #setEventTypes event types}. {@link #append} only
+ * queues the event: serialization and writing happen on a dedicated writer
+ * thread, which writes whatever has been queued in a single batch and then
+ * flushes the segment to disk once per batch. The publishing thread only waits
+ * if the {@link #setQueueCapacity queue} is full.
+ *
+ * <p>Every journaled event has an offset: its position in the sequence of all
+ * events ever written to the directory, starting at 0. Segments are named after
+ * the offset of their first event, and a new segment is started once the current
+ * one is full. Each record consists of its length, a CRC32 checksum and the
+ * serialized event; replay stops at the first incomplete or corrupt record of a
+ * segment, e.g. after a crash.
+ *
+ * <p>Note that the source of an event is not journaled, since
+ * {@link java.util.EventObject} declares it transient: payload events are
+ * replayed with the given source, other events with the source they restore
+ * on deserialization themselves, if any.
+ *
+ * <p>To be registered with an {@link org.springframework.context.support.AbstractApplicationContext}
+ * (see {@code setEventJournal}), or defined as a bean named "applicationEventJournal".
+ *
+ * @see org.springframework.context.support.AbstractApplicationContext#setEventJournal
+ */
+public class MappedEventJournal implements BeanClassLoaderAware, InitializingBean, DisposableBean {
+
+    /** File name suffix of segment files */
+    public static final String SEGMENT_FILE_SUFFIX = ".journal";
+
+    /** Length and checksum */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final Log logger = LogFactory.getLog(MappedEventJournal.class);
+
+
+    private final File directory;
+
+    private Class<?>[] eventTypes = new Class<?>[0];
+
+    private int segmentSize = 64 * 1024 * 1024;
+
+    private int queueCapacity = 8192;
+
+    private int maxBatchSize = 1024;
+
+    private Serializer<Object> serializer = new DefaultSerializer();
+
+    private Deserializer<Object> deserializer = new DefaultDeserializer();
+
+    private BlockingQueue<ApplicationEvent> queue;
+
+    private Thread writerThread;
+
+    private volatile boolean running;
+
+    /**
+     * Held for reading while appending and for writing while stopping, so that
+     * no event gets queued once the writer thread may have finished draining
+     */
+    private final ReadWriteLock runningLock = new ReentrantReadWriteLock();
+
+    /** Offset of the first event in the current segment, accessed by the writer thread only */
+    private long segmentOffset;
+
+    /** The current segment, accessed by the writer thread only */
+    private MappedByteBuffer segment;
+
+    private final AtomicLong nextOffset = new AtomicLong();
+
+    private final AtomicLong batchCount = new AtomicLong();
+
+    private final AtomicLong skippedCount = new AtomicLong();
+
+
+    /**
+     * Create a new MappedEventJournal for the given directory.
+     * @param directory the directory holding the segment files (created if necessary)
+     */
+    public MappedEventJournal(File directory) {
+        Assert.notNull(directory, "Directory must not be null");
+        this.directory = directory;
+    }
+
+
+    /**
+     * Set the types of events to journal, matched against the event itself as
+     * well as against the payload of a {@link PayloadApplicationEvent}.
+     * <p>Default is none: the event types need to be specified explicitly, since
+     * journaling all events would include framework events such as
+     * {@link org.springframework.context.event.ContextRefreshedEvent}, which
+     * would be replayed without their source.
+     */
+    public void setEventTypes(Class<?>... eventTypes) {
+        Assert.notNull(eventTypes, "Event types must not be null");
+        this.eventTypes = eventTypes;
+    }
+
+    /**
+     * Set the size of each segment file in bytes. Default is 64 MB.
+     * Events whose serialized form does not fit into a segment are skipped.
+     */
+    public void setSegmentSize(int segmentSize) {
+        Assert.isTrue(segmentSize > RECORD_HEADER_SIZE, "'segmentSize' too small");
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Set the maximum number of events waiting to be written. Default is 8192.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        Assert.isTrue(queueCapacity > 0, "'queueCapacity' must be positive");
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Set the maximum number of events to write per flush. Default is 1024.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        Assert.isTrue(maxBatchSize > 0, "'maxBatchSize' must be positive");
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Set the serializer for journaled events. Default is Java serialization.
+     */
+    public void setSerializer(Serializer<Object> serializer) {
+        Assert.notNull(serializer, "Serializer must not be null");
+        this.serializer = serializer;
+    }
+
+    /**
+     * Set the deserializer for replayed events. Default is Java serialization,
+     * resolving classes against the bean ClassLoader.
+     */
+    public void setDeserializer(Deserializer<Object> deserializer) {
+        Assert.notNull(deserializer, "Deserializer must not be null");
+        this.deserializer = deserializer;
+    }
+
+    @Override
+    public void setBeanClassLoader(ClassLoader classLoader) {
+        if (this.deserializer instanceof DefaultDeserializer) {
+            this.deserializer = new DefaultDeserializer(classLoader);
+        }
+    }
+
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        open();
+    }
+
+    /**
+     * Recover the end of the journal from its last segment and start the writer thread.
+     * @throws IOException if the directory or a segment could not be accessed
+     */
+    public synchronized void open() throws IOException {
+        Assert.state(!this.running, "Journal already open");
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Could not create journal directory " + this.directory);
+        }
+        File[] segmentFiles = getSegmentFiles();
+        if (segmentFiles.length == 0) {
+            startSegment(0);
+        }
+        else {
+            File lastFile = segmentFiles[segmentFiles.length - 1];
+            this.segmentOffset = getSegmentOffset(lastFile);
+            this.segment = mapSegment(lastFile, FileChannel.MapMode.READ_WRITE, this.segmentSize);
+            long count = 0;
+            while (readRecord(this.segment) != null) {
+                count++;
+            }
+            this.nextOffset.set(this.segmentOffset + count);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Opened event journal in " + this.directory + " at offset " + this.nextOffset.get());
+        }
+        if (this.eventTypes.length == 0) {
+            logger.warn("No event types specified for event journal in " + this.directory +
+                    " - no events will be journaled");
+        }
+
+        this.queue = new ArrayBlockingQueue<ApplicationEvent>(this.queueCapacity);
+        this.running = true;
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeQueuedEvents();
+            }
+        }, "event-journal-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Determine whether the given event is to be journaled.
+     */
+    public boolean supportsEvent(ApplicationEvent event) {
+        Object payload = (event instanceof PayloadApplicationEvent ?
+                ((PayloadApplicationEvent<?>) event).getPayload() : null);
+        for (Class<?> eventType : this.eventTypes) {
+            if (eventType.isInstance(event) || eventType.isInstance(payload)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Queue the given event for journaling if {@link #supportsEvent supported},
+     * waiting for queue capacity if necessary.
+     * <p>Events appended while the journal is not open (e.g. while a context
+     * refreshes, between closing the old journal bean and detecting the new one)
+     * are not journaled but counted as {@link #getSkippedCount() skipped}. Events
+     * queued by the time {@link #close} starts get written before it returns.
+     * @param event the event to journal
+     */
+    public void append(ApplicationEvent event) {
+        if (!supportsEvent(event)) {
+            return;
+        }
+        this.runningLock.readLock().lock();
+        try {
+            if (!this.running) {
+                this.skippedCount.incrementAndGet();
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Event journal in " + this.directory + " not open - event not journaled: " + event);
+                }
+                return;
+            }
+            if (!this.queue.offer(event)) {
+                try {
+                    this.queue.put(event);
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    this.skippedCount.incrementAndGet();
+                    logger.warn("Interrupted while waiting for event journal capacity - event not journaled: " + event);
+                }
+            }
+        }
+        finally {
+            this.runningLock.readLock().unlock();
+        }
+    }
+
+    private void writeQueuedEvents() {
+        List<ApplicationEvent> batch = new ArrayList<ApplicationEvent>(this.maxBatchSize);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        CRC32 checksum = new CRC32();
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                ApplicationEvent first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                this.queue.drainTo(batch, this.maxBatchSize - 1);
+                for (ApplicationEvent event : batch) {
+                    try {
+                        writeEvent(event, bytes, checksum);
+                    }
+                    catch (Exception ex) {
+                        // Skip this event only, e.g. a failing custom serializer or segment.
+                        this.skippedCount.incrementAndGet();
+                        logger.error("Failed to write event to journal in " + this.directory + ": " + event, ex);
+                    }
+                }
+                // Flush whatever has been written, even if some events failed.
+                this.segment.force();
+                this.batchCount.incrementAndGet();
+            }
+            catch (InterruptedException ex) {
+                // Keep draining until closed.
+            }
+            catch (Throwable ex) {
+                logger.error("Failed to flush event journal in " + this.directory, ex);
+            }
+            finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeEvent(ApplicationEvent event, ByteArrayOutputStream bytes, CRC32 checksum) throws IOException {
+        bytes.reset();
+        try {
+            this.serializer.serialize(event, bytes);
+        }
+        catch (Exception ex) {
+            this.skippedCount.incrementAndGet();
+            logger.warn("Could not serialize event for journal: " + event, ex);
+            return;
+        }
+        int recordSize = RECORD_HEADER_SIZE + bytes.size();
+        if (recordSize > this.segmentSize - 4) {
+            this.skippedCount.incrementAndGet();
+            logger.warn("Serialized event of " + bytes.size() + " bytes exceeds journal segment size: " + event);
+            return;
+        }
+        // Always leave room for the zero length that marks the end of a segment.
+        if (this.segment.remaining() < recordSize + 4) {
+            this.segment.force();
+            startSegment(this.nextOffset.get());
+        }
+        byte[] data = bytes.toByteArray();
+        checksum.reset();
+        checksum.update(data, 0, data.length);
+        int position = this.segment.position();
+        this.segment.position(position + 4);
+        this.segment.putInt((int) checksum.getValue());
+        this.segment.put(data);
+        // Write the length last: a record without length is no record.
+        this.segment.putInt(position, data.length);
+        this.nextOffset.incrementAndGet();
+    }
+
+    private void startSegment(long offset) throws IOException {
+        File file = new File(this.directory, String.format("%020d", offset) + SEGMENT_FILE_SUFFIX);
+        this.segmentOffset = offset;
+        this.segment = mapSegment(file, FileChannel.MapMode.READ_WRITE, this.segmentSize);
+    }
+
+
+    /**
+     * Replay all journaled events from the given offset on, in journal order.
+     * <p>May be called while the journal is being written to, but only covers
+     * events flushed by then.
+     * @param fromOffset the offset of the first event to replay
+     * @param multicaster the multicaster to multicast the events to
+     * @param source the source for replayed payload events, typically the context
+     * @return the offset after the last replayed event, to continue from later on
+     * @throws IOException if a segment could not be read or an event could not be deserialized
+     */
+    public long replay(long fromOffset, ApplicationEventMulticaster multicaster, Object source) throws IOException {
+        Assert.isTrue(fromOffset >= 0, "Offset must not be negative");
+        Assert.notNull(multicaster, "ApplicationEventMulticaster must not be null");
+        File[] segmentFiles = getSegmentFiles();
+        long offset = fromOffset;
+        for (int i = 0; i < segmentFiles.length; i++) {
+            if (i + 1 < segmentFiles.length && getSegmentOffset(segmentFiles[i + 1]) <= fromOffset) {
+                continue;
+            }
+            long recordOffset = getSegmentOffset(segmentFiles[i]);
+            ByteBuffer buffer = mapSegment(segmentFiles[i], FileChannel.MapMode.READ_ONLY, -1);
+            byte[] data;
+            while ((data = readRecord(buffer)) != null) {
+                if (recordOffset >= fromOffset) {
+                    multicaster.multicastEvent(deserializeEvent(data, source));
+                    offset = recordOffset + 1;
+                }
+                recordOffset++;
+            }
+        }
+        return offset;
+    }
+
+    private ApplicationEvent deserializeEvent(byte[] data, Object source) throws IOException {
+        Object event = this.deserializer.deserialize(new ByteArrayInputStream(data));
+        if (event instanceof PayloadApplicationEvent && source != null) {
+            return new PayloadApplicationEvent<Object>(source, ((PayloadApplicationEvent<?>) event).getPayload());
+        }
+        return (ApplicationEvent) event;
+    }
+
+    /**
+     * Read the record at the current position of the given buffer, advancing it.
+     * @return the serialized event, or {@code null} at the end of the segment
+     */
+    private byte[] readRecord(ByteBuffer buffer) {
+        int position = buffer.position();
+        if (buffer.remaining() < RECORD_HEADER_SIZE) {
+            return null;
+        }
+        int length = buffer.getInt();
+        int storedChecksum = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining()) {
+            buffer.position(position);
+            return null;
+        }
+        byte[] data = new byte[length];
+        buffer.get(data);
+        CRC32 checksum = new CRC32();
+        checksum.update(data, 0, length);
+        if ((int) checksum.getValue() != storedChecksum) {
+            logger.warn("Corrupt event journal record at position " + position + " - ignoring rest of segment");
+            buffer.position(position);
+            return null;
+        }
+        return data;
+    }
+
+
+    /**
+     * Return the offset the next journaled event will get.
+     */
+    public long getNextOffset() {
+        return this.nextOffset.get();
+    }
+
+    /**
+     * Return the number of events waiting to be written.
+     */
+    public int getQueueDepth() {
+        BlockingQueue<ApplicationEvent> queue = this.queue;
+        return (queue != null ? queue.size() : 0);
+    }
+
+    /**
+     * Return the number of batches written and flushed so far.
+     */
+    public long getBatchCount() {
+        return this.batchCount.get();
+    }
+
+    /**
+     * Return the number of events that could not be journaled.
+     */
+    public long getSkippedCount() {
+        return this.skippedCount.get();
+    }
+
+
+    /**
+     * Write all queued events and stop the writer thread.
+     */
+    public synchronized void close() {
+        if (!this.running) {
+            return;
+        }
+        // Wait for appenders in progress: the writer thread drains their events.
+        this.runningLock.writeLock().lock();
+        try {
+            this.running = false;
+        }
+        finally {
+            this.runningLock.writeLock().unlock();
+        }
+        try {
+            this.writerThread.join();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while closing event journal - " + this.queue.size() + " events not journaled");
+        }
+        this.writerThread = null;
+        this.segment = null;
+    }
+
+    @Override
+    public void destroy() {
+        close();
+    }
+
+
+    private File[] getSegmentFiles() {
+        File[] files = this.directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return (file.isFile() && file.getName().endsWith(SEGMENT_FILE_SUFFIX));
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        // Zero-padded offsets sort in numeric order.
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static long getSegmentOffset(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_FILE_SUFFIX.length()));
+    }
+
+    private static MappedByteBuffer mapSegment(File file, FileChannel.MapMode mode, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, (mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw"));
+        try {
+            FileChannel channel = raf.getChannel();
+            long mappedSize = (size >= 0 ? Math.max(size, channel.size()) : channel.size());
+            // The mapping stays valid after closing the channel.
+            return channel.map(mode, 0, mappedSize);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MappedEventJournal: directory [" + this.directory + "], next offset " + getNextOffset();
+    }
+
+}
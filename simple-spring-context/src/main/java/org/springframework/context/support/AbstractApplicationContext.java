@@ -56,12 +56,14 @@ import org.springframework.context.MessageSourceResolvable;
 import org.springframework.context.NoSuchMessageException;
 import org.springframework.context.PayloadApplicationEvent;
 import org.springframework.context.ResourceLoaderAware;
+import org.springframework.context.StartupTimeline;
 import org.springframework.context.event.ApplicationEventMulticaster;
+import org.springframework.context.event.CachingApplicationEventMulticaster;
 import org.springframework.context.event.ContextClosedEvent;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.ContextStartedEvent;
 import org.springframework.context.event.ContextStoppedEvent;
-import org.springframework.context.event.SimpleApplicationEventMulticaster;
+import org.springframework.context.event.MappedEventJournal;
 import org.springframework.context.expression.StandardBeanExpressionResolver;
 import org.springframework.context.weaving.LoadTimeWeaverAware;
 import org.springframework.context.weaving.LoadTimeWeaverAwareProcessor;
@@ -96,7 +98,7 @@ import org.springframework.util.StringValueResolver;
  * org.springframework.context.MessageSource在ApplicationContext中也可能被定义为，　名字为messageSource;
  *　否则消息解析将被委托给父上下文．
  *　此外，　应用事件的multicaster也能被定义成一个bean，　名称是applicationEventMulticaster，　类型是org.springframework.context.event.ApplicationEventMulticaster．
- * 否则，将使用默认的multicaster，　其类型为org.springframework.context.event.SimpleApplicationEventMulticaster
+ * 否则，将使用默认的multicaster，　其类型为org.springframework.context.event.CachingApplicationEventMulticaster
  *
  * <p>Implements resource loading through extending
  * {@link org.springframework.core.io.DefaultResourceLoader}.
@@ -138,12 +140,20 @@ public abstract class AbstractApplicationContext extends DefaultResourceLoader
 
     /**
      * Name of the ApplicationEventMulticaster bean in the factory.
-     * If none is supplied, a default SimpleApplicationEventMulticaster is used.
+     * If none is supplied, a default CachingApplicationEventMulticaster is used.
      * @see org.springframework.context.event.ApplicationEventMulticaster
-     * @see org.springframework.context.event.SimpleApplicationEventMulticaster
+     * @see org.springframework.context.event.CachingApplicationEventMulticaster
      */
     public static final String APPLICATION_EVENT_MULTICASTER_BEAN_NAME = "applicationEventMulticaster";
 
+    /**
+     * Name of the MappedEventJournal bean in the factory.
+     * If none is supplied and none has been set, events are not journaled.
+     * @see org.springframework.context.event.MappedEventJournal
+     * @see #setEventJournal
+     */
+    public static final String APPLICATION_EVENT_JOURNAL_BEAN_NAME = "applicationEventJournal";
+
 
     static {
         // Eagerly load the ContextClosedEvent class to avoid weird classloader issues
@@ -198,12 +208,24 @@ public abstract class AbstractApplicationContext extends DefaultResourceLoader
     /** Helper class used in event publishing */
     private ApplicationEventMulticaster applicationEventMulticaster;
 
+    /** Journal of published events, if any */
+    private volatile MappedEventJournal eventJournal;
+
+    /** Whether the journal has been set explicitly rather than detected as a bean */
+    private boolean eventJournalSet;
+
     /** Statically specified listeners */
     private final Set<ApplicationListener<?>> applicationListeners = new LinkedHashSet<ApplicationListener<?>>();
 
     /** ApplicationEvents published early */
     private Set<ApplicationEvent> earlyApplicationEvents;
 
+    /** Timeline of the most recent refresh */
+    private final StartupTimeline startupTimeline = new StartupTimeline();
+
+    /** Publishes events to the listeners of this context and its ancestors in one pass */
+    private final HierarchicalEventDispatcher hierarchicalEventDispatcher = new HierarchicalEventDispatcher(this);
+
 
     /**
      * Create a new AbstractApplicationContext with no parent.
@@ -319,6 +341,16 @@ public abstract class AbstractApplicationContext extends DefaultResourceLoader
         return this.startupDate;
     }
 
+    /**
+     * Return the timeline recorded during the most recent refresh of this context.
+     * <p>Subclasses may add steps of their own through {@link StartupTimeline#start},
+     * which get nested within the currently active refresh phase.
+     */
+    @Override
+    public StartupTimeline getStartupTimeline() {
+        return this.startupTimeline;
+    }
+
     /**
      * Publish the given event to all listeners.
      * <p>Note: Listeners get initialized after the MessageSource, to be able
@@ -358,16 +390,25 @@ public abstract class AbstractApplicationContext extends DefaultResourceLoader
             logger.trace("Publishing event in " + getDisplayName() + ": " + event);
         }
 
-        // Decorate event as an ApplicationEvent if necessary
+        // Decorate event as an ApplicationEvent if necessary - leaving the type of
+        // a payload event to the multicaster, which may route it without resolving it
         ApplicationEvent applicationEvent;
         if (event instanceof ApplicationEvent) {
             applicationEvent = (ApplicationEvent) event;
         }
         else {
             applicationEvent = new PayloadApplicationEvent<Object>(this, event);
-            if (eventType == null) {
-                eventType = ((PayloadApplicationEvent)applicationEvent).getResolvableType();
-            }
+        }
+
+        MappedEventJournal eventJournal = this.eventJournal;
+        if (eventJournal != null) {
+            eventJournal.append(applicationEvent);
+        }
+
+        // Within a hierarchy, dispatch to all contexts in one pass if possible
+        if (this.parent != null && eventType == null &&
+                this.hierarchicalEventDispatcher.publishEvent(event, applicationEvent)) {
+            return;
         }
 
         // Multicast right now if possible - or lazily once the multicaster is initialized
@@ -389,6 +430,69 @@ public abstract class AbstractApplicationContext extends DefaultResourceLoader
         }
     }
 
+    /**
+     * Publish the given events to all listeners, in the given order.
+     * <p>Multicasts the entire batch at once if the multicaster is a
+     * {@link CachingApplicationEventMulticaster}, and passes the batch on to the
+     * parent context as a whole if that is configurable as well.
+     * @param events the events to publish (each may be an {@link ApplicationEvent}
+     * or a payload object to be turned into a {@link PayloadApplicationEvent})
+     * @see CachingApplicationEventMulticaster#multicastEvents
+     */
+    @Override
+    public void publishEvents(Collection<?> events) {
+        Assert.notNull(events, "Events must not be null");
+        if (events.isEmpty()) {
+            return;
+        }
+        if (logger.isTraceEnabled()) {
+            logger.trace("Publishing " + events.size() + " events in " + getDisplayName());
+        }
+
+        // Decorate events as ApplicationEvents if necessary
+        List<ApplicationEvent> applicationEvents = new ArrayList<ApplicationEvent>(events.size());
+        for (Object event : events) {
+            Assert.notNull(event, "Event must not be null");
+            applicationEvents.add(event instanceof ApplicationEvent ? (ApplicationEvent) event :
+                    new PayloadApplicationEvent<Object>(this, event));
+        }
+
+        MappedEventJournal eventJournal = this.eventJournal;
+        if (eventJournal != null) {
+            for (ApplicationEvent applicationEvent : applicationEvents) {
+                eventJournal.append(applicationEvent);
+            }
+        }
+
+        // Multicast right now if possible - or lazily once the multicaster is initialized
+        if (this.earlyApplicationEvents != null) {
+            this.earlyApplicationEvents.addAll(applicationEvents);
+        }
+        else {
+            ApplicationEventMulticaster multicaster = getApplicationEventMulticaster();
+            if (multicaster instanceof CachingApplicationEventMulticaster) {
+                ((CachingApplicationEventMulticaster) multicaster).multicastEvents(applicationEvents);
+            }
+            else {
+                for (ApplicationEvent applicationEvent : applicationEvents) {
+                    multicaster.multicastEvent(applicationEvent);
+                }
+            }
+        }
+
+        // Publish events via parent context as well...
+        if (this.parent != null) {
+            if (this.parent instanceof ConfigurableApplicationContext) {
+                ((ConfigurableApplicationContext) this.parent).publishEvents(events);
+            }
+            else {
+                for (Object event : events) {
+                    this.parent.publishEvent(event);
+                }
+            }
+        }
+    }
+
     /**
      * Return the internal ApplicationEventMulticaster used by the context.
      * @return the internal ApplicationEventMulticaster (never {@code null})
@@ -402,6 +506,22 @@ public abstract class AbstractApplicationContext extends DefaultResourceLoader
         return this.applicationEventMulticaster;
     }
 
+    /**
+     * Return the internal ApplicationEventMulticaster if a
+     * {@link HierarchicalEventDispatcher} may dispatch to it directly: if it is a
+     * {@link CachingApplicationEventMulticaster} and events are not being collected
+     * for publication once the multicaster is initialized.
+     * @return the multicaster, or {@code null} if events need to go through
+     * {@link #publishEvent(Object, ResolvableType)}
+     */
+    CachingApplicationEventMulticaster getPlannableEventMulticaster() {
+        if (this.earlyApplicationEvents != null ||
+                !(this.applicationEventMulticaster instanceof CachingApplicationEventMulticaster)) {
+            return null;
+        }
+        return (CachingApplicationEventMulticaster) this.applicationEventMulticaster;
+    }
+
     /**
      * Return the internal LifecycleProcessor used by the context.
      * @return the internal LifecycleProcessor (never {@code null})
@@ -463,6 +583,44 @@ public abstract class AbstractApplicationContext extends DefaultResourceLoader
         this.beanFactoryPostProcessors.add(postProcessor);
     }
 
+    /**
+     * Set a journal to append all published events to, as far as supported by
+     * the journal. Alternatively, a journal may be defined as a bean named
+     * "applicationEventJournal", to be detected on refresh.
+     * <p>The journal needs to be opened before events get published, and is
+     * not closed along with this context unless defined as a bean.
+     * @see MappedEventJournal#open()
+     * @see #replayEvents
+     */
+    public void setEventJournal(MappedEventJournal eventJournal) {
+        this.eventJournal = eventJournal;
+        this.eventJournalSet = (eventJournal != null);
+    }
+
+    /**
+     * Return the journal that published events are appended to, if any.
+     */
+    public MappedEventJournal getEventJournal() {
+        return this.eventJournal;
+    }
+
+    /**
+     * Replay the events journaled from the given offset on into the multicaster of
+     * this context, in journal order. Replayed events reach the listeners of this
+     * context only, and do not get journaled again.
+     * @param fromOffset the offset of the first event to replay
+     * @return the offset after the last replayed event
+     * @throws IOException if the journal could not be read
+     * @throws IllegalStateException if there is no journal, or if the context
+     * has not been refreshed yet
+     * @see MappedEventJournal#replay
+     */
+    public long replayEvents(long fromOffset) throws IOException {
+        MappedEventJournal eventJournal = this.eventJournal;
+        Assert.state(eventJournal != null, "No event journal set");
+        return eventJournal.replay(fromOffset, getApplicationEventMulticaster(), this);
+    }
+
 
     /**
      * Return the list of BeanFactoryPostProcessors that will get applied
@@ -502,65 +660,158 @@ public abstract class AbstractApplicationContext extends DefaultResourceLoader
     @Override
     public void refresh() throws BeansException, IllegalStateException {
         synchronized (this.startupShutdownMonitor) {
-            // Prepare this context for refreshing.
+            this.startupTimeline.reset();
+            StartupTimeline.Step refreshStep = this.startupTimeline.start("refresh").tag("context", getDisplayName());
+            try {
+                doRefresh();
+            }
+            finally {
+                refreshStep.end();
+            }
+        }
+    }
+
+    /**
+     * Perform the actual refresh, recording each phase in the startup timeline.
+     * @see #refresh()
+     */
+    private void doRefresh() throws BeansException, IllegalStateException {
+        StartupTimeline.Step step;
+
+        // Prepare this context for refreshing.
+        step = this.startupTimeline.start("prepareRefresh");
+        try {
             prepareRefresh();
+        }
+        finally {
+            step.end();
+        }
 
-            // Tell the subclass to refresh the internal bean factory.
-            ConfigurableListableBeanFactory beanFactory = obtainFreshBeanFactory();
+        // Tell the subclass to refresh the internal bean factory.
+        ConfigurableListableBeanFactory beanFactory;
+        step = this.startupTimeline.start("obtainFreshBeanFactory");
+        try {
+            beanFactory = obtainFreshBeanFactory();
+            step.tag("beanDefinitionCount", beanFactory.getBeanDefinitionCount());
+        }
+        finally {
+            step.end();
+        }
 
-            // Prepare the bean factory for use in this context.
+        // Prepare the bean factory for use in this context.
+        step = this.startupTimeline.start("prepareBeanFactory");
+        try {
             prepareBeanFactory(beanFactory);
+        }
+        finally {
+            step.end();
+        }
 
+        try {
+            // Allows post-processing of the bean factory in context subclasses.
+            step = this.startupTimeline.start("postProcessBeanFactory");
             try {
-                // Allows post-processing of the bean factory in context subclasses.
                 postProcessBeanFactory(beanFactory);
+            }
+            finally {
+                step.end();
+            }
 
-                // Invoke factory processors registered as beans in the context.
+            // Invoke factory processors registered as beans in the context.
+            step = this.startupTimeline.start("invokeBeanFactoryPostProcessors");
+            try {
                 invokeBeanFactoryPostProcessors(beanFactory);
+            }
+            finally {
+                step.end();
+            }
 
-                // Register bean processors that intercept bean creation.
+            // Register bean processors that intercept bean creation.
+            step = this.startupTimeline.start("registerBeanPostProcessors");
+            try {
                 registerBeanPostProcessors(beanFactory);
+                step.tag("beanPostProcessorCount", beanFactory.getBeanPostProcessorCount());
+            }
+            finally {
+                step.end();
+            }
 
-                // Initialize message source for this context.
+            // Initialize message source for this context.
+            step = this.startupTimeline.start("initMessageSource");
+            try {
                 initMessageSource();
+            }
+            finally {
+                step.end();
+            }
 
-                // Initialize event multicaster for this context.
+            // Initialize event multicaster for this context.
+            step = this.startupTimeline.start("initApplicationEventMulticaster");
+            try {
                 initApplicationEventMulticaster();
+            }
+            finally {
+                step.end();
+            }
 
-                // Initialize other special beans in specific context subclasses.
+            // Initialize other special beans in specific context subclasses.
+            step = this.startupTimeline.start("onRefresh");
+            try {
                 onRefresh();
+            }
+            finally {
+                step.end();
+            }
 
-                // Check for listener beans and register them.
+            // Check for listener beans and register them.
+            step = this.startupTimeline.start("registerListeners");
+            try {
                 registerListeners();
+            }
+            finally {
+                step.end();
+            }
 
-                // Instantiate all remaining (non-lazy-init) singletons.
+            // Instantiate all remaining (non-lazy-init) singletons.
+            step = this.startupTimeline.start("finishBeanFactoryInitialization");
+            try {
                 finishBeanFactoryInitialization(beanFactory);
+                step.tag("singletonCount", beanFactory.getSingletonCount());
+            }
+            finally {
+                step.end();
+            }
 
-                // Last step: publish corresponding event.
+            // Last step: publish corresponding event.
+            step = this.startupTimeline.start("finishRefresh");
+            try {
                 finishRefresh();
             }
+            finally {
+                step.end();
+            }
+        }
 
-            catch (BeansException ex) {
-                if (logger.isWarnEnabled()) {
-                    logger.warn("Exception encountered during context initialization - " +
-                            "cancelling refresh attempt: " + ex);
-                }
+        catch (BeansException ex) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("Exception encountered during context initialization - " +
+                        "cancelling refresh attempt: " + ex);
+            }
 
-                // Destroy already created singletons to avoid dangling resources.
-                destroyBeans();
+            // Destroy already created singletons to avoid dangling resources.
+            destroyBeans();
 
-                // Reset 'active' flag.
-                cancelRefresh(ex);
+            // Reset 'active' flag.
+            cancelRefresh(ex);
 
-                // Propagate exception to caller.
-                throw ex;
-            }
+            // Propagate exception to caller.
+            throw ex;
+        }
 
-            finally {
-                // Reset common introspection caches in Spring's core, since we
-                // might not ever need metadata for singleton beans anymore...
-                resetCommonCaches();
-            }
+        finally {
+            // Reset common introspection caches in Spring's core, since we
+            // might not ever need metadata for singleton beans anymore...
+            resetCommonCaches();
         }
     }
 
@@ -678,7 +929,8 @@ public abstract class AbstractApplicationContext extends DefaultResourceLoader
      * 必须在单例实例化之前调用
      */
     protected void invokeBeanFactoryPostProcessors(ConfigurableListableBeanFactory beanFactory) {
-        PostProcessorRegistrationDelegate.invokeBeanFactoryPostProcessors(beanFactory, getBeanFactoryPostProcessors());
+        PostProcessorRegistrationDelegate.invokeBeanFactoryPostProcessors(
+                beanFactory, getBeanFactoryPostProcessors(), getStartupTimeline());
 
         // Detect a LoadTimeWeaver and prepare for weaving, if found in the meantime
         // (e.g. through an @Bean method registered by ConfigurationClassPostProcessor)
@@ -731,9 +983,10 @@ public abstract class AbstractApplicationContext extends DefaultResourceLoader
     }
 
     /**
-     * Initialize the ApplicationEventMulticaster.
-     * Uses SimpleApplicationEventMulticaster if none defined in the context.
-     * @see org.springframework.context.event.SimpleApplicationEventMulticaster
+     * Initialize the ApplicationEventMulticaster, and detect the event journal
+     * bean unless a journal has been set.
+     * Uses CachingApplicationEventMulticaster if none defined in the context.
+     * @see org.springframework.context.event.CachingApplicationEventMulticaster
      */
     protected void initApplicationEventMulticaster() {
         ConfigurableListableBeanFactory beanFactory = getBeanFactory();
@@ -745,7 +998,7 @@ public abstract class AbstractApplicationContext extends DefaultResourceLoader
             }
         }
         else {
-            this.applicationEventMulticaster = new SimpleApplicationEventMulticaster(beanFactory);
+            this.applicationEventMulticaster = new CachingApplicationEventMulticaster(beanFactory);
             beanFactory.registerSingleton(APPLICATION_EVENT_MULTICASTER_BEAN_NAME, this.applicationEventMulticaster);
             if (logger.isDebugEnabled()) {
                 logger.debug("Unable to locate ApplicationEventMulticaster with name '" +
@@ -753,6 +1006,17 @@ public abstract class AbstractApplicationContext extends DefaultResourceLoader
                         "': using default [" + this.applicationEventMulticaster + "]");
             }
         }
+
+        if (!this.eventJournalSet) {
+            // Re-detect on every refresh: a journal bean gets closed along with its bean factory.
+            this.eventJournal = null;
+            if (beanFactory.containsLocalBean(APPLICATION_EVENT_JOURNAL_BEAN_NAME)) {
+                this.eventJournal = beanFactory.getBean(APPLICATION_EVENT_JOURNAL_BEAN_NAME, MappedEventJournal.class);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Using event journal [" + this.eventJournal + "]");
+                }
+            }
+        }
     }
 
     /**
@@ -1024,6 +1288,10 @@ public abstract class AbstractApplicationContext extends DefaultResourceLoader
      * @see org.springframework.beans.factory.config.ConfigurableBeanFactory#destroySingletons()
      */
     protected void destroyBeans() {
+        if (!this.eventJournalSet) {
+            // A detected journal bean gets closed along with the other singletons.
+            this.eventJournal = null;
+        }
         getBeanFactory().destroySingletons();
     }
 
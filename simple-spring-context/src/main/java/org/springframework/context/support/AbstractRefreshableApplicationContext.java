@@ -16,13 +16,21 @@
 
 package org.springframework.context.support;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionSnapshot;
 import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextException;
+import org.springframework.context.StartupTimeline;
+import org.springframework.core.io.Resource;
 
 /**
  * Base class for {@link org.springframework.context.ApplicationContext}
@@ -67,6 +75,11 @@ public abstract class AbstractRefreshableApplicationContext extends AbstractAppl
 
     private Boolean allowCircularReferences;
 
+    private File beanDefinitionSnapshotFile;
+
+    /** Resources that the current bean definitions have been loaded from */
+    private final Set<Resource> beanDefinitionSources = new LinkedHashSet<Resource>();
+
     /** Bean factory for this context */
     private DefaultListableBeanFactory beanFactory;
 
@@ -110,6 +123,27 @@ public abstract class AbstractRefreshableApplicationContext extends AbstractAppl
         this.allowCircularReferences = allowCircularReferences;
     }
 
+    /**
+     * Specify a file to keep a binary snapshot of this context's bean definitions in.
+     * <p>If set, each refresh first tries to register the bean definitions from
+     * the snapshot, provided that it has been written for the same configuration
+     * (see {@link #getBeanDefinitionSnapshotKey()}) and that none of the resources
+     * it has been built from have changed since. Otherwise, bean definitions get
+     * loaded through {@link #loadBeanDefinitions} as usual and a new snapshot gets
+     * written, as long as the subclass reports the resources it has loaded through
+     * {@link #registerBeanDefinitionSources} and the bean definitions can be
+     * represented in a snapshot.
+     * <p>Note that a snapshot assumes that the configuration resources and their
+     * imports are determined by the snapshot key and the resources' content alone:
+     * e.g. import locations with placeholders for environment properties other
+     * than the active profiles are not detected as changes.
+     * <p>Default is none, always loading bean definitions from their sources.
+     * @see BeanDefinitionSnapshot
+     */
+    public void setBeanDefinitionSnapshotFile(File beanDefinitionSnapshotFile) {
+        this.beanDefinitionSnapshotFile = beanDefinitionSnapshotFile;
+    }
+
 
     /**
      * This implementation performs an actual refresh of this context's underlying
@@ -126,7 +160,23 @@ public abstract class AbstractRefreshableApplicationContext extends AbstractAppl
             DefaultListableBeanFactory beanFactory = createBeanFactory();
             beanFactory.setSerializationId(getId());
             customizeBeanFactory(beanFactory);
-            loadBeanDefinitions(beanFactory);
+            StartupTimeline.Step step = getStartupTimeline().start("loadBeanDefinitions");
+            try {
+                if (loadBeanDefinitionSnapshot(beanFactory)) {
+                    step.tag("snapshot", this.beanDefinitionSnapshotFile);
+                }
+                else {
+                    synchronized (this.beanDefinitionSources) {
+                        this.beanDefinitionSources.clear();
+                    }
+                    loadBeanDefinitions(beanFactory);
+                    writeBeanDefinitionSnapshot(beanFactory);
+                }
+                step.tag("beanDefinitionCount", beanFactory.getBeanDefinitionCount());
+            }
+            finally {
+                step.end();
+            }
             synchronized (this.beanFactoryMonitor) {
                 this.beanFactory = beanFactory;
             }
@@ -235,4 +285,105 @@ public abstract class AbstractRefreshableApplicationContext extends AbstractAppl
     protected abstract void loadBeanDefinitions(DefaultListableBeanFactory beanFactory)
             throws BeansException, IOException;
 
+    /**
+     * Register the resources that bean definitions have been loaded from,
+     * including imported resources. To be called from {@link #loadBeanDefinitions}
+     * in order to allow for writing a bean definition snapshot.
+     * @param resources the resources that bean definitions have been loaded from
+     * @see #setBeanDefinitionSnapshotFile
+     */
+    protected void registerBeanDefinitionSources(Collection<Resource> resources) {
+        synchronized (this.beanDefinitionSources) {
+            this.beanDefinitionSources.addAll(resources);
+        }
+    }
+
+    /**
+     * Return the resources that the current bean definitions have been loaded from,
+     * as registered through {@link #registerBeanDefinitionSources}.
+     * @return the resources (empty if none registered, e.g. if the bean
+     * definitions have been restored from a snapshot)
+     */
+    protected Set<Resource> getBeanDefinitionSources() {
+        synchronized (this.beanDefinitionSources) {
+            return new LinkedHashSet<Resource>(this.beanDefinitionSources);
+        }
+    }
+
+    /**
+     * Return the key identifying the configuration that a bean definition snapshot
+     * is valid for. A snapshot written for a different key will not be used.
+     * <p>The default implementation combines the context class with the active
+     * and default profiles of the environment. Subclasses should add whatever
+     * determines the set of configuration resources to load.
+     * @throws IOException if the configuration resources cannot be determined
+     * @see #setBeanDefinitionSnapshotFile
+     */
+    protected String getBeanDefinitionSnapshotKey() throws IOException {
+        return getClass().getName() +
+                ";activeProfiles=" + Arrays.toString(getEnvironment().getActiveProfiles()) +
+                ";defaultProfiles=" + Arrays.toString(getEnvironment().getDefaultProfiles());
+    }
+
+    /**
+     * Register the bean definitions from the snapshot file, if any and up to date.
+     * @return {@code true} if the bean definitions have been registered from the snapshot
+     */
+    private boolean loadBeanDefinitionSnapshot(DefaultListableBeanFactory beanFactory) {
+        if (this.beanDefinitionSnapshotFile == null) {
+            return false;
+        }
+        try {
+            int count = BeanDefinitionSnapshot.restore(
+                    this.beanDefinitionSnapshotFile, getBeanDefinitionSnapshotKey(), beanFactory);
+            if (count >= 0) {
+                if (logger.isInfoEnabled()) {
+                    logger.info("Loaded " + count + " bean definitions from snapshot [" +
+                            this.beanDefinitionSnapshotFile + "]");
+                }
+                return true;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Bean definition snapshot [" + this.beanDefinitionSnapshotFile +
+                        "] does not exist or is out of date");
+            }
+        }
+        catch (IOException ex) {
+            logger.warn("Could not read bean definition snapshot [" + this.beanDefinitionSnapshotFile +
+                    "] - loading bean definitions from their sources", ex);
+        }
+        return false;
+    }
+
+    /**
+     * Write a snapshot of the freshly loaded bean definitions, if configured.
+     */
+    private void writeBeanDefinitionSnapshot(DefaultListableBeanFactory beanFactory) {
+        if (this.beanDefinitionSnapshotFile == null) {
+            return;
+        }
+        Set<Resource> sources;
+        synchronized (this.beanDefinitionSources) {
+            sources = new LinkedHashSet<Resource>(this.beanDefinitionSources);
+        }
+        if (sources.isEmpty()) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Not writing bean definition snapshot: no bean definition sources registered");
+            }
+            return;
+        }
+        try {
+            BeanDefinitionSnapshot.write(
+                    this.beanDefinitionSnapshotFile, getBeanDefinitionSnapshotKey(), sources, beanFactory);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Wrote bean definition snapshot [" + this.beanDefinitionSnapshotFile + "] for " +
+                        sources.size() + " resources");
+            }
+        }
+        catch (IOException ex) {
+            logger.info("Could not write bean definition snapshot [" + this.beanDefinitionSnapshotFile +
+                    "]: " + ex);
+        }
+    }
+
 }
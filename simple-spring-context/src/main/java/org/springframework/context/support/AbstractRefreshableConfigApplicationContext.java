@@ -16,9 +16,13 @@
 
 package org.springframework.context.support;
 
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationContext;
+import org.springframework.core.io.Resource;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
@@ -41,6 +45,8 @@ public abstract class AbstractRefreshableConfigApplicationContext extends Abstra
 
     private String[] configLocations;
 
+    private Executor configParsingExecutor;
+
     private boolean setIdCalled = false;
 
 
@@ -85,6 +91,24 @@ public abstract class AbstractRefreshableConfigApplicationContext extends Abstra
         }
     }
 
+    /**
+     * Set an Executor for parsing the config locations of this context concurrently.
+     * <p>Bean definitions still get registered in config location order, with the
+     * same overriding behavior and error reporting as without an executor.
+     * <p>Default is none, parsing one config location after the other.
+     * @see org.springframework.beans.factory.support.AbstractBeanDefinitionReader#setParsingExecutor
+     */
+    public void setConfigParsingExecutor(Executor configParsingExecutor) {
+        this.configParsingExecutor = configParsingExecutor;
+    }
+
+    /**
+     * Return the Executor for parsing the config locations concurrently, if any.
+     */
+    public Executor getConfigParsingExecutor() {
+        return this.configParsingExecutor;
+    }
+
     /**
      * Return an array of resource locations, referring to the XML bean definition
      * files that this context should be built with. Can also include location
@@ -122,6 +146,25 @@ public abstract class AbstractRefreshableConfigApplicationContext extends Abstra
         return getEnvironment().resolveRequiredPlaceholders(path);
     }
 
+    /**
+     * This implementation adds the config locations to the key,
+     * along with the resources that each of them currently resolves to.
+     */
+    @Override
+    protected String getBeanDefinitionSnapshotKey() throws IOException {
+        StringBuilder key = new StringBuilder(super.getBeanDefinitionSnapshotKey());
+        String[] locations = getConfigLocations();
+        if (locations != null) {
+            for (String location : locations) {
+                key.append(";location=").append(location);
+                for (Resource resource : getResources(location)) {
+                    key.append(',').append(resource.getDescription());
+                }
+            }
+        }
+        return key.toString();
+    }
+
 
     @Override
     public void setId(String id) {
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.context.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.context.event.CachingApplicationEventMulticaster;
+import org.springframework.context.event.MappedEventJournal;
+import org.springframework.core.ResolvableTypeProvider;
+
+/**
+ * Publishes events of an {@link AbstractApplicationContext} to the listeners of
+ * the context and of all of its ancestors in one pass, instead of recursively
+ * republishing each event through every parent context.
+ *
+ * <p>Keeps a dispatch plan per event class, payload class and source class:
+ * the listeners of each context in the hierarchy, as routed by their
+ * {@link CachingApplicationEventMulticaster}, in the order of the hierarchy.
+ * A plan gets rebuilt as soon as the hierarchy, the multicaster of any
+ * context within it (i.e. on refresh) or the listeners of any such multicaster
+ * (e.g. on close) change. Payload events are still wrapped per context, with
+ * that context as source, but only for contexts with listeners for them
+ * or with an event journal.
+ *
+ * <p>Events that cannot be planned are left to the regular recursive publication:
+ * while any context in the hierarchy is not fully refreshed yet or uses a different
+ * multicaster, and for events that bypass the routing table of the multicasters.
+ * The plan ends at the first ancestor that is not an AbstractApplicationContext,
+ * which gets the event published as usual.
+ */
+final class HierarchicalEventDispatcher {
+
+    private final AbstractApplicationContext context;
+
+    private final ConcurrentMap<List<Class<?>>, DispatchPlan> plans =
+            new ConcurrentHashMap<List<Class<?>>, DispatchPlan>(64);
+
+
+    public HierarchicalEventDispatcher(AbstractApplicationContext context) {
+        this.context = context;
+    }
+
+
+    /**
+     * Publish the given event to the listeners of the context and its ancestors.
+     * @param event the event as given to {@code publishEvent}
+     * @param applicationEvent the event as an ApplicationEvent for the context
+     * @return {@code true} if published, {@code false} if the event needs to be
+     * published recursively instead
+     */
+    public boolean publishEvent(Object event, ApplicationEvent applicationEvent) {
+        List<Class<?>> key = planKeyFor(applicationEvent);
+        if (key == null) {
+            return false;
+        }
+        DispatchPlan plan = this.plans.get(key);
+        if (plan == null || !plan.isCurrent(this.context)) {
+            plan = createPlan(event, applicationEvent);
+            if (plan == null) {
+                return false;
+            }
+            this.plans.put(key, plan);
+        }
+        plan.dispatch(event, applicationEvent);
+        return true;
+    }
+
+    /**
+     * Return the number of dispatch plans currently kept.
+     */
+    public int getPlanCount() {
+        return this.plans.size();
+    }
+
+    private List<Class<?>> planKeyFor(ApplicationEvent applicationEvent) {
+        Class<?> payloadType = null;
+        if (applicationEvent instanceof PayloadApplicationEvent) {
+            Object payload = ((PayloadApplicationEvent<?>) applicationEvent).getPayload();
+            if (payload instanceof ResolvableTypeProvider) {
+                return null;
+            }
+            payloadType = payload.getClass();
+        }
+        else if (applicationEvent instanceof ResolvableTypeProvider) {
+            return null;
+        }
+        Object source = applicationEvent.getSource();
+        if (source == null) {
+            return null;
+        }
+        return Arrays.<Class<?>>asList(applicationEvent.getClass(), payloadType, source.getClass());
+    }
+
+    private DispatchPlan createPlan(Object event, ApplicationEvent applicationEvent) {
+        List<AbstractApplicationContext> contexts = new ArrayList<AbstractApplicationContext>(4);
+        List<CachingApplicationEventMulticaster> multicasters = new ArrayList<CachingApplicationEventMulticaster>(4);
+        List<ApplicationListener<?>[]> listeners = new ArrayList<ApplicationListener<?>[]>(4);
+        List<Long> generations = new ArrayList<Long>(4);
+        ApplicationContext current = this.context;
+        while (current instanceof AbstractApplicationContext) {
+            AbstractApplicationContext level = (AbstractApplicationContext) current;
+            CachingApplicationEventMulticaster multicaster = level.getPlannableEventMulticaster();
+            if (multicaster == null) {
+                return null;
+            }
+            // Read the generation first: a concurrent listener change then makes the plan stale.
+            long generation = multicaster.getRoutesGeneration();
+            ApplicationEvent levelEvent = (contexts.isEmpty() ? applicationEvent : wrap(event, level));
+            ApplicationListener<?>[] levelListeners = multicaster.getCacheableListeners(levelEvent);
+            if (levelListeners == null) {
+                return null;
+            }
+            contexts.add(level);
+            multicasters.add(multicaster);
+            listeners.add(levelListeners);
+            generations.add(generation);
+            current = level.getParent();
+        }
+        return new DispatchPlan(contexts, multicasters, listeners, generations, current);
+    }
+
+    private static ApplicationEvent wrap(Object event, AbstractApplicationContext level) {
+        return (event instanceof ApplicationEvent ? (ApplicationEvent) event :
+                new PayloadApplicationEvent<Object>(level, event));
+    }
+
+
+    /**
+     * The listeners of each context within a hierarchy for a specific kind of event.
+     */
+    private static final class DispatchPlan {
+
+        private final AbstractApplicationContext[] contexts;
+
+        private final CachingApplicationEventMulticaster[] multicasters;
+
+        private final ApplicationListener<?>[][] listeners;
+
+        private final long[] generations;
+
+        /** The first ancestor that is not an AbstractApplicationContext, if any */
+        private final ApplicationContext tail;
+
+        public DispatchPlan(List<AbstractApplicationContext> contexts,
+                List<CachingApplicationEventMulticaster> multicasters, List<ApplicationListener<?>[]> listeners,
+                List<Long> generations, ApplicationContext tail) {
+
+            this.contexts = contexts.toArray(new AbstractApplicationContext[contexts.size()]);
+            this.multicasters = multicasters.toArray(new CachingApplicationEventMulticaster[multicasters.size()]);
+            this.listeners = listeners.toArray(new ApplicationListener<?>[listeners.size()][]);
+            this.generations = new long[generations.size()];
+            for (int i = 0; i < this.generations.length; i++) {
+                this.generations[i] = generations.get(i);
+            }
+            this.tail = tail;
+        }
+
+        public boolean isCurrent(AbstractApplicationContext context) {
+            ApplicationContext current = context;
+            for (int i = 0; i < this.contexts.length; i++) {
+                if (current != this.contexts[i]) {
+                    return false;
+                }
+                CachingApplicationEventMulticaster multicaster = this.contexts[i].getPlannableEventMulticaster();
+                if (multicaster != this.multicasters[i] ||
+                        multicaster.getRoutesGeneration() != this.generations[i]) {
+                    return false;
+                }
+                current = this.contexts[i].getParent();
+            }
+            return (current == this.tail);
+        }
+
+        public void dispatch(Object event, ApplicationEvent applicationEvent) {
+            for (int i = 0; i < this.contexts.length; i++) {
+                // The publishing context has journaled the event already.
+                MappedEventJournal journal = (i > 0 ? this.contexts[i].getEventJournal() : null);
+                if (this.listeners[i].length > 0 || journal != null) {
+                    ApplicationEvent levelEvent = (i == 0 ? applicationEvent : wrap(event, this.contexts[i]));
+                    if (journal != null) {
+                        journal.append(levelEvent);
+                    }
+                    this.multicasters[i].dispatchEvent(levelEvent, this.listeners[i]);
+                }
+            }
+            if (this.tail != null) {
+                this.tail.publishEvent(event);
+            }
+        }
+    }
+
+}
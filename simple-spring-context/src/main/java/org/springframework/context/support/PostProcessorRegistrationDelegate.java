@@ -41,6 +41,7 @@ import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.beans.factory.support.MergedBeanDefinitionPostProcessor;
 import org.springframework.beans.factory.support.RootBeanDefinition;
 import org.springframework.context.ApplicationListener;
+import org.springframework.context.StartupTimeline;
 import org.springframework.context.event.ApplicationEventMulticaster;
 import org.springframework.core.OrderComparator;
 import org.springframework.core.Ordered;
@@ -54,8 +55,8 @@ import org.springframework.core.PriorityOrdered;
  */
 class PostProcessorRegistrationDelegate {
 
-    public static void invokeBeanFactoryPostProcessors(
-            ConfigurableListableBeanFactory beanFactory, List<BeanFactoryPostProcessor> beanFactoryPostProcessors) {
+    public static void invokeBeanFactoryPostProcessors(ConfigurableListableBeanFactory beanFactory,
+            List<BeanFactoryPostProcessor> beanFactoryPostProcessors, StartupTimeline startupTimeline) {
 
         // Invoke BeanDefinitionRegistryPostProcessors first, if any.
         Set<String> processedBeans = new HashSet<String>();
@@ -70,7 +71,7 @@ class PostProcessorRegistrationDelegate {
                 if (postProcessor instanceof BeanDefinitionRegistryPostProcessor) {
                     BeanDefinitionRegistryPostProcessor registryPostProcessor =
                             (BeanDefinitionRegistryPostProcessor) postProcessor;
-                    registryPostProcessor.postProcessBeanDefinitionRegistry(registry);
+                    invokeBeanDefinitionRegistryPostProcessor(registryPostProcessor, registry, startupTimeline);
                     registryPostProcessors.add(registryPostProcessor);
                 }
                 else {
@@ -95,7 +96,7 @@ class PostProcessorRegistrationDelegate {
             }
             sortPostProcessors(beanFactory, priorityOrderedPostProcessors);
             registryPostProcessors.addAll(priorityOrderedPostProcessors);
-            invokeBeanDefinitionRegistryPostProcessors(priorityOrderedPostProcessors, registry);
+            invokeBeanDefinitionRegistryPostProcessors(priorityOrderedPostProcessors, registry, startupTimeline);
 
             // Next, invoke the BeanDefinitionRegistryPostProcessors that implement Ordered.
             postProcessorNames = beanFactory.getBeanNamesForType(BeanDefinitionRegistryPostProcessor.class, true, false);
@@ -108,7 +109,7 @@ class PostProcessorRegistrationDelegate {
             }
             sortPostProcessors(beanFactory, orderedPostProcessors);
             registryPostProcessors.addAll(orderedPostProcessors);
-            invokeBeanDefinitionRegistryPostProcessors(orderedPostProcessors, registry);
+            invokeBeanDefinitionRegistryPostProcessors(orderedPostProcessors, registry, startupTimeline);
 
             // Finally, invoke all other BeanDefinitionRegistryPostProcessors until no further ones appear.
             boolean reiterate = true;
@@ -120,20 +121,20 @@ class PostProcessorRegistrationDelegate {
                         BeanDefinitionRegistryPostProcessor pp = beanFactory.getBean(ppName, BeanDefinitionRegistryPostProcessor.class);
                         registryPostProcessors.add(pp);
                         processedBeans.add(ppName);
-                        pp.postProcessBeanDefinitionRegistry(registry);
+                        invokeBeanDefinitionRegistryPostProcessor(pp, registry, startupTimeline);
                         reiterate = true;
                     }
                 }
             }
 
             // Now, invoke the postProcessBeanFactory callback of all processors handled so far.
-            invokeBeanFactoryPostProcessors(registryPostProcessors, beanFactory);
-            invokeBeanFactoryPostProcessors(regularPostProcessors, beanFactory);
+            invokeBeanFactoryPostProcessors(registryPostProcessors, beanFactory, startupTimeline);
+            invokeBeanFactoryPostProcessors(regularPostProcessors, beanFactory, startupTimeline);
         }
 
         else {
             // Invoke factory processors registered with the context instance.
-            invokeBeanFactoryPostProcessors(beanFactoryPostProcessors, beanFactory);
+            invokeBeanFactoryPostProcessors(beanFactoryPostProcessors, beanFactory, startupTimeline);
         }
 
         // Do not initialize FactoryBeans here: We need to leave all regular beans
@@ -163,7 +164,7 @@ class PostProcessorRegistrationDelegate {
 
         // First, invoke the BeanFactoryPostProcessors that implement PriorityOrdered.
         sortPostProcessors(beanFactory, priorityOrderedPostProcessors);
-        invokeBeanFactoryPostProcessors(priorityOrderedPostProcessors, beanFactory);
+        invokeBeanFactoryPostProcessors(priorityOrderedPostProcessors, beanFactory, startupTimeline);
 
         // Next, invoke the BeanFactoryPostProcessors that implement Ordered.
         List<BeanFactoryPostProcessor> orderedPostProcessors = new ArrayList<BeanFactoryPostProcessor>();
@@ -171,14 +172,14 @@ class PostProcessorRegistrationDelegate {
             orderedPostProcessors.add(beanFactory.getBean(postProcessorName, BeanFactoryPostProcessor.class));
         }
         sortPostProcessors(beanFactory, orderedPostProcessors);
-        invokeBeanFactoryPostProcessors(orderedPostProcessors, beanFactory);
+        invokeBeanFactoryPostProcessors(orderedPostProcessors, beanFactory, startupTimeline);
 
         // Finally, invoke all other BeanFactoryPostProcessors.
         List<BeanFactoryPostProcessor> nonOrderedPostProcessors = new ArrayList<BeanFactoryPostProcessor>();
         for (String postProcessorName : nonOrderedPostProcessorNames) {
             nonOrderedPostProcessors.add(beanFactory.getBean(postProcessorName, BeanFactoryPostProcessor.class));
         }
-        invokeBeanFactoryPostProcessors(nonOrderedPostProcessors, beanFactory);
+        invokeBeanFactoryPostProcessors(nonOrderedPostProcessors, beanFactory, startupTimeline);
 
         // Clear cached merged bean definitions since the post-processors might have
         // modified the original metadata, e.g. replacing placeholders in values...
@@ -267,21 +268,47 @@ class PostProcessorRegistrationDelegate {
      * Invoke the given BeanDefinitionRegistryPostProcessor beans.
      */
     private static void invokeBeanDefinitionRegistryPostProcessors(
-            Collection<? extends BeanDefinitionRegistryPostProcessor> postProcessors, BeanDefinitionRegistry registry) {
+            Collection<? extends BeanDefinitionRegistryPostProcessor> postProcessors, BeanDefinitionRegistry registry,
+            StartupTimeline startupTimeline) {
 
         for (BeanDefinitionRegistryPostProcessor postProcessor : postProcessors) {
+            invokeBeanDefinitionRegistryPostProcessor(postProcessor, registry, startupTimeline);
+        }
+    }
+
+    /**
+     * Invoke the given BeanDefinitionRegistryPostProcessor, recording it as a startup step.
+     */
+    private static void invokeBeanDefinitionRegistryPostProcessor(
+            BeanDefinitionRegistryPostProcessor postProcessor, BeanDefinitionRegistry registry,
+            StartupTimeline startupTimeline) {
+
+        StartupTimeline.Step step = startupTimeline.start("postProcessBeanDefinitionRegistry")
+                .tag("postProcessor", postProcessor.getClass().getName());
+        try {
             postProcessor.postProcessBeanDefinitionRegistry(registry);
         }
+        finally {
+            step.end();
+        }
     }
 
     /**
-     * Invoke the given BeanFactoryPostProcessor beans.
+     * Invoke the given BeanFactoryPostProcessor beans, recording each as a startup step.
      */
     private static void invokeBeanFactoryPostProcessors(
-            Collection<? extends BeanFactoryPostProcessor> postProcessors, ConfigurableListableBeanFactory beanFactory) {
+            Collection<? extends BeanFactoryPostProcessor> postProcessors, ConfigurableListableBeanFactory beanFactory,
+            StartupTimeline startupTimeline) {
 
         for (BeanFactoryPostProcessor postProcessor : postProcessors) {
-            postProcessor.postProcessBeanFactory(beanFactory);
+            StartupTimeline.Step step = startupTimeline.start("postProcessBeanFactory")
+                    .tag("postProcessor", postProcessor.getClass().getName());
+            try {
+                postProcessor.postProcessBeanFactory(beanFactory);
+            }
+            finally {
+                step.end();
+            }
         }
     }
 
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.context.event;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link MappedEventJournal}.
+ */
+public class MappedEventJournalTests {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File directory;
+
+    private MappedEventJournal journal;
+
+
+    @Before
+    public void setup() throws IOException {
+        this.directory = this.temporaryFolder.newFolder("journal");
+        this.journal = openJournal(1024 * 1024);
+    }
+
+    @After
+    public void close() {
+        this.journal.close();
+    }
+
+
+    @Test
+    public void appendAndReplay() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            append("event" + i);
+        }
+        append(42);
+        this.journal.close();
+        assertEquals(100, this.journal.getNextOffset());
+        assertEquals(0, this.journal.getSkippedCount());
+
+        List<String> payloads = new ArrayList<String>();
+        assertEquals(100, this.journal.replay(0, recordingMulticaster(payloads), this));
+        assertEquals(100, payloads.size());
+        assertEquals("event0", payloads.get(0));
+        assertEquals("event99", payloads.get(99));
+
+        payloads.clear();
+        assertEquals(100, this.journal.replay(40, recordingMulticaster(payloads), this));
+        assertEquals(60, payloads.size());
+        assertEquals("event40", payloads.get(0));
+    }
+
+    @Test
+    public void replayAcrossSegments() throws IOException {
+        this.journal.close();
+        this.journal = openJournal(1024);
+        for (int i = 0; i < 200; i++) {
+            append("event" + i);
+        }
+        this.journal.close();
+        assertTrue(getSegmentFiles().length > 1);
+
+        List<String> payloads = new ArrayList<String>();
+        assertEquals(200, this.journal.replay(150, recordingMulticaster(payloads), this));
+        assertEquals(50, payloads.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("event" + (150 + i), payloads.get(i));
+        }
+    }
+
+    @Test
+    public void reopenContinuesAtNextOffset() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            append("event" + i);
+        }
+        this.journal.close();
+
+        this.journal = openJournal(1024 * 1024);
+        assertEquals(10, this.journal.getNextOffset());
+        append("event10");
+        this.journal.close();
+
+        List<String> payloads = new ArrayList<String>();
+        assertEquals(11, this.journal.replay(0, recordingMulticaster(payloads), this));
+        assertEquals("event10", payloads.get(10));
+    }
+
+    @Test
+    public void corruptRecordTruncatesSegment() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            append("event" + i);
+        }
+        this.journal.close();
+        corruptRecord(getSegmentFiles()[0], 7);
+
+        List<String> payloads = new ArrayList<String>();
+        assertEquals(7, this.journal.replay(0, recordingMulticaster(payloads), this));
+        assertEquals(7, payloads.size());
+
+        // Reopening resumes right at the corrupt record, overwriting it.
+        this.journal = openJournal(1024 * 1024);
+        assertEquals(7, this.journal.getNextOffset());
+        append("recovered");
+        this.journal.close();
+
+        payloads.clear();
+        assertEquals(8, this.journal.replay(0, recordingMulticaster(payloads), this));
+        assertEquals("event6", payloads.get(6));
+        assertEquals("recovered", payloads.get(7));
+    }
+
+    @Test
+    public void appendAfterCloseIsSkipped() {
+        this.journal.close();
+        append("late");
+        assertEquals(1, this.journal.getSkippedCount());
+        assertEquals(0, this.journal.getNextOffset());
+    }
+
+    @Test
+    public void concurrentAppendAndCloseLosesNoEvents() throws Exception {
+        this.journal.close();
+        this.journal = openJournal(1024 * 1024);
+        final int threadCount = 4;
+        final int eventsPerThread = 2000;
+        final CountDownLatch started = new CountDownLatch(threadCount);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final String prefix = "thread" + i + "-";
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    for (int j = 0; j < eventsPerThread; j++) {
+                        append(prefix + j);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        started.await();
+        this.journal.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long journaled = this.journal.getNextOffset();
+        assertEquals(threadCount * eventsPerThread, journaled + this.journal.getSkippedCount());
+        List<String> payloads = new ArrayList<String>();
+        this.journal.replay(0, recordingMulticaster(payloads), this);
+        assertEquals(journaled, payloads.size());
+    }
+
+
+    private MappedEventJournal openJournal(int segmentSize) throws IOException {
+        MappedEventJournal journal = new MappedEventJournal(this.directory);
+        journal.setEventTypes(String.class);
+        journal.setSegmentSize(segmentSize);
+        journal.setQueueCapacity(64);
+        journal.open();
+        return journal;
+    }
+
+    private void append(Object payload) {
+        this.journal.append(new PayloadApplicationEvent<Object>(this, payload));
+    }
+
+    private File[] getSegmentFiles() {
+        File[] files = this.directory.listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Flip a byte within the serialized event of the given record,
+     * so that its checksum no longer matches.
+     */
+    private static void corruptRecord(File segmentFile, int recordIndex) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile, "rw");
+        try {
+            long position = 0;
+            for (int i = 0; i < recordIndex; i++) {
+                file.seek(position);
+                position += 8 + file.readInt();
+            }
+            file.seek(position + 8);
+            int value = file.read();
+            file.seek(position + 8);
+            file.write(value ^ 0xFF);
+        }
+        finally {
+            file.close();
+        }
+    }
+
+    private static ApplicationEventMulticaster recordingMulticaster(final List<String> payloads) {
+        SimpleApplicationEventMulticaster multicaster = new SimpleApplicationEventMulticaster();
+        multicaster.addApplicationListener(new ApplicationListener<PayloadApplicationEvent<?>>() {
+            @Override
+            public void onApplicationEvent(PayloadApplicationEvent<?> event) {
+                payloads.add((String) event.getPayload());
+            }
+        });
+        return multicaster;
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.build.maven;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Merges all NamespaceHandler mapping files ({@code META-INF/spring.handlers})
+ * on the runtime classpath of the project into a single index file
+ * ({@code META-INF/spring.handlers.index}) within its output directory.
+ *
+ * <p>{@code DefaultNamespaceHandlerResolver} reads that index instead of scanning
+ * every JAR file on the classpath, falling back to the scan once the index turns out
+ * to be stale. Mappings are merged in classpath order, later ones overriding
+ * earlier ones, just like the scan does.
+ */
+@Mojo(name = "index-namespace-handlers", defaultPhase = LifecyclePhase.PROCESS_CLASSES,
+        requiresDependencyResolution = ResolutionScope.RUNTIME, threadSafe = true)
+public class NamespaceHandlerIndexMojo extends AbstractMojo {
+
+    private static final String INDEX_SUFFIX = ".index";
+
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    /**
+     * The directory to write the index to.
+     */
+    @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+    private File outputDirectory;
+
+    /**
+     * The location of the mapping files to merge, relative to the classpath roots.
+     */
+    @Parameter(defaultValue = "META-INF/spring.handlers", required = true)
+    private String handlerMappingsLocation;
+
+    /**
+     * Whether to skip generating the index.
+     */
+    @Parameter(property = "spring.handlers.index.skip", defaultValue = "false")
+    private boolean skip;
+
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        if (this.skip) {
+            getLog().info("Skipping NamespaceHandler index");
+            return;
+        }
+        File indexFile = new File(this.outputDirectory, this.handlerMappingsLocation + INDEX_SUFFIX);
+        URLClassLoader classLoader = new URLClassLoader(getRuntimeClasspath(), null);
+        try {
+            Properties mappings = new Properties();
+            int mappingFileCount = 0;
+            Enumeration<URL> urls = classLoader.getResources(this.handlerMappingsLocation);
+            while (urls.hasMoreElements()) {
+                mergeMappingFile(urls.nextElement(), mappings);
+                mappingFileCount++;
+            }
+            if (mappings.isEmpty()) {
+                // Leave no outdated index behind.
+                if (indexFile.isFile() && !indexFile.delete()) {
+                    throw new MojoExecutionException("Could not delete outdated index " + indexFile);
+                }
+                getLog().info("No NamespaceHandler mappings found at " + this.handlerMappingsLocation);
+                return;
+            }
+            writeIndex(indexFile, mappings, mappingFileCount);
+            getLog().info("Indexed " + mappings.size() + " NamespaceHandler mappings from " +
+                    mappingFileCount + " mapping files into " + indexFile);
+        }
+        catch (IOException ex) {
+            throw new MojoExecutionException("Could not create NamespaceHandler index " + indexFile, ex);
+        }
+        finally {
+            try {
+                classLoader.close();
+            }
+            catch (IOException ex) {
+                getLog().debug("Could not close classpath", ex);
+            }
+        }
+    }
+
+    private URL[] getRuntimeClasspath() throws MojoExecutionException {
+        try {
+            List<String> elements = this.project.getRuntimeClasspathElements();
+            List<URL> urls = new ArrayList<URL>(elements.size());
+            for (String element : elements) {
+                urls.add(new File(element).toURI().toURL());
+            }
+            return urls.toArray(new URL[urls.size()]);
+        }
+        catch (DependencyResolutionRequiredException ex) {
+            throw new MojoExecutionException("Runtime classpath not resolved", ex);
+        }
+        catch (MalformedURLException ex) {
+            throw new MojoExecutionException("Invalid runtime classpath element", ex);
+        }
+    }
+
+    private void mergeMappingFile(URL url, Properties mappings) throws IOException {
+        Properties mappingFile = new Properties();
+        InputStream is = url.openStream();
+        try {
+            mappingFile.load(is);
+        }
+        finally {
+            is.close();
+        }
+        for (String namespaceUri : mappingFile.stringPropertyNames()) {
+            String handlerClassName = mappingFile.getProperty(namespaceUri);
+            Object previous = mappings.setProperty(namespaceUri, handlerClassName);
+            if (previous != null && !previous.equals(handlerClassName)) {
+                getLog().warn("NamespaceHandler [" + previous + "] for namespace [" + namespaceUri +
+                        "] overridden by [" + handlerClassName + "] from " + url);
+            }
+        }
+    }
+
+    /**
+     * Write the given mappings sorted by namespace URI and without timestamp,
+     * keeping the index reproducible.
+     */
+    private void writeIndex(File indexFile, Properties mappings, int mappingFileCount) throws IOException {
+        StringWriter stored = new StringWriter();
+        mappings.store(stored, null);
+        List<String> lines = new ArrayList<String>(mappings.size());
+        for (String line : stored.toString().split("\r?\n")) {
+            if (line.length() > 0 && !line.startsWith("#")) {
+                lines.add(line);
+            }
+        }
+        Collections.sort(lines);
+
+        File directory = indexFile.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(indexFile), "ISO-8859-1");
+        try {
+            writer.write("# Merged from " + mappingFileCount + " " + this.handlerMappingsLocation +
+                    " files on the runtime classpath - do not edit\n");
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+}
@@ -324,6 +324,10 @@ public class ContextLoader {
                 long elapsedTime = System.currentTimeMillis() - startTime;
                 logger.info("Root WebApplicationContext: initialization completed in " + elapsedTime + " ms");
             }
+            if (logger.isTraceEnabled() && this.context instanceof ConfigurableWebApplicationContext) {
+                logger.trace("Root WebApplicationContext: startup timeline " +
+                        ((ConfigurableWebApplicationContext) this.context).getStartupTimeline().toJson());
+            }
 
             return this.context;
         }
@@ -17,11 +17,22 @@
 package org.springframework.web.context.support;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.PropertyResourceConfigurer;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
 import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.beans.factory.xml.ResourceEntityResolver;
 import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReloader;
+import org.springframework.context.StartupTimeline;
+import org.springframework.core.OrderComparator;
+import org.springframework.core.io.Resource;
 
 /**
  * {@link org.springframework.web.context.WebApplicationContext} implementation
@@ -71,6 +82,60 @@ public class XmlWebApplicationContext extends AbstractRefreshableWebApplicationC
     public static final String DEFAULT_CONFIG_LOCATION_SUFFIX = ".xml";
 
 
+    private String configEncoding;
+
+    private boolean watchConfigFiles = false;
+
+    /** Reloader for changed config files, if watching */
+    private XmlBeanDefinitionReloader configFileReloader;
+
+
+    /**
+     * Set the encoding to parse the config files with, including imported
+     * ones and those parsed concurrently up front.
+     * <p>Default is none, leaving the encoding to the XML declaration.
+     * @see XmlBeanDefinitionReader#setEncoding
+     * @see #setConfigParsingExecutor
+     */
+    public void setConfigEncoding(String configEncoding) {
+        this.configEncoding = configEncoding;
+    }
+
+    /**
+     * Return the encoding to parse the config files with, if any.
+     */
+    public String getConfigEncoding() {
+        return this.configEncoding;
+    }
+
+    /**
+     * Set whether to watch the config files (including imported ones) for changes,
+     * reloading only the bean definitions of a changed file instead of refreshing
+     * the entire context. Applies to config files available in the file system,
+     * e.g. within an exploded WAR.
+     * <p>Changed and new bean definitions get registered and vanished ones removed,
+     * resetting the affected beans plus all beans depending on them. This context's
+     * {@link PropertyResourceConfigurer PropertyResourceConfigurers} get applied to the
+     * reloaded bean definitions; other changes require a full {@link #refresh()}.
+     * Meant for development and operations, not for structural changes.
+     * <p>Note that beans of child contexts are not reset: when watching the config
+     * files of a root context, DispatcherServlet contexts keep referring to the
+     * previous instances of reloaded root beans until they get refreshed themselves.
+     * <p>Default is "false".
+     * @see XmlBeanDefinitionReloader
+     */
+    public void setWatchConfigFiles(boolean watchConfigFiles) {
+        this.watchConfigFiles = watchConfigFiles;
+    }
+
+    /**
+     * Return whether the config files are watched for changes.
+     */
+    public boolean isWatchConfigFiles() {
+        return this.watchConfigFiles;
+    }
+
+
     /**
      * Loads the bean definitions via an XmlBeanDefinitionReader.
      * @see org.springframework.beans.factory.xml.XmlBeanDefinitionReader
@@ -79,19 +144,33 @@ public class XmlWebApplicationContext extends AbstractRefreshableWebApplicationC
      */
     @Override
     protected void loadBeanDefinitions(DefaultListableBeanFactory beanFactory) throws BeansException, IOException {
+        XmlBeanDefinitionReader beanDefinitionReader = createBeanDefinitionReader(beanFactory);
+        loadBeanDefinitions(beanDefinitionReader);
+        registerBeanDefinitionSources(beanDefinitionReader.getLoadedResources());
+    }
+
+    /**
+     * Create an XmlBeanDefinitionReader for the given registry, configured
+     * with this context's resource loading environment.
+     * @param registry the registry to load bean definitions into
+     * @return the bean definition reader
+     * @see #initBeanDefinitionReader
+     */
+    private XmlBeanDefinitionReader createBeanDefinitionReader(BeanDefinitionRegistry registry) {
         // Create a new XmlBeanDefinitionReader for the given BeanFactory.
-        XmlBeanDefinitionReader beanDefinitionReader = new XmlBeanDefinitionReader(beanFactory);
+        XmlBeanDefinitionReader beanDefinitionReader = new XmlBeanDefinitionReader(registry);
 
         // Configure the bean definition reader with this context's
         // resource loading environment.
         beanDefinitionReader.setEnvironment(getEnvironment());
         beanDefinitionReader.setResourceLoader(this);
         beanDefinitionReader.setEntityResolver(new ResourceEntityResolver(this));
+        beanDefinitionReader.setParsingExecutor(getConfigParsingExecutor());
+        beanDefinitionReader.setEncoding(getConfigEncoding());
 
-        // Allow a subclass to provide custom initialization of the reader,
-        // then proceed with actually loading the bean definitions.
+        // Allow a subclass to provide custom initialization of the reader.
         initBeanDefinitionReader(beanDefinitionReader);
-        loadBeanDefinitions(beanDefinitionReader);
+        return beanDefinitionReader;
     }
 
     /**
@@ -111,7 +190,11 @@ public class XmlWebApplicationContext extends AbstractRefreshableWebApplicationC
      * <p>The lifecycle of the bean factory is handled by the refreshBeanFactory method;
      * therefore this method is just supposed to load and/or register bean definitions.
      * <p>Delegates to a ResourcePatternResolver for resolving location patterns
-     * into Resource instances.
+     * into Resource instances. If a config parsing executor has been specified,
+     * all config locations get parsed concurrently up front (with the reader's
+     * {@linkplain XmlBeanDefinitionReader#setEncoding encoding}, if any), while their
+     * bean definitions are still registered one location after the other.
+     * Documents left over, e.g. after a failure, are released afterwards.
      * @throws IOException if the required XML document isn't found
      * @see #refreshBeanFactory
      * @see #getConfigLocations
@@ -121,12 +204,89 @@ public class XmlWebApplicationContext extends AbstractRefreshableWebApplicationC
     protected void loadBeanDefinitions(XmlBeanDefinitionReader reader) throws IOException {
         String[] configLocations = getConfigLocations();
         if (configLocations != null) {
-            for (String configLocation : configLocations) {
-                reader.loadBeanDefinitions(configLocation);
+            reader.preloadBeanDefinitions(configLocations);
+            try {
+                for (String configLocation : configLocations) {
+                    StartupTimeline.Step step = getStartupTimeline().start("loadConfigLocation")
+                            .tag("location", configLocation);
+                    try {
+                        int count = reader.loadBeanDefinitions(configLocation);
+                        step.tag("beanDefinitionCount", count);
+                    }
+                    finally {
+                        step.end();
+                    }
+                }
+            }
+            finally {
+                // Release documents not loaded, e.g. after a failure.
+                reader.clearPreloadedResources();
             }
         }
     }
 
+    /**
+     * Start watching the config files once the context has been refreshed, if configured.
+     * @see #setWatchConfigFiles
+     */
+    @Override
+    protected void finishRefresh() {
+        super.finishRefresh();
+        if (this.watchConfigFiles) {
+            startConfigFileReloader();
+        }
+    }
+
+    /**
+     * Stop watching the config files before the beans get destroyed,
+     * on refresh as well as on close.
+     */
+    @Override
+    protected void destroyBeans() {
+        stopConfigFileReloader();
+        super.destroyBeans();
+    }
+
+    private void startConfigFileReloader() {
+        XmlBeanDefinitionReloader reloader =
+                new XmlBeanDefinitionReloader((DefaultListableBeanFactory) getBeanFactory()) {
+                    @Override
+                    protected XmlBeanDefinitionReader createBeanDefinitionReader(BeanDefinitionRegistry registry) {
+                        return XmlWebApplicationContext.this.createBeanDefinitionReader(registry);
+                    }
+                };
+        List<BeanFactoryPostProcessor> configurers = new ArrayList<BeanFactoryPostProcessor>();
+        for (BeanFactoryPostProcessor postProcessor : getBeanFactoryPostProcessors()) {
+            if (postProcessor instanceof PropertyResourceConfigurer) {
+                configurers.add(postProcessor);
+            }
+        }
+        configurers.addAll(getBeanFactory().getBeansOfType(PropertyResourceConfigurer.class, true, false).values());
+        OrderComparator.sort(configurers);
+        reloader.setBeanFactoryPostProcessors(configurers);
+        try {
+            Set<Resource> sources = getBeanDefinitionSources();
+            if (sources.isEmpty() && getConfigLocations() != null) {
+                // Restored from a snapshot: watch the config locations at least.
+                for (String configLocation : getConfigLocations()) {
+                    sources.addAll(Arrays.asList(getResources(configLocation)));
+                }
+            }
+            reloader.start(sources);
+            this.configFileReloader = reloader;
+        }
+        catch (IOException ex) {
+            logger.warn("Could not watch config files of " + getDisplayName() + " for changes", ex);
+        }
+    }
+
+    private void stopConfigFileReloader() {
+        if (this.configFileReloader != null) {
+            this.configFileReloader.stop();
+            this.configFileReloader = null;
+        }
+    }
+
     /**
      * The default location for the root context is "/WEB-INF/applicationContext.xml",
      * and "/WEB-INF/test-servlet.xml" for a context with the namespace "test-servlet"